@@ -1,35 +1,5 @@
-CREATE TABLE IF NOT EXISTS readers
-(
-    id      bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    name    varchar(128) NOT NULL,
-    surname varchar(128) NOT NULL,
-    phone   varchar(12)  NOT NULL UNIQUE,
-    address varchar(256) NOT NULL
-);
-
-CREATE TABLE IF NOT EXISTS books
-(
-    id               bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    title            varchar(128)                   NOT NULL,
-    inventory_number bigint                         NOT NULL UNIQUE,
-    reader_id        bigint REFERENCES readers (id) NOT NULL
-);
-
-CREATE TABLE IF NOT EXISTS authors
-(
-    id            bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    full_name     varchar(128) NOT NULL,
-    personal_info varchar(256) NOT NULL
-);
-
-CREATE TABLE IF NOT EXISTS author_book
-(
-    author_id bigint REFERENCES authors (id),
-    book_id   bigint REFERENCES books (id),
-    PRIMARY KEY (author_id, book_id)
-);
-
-
+-- Sample data. Tables are created by the application on startup (src/main/resources/db/migration),
+-- run this script after the first start.
 
 INSERT INTO readers (name, surname, phone, address)
 VALUES ('Ivan', 'Ivanov', '71111111111', 'Lenina 11'),
@@ -0,0 +1,80 @@
+package ru.aston.lepd.readingclub.benchmark;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.aston.lepd.readingclub.ObjectContainer;
+import ru.aston.lepd.readingclub.dao.BookDao;
+import ru.aston.lepd.readingclub.dao.SchemaMigrator;
+import ru.aston.lepd.readingclub.entity.Book;
+import ru.aston.lepd.readingclub.util.DataSource;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static ru.aston.lepd.readingclub.Constants.*;
+
+/**
+ * Building of books from result set rows, against an embedded PostgreSQL started for the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookDaoBenchmark {
+
+    private static final int READERS = 100;
+    private static final int AUTHORS = 1_000;
+    private static final int BOOKS = 10_000;
+    private static final int PAGE_SIZE = 100;
+
+    private EmbeddedPostgres postgres;
+    private BookDao bookDao;
+
+
+    @Setup(Level.Trial)
+    public void startDatabase() throws IOException, SQLException {
+        postgres = EmbeddedPostgres.start();
+        DataSource.initialize(postgres.getJdbcUrl("postgres", "postgres"), "postgres", "postgres",
+                "org.postgresql.Driver");
+
+        new SchemaMigrator().migrate();
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(INSERT_GENERATED_DATA_SQL.formatted(READERS, AUTHORS, BOOKS));
+        }
+        bookDao = new ObjectContainer().getBookDao();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopDatabase() throws IOException {
+        DataSource.close();
+        postgres.close();
+    }
+
+
+    @Benchmark
+    public Optional<Book> findById() {
+        return bookDao.findById(ThreadLocalRandom.current().nextLong(1, BOOKS + 1));
+    }
+
+    @Benchmark
+    public List<Book> findPage() {
+        return bookDao.findPage(ThreadLocalRandom.current().nextLong(0, BOOKS - PAGE_SIZE), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public void streamAll(Blackhole blackhole) {
+        bookDao.streamAll(blackhole::consume);
+    }
+
+
+}
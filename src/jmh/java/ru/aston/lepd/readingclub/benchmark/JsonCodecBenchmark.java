@@ -0,0 +1,121 @@
+package ru.aston.lepd.readingclub.benchmark;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import ru.aston.lepd.readingclub.dto.BookDto;
+import ru.aston.lepd.readingclub.util.JsonCodec;
+import ru.aston.lepd.readingclub.util.WireFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a list of books the way BookServlet sends it in every wire format,
+ * the response only counts written bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int size;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    private WireFormat format;
+
+    private final JsonCodec jsonCodec = new JsonCodec(JsonCodec.DEFAULT_MAX_BODY_SIZE);
+
+    private List<BookDto> books;
+    private HttpServletRequest request;
+    private CountingResponse response;
+
+
+    @Setup
+    public void createBooks() {
+        books = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            BookDto book = new BookDto();
+            book.setTitle("Title" + i);
+            book.setInventoryNumber(10_000L + i);
+            book.setAuthorIds(List.of(1L + i % 3, 2L + i % 5));
+            book.setReaderId(1L + i % 100);
+            books.add(book);
+        }
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(format.getMediaType()).when(request).getHeader(JsonCodec.ACCEPT);
+        response = new CountingResponse();
+    }
+
+
+    @Benchmark
+    public long writeList() throws IOException {
+        response.outputStream.count = 0;
+        jsonCodec.writeList(request, response, books, BookDto.class);
+        return response.outputStream.count;
+    }
+
+
+    private static class CountingResponse extends HttpServletResponseWrapper {
+
+        private final CountingOutputStream outputStream = new CountingOutputStream();
+
+        private CountingResponse() {
+            super(Mockito.mock(HttpServletResponse.class));
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public void setContentType(String type) {
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+        }
+    }
+
+
+    private static class CountingOutputStream extends ServletOutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+
+
+}
@@ -0,0 +1,67 @@
+package ru.aston.lepd.readingclub.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aston.lepd.readingclub.dto.BookDto;
+import ru.aston.lepd.readingclub.entity.Author;
+import ru.aston.lepd.readingclub.entity.Book;
+import ru.aston.lepd.readingclub.entity.Reader;
+import ru.aston.lepd.readingclub.util.CustomMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    private final CustomMapper mapper = CustomMapper.INSTANCE;
+
+    private Book book;
+    private BookDto bookDto;
+
+
+    @Setup
+    public void createBook() {
+        Reader reader = new Reader();
+        reader.setId(1L);
+        reader.setName("Ivan");
+        reader.setSurname("Ivanov");
+        reader.setPhone("71111111111");
+        reader.setAddress("Lenina 11");
+
+        List<Author> authors = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            Author author = new Author();
+            author.setId(id);
+            author.setFullName("Author" + id);
+            authors.add(author);
+        }
+
+        book = new Book();
+        book.setId(1L);
+        book.setTitle("Title1");
+        book.setInventoryNumber(11111L);
+        book.setReader(reader);
+        book.setAuthors(authors);
+
+        bookDto = mapper.bookToBookDto(book);
+    }
+
+
+    @Benchmark
+    public BookDto bookToBookDto() {
+        return mapper.bookToBookDto(book);
+    }
+
+    @Benchmark
+    public Book bookDtoToBook() {
+        return mapper.bookDtoToBook(bookDto);
+    }
+
+
+}
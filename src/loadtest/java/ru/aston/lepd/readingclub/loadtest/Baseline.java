@@ -0,0 +1,94 @@
+package ru.aston.lepd.readingclub.loadtest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Metrics of a previous run on the same machine. A run regresses when any request fails, or its throughput
+ * falls below the baseline or a latency percentile grows over it by more than the tolerance.
+ * A percentile is compared only if at least {@link #MIN_REQUESTS_OVER_PERCENTILE} requests were slower
+ * than it, otherwise it depends on a handful of requests and is only reported.
+ */
+public class Baseline {
+
+    private static final int MIN_REQUESTS_OVER_PERCENTILE = 100;
+    // Sub-millisecond latencies jitter more than any relative tolerance
+    private static final double LATENCY_SLACK_MILLIS = 1.0;
+    private static final Map<String, Double> PERCENTILE_TAILS = Map.of(".p50-ms", 0.5, ".p99-ms", 0.01, ".p999-ms", 0.001);
+
+    private final Properties values = new Properties();
+
+
+    public static Baseline load(Path path) throws IOException {
+        Baseline baseline = new Baseline();
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path)) {
+                baseline.values.load(reader);
+            }
+        }
+        return baseline;
+    }
+
+    public static void save(Path path, Map<String, Double> metrics, String comment) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            writer.write("# " + comment + System.lineSeparator());
+            for (Map.Entry<String, Double> metric : new TreeMap<>(metrics).entrySet()) {
+                writer.write(metric.getKey() + "=" + String.format(Locale.ROOT, "%.2f", metric.getValue())
+                        + System.lineSeparator());
+            }
+        }
+    }
+
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * Returns descriptions of the regressions, empty list if there are none.
+     */
+    public List<String> check(Map<String, Double> metrics, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> metric : new TreeMap<>(metrics).entrySet()) {
+            String key = metric.getKey();
+            double actual = metric.getValue();
+            if (key.endsWith(".errors")) {
+                if (actual > 0) {
+                    regressions.add(String.format(Locale.ROOT, "%s: %.0f failed requests", key, actual));
+                }
+                continue;
+            }
+            String expected = values.getProperty(key);
+            if (expected == null) {
+                continue;
+            }
+            double base = Double.parseDouble(expected);
+            if (key.endsWith(".throughput") && actual < base * (1 - tolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s: %.1f, baseline %.1f", key, actual, base));
+            } else if (isComparablePercentile(key, metrics) && actual > base * (1 + tolerance) + LATENCY_SLACK_MILLIS) {
+                regressions.add(String.format(Locale.ROOT, "%s: %.2f, baseline %.2f", key, actual, base));
+            }
+        }
+        return regressions;
+    }
+
+
+    private static boolean isComparablePercentile(String key, Map<String, Double> metrics) {
+        int suffix = key.lastIndexOf('.');
+        Double tail = PERCENTILE_TAILS.get(key.substring(suffix));
+        Double requests = metrics.get(key.substring(0, suffix) + ".requests");
+        return tail != null && requests != null && requests * tail >= MIN_REQUESTS_OVER_PERCENTILE;
+    }
+
+
+}
@@ -0,0 +1,144 @@
+package ru.aston.lepd.readingclub.loadtest;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import ru.aston.lepd.readingclub.init.AppInitializer;
+import ru.aston.lepd.readingclub.util.PropertiesUtil;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static ru.aston.lepd.readingclub.Constants.*;
+
+/**
+ * Boots the application in embedded Jetty against an embedded PostgreSQL with a generated data set,
+ * runs every scenario in closed and open model, prints throughput and latency percentiles and
+ * compares them with the baseline. Exits with 1 if the run regressed.
+ * Settings are system properties, see the constants below.
+ */
+public final class LoadTest {
+
+    private static final int READERS = Integer.getInteger("loadtest.readers", 100);
+    private static final int AUTHORS = Integer.getInteger("loadtest.authors", 1_000);
+    private static final int BOOKS = Integer.getInteger("loadtest.books", 10_000);
+
+    private static final long WARMUP_SECONDS = Long.getLong("loadtest.warmup-seconds", 3);
+    private static final long DURATION_SECONDS = Long.getLong("loadtest.duration-seconds", 10);
+    private static final int USERS = Integer.getInteger("loadtest.users", 16);
+    private static final int RATE = Integer.getInteger("loadtest.rate", 100);
+
+    private static final Path BASELINE = Path.of(System.getProperty("loadtest.baseline", "src/loadtest/baseline.properties"));
+    private static final Path RESULT = Path.of(System.getProperty("loadtest.result", "target/loadtest-result.properties"));
+    // Above the run-to-run noise on one machine, yet a 25% drop in throughput or growth of latency fails the build
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("loadtest.tolerance", "0.25"));
+    private static final boolean UPDATE_BASELINE = Boolean.getBoolean("loadtest.update-baseline");
+
+    private LoadTest() {
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        List<Result> results;
+        try (EmbeddedPostgres postgres = EmbeddedPostgres.start()) {
+            String url = postgres.getJdbcUrl("postgres", "postgres");
+            PropertiesUtil.PROPERTIES.setProperty("db.url", url);
+            PropertiesUtil.PROPERTIES.setProperty("db.username", "postgres");
+            PropertiesUtil.PROPERTIES.setProperty("db.password", "postgres");
+            // Measured as in production, without the statistics proxy; N+1s are caught by the statement-budget tests
+            PropertiesUtil.PROPERTIES.setProperty("db.statistics.enabled", "false");
+
+            // The application creates the schema with its migrations on startup, only data is seeded here
+            Server server = startServer();
+            seed(url);
+            try (HttpClient client = HttpClient.newHttpClient()) {
+                int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+                results = run(new Workload(client, URI.create("http://localhost:" + port)));
+            } finally {
+                server.stop();
+            }
+        }
+
+        System.out.println(Result.reportHeader());
+        results.forEach(result -> System.out.println(result.toReportLine()));
+
+        Map<String, Double> metrics = new HashMap<>();
+        results.forEach(result -> metrics.putAll(result.toMetrics()));
+        String description = String.format("readers=%d authors=%d books=%d users=%d rate=%d duration=%ds",
+                READERS, AUTHORS, BOOKS, USERS, RATE, DURATION_SECONDS);
+        Baseline.save(RESULT, metrics, description);
+        System.out.println("Result is saved to " + RESULT.toAbsolutePath());
+
+        if (UPDATE_BASELINE) {
+            Baseline.save(BASELINE, metrics, description);
+            System.out.println("Baseline is updated: " + BASELINE.toAbsolutePath());
+            return;
+        }
+        Baseline baseline = Baseline.load(BASELINE);
+        if (baseline.isEmpty()) {
+            System.out.println("There is no baseline at " + BASELINE.toAbsolutePath() + ", nothing to compare with");
+        }
+        List<String> regressions = baseline.check(metrics, TOLERANCE);
+        if (!regressions.isEmpty()) {
+            System.out.println("Regressions against the baseline (tolerance " + TOLERANCE + "):");
+            regressions.forEach(regression -> System.out.println("  " + regression));
+            System.exit(1);
+        }
+    }
+
+
+    private static Map<String, Function<ThreadLocalRandom, String>> scenarios() {
+        Map<String, Function<ThreadLocalRandom, String>> scenarios = new LinkedHashMap<>();
+        scenarios.put("books-by-id", random -> "/books/" + random.nextInt(1, BOOKS + 1));
+        scenarios.put("books-page", random -> "/books?after=" + random.nextInt(0, BOOKS) + "&limit=100");
+        scenarios.put("authors-by-id", random -> "/authors/" + random.nextInt(1, AUTHORS + 1));
+        scenarios.put("readers-by-id", random -> "/readers/" + random.nextInt(1, READERS + 1));
+        return scenarios;
+    }
+
+    private static List<Result> run(Workload workload) throws InterruptedException {
+        long warmup = TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long duration = TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Function<ThreadLocalRandom, String>> scenario : scenarios().entrySet()) {
+            String name = scenario.getKey();
+            workload.runClosed(name, scenario.getValue(), USERS, warmup);
+            results.add(workload.runClosed(name + ".closed", scenario.getValue(), USERS, duration));
+            results.add(workload.runOpen(name + ".open", scenario.getValue(), RATE, duration));
+        }
+        return results;
+    }
+
+    private static void seed(String url) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute(INSERT_GENERATED_DATA_SQL.formatted(READERS, AUTHORS, BOOKS));
+        }
+    }
+
+    private static Server startServer() throws Exception {
+        Server server = new Server(0);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addEventListener(new AppInitializer());
+        server.setHandler(context);
+        server.start();
+        return server;
+    }
+
+
+}
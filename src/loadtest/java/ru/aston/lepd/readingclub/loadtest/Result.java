@@ -0,0 +1,70 @@
+package ru.aston.lepd.readingclub.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one workload run. Latencies are recorded in microseconds.
+ */
+public class Result {
+
+    private final String name;
+    private final Histogram latencies;
+    private final long errors;
+    private final long elapsedNanos;
+
+
+    public Result(String name, Histogram latencies, long errors, long elapsedNanos) {
+        this.name = name;
+        this.latencies = latencies;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+
+    /**
+     * Values compared with the baseline, keys are "{name}.{metric}".
+     */
+    public Map<String, Double> toMetrics() {
+        return Map.of(
+                name + ".requests", (double) latencies.getTotalCount(),
+                name + ".throughput", getThroughput(),
+                name + ".p50-ms", getPercentileMillis(50),
+                name + ".p99-ms", getPercentileMillis(99),
+                name + ".p999-ms", getPercentileMillis(99.9),
+                name + ".errors", (double) errors);
+    }
+
+    public String toReportLine() {
+        return String.format(Locale.ROOT, "%-24s %10d %8d %12.1f %10.2f %10.2f %10.2f",
+                name, latencies.getTotalCount(), errors, getThroughput(),
+                getPercentileMillis(50), getPercentileMillis(99), getPercentileMillis(99.9));
+    }
+
+    public static String reportHeader() {
+        return String.format(Locale.ROOT, "%-24s %10s %8s %12s %10s %10s %10s",
+                "scenario", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms");
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getThroughput() {
+        return latencies.getTotalCount() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public double getPercentileMillis(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+
+}
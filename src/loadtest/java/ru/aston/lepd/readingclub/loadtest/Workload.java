@@ -0,0 +1,113 @@
+package ru.aston.lepd.readingclub.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Sends GET requests to paths produced by the scenario, in one of the two models:
+ * closed - fixed number of users, each sends the next request when the previous one is answered;
+ * open - requests arrive at a fixed rate whatever the server does, latency is counted from the moment
+ * the request was due, so a stalled server can't hide its queue (coordinated omission).
+ */
+public class Workload {
+
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final HttpClient client;
+    private final URI baseUri;
+
+
+    public Workload(HttpClient client, URI baseUri) {
+        this.client = client;
+        this.baseUri = baseUri;
+    }
+
+
+    public Result runClosed(String name, Function<ThreadLocalRandom, String> paths,
+                            int users, long durationNanos) throws InterruptedException {
+        Histogram latencies = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+        LongAdder errors = new LongAdder();
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < users; i++) {
+                executor.execute(() -> {
+                    while (System.nanoTime() < end) {
+                        long sent = System.nanoTime();
+                        boolean success = send(paths.apply(ThreadLocalRandom.current()));
+                        record(latencies, errors, sent, success);
+                    }
+                });
+            }
+        }
+        return new Result(name, latencies, errors.sum(), System.nanoTime() - start);
+    }
+
+    public Result runOpen(String name, Function<ThreadLocalRandom, String> paths,
+                          int requestsPerSecond, long durationNanos) {
+        Histogram latencies = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+        LongAdder errors = new LongAdder();
+        long interval = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+
+        for (long due = start; due < start + durationNanos; due += interval) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long intended = due;
+            pending.add(client.sendAsync(request(paths.apply(ThreadLocalRandom.current())),
+                            HttpResponse.BodyHandlers.discarding())
+                    .handle((response, e) -> {
+                        record(latencies, errors, intended, e == null && response.statusCode() == 200);
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+        return new Result(name, latencies, errors.sum(), System.nanoTime() - start);
+    }
+
+
+    private boolean send(String path) {
+        try {
+            return client.send(request(path), HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private HttpRequest request(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).GET().build();
+    }
+
+    private static void record(Histogram latencies, LongAdder errors, long startNanos, boolean success) {
+        latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos),
+                HIGHEST_LATENCY_MICROS));
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+
+}
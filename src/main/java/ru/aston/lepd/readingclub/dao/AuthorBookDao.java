@@ -3,9 +3,12 @@ package ru.aston.lepd.readingclub.dao;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.util.DataSource;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
 
 
 public class AuthorBookDao {
@@ -29,6 +32,36 @@ public class AuthorBookDao {
             DELETE FROM author_book WHERE book_id = ?
             """;
 
+    public static final String INSERT_ALL_FOR_BOOK_SQL = """
+            INSERT INTO author_book (author_id, book_id) SELECT unnest(?), ?
+            """;
+
+    public static final String INSERT_ALL_FOR_AUTHOR_SQL = """
+            INSERT INTO author_book (book_id, author_id) SELECT unnest(?), ?
+            """;
+
+    public static final String INSERT_ALL_SQL = """
+            INSERT INTO author_book (author_id, book_id) SELECT * FROM unnest(?::bigint[], ?::bigint[])
+            """;
+
+    public static final String INSERT_MISSING_FOR_BOOK_SQL = """
+            INSERT INTO author_book (author_id, book_id) SELECT unnest(?), ?
+            ON CONFLICT DO NOTHING
+            """;
+
+    public static final String INSERT_MISSING_FOR_AUTHOR_SQL = """
+            INSERT INTO author_book (book_id, author_id) SELECT unnest(?), ?
+            ON CONFLICT DO NOTHING
+            """;
+
+    public static final String DELETE_OTHER_AUTHORS_OF_BOOK_SQL = """
+            DELETE FROM author_book WHERE book_id = ? AND author_id <> ALL (?)
+            """;
+
+    public static final String DELETE_OTHER_BOOKS_OF_AUTHOR_SQL = """
+            DELETE FROM author_book WHERE author_id = ? AND book_id <> ALL (?)
+            """;
+
 
 
 
@@ -71,6 +104,97 @@ public class AuthorBookDao {
     }
 
 
+    /**
+     * Inserts links of one book to all given authors with a single multi-row statement.
+     */
+    public int saveAllForBook(Long bookId, Collection<Long> authorIds) {
+        return saveAll(INSERT_ALL_FOR_BOOK_SQL, bookId, authorIds);
+    }
+
+    /**
+     * Inserts links of one author to all given books with a single multi-row statement.
+     */
+    public int saveAllForAuthor(Long authorId, Collection<Long> bookIds) {
+        return saveAll(INSERT_ALL_FOR_AUTHOR_SQL, authorId, bookIds);
+    }
+
+    /**
+     * Inserts links of many authors and books with a single statement, i-th author id is linked
+     * to i-th book id.
+     */
+    public int saveAll(List<Long> authorIds, List<Long> bookIds) {
+        if (authorIds.isEmpty()) {
+            return 0;
+        }
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT_ALL_SQL)) {
+
+            preparedStatement.setArray(1, connection.createArrayOf("bigint", authorIds.toArray()));
+            preparedStatement.setArray(2, connection.createArrayOf("bigint", bookIds.toArray()));
+            return preparedStatement.executeUpdate();
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+    /**
+     * Makes the set of book's authors equal to given ids. Only links that are absent in the new set
+     * are deleted and only new links are inserted, unchanged links are not touched.
+     * Returns true if any link was changed.
+     */
+    public boolean updateAuthorsOfBook(Long bookId, Collection<Long> authorIds) {
+        return replaceAll(DELETE_OTHER_AUTHORS_OF_BOOK_SQL, INSERT_MISSING_FOR_BOOK_SQL, bookId, authorIds);
+    }
+
+    /**
+     * Makes the set of author's books equal to given ids, touching only changed links.
+     * Returns true if any link was changed.
+     */
+    public boolean updateBooksOfAuthor(Long authorId, Collection<Long> bookIds) {
+        return replaceAll(DELETE_OTHER_BOOKS_OF_AUTHOR_SQL, INSERT_MISSING_FOR_AUTHOR_SQL, authorId, bookIds);
+    }
+
+
+    private int saveAll(String insertSql, Long ownerId, Collection<Long> linkedIds) {
+        if (linkedIds.isEmpty()) {
+            return 0;
+        }
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(insertSql)) {
+
+            preparedStatement.setArray(1, connection.createArrayOf("bigint", linkedIds.toArray()));
+            preparedStatement.setLong(2, ownerId);
+            return preparedStatement.executeUpdate();
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    private boolean replaceAll(String deleteSql, String insertSql, Long ownerId, Collection<Long> linkedIds) {
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement deleteStatement = connection.prepareStatement(deleteSql);
+             PreparedStatement insertStatement = connection.prepareStatement(insertSql)) {
+
+            Array linkedIdsArray = connection.createArrayOf("bigint", linkedIds.toArray());
+            deleteStatement.setLong(1, ownerId);
+            deleteStatement.setArray(2, linkedIdsArray);
+            int changed = deleteStatement.executeUpdate();
+            if (!linkedIds.isEmpty()) {
+                insertStatement.setArray(1, linkedIdsArray);
+                insertStatement.setLong(2, ownerId);
+                changed += insertStatement.executeUpdate();
+            }
+            return changed > 0;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     public boolean delete(Long authorId, Long bookId) {
         try (Connection connection = DataSource.getConnection();
              PreparedStatement preparedStatement = connection.prepareStatement(DELETE_SQL)) {
@@ -4,11 +4,12 @@ import ru.aston.lepd.readingclub.entity.Author;
 import ru.aston.lepd.readingclub.entity.Book;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.EntityCache;
+import ru.aston.lepd.readingclub.util.TransactionManager;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Consumer;
 
 public class AuthorDao implements Dao<Long, Author> {
 
@@ -29,25 +30,68 @@ public class AuthorDao implements Dao<Long, Author> {
         return bookDao;
     }
 
+    private EntityCache<Long, Author> cache;
+
+    public void setCache(EntityCache<Long, Author> cache) {
+        this.cache = cache;
+    }
+
 
 
     public static final String FIND_BY_ID_SQL = """
-            SELECT id, full_name, personal_info
+            SELECT id, full_name, personal_info, version
             FROM authors
             WHERE id = ?
             """;
 
     public static final String FIND_ALL_SQL = """
-            SELECT id, full_name, personal_info
+            SELECT id, full_name, personal_info, version
+            FROM authors
+            """;
+
+    public static final String FIND_PAGE_SQL = """
+            SELECT id, full_name, personal_info, version
             FROM authors
+            WHERE id > ?
+            ORDER BY id
+            LIMIT ?
             """;
 
     public static final String FIND_ALL_BY_BOOK_ID_SQL = """
-            SELECT a.id, a.full_name, a.personal_info FROM authors a
+            SELECT a.id, a.full_name, a.personal_info, a.version FROM authors a
             JOIN author_book ab ON a.id = ab.author_id
             WHERE ab.book_id = ?
             """;
 
+    public static final String FIND_ALL_BY_BOOK_IDS_SQL = """
+            SELECT ab.book_id, a.id, a.full_name, a.personal_info, a.version FROM authors a
+            JOIN author_book ab ON a.id = ab.author_id
+            WHERE ab.book_id = ANY (?)
+            """;
+
+
+    // Columns of AuthorDto fields for projections
+    private static final Map<String, String> COLUMNS_BY_FIELD = Map.of(
+            "fullName", "full_name", "personalInfo", "personal_info");
+
+    public static final String FIND_BY_ID_PROJECTED_SQL = """
+            SELECT %s, version
+            FROM authors
+            WHERE id = ?
+            """;
+
+    public static final String FIND_ALL_PROJECTED_SQL = """
+            SELECT %s
+            FROM authors
+            """;
+
+    public static final String FIND_PAGE_PROJECTED_SQL = """
+            SELECT %s
+            FROM authors
+            WHERE id > ?
+            ORDER BY id
+            LIMIT ?
+            """;
 
     public static final String INSERT_SQL = """
             INSERT INTO authors (full_name, personal_info) VALUES (?, ?)
@@ -55,8 +99,22 @@ public class AuthorDao implements Dao<Long, Author> {
 
     public static final String UPDATE_SQL = """
             UPDATE authors
-            SET full_name = ?, personal_info = ?
-            WHERE id = ?
+            SET full_name = ?, personal_info = ?, version = version + 1
+            WHERE id = ? AND version = ?
+            """;
+
+    // Partial update, %s is the SET list of Dao.setColumns, versions are the ETags of GET
+    public static final String PATCH_SQL = """
+            UPDATE authors
+            SET %sversion = version + 1
+            WHERE id = ? AND (?::text[] IS NULL OR version::text = ANY (?::text[]))
+            """;
+
+    public static final String FIND_MISSING_IDS_SQL = """
+            SELECT t.id
+            FROM unnest(?) AS t(id)
+            WHERE NOT EXISTS (SELECT 1 FROM authors a WHERE a.id = t.id)
+            ORDER BY t.id
             """;
 
     public static final String DELETE_SQL = """
@@ -70,6 +128,13 @@ public class AuthorDao implements Dao<Long, Author> {
 
     @Override
     public Optional<Author> findById(Long authorId) {
+        if (cache == null || TransactionManager.isActive()) {
+            return loadById(authorId);
+        }
+        return cache.get(authorId, this::loadById).map(this::copyCached);
+    }
+
+    private Optional<Author> loadById(Long authorId) {
         try (Connection connection = DataSource.getConnection();
              PreparedStatement preparedStatement = connection.prepareStatement(FIND_BY_ID_SQL)) {
 
@@ -104,6 +169,26 @@ public class AuthorDao implements Dao<Long, Author> {
         }
     }
 
+    @Override
+    public List<Author> findPage(Long after, int limit) {
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_PAGE_SQL)) {
+
+            preparedStatement.setLong(1, after == null ? Long.MIN_VALUE : after);
+            preparedStatement.setInt(2, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Author> authors = new ArrayList<>();
+            while (resultSet.next()) {
+                authors.add(buildAuthor(resultSet));
+            }
+            return authors;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     public List<Author> findAllByBookId(Long bookId) {
         try (Connection connection = DataSource.getConnection();
              PreparedStatement preparedStatement = connection.prepareStatement(FIND_ALL_BY_BOOK_ID_SQL)) {
@@ -121,17 +206,162 @@ public class AuthorDao implements Dao<Long, Author> {
         }
     }
 
+    /**
+     * Loads authors of all given books with one query.
+     * Returns map where key is book id, books without authors are absent in the map.
+     */
+    public Map<Long, List<Author>> findAllByBookIds(Collection<Long> bookIds) {
+        Map<Long, List<Author>> authorsByBookId = new HashMap<>();
+        if (bookIds.isEmpty()) {
+            return authorsByBookId;
+        }
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_ALL_BY_BOOK_IDS_SQL)) {
+
+            preparedStatement.setArray(1, connection.createArrayOf("bigint", bookIds.toArray()));
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                authorsByBookId.computeIfAbsent(resultSet.getLong("book_id"), id -> new ArrayList<>())
+                        .add(buildAuthor(resultSet));
+            }
+            return authorsByBookId;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public Optional<Author> findById(Long authorId, Set<String> fields) {
+        if (fields == null) {
+            return findById(authorId);
+        }
+        String sql = String.format(FIND_BY_ID_PROJECTED_SQL, Dao.selectColumns("id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setLong(1, authorId);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            Author author = null;
+            if (resultSet.next()) {
+                author = buildProjectedAuthor(resultSet, fields);
+                author.setVersion(resultSet.getLong("version"));
+            }
+            return Optional.ofNullable(author);
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public List<Author> findAll(Set<String> fields) {
+        if (fields == null) {
+            return findAll();
+        }
+        String sql = String.format(FIND_ALL_PROJECTED_SQL, Dao.selectColumns("id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Author> authors = new ArrayList<>();
+            while (resultSet.next()) {
+                authors.add(buildProjectedAuthor(resultSet, fields));
+            }
+            return authors;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public List<Author> findPage(Long after, int limit, Set<String> fields) {
+        if (fields == null) {
+            return findPage(after, limit);
+        }
+        String sql = String.format(FIND_PAGE_PROJECTED_SQL, Dao.selectColumns("id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setLong(1, after == null ? Long.MIN_VALUE : after);
+            preparedStatement.setInt(2, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Author> authors = new ArrayList<>();
+            while (resultSet.next()) {
+                authors.add(buildProjectedAuthor(resultSet, fields));
+            }
+            return authors;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public void streamAll(Consumer<Author> action) {
+        try (Connection connection = DataSource.getConnection(DataSource.Pool.BULK);
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_ALL_SQL)) {
+
+            boolean autoCommit = connection.getAutoCommit();
+            // Postgres driver uses a server side cursor only when autocommit is off
+            connection.setAutoCommit(false);
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(buildAuthor(resultSet));
+                }
+            } finally {
+                if (autoCommit) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
 
     private Author buildAuthor(ResultSet resultSet) throws SQLException {
         Author author = new Author();
         author.setId(resultSet.getLong("id"));
         author.setFullName(resultSet.getString("full_name"));
         author.setPersonalInfo(resultSet.getString("personal_info"));
+        author.setVersion(resultSet.getLong("version"));
         // Lazy loading of books
         author.setBooks(new ArrayList<>());
         return author;
     }
 
+    private Author buildProjectedAuthor(ResultSet resultSet, Set<String> fields) throws SQLException {
+        Author author = new Author();
+        author.setId(resultSet.getLong("id"));
+        if (fields.contains("fullName")) {
+            author.setFullName(resultSet.getString("full_name"));
+        }
+        if (fields.contains("personalInfo")) {
+            author.setPersonalInfo(resultSet.getString("personal_info"));
+        }
+        author.setBooks(new ArrayList<>());
+        return author;
+    }
+
+    private Author copyCached(Author cached) {
+        Author author = new Author();
+        author.setId(cached.getId());
+        author.setFullName(cached.getFullName());
+        author.setPersonalInfo(cached.getPersonalInfo());
+        author.setVersion(cached.getVersion());
+        author.setBooks(new ArrayList<>());
+        return author;
+    }
+
     public List<Book> getBooksForAuthor(Long authorId) {
         return bookDao.findAllByAuthorId(authorId);
     }
@@ -148,9 +378,7 @@ public class AuthorDao implements Dao<Long, Author> {
 
             if (generatedKeys.next()) {
                 author.setId(generatedKeys.getLong("id"));
-                for (Book book : author.getBooks()) {
-                    authorBookDao.save(author.getId(), book.getId());
-                }
+                authorBookDao.saveAllForAuthor(author.getId(), getBookIds(author));
             }
             return author;
 
@@ -160,6 +388,42 @@ public class AuthorDao implements Dao<Long, Author> {
     }
 
 
+    /**
+     * Same as {@link ReaderDao#saveAll}, links of the authors to books are inserted with one more statement.
+     */
+    public List<Author> saveAll(List<Author> authors) {
+        if (authors.isEmpty()) {
+            return authors;
+        }
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+
+            for (Author author : authors) {
+                preparedStatement.setString(1, author.getFullName());
+                preparedStatement.setString(2, author.getPersonalInfo());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+            List<Long> authorIds = new ArrayList<>();
+            List<Long> bookIds = new ArrayList<>();
+            for (Author author : authors) {
+                generatedKeys.next();
+                author.setId(generatedKeys.getLong("id"));
+                for (Long bookId : getBookIds(author)) {
+                    authorIds.add(author.getId());
+                    bookIds.add(bookId);
+                }
+            }
+            authorBookDao.saveAll(authorIds, bookIds);
+            return authors;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     @Override
     public boolean update(Author author) {
         try (Connection connection = DataSource.getConnection();
@@ -168,12 +432,11 @@ public class AuthorDao implements Dao<Long, Author> {
             preparedStatement.setString(1, author.getFullName());
             preparedStatement.setString(2, author.getPersonalInfo());
             preparedStatement.setLong(3, author.getId());
+            preparedStatement.setLong(4, author.getVersion());
             int updateResult = preparedStatement.executeUpdate();
+            invalidateCached(author.getId());
             if (updateResult > 0) {
-                authorBookDao.deleteAllByAuthorId(author.getId());
-                for (Book book : author.getBooks()) {
-                    authorBookDao.save(author.getId(), book.getId());
-                }
+                authorBookDao.updateBooksOfAuthor(author.getId(), getBookIds(author));
             }
             return updateResult > 0;
 
@@ -183,6 +446,34 @@ public class AuthorDao implements Dao<Long, Author> {
     }
 
 
+    private List<Long> getBookIds(Author author) {
+        return author.getBooks().stream()
+                .map(Book::getId)
+                .toList();
+    }
+
+
+    /**
+     * Only the author's row is updated, links to books stay as they are.
+     */
+    @Override
+    public boolean patch(Long authorId, Map<String, Object> valuesByField, Set<String> expectedVersions) {
+        SortedMap<String, Object> values = new TreeMap<>(valuesByField);
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     String.format(PATCH_SQL, Dao.setColumns(values, COLUMNS_BY_FIELD)))) {
+
+            Dao.bindPatch(preparedStatement, values, authorId, expectedVersions);
+            int updateResult = preparedStatement.executeUpdate();
+            invalidateCached(authorId);
+            return updateResult > 0;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     @Override
     public boolean delete(Long authorId) {
         try (Connection connection = DataSource.getConnection();
@@ -191,6 +482,7 @@ public class AuthorDao implements Dao<Long, Author> {
             preparedStatement.setLong(1, authorId);
             authorBookDao.deleteAllByAuthorId(authorId);
             int deleteResult = preparedStatement.executeUpdate();
+            invalidateCached(authorId);
             return deleteResult > 0;
 
         } catch (SQLException e) {
@@ -199,13 +491,38 @@ public class AuthorDao implements Dao<Long, Author> {
     }
 
 
+    private void invalidateCached(Long authorId) {
+        if (cache != null) {
+            TransactionManager.afterCompletion(() -> cache.invalidate(authorId));
+        }
+    }
+
+
     public boolean isContainById(Long authorId) {
+        if (cache != null && !TransactionManager.isActive() && cache.contains(authorId)) {
+            return true;
+        }
+        return findMissingIds(List.of(authorId)).isEmpty();
+    }
+
+
+    /**
+     * Checks existence of all the ids with one query, returns the ids which are not in the database.
+     */
+    public Set<Long> findMissingIds(Collection<Long> authorIds) {
+        Set<Long> missingIds = new LinkedHashSet<>();
+        if (authorIds.isEmpty()) {
+            return missingIds;
+        }
         try (Connection connection = DataSource.getConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(FIND_BY_ID_SQL)) {
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_MISSING_IDS_SQL)) {
 
-            preparedStatement.setLong(1, authorId);
+            preparedStatement.setArray(1, connection.createArrayOf("bigint", authorIds.toArray()));
             ResultSet resultSet = preparedStatement.executeQuery();
-            return resultSet.next();
+            while (resultSet.next()) {
+                missingIds.add(resultSet.getLong("id"));
+            }
+            return missingIds;
 
         } catch (SQLException e) {
             throw new DaoException(e.getMessage());
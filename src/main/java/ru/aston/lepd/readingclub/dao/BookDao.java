@@ -5,11 +5,13 @@ import ru.aston.lepd.readingclub.entity.Book;
 import ru.aston.lepd.readingclub.entity.Reader;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.EntityCache;
+import ru.aston.lepd.readingclub.util.TransactionManager;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class BookDao implements Dao<Long, Book> {
 
@@ -39,37 +41,122 @@ public class BookDao implements Dao<Long, Book> {
         return readerDao;
     }
 
+    private EntityCache<Long, Book> cache;
+
+    public void setCache(EntityCache<Long, Book> cache) {
+        this.cache = cache;
+    }
+
     public static final String FIND_BY_ID_SQL = """
-            SELECT id, title, inventory_number, reader_id
-            FROM books
-            WHERE id = ?
+            SELECT b.id, b.title, b.inventory_number, b.reader_id, b.version,
+                   r.name AS reader_name, r.surname AS reader_surname, r.phone AS reader_phone, r.address AS reader_address, r.version AS reader_version
+            FROM books b
+            JOIN readers r ON r.id = b.reader_id
+            WHERE b.id = ?
             """;
 
     public static final String FIND_ALL_SQL = """
-            SELECT id, title, inventory_number, reader_id
-            FROM books
+            SELECT b.id, b.title, b.inventory_number, b.reader_id, b.version,
+                   r.name AS reader_name, r.surname AS reader_surname, r.phone AS reader_phone, r.address AS reader_address, r.version AS reader_version
+            FROM books b
+            JOIN readers r ON r.id = b.reader_id
+            """;
+
+    public static final String FIND_PAGE_SQL = """
+            SELECT b.id, b.title, b.inventory_number, b.reader_id, b.version,
+                   r.name AS reader_name, r.surname AS reader_surname, r.phone AS reader_phone, r.address AS reader_address, r.version AS reader_version
+            FROM books b
+            JOIN readers r ON r.id = b.reader_id
+            WHERE b.id > ?
+            ORDER BY b.id
+            LIMIT ?
+            """;
+
+    public static final String FIND_ALL_WITH_AUTHOR_IDS_SQL = """
+            SELECT b.id, b.title, b.inventory_number, b.reader_id, b.version,
+                   r.name AS reader_name, r.surname AS reader_surname, r.phone AS reader_phone, r.address AS reader_address, r.version AS reader_version,
+                   ARRAY(SELECT ab.author_id FROM author_book ab WHERE ab.book_id = b.id) AS author_ids
+            FROM books b
+            JOIN readers r ON r.id = b.reader_id
             """;
 
     public static final String FIND_ALL_BY_READER_ID_SQL = """
-            SELECT id, title, inventory_number, reader_id
-            FROM books
-            WHERE reader_id = ?
+            SELECT b.id, b.title, b.inventory_number, b.reader_id, b.version,
+                   r.name AS reader_name, r.surname AS reader_surname, r.phone AS reader_phone, r.address AS reader_address, r.version AS reader_version
+            FROM books b
+            JOIN readers r ON r.id = b.reader_id
+            WHERE b.reader_id = ?
             """;
 
     public static final String FIND_ALL_BY_AUTHOR_ID_SQL = """
-            SELECT b.id, b.title, b.inventory_number, b.reader_id FROM books b
+            SELECT b.id, b.title, b.inventory_number, b.reader_id, b.version,
+                   r.name AS reader_name, r.surname AS reader_surname, r.phone AS reader_phone, r.address AS reader_address, r.version AS reader_version
+            FROM books b
+            JOIN readers r ON r.id = b.reader_id
             JOIN author_book ab ON b.id = ab.book_id
             WHERE ab.author_id = ?
             """;
 
+    // Rows rendered as BookDto json by Postgres, LIMIT NULL reads all
+    public static final String FIND_PAGE_JSON_SQL = """
+            SELECT b.id, json_build_object(
+                       'title', b.title,
+                       'inventoryNumber', b.inventory_number,
+                       'authorIds', ARRAY(SELECT ab.author_id FROM author_book ab WHERE ab.book_id = b.id ORDER BY ab.author_id),
+                       'readerId', b.reader_id) AS json
+            FROM books b
+            WHERE b.id > ?
+            ORDER BY b.id
+            LIMIT ?
+            """;
+
+    // Partial update, %s is the SET list of Dao.setColumns, versions are the ETags of GET
+    public static final String PATCH_SQL = """
+            UPDATE books
+            SET %sversion = version + 1
+            WHERE id = ? AND (?::text[] IS NULL OR version::text = ANY (?::text[]))
+            """;
+
+    // Columns of BookDto fields a partial update can set, authorIds are links
+    private static final Map<String, String> PATCH_COLUMNS_BY_FIELD = Map.of(
+            "title", "title",
+            "inventoryNumber", "inventory_number",
+            "readerId", "reader_id");
+
+    // Columns of BookDto fields for projections: author ids come in the same row, the reader is not joined
+    private static final Map<String, String> COLUMNS_BY_FIELD = Map.of(
+            "title", "b.title",
+            "inventoryNumber", "b.inventory_number",
+            "readerId", "b.reader_id",
+            "authorIds", "ARRAY(SELECT ab.author_id FROM author_book ab WHERE ab.book_id = b.id) AS author_ids");
+
+    public static final String FIND_BY_ID_PROJECTED_SQL = """
+            SELECT %s, b.version
+            FROM books b
+            WHERE b.id = ?
+            """;
+
+    public static final String FIND_ALL_PROJECTED_SQL = """
+            SELECT %s
+            FROM books b
+            """;
+
+    public static final String FIND_PAGE_PROJECTED_SQL = """
+            SELECT %s
+            FROM books b
+            WHERE b.id > ?
+            ORDER BY b.id
+            LIMIT ?
+            """;
+
     public static final String INSERT_SQL = """
             INSERT INTO books (title, inventory_number, reader_id) VALUES (?, ?, ?)
             """;
 
     public static final String UPDATE_SQL = """
             UPDATE books
-            SET title = ?, inventory_number = ?, reader_id = ?
-            WHERE id = ?
+            SET title = ?, inventory_number = ?, reader_id = ?, version = version + 1
+            WHERE id = ? AND version = ?
             """;
 
     public static final String DELETE_SQL = """
@@ -81,8 +168,18 @@ public class BookDao implements Dao<Long, Book> {
             """;
 
 
+    /**
+     * Cached the same way as {@link ReaderDao#findById}, the cached book keeps the data of its reader.
+     */
     @Override
     public Optional<Book> findById(Long bookId) {
+        if (cache == null || TransactionManager.isActive()) {
+            return loadById(bookId);
+        }
+        return cache.get(bookId, this::loadById).map(this::copyCached);
+    }
+
+    private Optional<Book> loadById(Long bookId) {
         try (Connection connection = DataSource.getConnection();
              PreparedStatement preparedStatement = connection.prepareStatement(FIND_BY_ID_SQL)) {
 
@@ -119,6 +216,96 @@ public class BookDao implements Dao<Long, Book> {
 
 
 
+    @Override
+    public List<Book> findPage(Long after, int limit) {
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_PAGE_SQL)) {
+
+            preparedStatement.setLong(1, after == null ? Long.MIN_VALUE : after);
+            preparedStatement.setInt(2, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Book> books = new ArrayList<>();
+            while (resultSet.next()) {
+                books.add(buildBook(resultSet));
+            }
+            return books;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public Optional<Book> findById(Long bookId, Set<String> fields) {
+        if (fields == null) {
+            return findById(bookId);
+        }
+        String sql = String.format(FIND_BY_ID_PROJECTED_SQL, Dao.selectColumns("b.id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setLong(1, bookId);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            Book book = null;
+            if (resultSet.next()) {
+                book = buildProjectedBook(resultSet, fields);
+                book.setVersion(resultSet.getLong("version"));
+            }
+            return Optional.ofNullable(book);
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public List<Book> findAll(Set<String> fields) {
+        if (fields == null) {
+            return findAll();
+        }
+        String sql = String.format(FIND_ALL_PROJECTED_SQL, Dao.selectColumns("b.id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Book> books = new ArrayList<>();
+            while (resultSet.next()) {
+                books.add(buildProjectedBook(resultSet, fields));
+            }
+            return books;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public List<Book> findPage(Long after, int limit, Set<String> fields) {
+        if (fields == null) {
+            return findPage(after, limit);
+        }
+        String sql = String.format(FIND_PAGE_PROJECTED_SQL, Dao.selectColumns("b.id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setLong(1, after == null ? Long.MIN_VALUE : after);
+            preparedStatement.setInt(2, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Book> books = new ArrayList<>();
+            while (resultSet.next()) {
+                books.add(buildProjectedBook(resultSet, fields));
+            }
+            return books;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     public List<Book> findAllByReaderId(Long readerId) {
         try (Connection connection = DataSource.getConnection();
              PreparedStatement preparedStatement = connection.prepareStatement(FIND_ALL_BY_READER_ID_SQL)) {
@@ -154,22 +341,162 @@ public class BookDao implements Dao<Long, Book> {
     }
 
 
+    @Override
+    public void streamAll(Consumer<Book> action) {
+        try (Connection connection = DataSource.getConnection(DataSource.Pool.BULK);
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_ALL_WITH_AUTHOR_IDS_SQL)) {
+
+            boolean autoCommit = connection.getAutoCommit();
+            // Postgres driver uses a server side cursor only when autocommit is off
+            connection.setAutoCommit(false);
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(buildBookWithAuthorIds(resultSet));
+                }
+            } finally {
+                if (autoCommit) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Passes id and json of every book with id greater than "after" to action, in the order of ids.
+     * Json is rendered by Postgres in the shape of BookDto and passed as the bytes received from the server,
+     * no book or dto is built. Null limit reads all the books, through a cursor on the bulk pool
+     * as in {@link #streamAll}.
+     */
+    public void streamJson(Long after, Integer limit, BiConsumer<Long, byte[]> action) {
+        try (Connection connection = limit == null
+                     ? DataSource.getConnection(DataSource.Pool.BULK)
+                     : DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_PAGE_JSON_SQL)) {
+
+            preparedStatement.setLong(1, after == null ? Long.MIN_VALUE : after);
+            if (limit == null) {
+                preparedStatement.setNull(2, Types.INTEGER);
+            } else {
+                preparedStatement.setInt(2, limit);
+            }
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(resultSet.getLong("id"), resultSet.getBytes("json"));
+                }
+            } finally {
+                if (autoCommit) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     private Book buildBook(ResultSet resultSet) throws SQLException {
         Book book = new Book();
         book.setId(resultSet.getLong("id"));
         book.setTitle(resultSet.getString("title"));
         book.setInventoryNumber(resultSet.getLong("inventory_number"));
-        Optional<Reader> optionalReader = readerDao.findById(resultSet.getLong("reader_id"));
-        optionalReader.ifPresent(book::setReader);
+        book.setVersion(resultSet.getLong("version"));
+        // Reader comes from the same row, so no extra query per book
+        book.setReader(buildReader(resultSet));
         // Lazy loading of authors
         book.setAuthors(new ArrayList<>());
         return book;
     }
 
+    /**
+     * Book with only the fields read, the reader has only id and is null if readerId was not asked for.
+     */
+    private Book buildProjectedBook(ResultSet resultSet, Set<String> fields) throws SQLException {
+        Book book = new Book();
+        book.setId(resultSet.getLong("id"));
+        if (fields.contains("title")) {
+            book.setTitle(resultSet.getString("title"));
+        }
+        if (fields.contains("inventoryNumber")) {
+            book.setInventoryNumber(resultSet.getLong("inventory_number"));
+        }
+        if (fields.contains("readerId")) {
+            Reader reader = new Reader();
+            reader.setId(resultSet.getLong("reader_id"));
+            reader.setBooks(new ArrayList<>());
+            book.setReader(reader);
+        }
+        book.setAuthors(new ArrayList<>());
+        if (fields.contains("authorIds")) {
+            for (Long authorId : (Long[]) resultSet.getArray("author_ids").getArray()) {
+                Author author = new Author();
+                author.setId(authorId);
+                book.getAuthors().add(author);
+            }
+        }
+        return book;
+    }
+
+    private Book copyCached(Book cached) {
+        Book book = new Book();
+        book.setId(cached.getId());
+        book.setTitle(cached.getTitle());
+        book.setInventoryNumber(cached.getInventoryNumber());
+        book.setVersion(cached.getVersion());
+        Reader reader = new Reader();
+        reader.setId(cached.getReader().getId());
+        reader.setName(cached.getReader().getName());
+        reader.setSurname(cached.getReader().getSurname());
+        reader.setPhone(cached.getReader().getPhone());
+        reader.setAddress(cached.getReader().getAddress());
+        reader.setVersion(cached.getReader().getVersion());
+        reader.setBooks(new ArrayList<>());
+        book.setReader(reader);
+        book.setAuthors(new ArrayList<>());
+        return book;
+    }
+
+    private Book buildBookWithAuthorIds(ResultSet resultSet) throws SQLException {
+        Book book = buildBook(resultSet);
+        for (Long authorId : (Long[]) resultSet.getArray("author_ids").getArray()) {
+            Author author = new Author();
+            author.setId(authorId);
+            book.getAuthors().add(author);
+        }
+        return book;
+    }
+
+    private Reader buildReader(ResultSet resultSet) throws SQLException {
+        Reader reader = new Reader();
+        reader.setId(resultSet.getLong("reader_id"));
+        reader.setName(resultSet.getString("reader_name"));
+        reader.setSurname(resultSet.getString("reader_surname"));
+        reader.setPhone(resultSet.getString("reader_phone"));
+        reader.setAddress(resultSet.getString("reader_address"));
+        reader.setVersion(resultSet.getLong("reader_version"));
+        // Lazy loading of books
+        reader.setBooks(new ArrayList<>());
+        return reader;
+    }
+
     public List<Author> getAuthorsForBook(Long bookId) {
         return authorDao.findAllByBookId(bookId);
     }
 
+    public Map<Long, List<Author>> getAuthorsForBooks(Collection<Long> bookIds) {
+        return authorDao.findAllByBookIds(bookIds);
+    }
+
 
     @Override
     public Book save(Book book) {
@@ -184,9 +511,7 @@ public class BookDao implements Dao<Long, Book> {
 
             if (generatedKeys.next()) {
                 book.setId(generatedKeys.getLong("id"));
-                for (Author author : book.getAuthors()) {
-                    authorBookDao.save(author.getId(), book.getId());
-                }
+                authorBookDao.saveAllForBook(book.getId(), getAuthorIds(book));
             }
             return book;
 
@@ -196,6 +521,44 @@ public class BookDao implements Dao<Long, Book> {
     }
 
 
+    /**
+     * Inserts all books in one JDBC batch and all their author links with one statement,
+     * generated ids are set to the books in the order of the list. Meant to run in a transaction.
+     */
+    public List<Book> saveAll(List<Book> books) {
+        if (books.isEmpty()) {
+            return books;
+        }
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+
+            for (Book book : books) {
+                preparedStatement.setString(1, book.getTitle());
+                preparedStatement.setLong(2, book.getInventoryNumber());
+                preparedStatement.setLong(3, book.getReader().getId());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+            List<Long> authorIds = new ArrayList<>();
+            List<Long> bookIds = new ArrayList<>();
+            for (Book book : books) {
+                generatedKeys.next();
+                book.setId(generatedKeys.getLong("id"));
+                for (Long authorId : getAuthorIds(book)) {
+                    authorIds.add(authorId);
+                    bookIds.add(book.getId());
+                }
+            }
+            authorBookDao.saveAll(authorIds, bookIds);
+            return books;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     @Override
     public boolean update(Book book) {
         try (Connection connection = DataSource.getConnection();
@@ -205,12 +568,11 @@ public class BookDao implements Dao<Long, Book> {
             preparedStatement.setLong(2, book.getInventoryNumber());
             preparedStatement.setLong(3, book.getReader().getId());
             preparedStatement.setLong(4, book.getId());
+            preparedStatement.setLong(5, book.getVersion());
             int updateResult = preparedStatement.executeUpdate();
+            invalidateCached(book.getId());
             if (updateResult > 0) {
-                authorBookDao.deleteAllByBookId(book.getId());
-                for (Author author : book.getAuthors()) {
-                    authorBookDao.save(author.getId(), book.getId());
-                }
+                authorBookDao.updateAuthorsOfBook(book.getId(), getAuthorIds(book));
             }
             return updateResult > 0;
         } catch (SQLException e) {
@@ -219,6 +581,13 @@ public class BookDao implements Dao<Long, Book> {
     }
 
 
+    private List<Long> getAuthorIds(Book book) {
+        return book.getAuthors().stream()
+                .map(Author::getId)
+                .toList();
+    }
+
+
     @Override
     public boolean delete(Long bookId) {
         try (Connection connection = DataSource.getConnection();
@@ -227,6 +596,7 @@ public class BookDao implements Dao<Long, Book> {
             preparedStatement.setLong(1, bookId);
             authorBookDao.deleteAllByBookId(bookId);
             int deleteResult = preparedStatement.executeUpdate();
+            invalidateCached(bookId);
             return deleteResult > 0;
 
         } catch (SQLException e) {
@@ -243,7 +613,35 @@ public class BookDao implements Dao<Long, Book> {
             for (Book book : books) {
                 authorBookDao.deleteAllByBookId(book.getId());
             }
-            return preparedStatement.executeUpdate() > 0;
+            int deleteResult = preparedStatement.executeUpdate();
+            invalidateCachedByReaderId(readerId);
+            return deleteResult > 0;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Authors are replaced only if authorIds are among the values, after the row is updated.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean patch(Long bookId, Map<String, Object> valuesByField, Set<String> expectedVersions) {
+        SortedMap<String, Object> values = new TreeMap<>(valuesByField);
+        Collection<Long> authorIds = (Collection<Long>) values.remove("authorIds");
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     String.format(PATCH_SQL, Dao.setColumns(values, PATCH_COLUMNS_BY_FIELD)))) {
+
+            Dao.bindPatch(preparedStatement, values, bookId, expectedVersions);
+            int updateResult = preparedStatement.executeUpdate();
+            invalidateCached(bookId);
+            if (updateResult > 0 && authorIds != null) {
+                authorBookDao.updateAuthorsOfBook(bookId, authorIds);
+            }
+            return updateResult > 0;
 
         } catch (SQLException e) {
             throw new DaoException(e.getMessage());
@@ -251,7 +649,26 @@ public class BookDao implements Dao<Long, Book> {
     }
 
 
+    private void invalidateCached(Long bookId) {
+        if (cache != null) {
+            TransactionManager.afterCompletion(() -> cache.invalidate(bookId));
+        }
+    }
+
+    /**
+     * Evicts books of the reader, they are cached together with the reader's name, phone and so on.
+     */
+    public void invalidateCachedByReaderId(Long readerId) {
+        if (cache != null) {
+            TransactionManager.afterCompletion(() -> cache.invalidateIf(book -> book.getReader().getId().equals(readerId)));
+        }
+    }
+
+
     public boolean isContainById(Long bookId) {
+        if (cache != null && !TransactionManager.isActive() && cache.contains(bookId)) {
+            return true;
+        }
         try (Connection connection = DataSource.getConnection();
              PreparedStatement preparedStatement = connection.prepareStatement(FIND_BY_ID_SQL)) {
 
@@ -0,0 +1,31 @@
+package ru.aston.lepd.readingclub.dao;
+
+/**
+ * Text formats of COPY based import and export: CSV with a header line, or NDJSON, one json object per line.
+ */
+public enum CopyFormat {
+
+    CSV("text/csv"),
+    NDJSON("application/x-ndjson");
+
+    private final String mediaType;
+
+    CopyFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public static CopyFormat forName(String name) {
+        for (CopyFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("ERROR: unknown format " + name);
+    }
+
+
+}
@@ -1,17 +1,104 @@
 package ru.aston.lepd.readingclub.dao;
 
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Consumer;
 
 public interface Dao<K, E> {
 
+    /**
+     * Rows fetched from the server side cursor per round trip in {@link #streamAll(Consumer)}.
+     */
+    int STREAM_FETCH_SIZE = 500;
+
     Optional<E> findById(K id);
 
+    /**
+     * Same as {@link #findById(Object)}, but only the key, the version and the columns of the given dto fields
+     * are read, past the cache that holds whole rows only. Null fields read everything.
+     */
+    Optional<E> findById(K id, Set<String> fields);
+
     List<E> findAll();
 
+    /**
+     * Keyset page: entities with key greater than "after" (all from start if null), ordered by key.
+     */
+    List<E> findPage(K after, int limit);
+
+    /**
+     * Same as {@link #findAll()}, but only the key and the columns of the given dto fields are read,
+     * associations that are not among the fields are not loaded. Null fields read everything.
+     */
+    List<E> findAll(Set<String> fields);
+
+    /**
+     * Page of {@link #findAll(Set)}, same as {@link #findPage(Object, int)}.
+     */
+    List<E> findPage(K after, int limit, Set<String> fields);
+
+    /**
+     * Passes every entity to action while reading them from a server side cursor,
+     * so the whole table is never held in memory.
+     */
+    void streamAll(Consumer<E> action);
+
     E save(E entity);
 
     boolean update(E entity);
 
+    /**
+     * Sets only the columns of the given dto fields, in one statement without reading the row first.
+     * If expected versions are given the row must still be in one of them (as its ETag), null expects any.
+     * Returns false if no row was updated.
+     */
+    boolean patch(K id, Map<String, Object> valuesByField, Set<String> expectedVersions);
+
     boolean delete(K id);
+
+
+    /**
+     * Select list of a projection: the key column and the columns of the fields, ordered by field name
+     * so that the same fields always give the same statement.
+     */
+    static String selectColumns(String keyColumn, Set<String> fields, Map<String, String> columnsByField) {
+        StringBuilder columns = new StringBuilder(keyColumn);
+        fields.stream()
+                .sorted()
+                .forEach(field -> columns.append(", ").append(columnsByField.get(field)));
+        return columns.toString();
+    }
+
+    /**
+     * SET list of a partial update, "column = ?, " for every field in the order of the sorted map.
+     */
+    static String setColumns(SortedMap<String, ?> valuesByField, Map<String, String> columnsByField) {
+        StringBuilder columns = new StringBuilder();
+        valuesByField.keySet().forEach(field -> columns.append(columnsByField.get(field)).append(" = ?, "));
+        return columns.toString();
+    }
+
+    /**
+     * Binds parameters of a partial update built with {@link #setColumns}: the values, the key,
+     * and the expected versions twice, for "? IS NULL OR version = ANY (?)".
+     */
+    static void bindPatch(PreparedStatement preparedStatement, SortedMap<String, ?> valuesByField,
+                          long key, Set<String> expectedVersions) throws SQLException {
+        int index = 1;
+        for (Object value : valuesByField.values()) {
+            preparedStatement.setObject(index++, value);
+        }
+        preparedStatement.setLong(index++, key);
+        Array versions = expectedVersions == null
+                ? null
+                : preparedStatement.getConnection().createArrayOf("text", expectedVersions.toArray());
+        preparedStatement.setArray(index++, versions);
+        preparedStatement.setArray(index, versions);
+    }
 }
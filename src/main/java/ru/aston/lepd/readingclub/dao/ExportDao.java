@@ -0,0 +1,126 @@
+package ru.aston.lepd.readingclub.dao;
+
+import org.postgresql.PGConnection;
+import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.util.DataSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Writes whole tables with COPY TO STDOUT straight into a stream: rows are rendered by Postgres
+ * and passed through in chunks, no objects are built per row. Runs on the bulk pool.
+ */
+public class ExportDao {
+
+    public enum Target {
+
+        READERS("readers", EXPORT_READERS_CSV_SQL, EXPORT_READERS_NDJSON_SQL),
+        BOOKS("books", EXPORT_BOOKS_CSV_SQL, EXPORT_BOOKS_NDJSON_SQL),
+        AUTHORS("authors", EXPORT_AUTHORS_CSV_SQL, EXPORT_AUTHORS_NDJSON_SQL);
+
+        private final String table;
+        private final String csvSql;
+        private final String ndjsonSql;
+
+        Target(String table, String csvSql, String ndjsonSql) {
+            this.table = table;
+            this.csvSql = csvSql;
+            this.ndjsonSql = ndjsonSql;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public static Target forTable(String table) {
+            for (Target target : values()) {
+                if (target.table.equals(table)) {
+                    return target;
+                }
+            }
+            throw new IllegalArgumentException("ERROR: unknown export target " + table);
+        }
+    }
+
+
+    public static final String EXPORT_READERS_CSV_SQL = """
+            COPY (
+                SELECT id, name, surname, phone, address
+                FROM readers
+                ORDER BY id
+            ) TO STDOUT WITH (FORMAT csv, HEADER true)
+            """;
+
+    // json never contains raw control characters, so with them as delimiter and quote every line is left as is
+    public static final String EXPORT_READERS_NDJSON_SQL = """
+            COPY (
+                SELECT json_build_object('id', id, 'name', name, 'surname', surname, 'phone', phone, 'address', address)
+                FROM readers
+                ORDER BY id
+            ) TO STDOUT WITH (FORMAT csv, DELIMITER E'\\x01', QUOTE E'\\x02')
+            """;
+
+    // Author ids are separated with spaces to keep one value per column
+    public static final String EXPORT_BOOKS_CSV_SQL = """
+            COPY (
+                SELECT b.id, b.title, b.inventory_number, b.reader_id,
+                       array_to_string(ARRAY(SELECT ab.author_id FROM author_book ab
+                                             WHERE ab.book_id = b.id ORDER BY ab.author_id), ' ') AS author_ids
+                FROM books b
+                ORDER BY b.id
+            ) TO STDOUT WITH (FORMAT csv, HEADER true)
+            """;
+
+    public static final String EXPORT_BOOKS_NDJSON_SQL = """
+            COPY (
+                SELECT json_build_object('id', b.id, 'title', b.title, 'inventoryNumber', b.inventory_number,
+                                         'authorIds', ARRAY(SELECT ab.author_id FROM author_book ab
+                                                            WHERE ab.book_id = b.id ORDER BY ab.author_id),
+                                         'readerId', b.reader_id)
+                FROM books b
+                ORDER BY b.id
+            ) TO STDOUT WITH (FORMAT csv, DELIMITER E'\\x01', QUOTE E'\\x02')
+            """;
+
+    public static final String EXPORT_AUTHORS_CSV_SQL = """
+            COPY (
+                SELECT id, full_name, personal_info
+                FROM authors
+                ORDER BY id
+            ) TO STDOUT WITH (FORMAT csv, HEADER true)
+            """;
+
+    public static final String EXPORT_AUTHORS_NDJSON_SQL = """
+            COPY (
+                SELECT json_build_object('id', id, 'fullName', full_name, 'personalInfo', personal_info)
+                FROM authors
+                ORDER BY id
+            ) TO STDOUT WITH (FORMAT csv, DELIMITER E'\\x01', QUOTE E'\\x02')
+            """;
+
+
+
+
+    /**
+     * Copies all rows of the target into the output, returns the number of rows written.
+     * The output is not closed.
+     */
+    public long copyOut(Target target, CopyFormat format, OutputStream output) {
+        try (Connection connection = DataSource.getConnection(DataSource.Pool.BULK)) {
+
+            String sql = format == CopyFormat.CSV ? target.csvSql : target.ndjsonSql;
+            return connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, output);
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+}
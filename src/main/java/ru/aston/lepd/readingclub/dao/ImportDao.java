@@ -0,0 +1,333 @@
+package ru.aston.lepd.readingclub.dao;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.util.CacheInvalidationListener;
+import ru.aston.lepd.readingclub.util.DataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads rows through COPY into a temporary staging table and merges them into the real table with
+ * set-based statements, references are resolved by natural keys: readers by phone, books by inventory number,
+ * authors by full name. All methods must be called in one transaction, the staging tables live until its end.
+ * Row triggers are switched off for the transaction, caches are invalidated once per table instead.
+ */
+public class ImportDao {
+
+    public enum Target {
+
+        READERS("readers", CREATE_READERS_STAGING_SQL, COPY_READERS_CSV_SQL, INSERT_READERS_FROM_NDJSON_SQL,
+                null, List.of(MERGE_READERS_SQL)),
+        BOOKS("books", CREATE_BOOKS_STAGING_SQL, COPY_BOOKS_CSV_SQL, INSERT_BOOKS_FROM_NDJSON_SQL,
+                FIND_UNRESOLVED_BOOK_REFERENCES_SQL, List.of(MERGE_BOOKS_SQL)),
+        AUTHORS("authors", CREATE_AUTHORS_STAGING_SQL, COPY_AUTHORS_CSV_SQL, INSERT_AUTHORS_FROM_NDJSON_SQL,
+                null, List.of(UPDATE_AUTHORS_SQL, INSERT_AUTHORS_SQL)),
+        AUTHOR_BOOK("author_book", CREATE_AUTHOR_BOOK_STAGING_SQL, COPY_AUTHOR_BOOK_CSV_SQL,
+                INSERT_AUTHOR_BOOK_FROM_NDJSON_SQL, FIND_UNRESOLVED_AUTHOR_BOOK_REFERENCES_SQL,
+                List.of(MERGE_AUTHOR_BOOK_SQL));
+
+        private final String table;
+        private final String createStagingSql;
+        private final String copyCsvSql;
+        private final String insertFromNdjsonSql;
+        private final String findUnresolvedSql;
+        private final List<String> mergeSqls;
+
+        Target(String table, String createStagingSql, String copyCsvSql, String insertFromNdjsonSql,
+               String findUnresolvedSql, List<String> mergeSqls) {
+            this.table = table;
+            this.createStagingSql = createStagingSql;
+            this.copyCsvSql = copyCsvSql;
+            this.insertFromNdjsonSql = insertFromNdjsonSql;
+            this.findUnresolvedSql = findUnresolvedSql;
+            this.mergeSqls = mergeSqls;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public static Target forTable(String table) {
+            for (Target target : values()) {
+                if (target.table.equals(table)) {
+                    return target;
+                }
+            }
+            throw new IllegalArgumentException("ERROR: unknown import target " + table);
+        }
+    }
+
+
+    private static final int MAX_UNRESOLVED_REPORTED = 10;
+
+
+    // Checked by notify_cache_invalidation(), set for the current transaction only
+    public static final String SKIP_ROW_NOTIFICATIONS_SQL = """
+            SELECT set_config('reading_club.bulk_import', 'on', true)
+            """;
+
+    public static final String NOTIFY_ALL_SQL = """
+            SELECT pg_notify(?, ? || ':*')
+            """;
+
+    // Every NDJSON line goes whole into one column: control characters can't appear unescaped in json
+    public static final String CREATE_NDJSON_STAGING_SQL = """
+            CREATE TEMP TABLE import_ndjson (line bigint GENERATED ALWAYS AS IDENTITY, doc text) ON COMMIT DROP
+            """;
+
+    public static final String COPY_NDJSON_SQL = """
+            COPY import_ndjson (doc) FROM STDIN WITH (FORMAT csv, DELIMITER E'\\x01', QUOTE E'\\x02')
+            """;
+
+
+    public static final String CREATE_READERS_STAGING_SQL = """
+            CREATE TEMP TABLE import_readers (
+                line    bigint GENERATED ALWAYS AS IDENTITY,
+                name    text,
+                surname text,
+                phone   text,
+                address text
+            ) ON COMMIT DROP
+            """;
+
+    public static final String COPY_READERS_CSV_SQL = """
+            COPY import_readers (name, surname, phone, address) FROM STDIN WITH (FORMAT csv, HEADER true)
+            """;
+
+    public static final String INSERT_READERS_FROM_NDJSON_SQL = """
+            INSERT INTO import_readers (name, surname, phone, address)
+            SELECT doc::jsonb ->> 'name', doc::jsonb ->> 'surname', doc::jsonb ->> 'phone', doc::jsonb ->> 'address'
+            FROM import_ndjson
+            WHERE btrim(doc) <> ''
+            ORDER BY line
+            """;
+
+    // The last line wins for a repeated phone, unchanged readers are not updated
+    public static final String MERGE_READERS_SQL = """
+            INSERT INTO readers (name, surname, phone, address)
+            SELECT name, surname, phone, address
+            FROM (SELECT DISTINCT ON (phone) * FROM import_readers ORDER BY phone, line DESC) s
+            ORDER BY line
+            ON CONFLICT (phone) DO UPDATE
+            SET name = excluded.name, surname = excluded.surname, address = excluded.address, version = readers.version + 1
+            WHERE (readers.name, readers.surname, readers.address)
+                      IS DISTINCT FROM (excluded.name, excluded.surname, excluded.address)
+            """;
+
+
+    public static final String CREATE_BOOKS_STAGING_SQL = """
+            CREATE TEMP TABLE import_books (
+                line             bigint GENERATED ALWAYS AS IDENTITY,
+                title            text,
+                inventory_number bigint,
+                reader_phone     text
+            ) ON COMMIT DROP
+            """;
+
+    public static final String COPY_BOOKS_CSV_SQL = """
+            COPY import_books (title, inventory_number, reader_phone) FROM STDIN WITH (FORMAT csv, HEADER true)
+            """;
+
+    public static final String INSERT_BOOKS_FROM_NDJSON_SQL = """
+            INSERT INTO import_books (title, inventory_number, reader_phone)
+            SELECT doc::jsonb ->> 'title', (doc::jsonb ->> 'inventoryNumber')::bigint, doc::jsonb ->> 'readerPhone'
+            FROM import_ndjson
+            WHERE btrim(doc) <> ''
+            ORDER BY line
+            """;
+
+    public static final String FIND_UNRESOLVED_BOOK_REFERENCES_SQL = """
+            SELECT DISTINCT 'reader phone ' || coalesce(s.reader_phone, 'null') AS reference
+            FROM import_books s
+            WHERE NOT EXISTS (SELECT 1 FROM readers r WHERE r.phone = s.reader_phone)
+            ORDER BY reference
+            LIMIT ?
+            """;
+
+    public static final String MERGE_BOOKS_SQL = """
+            INSERT INTO books (title, inventory_number, reader_id)
+            SELECT s.title, s.inventory_number, r.id
+            FROM (SELECT DISTINCT ON (inventory_number) * FROM import_books ORDER BY inventory_number, line DESC) s
+                     JOIN readers r ON r.phone = s.reader_phone
+            ORDER BY s.line
+            ON CONFLICT (inventory_number) DO UPDATE
+            SET title = excluded.title, reader_id = excluded.reader_id, version = books.version + 1
+            WHERE (books.title, books.reader_id) IS DISTINCT FROM (excluded.title, excluded.reader_id)
+            """;
+
+
+    public static final String CREATE_AUTHORS_STAGING_SQL = """
+            CREATE TEMP TABLE import_authors (
+                line          bigint GENERATED ALWAYS AS IDENTITY,
+                full_name     text,
+                personal_info text
+            ) ON COMMIT DROP
+            """;
+
+    public static final String COPY_AUTHORS_CSV_SQL = """
+            COPY import_authors (full_name, personal_info) FROM STDIN WITH (FORMAT csv, HEADER true)
+            """;
+
+    public static final String INSERT_AUTHORS_FROM_NDJSON_SQL = """
+            INSERT INTO import_authors (full_name, personal_info)
+            SELECT doc::jsonb ->> 'fullName', doc::jsonb ->> 'personalInfo'
+            FROM import_ndjson
+            WHERE btrim(doc) <> ''
+            ORDER BY line
+            """;
+
+    // Authors have no unique key, so the ones with a known full name are updated and the rest inserted
+    public static final String UPDATE_AUTHORS_SQL = """
+            UPDATE authors a
+            SET personal_info = s.personal_info, version = a.version + 1
+            FROM (SELECT DISTINCT ON (full_name) * FROM import_authors ORDER BY full_name, line DESC) s
+            WHERE a.full_name = s.full_name
+              AND a.personal_info IS DISTINCT FROM s.personal_info
+            """;
+
+    public static final String INSERT_AUTHORS_SQL = """
+            INSERT INTO authors (full_name, personal_info)
+            SELECT full_name, personal_info
+            FROM (SELECT DISTINCT ON (full_name) * FROM import_authors ORDER BY full_name, line DESC) s
+            WHERE NOT EXISTS (SELECT 1 FROM authors a WHERE a.full_name = s.full_name)
+            ORDER BY line
+            """;
+
+
+    public static final String CREATE_AUTHOR_BOOK_STAGING_SQL = """
+            CREATE TEMP TABLE import_author_book (
+                line             bigint GENERATED ALWAYS AS IDENTITY,
+                author_full_name text,
+                inventory_number bigint
+            ) ON COMMIT DROP
+            """;
+
+    public static final String COPY_AUTHOR_BOOK_CSV_SQL = """
+            COPY import_author_book (author_full_name, inventory_number) FROM STDIN WITH (FORMAT csv, HEADER true)
+            """;
+
+    public static final String INSERT_AUTHOR_BOOK_FROM_NDJSON_SQL = """
+            INSERT INTO import_author_book (author_full_name, inventory_number)
+            SELECT doc::jsonb ->> 'authorFullName', (doc::jsonb ->> 'inventoryNumber')::bigint
+            FROM import_ndjson
+            WHERE btrim(doc) <> ''
+            ORDER BY line
+            """;
+
+    // A link to a full name shared by several authors can't be resolved either
+    public static final String FIND_UNRESOLVED_AUTHOR_BOOK_REFERENCES_SQL = """
+            SELECT reference
+            FROM (SELECT DISTINCT 'inventory number ' || coalesce(s.inventory_number::text, 'null') AS reference
+                  FROM import_author_book s
+                  WHERE NOT EXISTS (SELECT 1 FROM books b WHERE b.inventory_number = s.inventory_number)
+                  UNION ALL
+                  SELECT DISTINCT 'author ' || coalesce(s.author_full_name, 'null')
+                  FROM import_author_book s
+                  WHERE NOT EXISTS (SELECT 1 FROM authors a WHERE a.full_name = s.author_full_name)
+                  UNION ALL
+                  SELECT 'ambiguous author ' || a.full_name
+                  FROM authors a
+                  WHERE a.full_name IN (SELECT author_full_name FROM import_author_book)
+                  GROUP BY a.full_name
+                  HAVING count(*) > 1) unresolved
+            ORDER BY reference
+            LIMIT ?
+            """;
+
+    public static final String MERGE_AUTHOR_BOOK_SQL = """
+            INSERT INTO author_book (author_id, book_id)
+            SELECT a.id, b.id
+            FROM import_author_book s
+                     JOIN authors a ON a.full_name = s.author_full_name
+                     JOIN books b ON b.inventory_number = s.inventory_number
+            ON CONFLICT DO NOTHING
+            """;
+
+
+
+
+    /**
+     * Streams the input into the staging table of the target, returns the number of rows read.
+     * CSV must have a header line and the columns in the order of the COPY_*_CSV_SQL,
+     * NDJSON lines are objects with the fields named as in the dtos (readerPhone, authorFullName for references).
+     */
+    public long copyToStaging(Target target, CopyFormat format, InputStream input) {
+        try (Connection connection = DataSource.getConnection(DataSource.Pool.BULK);
+             Statement statement = connection.createStatement()) {
+
+            statement.execute(SKIP_ROW_NOTIFICATIONS_SQL);
+            statement.execute(target.createStagingSql);
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            if (format == CopyFormat.CSV) {
+                return copyManager.copyIn(target.copyCsvSql, input);
+            }
+            statement.execute(CREATE_NDJSON_STAGING_SQL);
+            copyManager.copyIn(COPY_NDJSON_SQL, input);
+            return statement.executeUpdate(target.insertFromNdjsonSql);
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns up to 10 references of the staged rows that can't be resolved to ids, empty list if there are none.
+     */
+    public List<String> findUnresolved(Target target) {
+        List<String> unresolved = new ArrayList<>();
+        if (target.findUnresolvedSql == null) {
+            return unresolved;
+        }
+        try (Connection connection = DataSource.getConnection(DataSource.Pool.BULK);
+             PreparedStatement preparedStatement = connection.prepareStatement(target.findUnresolvedSql)) {
+
+            preparedStatement.setInt(1, MAX_UNRESOLVED_REPORTED);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                unresolved.add(resultSet.getString("reference"));
+            }
+            return unresolved;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+    /**
+     * Merges the staged rows into the target table, returns the number of inserted and changed rows.
+     * Caches of the table on every node are invalidated once the transaction commits.
+     */
+    public long merge(Target target) {
+        try (Connection connection = DataSource.getConnection(DataSource.Pool.BULK);
+             Statement statement = connection.createStatement();
+             PreparedStatement notifyStatement = connection.prepareStatement(NOTIFY_ALL_SQL)) {
+
+            long changed = 0;
+            for (String mergeSql : target.mergeSqls) {
+                changed += statement.executeLargeUpdate(mergeSql);
+            }
+            notifyStatement.setString(1, CacheInvalidationListener.CHANNEL);
+            notifyStatement.setString(2, target.table);
+            notifyStatement.execute();
+            return changed;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+}
@@ -4,11 +4,12 @@ import ru.aston.lepd.readingclub.entity.Book;
 import ru.aston.lepd.readingclub.entity.Reader;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.EntityCache;
+import ru.aston.lepd.readingclub.util.TransactionManager;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Consumer;
 
 public class ReaderDao implements Dao<Long, Reader> {
 
@@ -23,17 +24,54 @@ public class ReaderDao implements Dao<Long, Reader> {
         return bookDao;
     }
 
+    private EntityCache<Long, Reader> cache;
+
+    public void setCache(EntityCache<Long, Reader> cache) {
+        this.cache = cache;
+    }
+
 
 
     public static final String FIND_BY_ID_SQL = """
-            SELECT id, name, surname, phone, address
+            SELECT id, name, surname, phone, address, version
             FROM readers
             WHERE id = ?
             """;
 
     public static final String FIND_ALL_SQL = """
-            SELECT id, name, surname, phone, address
+            SELECT id, name, surname, phone, address, version
+            FROM readers
+            """;
+
+    public static final String FIND_PAGE_SQL = """
+            SELECT id, name, surname, phone, address, version
             FROM readers
+            WHERE id > ?
+            ORDER BY id
+            LIMIT ?
+            """;
+
+    // Columns of ReaderDto fields for projections
+    private static final Map<String, String> COLUMNS_BY_FIELD = Map.of(
+            "name", "name", "surname", "surname", "phone", "phone", "address", "address");
+
+    public static final String FIND_BY_ID_PROJECTED_SQL = """
+            SELECT %s, version
+            FROM readers
+            WHERE id = ?
+            """;
+
+    public static final String FIND_ALL_PROJECTED_SQL = """
+            SELECT %s
+            FROM readers
+            """;
+
+    public static final String FIND_PAGE_PROJECTED_SQL = """
+            SELECT %s
+            FROM readers
+            WHERE id > ?
+            ORDER BY id
+            LIMIT ?
             """;
 
     public static final String INSERT_SQL = """
@@ -42,8 +80,22 @@ public class ReaderDao implements Dao<Long, Reader> {
 
     public static final String UPDATE_SQL = """
             UPDATE readers
-            SET name = ?, surname = ?, phone = ?, address = ?
-            WHERE id = ?
+            SET name = ?, surname = ?, phone = ?, address = ?, version = version + 1
+            WHERE id = ? AND version = ?
+            """;
+
+    // Partial update, %s is the SET list of Dao.setColumns, versions are the ETags of GET
+    public static final String PATCH_SQL = """
+            UPDATE readers
+            SET %sversion = version + 1
+            WHERE id = ? AND (?::text[] IS NULL OR version::text = ANY (?::text[]))
+            """;
+
+    public static final String FIND_MISSING_IDS_SQL = """
+            SELECT t.id
+            FROM unnest(?) AS t(id)
+            WHERE NOT EXISTS (SELECT 1 FROM readers r WHERE r.id = t.id)
+            ORDER BY t.id
             """;
 
     public static final String DELETE_SQL = """
@@ -54,8 +106,19 @@ public class ReaderDao implements Dao<Long, Reader> {
 
 
 
+    /**
+     * Goes through the cache if it is set. Inside a transaction the cache is bypassed,
+     * the row may be changed there and not committed yet.
+     */
     @Override
     public Optional<Reader> findById(Long readerId) {
+        if (cache == null || TransactionManager.isActive()) {
+            return loadById(readerId);
+        }
+        return cache.get(readerId, this::loadById).map(this::copyCached);
+    }
+
+    private Optional<Reader> loadById(Long readerId) {
         try (Connection connection = DataSource.getConnection();
              PreparedStatement preparedStatement = connection.prepareStatement(FIND_BY_ID_SQL)) {
 
@@ -91,6 +154,122 @@ public class ReaderDao implements Dao<Long, Reader> {
     }
 
 
+    @Override
+    public List<Reader> findPage(Long after, int limit) {
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_PAGE_SQL)) {
+
+            preparedStatement.setLong(1, after == null ? Long.MIN_VALUE : after);
+            preparedStatement.setInt(2, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Reader> readers = new ArrayList<>();
+            while (resultSet.next()) {
+                readers.add(buildReader(resultSet));
+            }
+            return readers;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public Optional<Reader> findById(Long readerId, Set<String> fields) {
+        if (fields == null) {
+            return findById(readerId);
+        }
+        String sql = String.format(FIND_BY_ID_PROJECTED_SQL, Dao.selectColumns("id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setLong(1, readerId);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            Reader reader = null;
+            if (resultSet.next()) {
+                reader = buildProjectedReader(resultSet, fields);
+                reader.setVersion(resultSet.getLong("version"));
+            }
+            return Optional.ofNullable(reader);
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public List<Reader> findAll(Set<String> fields) {
+        if (fields == null) {
+            return findAll();
+        }
+        String sql = String.format(FIND_ALL_PROJECTED_SQL, Dao.selectColumns("id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Reader> readers = new ArrayList<>();
+            while (resultSet.next()) {
+                readers.add(buildProjectedReader(resultSet, fields));
+            }
+            return readers;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public List<Reader> findPage(Long after, int limit, Set<String> fields) {
+        if (fields == null) {
+            return findPage(after, limit);
+        }
+        String sql = String.format(FIND_PAGE_PROJECTED_SQL, Dao.selectColumns("id", fields, COLUMNS_BY_FIELD));
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setLong(1, after == null ? Long.MIN_VALUE : after);
+            preparedStatement.setInt(2, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Reader> readers = new ArrayList<>();
+            while (resultSet.next()) {
+                readers.add(buildProjectedReader(resultSet, fields));
+            }
+            return readers;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    public void streamAll(Consumer<Reader> action) {
+        try (Connection connection = DataSource.getConnection(DataSource.Pool.BULK);
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_ALL_SQL)) {
+
+            boolean autoCommit = connection.getAutoCommit();
+            // Postgres driver uses a server side cursor only when autocommit is off
+            connection.setAutoCommit(false);
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(buildReader(resultSet));
+                }
+            } finally {
+                if (autoCommit) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     private Reader buildReader(ResultSet resultSet) throws SQLException {
         Reader reader = new Reader();
         reader.setId(resultSet.getLong("id"));
@@ -98,11 +277,46 @@ public class ReaderDao implements Dao<Long, Reader> {
         reader.setSurname(resultSet.getString("surname"));
         reader.setPhone(resultSet.getString("phone"));
         reader.setAddress(resultSet.getString("address"));
+        reader.setVersion(resultSet.getLong("version"));
         // Lazy loading of books
         reader.setBooks(new ArrayList<>());
         return reader;
     }
 
+    private Reader buildProjectedReader(ResultSet resultSet, Set<String> fields) throws SQLException {
+        Reader reader = new Reader();
+        reader.setId(resultSet.getLong("id"));
+        if (fields.contains("name")) {
+            reader.setName(resultSet.getString("name"));
+        }
+        if (fields.contains("surname")) {
+            reader.setSurname(resultSet.getString("surname"));
+        }
+        if (fields.contains("phone")) {
+            reader.setPhone(resultSet.getString("phone"));
+        }
+        if (fields.contains("address")) {
+            reader.setAddress(resultSet.getString("address"));
+        }
+        reader.setBooks(new ArrayList<>());
+        return reader;
+    }
+
+    /**
+     * Cached entities are shared, so every caller gets its own copy to fill with books/authors.
+     */
+    private Reader copyCached(Reader cached) {
+        Reader reader = new Reader();
+        reader.setId(cached.getId());
+        reader.setName(cached.getName());
+        reader.setSurname(cached.getSurname());
+        reader.setPhone(cached.getPhone());
+        reader.setAddress(cached.getAddress());
+        reader.setVersion(cached.getVersion());
+        reader.setBooks(new ArrayList<>());
+        return reader;
+    }
+
     public List<Book> getBooksForReader(Long readerId) {
         return bookDao.findAllByReaderId(readerId);
     }
@@ -134,6 +348,38 @@ public class ReaderDao implements Dao<Long, Reader> {
     }
 
 
+    /**
+     * Inserts all readers in one JDBC batch and sets generated ids to them in the order of the list.
+     * Books of the readers are not saved, new readers are created without books.
+     */
+    public List<Reader> saveAll(List<Reader> readers) {
+        if (readers.isEmpty()) {
+            return readers;
+        }
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+
+            for (Reader reader : readers) {
+                preparedStatement.setString(1, reader.getName());
+                preparedStatement.setString(2, reader.getSurname());
+                preparedStatement.setString(3, reader.getPhone());
+                preparedStatement.setString(4, reader.getAddress());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+            for (Reader reader : readers) {
+                generatedKeys.next();
+                reader.setId(generatedKeys.getLong("id"));
+            }
+            return readers;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
     @Override
     public boolean update(Reader reader) {
         try (Connection connection = DataSource.getConnection();
@@ -144,13 +390,16 @@ public class ReaderDao implements Dao<Long, Reader> {
             preparedStatement.setString(3, reader.getPhone());
             preparedStatement.setString(4, reader.getAddress());
             preparedStatement.setLong(5, reader.getId());
+            preparedStatement.setLong(6, reader.getVersion());
             int updateResult = preparedStatement.executeUpdate();
+            invalidateCached(reader.getId());
+            // Cached books hold reader's data too
+            bookDao.invalidateCachedByReaderId(reader.getId());
+            // Only new books are saved, existing ones keep their rows and versions
             if (updateResult > 0) {
                 for (Book book : reader.getBooks()) {
-                    book.setReader(reader);
-                    if (book.getId() != null) {
-                        bookDao.update(book);
-                    } else {
+                    if (book.getId() == null) {
+                        book.setReader(reader);
                         bookDao.save(book);
                     }
                 }
@@ -170,7 +419,31 @@ public class ReaderDao implements Dao<Long, Reader> {
 
             preparedStatement.setLong(1, readerId);
             bookDao.deleteAllByReaderId(readerId);
-            return preparedStatement.executeUpdate() > 0;
+            int deleteResult = preparedStatement.executeUpdate();
+            invalidateCached(readerId);
+            return deleteResult > 0;
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Only the reader's row is updated, the books are neither read nor rewritten.
+     */
+    @Override
+    public boolean patch(Long readerId, Map<String, Object> valuesByField, Set<String> expectedVersions) {
+        SortedMap<String, Object> values = new TreeMap<>(valuesByField);
+        try (Connection connection = DataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     String.format(PATCH_SQL, Dao.setColumns(values, COLUMNS_BY_FIELD)))) {
+
+            Dao.bindPatch(preparedStatement, values, readerId, expectedVersions);
+            int updateResult = preparedStatement.executeUpdate();
+            invalidateCached(readerId);
+            bookDao.invalidateCachedByReaderId(readerId);
+            return updateResult > 0;
 
         } catch (SQLException e) {
             throw new DaoException(e.getMessage());
@@ -178,13 +451,39 @@ public class ReaderDao implements Dao<Long, Reader> {
     }
 
 
+    /**
+     * Evicts the entity after the current transaction is over, earlier another thread could cache it again
+     * from the not yet changed row.
+     */
+    private void invalidateCached(Long readerId) {
+        if (cache != null) {
+            TransactionManager.afterCompletion(() -> cache.invalidate(readerId));
+        }
+    }
+
+
     public boolean isContainById(Long readerId) {
+        if (cache != null && !TransactionManager.isActive() && cache.contains(readerId)) {
+            return true;
+        }
+        return findMissingIds(List.of(readerId)).isEmpty();
+    }
+
+
+    public Set<Long> findMissingIds(Collection<Long> readerIds) {
+        Set<Long> missingIds = new LinkedHashSet<>();
+        if (readerIds.isEmpty()) {
+            return missingIds;
+        }
         try (Connection connection = DataSource.getConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(FIND_BY_ID_SQL)) {
+             PreparedStatement preparedStatement = connection.prepareStatement(FIND_MISSING_IDS_SQL)) {
 
-            preparedStatement.setLong(1, readerId);
+            preparedStatement.setArray(1, connection.createArrayOf("bigint", readerIds.toArray()));
             ResultSet resultSet = preparedStatement.executeQuery();
-            return resultSet.next();
+            while (resultSet.next()) {
+                missingIds.add(resultSet.getLong("id"));
+            }
+            return missingIds;
 
         } catch (SQLException e) {
             throw new DaoException(e.getMessage());
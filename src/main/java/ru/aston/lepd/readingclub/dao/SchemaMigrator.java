@@ -0,0 +1,202 @@
+package ru.aston.lepd.readingclub.dao;
+
+import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.util.DataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Brings the schema up to date with the versioned scripts from db/migration on the classpath.
+ * Applied versions are kept in schema_version with the checksums of their scripts, so a script
+ * edited after it was applied stops the startup instead of leaving databases different from each other.
+ * A script that starts with {@link #NO_TRANSACTION} runs outside a transaction one statement at a time,
+ * for statements Postgres refuses in a transaction block such as CREATE INDEX CONCURRENTLY.
+ */
+public class SchemaMigrator {
+
+    public static final String LOCATION = "db/migration/";
+
+    /**
+     * Scripts in the order of their versions, named V{version}__{description}.sql.
+     * New scripts are added to the end, applied ones are never changed.
+     */
+    public static final List<String> SCRIPTS = List.of(
+            "V1__baseline.sql",
+            "V2__lookup_indexes.sql",
+            "V3__row_versions.sql",
+            "V4__book_version_on_authors.sql");
+
+    // First line of a script that must not run in a transaction, its statements are split at ';'
+    public static final String NO_TRANSACTION = "-- no-transaction";
+
+    // Nodes started at the same time wait here for the one that migrates. The lock is held by the session,
+    // as scripts are committed one by one
+    public static final String LOCK_SQL = "SELECT pg_advisory_lock(hashtext('reading_club.schema_version'))";
+
+    public static final String UNLOCK_SQL = "SELECT pg_advisory_unlock(hashtext('reading_club.schema_version'))";
+
+    public static final String CREATE_SCHEMA_VERSION_SQL = """
+            CREATE TABLE IF NOT EXISTS schema_version
+            (
+                version     int PRIMARY KEY,
+                description varchar(128) NOT NULL,
+                checksum    varchar(64)  NOT NULL,
+                applied_at  timestamp    NOT NULL DEFAULT now()
+            )
+            """;
+
+    public static final String FIND_APPLIED_SQL = """
+            SELECT version, checksum FROM schema_version
+            """;
+
+    public static final String SAVE_APPLIED_SQL = """
+            INSERT INTO schema_version (version, description, checksum) VALUES (?, ?, ?)
+            """;
+
+
+    /**
+     * Applies the scripts that are not applied yet and returns their versions. Every script is committed
+     * together with its schema_version row, so a failed script leaves the ones before it applied.
+     * Throws DaoException if a script fails or if an applied script has another checksum now.
+     */
+    public List<Integer> migrate() {
+        try (Connection connection = DataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(LOCK_SQL);
+                try {
+                    statement.execute(CREATE_SCHEMA_VERSION_SQL);
+                    return migrate(connection);
+                } finally {
+                    statement.execute(UNLOCK_SQL);
+                }
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+
+        } catch (SQLException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+
+    private List<Integer> migrate(Connection connection) throws SQLException {
+        Map<Integer, String> checksums = findApplied(connection);
+
+        List<Integer> applied = new ArrayList<>();
+        for (String script : SCRIPTS) {
+            int version = Integer.parseInt(script.substring(1, script.indexOf("__")));
+            String description = script.substring(script.indexOf("__") + 2, script.lastIndexOf('.'));
+            byte[] content = load(script);
+            String checksum = checksum(content);
+
+            String appliedChecksum = checksums.get(version);
+            if (appliedChecksum != null) {
+                if (!appliedChecksum.equals(checksum)) {
+                    throw new DaoException("ERROR: migration " + script + " was changed after it had been applied");
+                }
+                continue;
+            }
+            String sql = new String(content, StandardCharsets.UTF_8);
+            if (sql.startsWith(NO_TRANSACTION)) {
+                applyWithoutTransaction(connection, sql);
+                saveApplied(connection, version, description, checksum);
+            } else {
+                applyInTransaction(connection, sql, version, description, checksum);
+            }
+            applied.add(version);
+        }
+        return applied;
+    }
+
+    private void applyInTransaction(Connection connection, String sql, int version, String description,
+                                    String checksum) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            }
+            saveApplied(connection, version, description, checksum);
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Several statements sent at once run in one implicit transaction, so they are sent one by one.
+     */
+    private void applyWithoutTransaction(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String part : sql.split(";")) {
+                String statementSql = part.lines()
+                        .filter(line -> !line.strip().startsWith("--"))
+                        .collect(Collectors.joining("\n"))
+                        .strip();
+                if (!statementSql.isEmpty()) {
+                    statement.execute(statementSql);
+                }
+            }
+        }
+    }
+
+    private void saveApplied(Connection connection, int version, String description, String checksum) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(SAVE_APPLIED_SQL)) {
+            preparedStatement.setInt(1, version);
+            preparedStatement.setString(2, description);
+            preparedStatement.setString(3, checksum);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private Map<Integer, String> findApplied(Connection connection) throws SQLException {
+        Map<Integer, String> checksums = new HashMap<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(FIND_APPLIED_SQL);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                checksums.put(resultSet.getInt("version"), resultSet.getString("checksum"));
+            }
+        }
+        return checksums;
+    }
+
+    private byte[] load(String script) {
+        try (InputStream inputStream = SchemaMigrator.class.getClassLoader().getResourceAsStream(LOCATION + script)) {
+            if (inputStream == null) {
+                throw new DaoException("ERROR: migration " + script + " is not found");
+            }
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new DaoException(e.getMessage());
+        }
+    }
+
+    private static String checksum(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+}
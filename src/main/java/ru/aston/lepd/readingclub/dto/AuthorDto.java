@@ -1,7 +1,15 @@
 package ru.aston.lepd.readingclub.dto;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import ru.aston.lepd.readingclub.util.Fields;
+
+import java.util.Set;
+
+@JsonFilter(Fields.FILTER)
 public class AuthorDto {
 
+    public static final Set<String> FIELDS = Set.of("fullName", "personalInfo");
+
     private String fullName;
     private String personalInfo;
 
@@ -1,9 +1,16 @@
 package ru.aston.lepd.readingclub.dto;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import ru.aston.lepd.readingclub.util.Fields;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+
+@JsonFilter(Fields.FILTER)
+public class BookDto {
 
-public class BookDto  {
+    public static final Set<String> FIELDS = Set.of("title", "inventoryNumber", "authorIds", "readerId");
 
     private String title;
     private Long inventoryNumber;
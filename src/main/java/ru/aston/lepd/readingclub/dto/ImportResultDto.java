@@ -0,0 +1,40 @@
+package ru.aston.lepd.readingclub.dto;
+
+public class ImportResultDto {
+
+    private long rowsRead;
+    private long rowsChanged;
+
+
+    public ImportResultDto() {
+    }
+
+    public ImportResultDto(long rowsRead, long rowsChanged) {
+        this.rowsRead = rowsRead;
+        this.rowsChanged = rowsChanged;
+    }
+
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public void setRowsRead(long rowsRead) {
+        this.rowsRead = rowsRead;
+    }
+
+    public long getRowsChanged() {
+        return rowsChanged;
+    }
+
+    public void setRowsChanged(long rowsChanged) {
+        this.rowsChanged = rowsChanged;
+    }
+
+    @Override
+    public String toString() {
+        return rowsRead + " rows read, " + rowsChanged + " rows inserted or changed";
+    }
+
+
+}
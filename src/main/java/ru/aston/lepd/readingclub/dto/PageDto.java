@@ -0,0 +1,56 @@
+package ru.aston.lepd.readingclub.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PageDto<T> {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private List<T> items = new ArrayList<>();
+    private Long nextCursor;
+
+
+    public PageDto() {
+    }
+
+    public PageDto(List<T> items, Long nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+
+    /**
+     * Returns limit of page items, missing limit is replaced by default one and too big is cut to max.
+     */
+    public static int normalizeLimit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    /**
+     * Id to pass as "after" parameter to get the next page, null if this page is the last one.
+     */
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+
+
+}
@@ -0,0 +1,28 @@
+package ru.aston.lepd.readingclub.dto;
+
+/**
+ * A dto together with the version of the row it was built from, the version becomes the ETag of the response.
+ */
+public class VersionedDto<T> {
+
+    private final T value;
+    private final String version;
+
+
+    public VersionedDto(T value, String version) {
+        this.value = value;
+        this.version = version;
+    }
+
+
+    public T getValue() {
+        return value;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+
+
+}
@@ -9,6 +9,8 @@ public class Author {
     private String fullName;
     private String personalInfo;
     private List<Book> books = new ArrayList<>();
+    // Raised by every update, an update of a stale copy changes nothing
+    private Long version;
 
 
     public String getPersonalInfo() {
@@ -27,6 +29,14 @@ public class Author {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public String getFullName() {
         return fullName;
     }
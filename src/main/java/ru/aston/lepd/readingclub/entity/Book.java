@@ -10,6 +10,8 @@ public class Book {
     private Long inventoryNumber;
     private List<Author> authors = new ArrayList<>();
     private Reader reader;
+    // Raised by every update, an update of a stale copy changes nothing
+    private Long version;
 
 
 
@@ -30,6 +32,14 @@ public class Book {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public String getTitle() {
         return title;
     }
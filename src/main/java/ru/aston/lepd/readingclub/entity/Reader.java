@@ -11,6 +11,8 @@ public class Reader {
     private String phone;
     private String address;
     private List<Book> books = new ArrayList<>();
+    // Raised by every update, an update of a stale copy changes nothing
+    private Long version;
 
 
     public String getAddress() {
@@ -29,6 +31,14 @@ public class Reader {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public String getName() {
         return name;
     }
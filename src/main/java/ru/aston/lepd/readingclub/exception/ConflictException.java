@@ -0,0 +1,11 @@
+package ru.aston.lepd.readingclub.exception;
+
+/**
+ * Entity was changed by someone else since it was read, the change is not applied.
+ */
+public class ConflictException extends RuntimeException {
+
+    public ConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package ru.aston.lepd.readingclub.exception;
+
+public class PayloadTooLargeException extends RuntimeException {
+
+    public PayloadTooLargeException(String message) {
+        super(message);
+    }
+
+}
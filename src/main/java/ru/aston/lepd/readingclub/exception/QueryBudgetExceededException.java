@@ -0,0 +1,9 @@
+package ru.aston.lepd.readingclub.exception;
+
+public class QueryBudgetExceededException extends RuntimeException {
+
+    public QueryBudgetExceededException(String message) {
+        super(message);
+    }
+
+}
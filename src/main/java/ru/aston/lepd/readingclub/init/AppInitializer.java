@@ -1,22 +1,43 @@
 package ru.aston.lepd.readingclub.init;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.ServletRegistration;
 import jakarta.servlet.annotation.WebListener;
 import ru.aston.lepd.readingclub.dao.AuthorBookDao;
 import ru.aston.lepd.readingclub.dao.AuthorDao;
 import ru.aston.lepd.readingclub.dao.BookDao;
+import ru.aston.lepd.readingclub.dao.ExportDao;
+import ru.aston.lepd.readingclub.dao.ImportDao;
 import ru.aston.lepd.readingclub.dao.ReaderDao;
+import ru.aston.lepd.readingclub.dao.SchemaMigrator;
+import ru.aston.lepd.readingclub.entity.Author;
+import ru.aston.lepd.readingclub.entity.Book;
+import ru.aston.lepd.readingclub.entity.Reader;
 import ru.aston.lepd.readingclub.service.AuthorService;
 import ru.aston.lepd.readingclub.service.BookService;
+import ru.aston.lepd.readingclub.service.ExportService;
+import ru.aston.lepd.readingclub.service.ImportService;
 import ru.aston.lepd.readingclub.service.ReaderService;
+import ru.aston.lepd.readingclub.servlet.AsyncServlet;
 import ru.aston.lepd.readingclub.servlet.AuthorServlet;
 import ru.aston.lepd.readingclub.servlet.BookServlet;
+import ru.aston.lepd.readingclub.servlet.ExportServlet;
+import ru.aston.lepd.readingclub.servlet.ImportServlet;
 import ru.aston.lepd.readingclub.servlet.ReaderServlet;
+import ru.aston.lepd.readingclub.util.CacheInvalidationListener;
 import ru.aston.lepd.readingclub.util.CustomMapper;
 import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.EntityCache;
+import ru.aston.lepd.readingclub.util.JsonCodec;
 import ru.aston.lepd.readingclub.util.PropertiesUtil;
+import ru.aston.lepd.readingclub.util.QueryStatistics;
+import ru.aston.lepd.readingclub.util.RequestExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @WebListener
 public class AppInitializer implements ServletContextListener {
@@ -25,6 +46,16 @@ public class AppInitializer implements ServletContextListener {
     private static final String USERNAME_KEY = "db.username";
     private static final String PASSWORD_KEY = "db.password";
     private static final String DRIVER_KEY = "db.driver";
+    private static final String MAX_BODY_SIZE_KEY = "http.max-body-size";
+    private static final String ASYNC_TIMEOUT_KEY = "http.async-timeout-ms";
+    private static final String STATISTICS_ENABLED_KEY = "db.statistics.enabled";
+    private static final String QUERY_BUDGET_KEY = "db.statistics.query-budget";
+    private static final String FAIL_ON_EXCEEDED_KEY = "db.statistics.fail-on-exceeded";
+    private static final String MIGRATION_ENABLED_KEY = "db.migration.enabled";
+
+    private RequestExecutor requestExecutor;
+    private CacheInvalidationListener cacheInvalidationListener;
+    private final List<EntityCache<Long, ?>> caches = new ArrayList<>();
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
@@ -34,6 +65,17 @@ public class AppInitializer implements ServletContextListener {
                 PropertiesUtil.getProperty(PASSWORD_KEY),
                 PropertiesUtil.getProperty(DRIVER_KEY));
 
+        // Schema is brought up to date before anything reads it, a failed or edited migration stops the startup
+        if (Boolean.parseBoolean(PropertiesUtil.getProperty(MIGRATION_ENABLED_KEY, "true"))) {
+            new SchemaMigrator().migrate();
+        }
+
+        QueryStatistics.configure(Boolean.parseBoolean(PropertiesUtil.getProperty(STATISTICS_ENABLED_KEY)),
+                Integer.parseInt(PropertiesUtil.getProperty(QUERY_BUDGET_KEY)),
+                Boolean.parseBoolean(PropertiesUtil.getProperty(FAIL_ON_EXCEEDED_KEY)));
+        QueryStatistics.registerSqlNames(AuthorBookDao.class, AuthorDao.class, BookDao.class, ReaderDao.class,
+                ImportDao.class, ExportDao.class);
+
         AuthorBookDao authorBookDao = new AuthorBookDao();
         AuthorDao authorDao = new AuthorDao(authorBookDao);
         BookDao bookDao = new BookDao(authorBookDao);
@@ -44,6 +86,24 @@ public class AppInitializer implements ServletContextListener {
         bookDao.setReaderDao(readerDao);
         readerDao.setBookDao(bookDao);
 
+        EntityCache<Long, Author> authorCache = createCache("authors");
+        EntityCache<Long, Book> bookCache = createCache("books");
+        EntityCache<Long, Reader> readerCache = createCache("readers");
+        authorDao.setCache(authorCache);
+        bookDao.setCache(bookCache);
+        readerDao.setCache(readerCache);
+
+        // Other nodes change the same tables, their changes come as notifications
+        cacheInvalidationListener = new CacheInvalidationListener(() -> caches.forEach(EntityCache::invalidateAll));
+        cacheInvalidationListener.on("readers", readerId -> {
+            readerCache.invalidate(readerId);
+            bookDao.invalidateCachedByReaderId(readerId);
+        });
+        cacheInvalidationListener.on("books", bookCache::invalidate);
+        cacheInvalidationListener.on("authors", authorCache::invalidate);
+        cacheInvalidationListener.on("author_book", bookCache::invalidate);
+        cacheInvalidationListener.start();
+
         CustomMapper mapper = CustomMapper.INSTANCE;
         ReaderService readerService = new ReaderService(readerDao, mapper);
         BookService bookService = new BookService(bookDao, mapper);
@@ -52,15 +112,58 @@ public class AppInitializer implements ServletContextListener {
         bookService.setAuthorService(authorService);
         bookService.setReaderService(readerService);
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        ReaderServlet readerServlet = new ReaderServlet(readerService, objectMapper);
-        BookServlet bookServlet = new BookServlet(bookService, objectMapper);
-        AuthorServlet authorServlet = new AuthorServlet(authorService, objectMapper);
+        JsonCodec jsonCodec = new JsonCodec(Integer.parseInt(PropertiesUtil.getProperty(MAX_BODY_SIZE_KEY)));
+        ReaderServlet readerServlet = new ReaderServlet(readerService, jsonCodec);
+        BookServlet bookServlet = new BookServlet(bookService, jsonCodec);
+        AuthorServlet authorServlet = new AuthorServlet(authorService, jsonCodec);
+        ImportServlet importServlet = new ImportServlet(new ImportService(new ImportDao()));
+        ExportServlet exportServlet = new ExportServlet(new ExportService(new ExportDao()));
+
+        requestExecutor = new RequestExecutor(DataSource.getMaximumPoolSize(),
+                Long.parseLong(PropertiesUtil.getProperty(ASYNC_TIMEOUT_KEY)));
+
+        ServletContext servletContext = sce.getServletContext();
+        register(servletContext, "readerServlet", readerServlet, "/readers/*");
+        register(servletContext, "bookServlet", bookServlet, "/books/*");
+        register(servletContext, "authorServlet", authorServlet, "/authors/*");
+        // Imports and exports run longer than the async timeout allows, so they stay on the container thread
+        servletContext.addServlet("importServlet", importServlet).addMapping("/admin/import/*");
+        servletContext.addServlet("exportServlet", exportServlet).addMapping("/export/*");
+
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        if (requestExecutor != null) {
+            requestExecutor.close();
+        }
+        if (cacheInvalidationListener != null) {
+            cacheInvalidationListener.close();
+        }
+        caches.forEach(EntityCache::unregisterMBean);
+        DataSource.close();
+    }
+
+
+    /**
+     * Size and expiry are read from cache.{name}.maximum-size and cache.{name}.expire-after-write-ms
+     */
+    private <V> EntityCache<Long, V> createCache(String name) {
+        EntityCache<Long, V> cache = new EntityCache<>(
+                Integer.parseInt(PropertiesUtil.getProperty("cache." + name + ".maximum-size")),
+                Long.parseLong(PropertiesUtil.getProperty("cache." + name + ".expire-after-write-ms")),
+                TimeUnit.MILLISECONDS);
+        cache.registerMBean(name);
+        caches.add(cache);
+        return cache;
+    }
 
-        sce.getServletContext().addServlet("readerServlet", readerServlet).addMapping("/readers/*");
-        sce.getServletContext().addServlet("bookServlet", bookServlet).addMapping("/books/*");
-        sce.getServletContext().addServlet("authorServlet", authorServlet).addMapping("/authors/*");
 
+    private void register(ServletContext servletContext, String name, AsyncServlet servlet, String mapping) {
+        servlet.setRequestExecutor(requestExecutor);
+        ServletRegistration.Dynamic registration = servletContext.addServlet(name, servlet);
+        registration.setAsyncSupported(true);
+        registration.addMapping(mapping);
     }
 
 
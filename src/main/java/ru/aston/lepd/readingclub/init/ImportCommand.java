@@ -0,0 +1,62 @@
+package ru.aston.lepd.readingclub.init;
+
+import ru.aston.lepd.readingclub.dao.CopyFormat;
+import ru.aston.lepd.readingclub.dao.ImportDao;
+import ru.aston.lepd.readingclub.dto.ImportResultDto;
+import ru.aston.lepd.readingclub.service.ImportService;
+import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.PropertiesUtil;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Imports a file the same way as POST /admin/import/{table}, connecting with the settings of
+ * application.properties. Format is taken from the file extension (.ndjson or .jsonl, otherwise csv)
+ * unless given explicitly.
+ */
+public final class ImportCommand {
+
+    private static final String USAGE = "Usage: ImportCommand {readers|books|authors|author_book} {file} [csv|ndjson]";
+
+    private static final String URL_KEY = "db.url";
+    private static final String USERNAME_KEY = "db.username";
+    private static final String PASSWORD_KEY = "db.password";
+    private static final String DRIVER_KEY = "db.driver";
+
+    private ImportCommand() {
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        ImportDao.Target target = ImportDao.Target.forTable(args[0]);
+        Path file = Path.of(args[1]);
+        CopyFormat format = args.length > 2 ? CopyFormat.forName(args[2]) : formatOf(file);
+
+        DataSource.initialize(PropertiesUtil.getProperty(URL_KEY),
+                PropertiesUtil.getProperty(USERNAME_KEY),
+                PropertiesUtil.getProperty(PASSWORD_KEY),
+                PropertiesUtil.getProperty(DRIVER_KEY));
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            ImportResultDto result = new ImportService(new ImportDao()).importFrom(target, format, input);
+            System.out.println("Result of importing " + target.getTable() + ": " + result);
+        } finally {
+            DataSource.close();
+        }
+    }
+
+
+    private static CopyFormat formatOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") ? CopyFormat.NDJSON : CopyFormat.CSV;
+    }
+
+
+}
@@ -2,18 +2,32 @@ package ru.aston.lepd.readingclub.service;
 
 import ru.aston.lepd.readingclub.dao.AuthorDao;
 import ru.aston.lepd.readingclub.dto.AuthorDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
 import ru.aston.lepd.readingclub.entity.Author;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
 import ru.aston.lepd.readingclub.util.CustomMapper;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static ru.aston.lepd.readingclub.util.TransactionManager.inTransaction;
 
 public class AuthorService {
 
     private final AuthorDao authorDao;
     private final CustomMapper mapper;
     private static final String NOT_FOUND = "There is no author with id=%d in database";
+    private static final String CONFLICT = "Author with id=%d was changed by someone else, read it again";
+    private static final String NOTHING_TO_UPDATE = "ERROR: nothing to update";
+    private static final String NOT_FOUND_ALL = "There are no authors with ids=%s in database";
 
 
     public AuthorService(AuthorDao authorDao, CustomMapper mapper) {
@@ -25,15 +39,29 @@ public class AuthorService {
 
 
     public AuthorDto getById(Long authorId) {
-        Optional<Author> authorOptional = authorDao.findById(authorId);
-        // Lazy loading of books
-        authorOptional.ifPresent(author -> author.setBooks(authorDao.getBooksForAuthor(authorId)));
-        return authorOptional.map(mapper::authorToAuthorDto)
+        // AuthorDto has no books, so they are not loaded
+        return authorDao.findById(authorId)
+                .map(mapper::authorToAuthorDto)
                 .orElseThrow(() -> new NotFoundException(String.format(NOT_FOUND, authorId)));
     }
 
 
 
+    /**
+     * The author with the version of the very row it is built from, so its ETag never belongs to another body.
+     * With a projection only the columns of the fields are read, books are never loaded. Null fields mean all.
+     */
+    public VersionedDto<AuthorDto> getVersionedById(Long authorId, Set<String> fields) {
+        Author author = authorDao.findById(authorId, fields)
+                .orElseThrow(() -> new NotFoundException(String.format(NOT_FOUND, authorId)));
+        return new VersionedDto<>(mapper.authorToAuthorDto(author), String.valueOf(author.getVersion()));
+    }
+
+
+
+    /**
+     * The entity for an update, with books: the links of the author are written back from them.
+     */
     public Author getAuthorById(Long authorId) {
         Optional<Author> authorOptional = authorDao.findById(authorId);
         authorOptional.ifPresent(author -> author.setBooks(authorDao.getBooksForAuthor(authorId)));
@@ -43,35 +71,150 @@ public class AuthorService {
 
 
     public List<AuthorDto> getAll() {
-        List<Author> authors = authorDao.findAll();
-        authors.forEach(author -> author.setBooks(authorDao.getBooksForAuthor(author.getId())));
-        return authors.stream()
+        return authorDao.findAll().stream()
+                .map(mapper::authorToAuthorDto)
+                .toList();
+    }
+
+
+
+    public PageDto<AuthorDto> getPage(Long after, Integer limit) {
+        int pageLimit = PageDto.normalizeLimit(limit);
+        // One extra row tells whether there is a next page
+        List<Author> authors = authorDao.findPage(after, pageLimit + 1);
+        Long nextCursor = null;
+        if (authors.size() > pageLimit) {
+            authors = authors.subList(0, pageLimit);
+            nextCursor = authors.get(pageLimit - 1).getId();
+        }
+        // AuthorDto has no books, so they are not loaded for the page
+        List<AuthorDto> items = authors.stream()
+                .map(mapper::authorToAuthorDto)
+                .toList();
+        return new PageDto<>(items, nextCursor);
+    }
+
+
+
+    /**
+     * Only the columns of the fields are read and no books are loaded. Null fields mean all.
+     */
+    public List<AuthorDto> getAll(Set<String> fields) {
+        if (fields == null) {
+            return getAll();
+        }
+        return authorDao.findAll(fields).stream()
+                .map(mapper::authorToAuthorDto)
+                .toList();
+    }
+
+
+
+    public PageDto<AuthorDto> getPage(Long after, Integer limit, Set<String> fields) {
+        if (fields == null) {
+            return getPage(after, limit);
+        }
+        int pageLimit = PageDto.normalizeLimit(limit);
+        List<Author> authors = authorDao.findPage(after, pageLimit + 1, fields);
+        Long nextCursor = null;
+        if (authors.size() > pageLimit) {
+            authors = authors.subList(0, pageLimit);
+            nextCursor = authors.get(pageLimit - 1).getId();
+        }
+        List<AuthorDto> items = authors.stream()
                 .map(mapper::authorToAuthorDto)
                 .toList();
+        return new PageDto<>(items, nextCursor);
     }
 
 
 
+    public void streamAll(Consumer<AuthorDto> action) {
+        authorDao.streamAll(author -> action.accept(mapper.authorToAuthorDto(author)));
+    }
+
+
+
+
     public AuthorDto save(AuthorDto authorDto) {
-        Author author = mapper.authorDtoToAuthor(authorDto);
-        Author savedAuthor = authorDao.save(author);
-        return mapper.authorToAuthorDto(savedAuthor);
+        return inTransaction(() -> {
+            Author author = mapper.authorDtoToAuthor(authorDto);
+            Author savedAuthor = authorDao.save(author);
+            return mapper.authorToAuthorDto(savedAuthor);
+        });
+    }
+
+
+
+    /**
+     * Saves all authors in one transaction, returns their ids in the order of the list.
+     */
+    public List<Long> saveAll(List<AuthorDto> authorDtos) {
+        return inTransaction(() -> {
+            List<Author> authors = authorDtos.stream()
+                    .map(mapper::authorDtoToAuthor)
+                    .toList();
+            return authorDao.saveAll(authors).stream()
+                    .map(Author::getId)
+                    .toList();
+        });
     }
 
 
 
     public boolean update(AuthorDto authorDto, Long authorId) {
-        Author updating = getAuthorById(authorId);
-        Optional.ofNullable(authorDto.getFullName()).ifPresent(updating::setFullName);
-        Optional.ofNullable(authorDto.getPersonalInfo()).ifPresent(updating::setPersonalInfo);
-        return authorDao.update(updating);
+        return update(authorDto, authorId, null);
+    }
+
+    /**
+     * Applies the change only if the author is still in one of the expected versions, null expects any.
+     * Throws ConflictException if it is not, or if someone else changed the author while it was being updated.
+     */
+    public boolean update(AuthorDto authorDto, Long authorId, Set<String> expectedVersions) {
+        return inTransaction(() -> {
+            Author updating = getAuthorById(authorId);
+            if (expectedVersions != null && !expectedVersions.contains(String.valueOf(updating.getVersion()))) {
+                throw new ConflictException(String.format(CONFLICT, authorId));
+            }
+            Optional.ofNullable(authorDto.getFullName()).ifPresent(updating::setFullName);
+            Optional.ofNullable(authorDto.getPersonalInfo()).ifPresent(updating::setPersonalInfo);
+            if (!authorDao.update(updating)) {
+                throw new ConflictException(String.format(CONFLICT, authorId));
+            }
+            return true;
+        });
+    }
+
+
+
+    /**
+     * Sets only the non-null fields of the dto with one UPDATE, the author is not read before.
+     * Links to books are left as they are.
+     * Throws ConflictException if it is not in one of the expected versions, null expects any.
+     */
+    public boolean patch(AuthorDto authorDto, Long authorId, Set<String> expectedVersions) {
+        Map<String, Object> valuesByField = new HashMap<>();
+        Optional.ofNullable(authorDto.getFullName()).ifPresent(value -> valuesByField.put("fullName", value));
+        Optional.ofNullable(authorDto.getPersonalInfo()).ifPresent(value -> valuesByField.put("personalInfo", value));
+        if (valuesByField.isEmpty()) {
+            throw new IllegalArgumentException(NOTHING_TO_UPDATE);
+        }
+        return inTransaction(() -> {
+            if (!authorDao.patch(authorId, valuesByField, expectedVersions)) {
+                isContainById(authorId);
+                throw new ConflictException(String.format(CONFLICT, authorId));
+            }
+            return true;
+        });
     }
 
 
 
     public boolean delete(Long authorId) {
-        isContainById(authorId);
-        return authorDao.delete(authorId);
+        return inTransaction(() -> {
+            isContainById(authorId);
+            return authorDao.delete(authorId);
+        });
     }
 
 
@@ -82,5 +225,16 @@ public class AuthorService {
         return true;
     }
 
+    /**
+     * Checks all the ids with one query and reports every missing one, not only the first.
+     */
+    public void checkAllExist(Collection<Long> authorIds) {
+        Set<Long> missingIds = authorDao.findMissingIds(authorIds);
+        if (!missingIds.isEmpty()) {
+            String ids = missingIds.stream().map(String::valueOf).collect(Collectors.joining(", "));
+            throw new NotFoundException(String.format(NOT_FOUND_ALL, ids));
+        }
+    }
+
 
 }
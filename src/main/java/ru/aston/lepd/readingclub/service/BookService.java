@@ -2,12 +2,24 @@ package ru.aston.lepd.readingclub.service;
 
 import ru.aston.lepd.readingclub.dao.BookDao;
 import ru.aston.lepd.readingclub.dto.BookDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
+import ru.aston.lepd.readingclub.entity.Author;
 import ru.aston.lepd.readingclub.entity.Book;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
 import ru.aston.lepd.readingclub.util.CustomMapper;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static ru.aston.lepd.readingclub.util.TransactionManager.inTransaction;
 
 public class BookService {
 
@@ -17,6 +29,8 @@ public class BookService {
     private ReaderService readerService;
     private final CustomMapper mapper;
     private static final String NOT_FOUND = "There is no book with id=%d in database";
+    private static final String CONFLICT = "Book with id=%d was changed by someone else, read it again";
+    private static final String NOTHING_TO_UPDATE = "ERROR: nothing to update";
 
     public BookService(BookDao bookDao, CustomMapper mapper) {
         this.bookDao = bookDao;
@@ -40,6 +54,22 @@ public class BookService {
     }
 
 
+
+    /**
+     * The book with the version of the very row it is built from, so its ETag never belongs to another body.
+     * With a projection only the columns of the fields are read, author ids come in the same query
+     * if asked for and the reader is never joined. Null fields mean all.
+     */
+    public VersionedDto<BookDto> getVersionedById(Long bookId, Set<String> fields) {
+        Book book = bookDao.findById(bookId, fields)
+                .orElseThrow(() -> new NotFoundException(String.format(NOT_FOUND, bookId)));
+        if (fields == null) {
+            book.setAuthors(bookDao.getAuthorsForBook(bookId));
+        }
+        return new VersionedDto<>(mapper.bookToBookDto(book), String.valueOf(book.getVersion()));
+    }
+
+
     public Book getBookById(Long bookId) {
         Optional<Book> bookOptional = bookDao.findById(bookId);
         bookOptional.ifPresent(book -> book.setAuthors(bookDao.getAuthorsForBook(bookId)));
@@ -49,25 +79,115 @@ public class BookService {
 
     public List<BookDto> getAll() {
         List<Book> books = bookDao.findAll();
-        books.forEach(book -> book.setAuthors(bookDao.getAuthorsForBook(book.getId())));
-        return books.stream()
+        return toBookDtos(books);
+    }
+
+
+    public PageDto<BookDto> getPage(Long after, Integer limit) {
+        int pageLimit = PageDto.normalizeLimit(limit);
+        // One extra row tells whether there is a next page
+        List<Book> books = bookDao.findPage(after, pageLimit + 1);
+        Long nextCursor = null;
+        if (books.size() > pageLimit) {
+            books = books.subList(0, pageLimit);
+            nextCursor = books.get(pageLimit - 1).getId();
+        }
+        return new PageDto<>(toBookDtos(books), nextCursor);
+    }
+
+
+    /**
+     * Only the columns of the fields are read, author ids come in the same query if asked for
+     * and the reader is never joined. Null fields mean all.
+     */
+    public List<BookDto> getAll(Set<String> fields) {
+        if (fields == null) {
+            return getAll();
+        }
+        return bookDao.findAll(fields).stream()
                 .map(mapper::bookToBookDto)
                 .toList();
     }
 
 
-    public List<BookDto> getAllByReaderId(Long readerId) {
-        List<Book> books = bookDao.findAllByReaderId(readerId);
-        books.forEach(book -> book.setAuthors(bookDao.getAuthorsForBook(book.getId())));
-        return books.stream()
+    public PageDto<BookDto> getPage(Long after, Integer limit, Set<String> fields) {
+        if (fields == null) {
+            return getPage(after, limit);
+        }
+        int pageLimit = PageDto.normalizeLimit(limit);
+        List<Book> books = bookDao.findPage(after, pageLimit + 1, fields);
+        Long nextCursor = null;
+        if (books.size() > pageLimit) {
+            books = books.subList(0, pageLimit);
+            nextCursor = books.get(pageLimit - 1).getId();
+        }
+        List<BookDto> items = books.stream()
                 .map(mapper::bookToBookDto)
                 .toList();
+        return new PageDto<>(items, nextCursor);
+    }
+
+
+    public void streamAll(Consumer<BookDto> action) {
+        // Author ids come with each book row, so nothing is loaded per book
+        bookDao.streamAll(book -> action.accept(mapper.bookToBookDto(book)));
+    }
+
+
+
+    /**
+     * Passes json of every book as rendered by the database, see {@link BookDao#streamJson}.
+     */
+    public void streamAllJson(Consumer<byte[]> action) {
+        bookDao.streamJson(null, null, (id, json) -> action.accept(json));
+    }
+
+
+    /**
+     * Page of {@link #streamAllJson}, limited as {@link #getPage(Long, Integer)}.
+     * Returns the cursor of the next page, null if this page is the last one.
+     */
+    public Long streamPageJson(Long after, Integer limit, Consumer<byte[]> action) {
+        int pageLimit = PageDto.normalizeLimit(limit);
+        long[] lastId = new long[1];
+        int[] count = new int[1];
+        // One extra row tells whether there is a next page, it is not passed to the action
+        bookDao.streamJson(after, pageLimit + 1, (id, json) -> {
+            if (++count[0] <= pageLimit) {
+                lastId[0] = id;
+                action.accept(json);
+            }
+        });
+        return count[0] > pageLimit ? lastId[0] : null;
+    }
+
+
+
+    public List<BookDto> getAllByReaderId(Long readerId) {
+        List<Book> books = bookDao.findAllByReaderId(readerId);
+        return toBookDtos(books);
     }
 
 
     public List<BookDto> getAllByAuthorId(Long authorId) {
         List<Book> books = bookDao.findAllByAuthorId(authorId);
-        books.forEach(book -> book.setAuthors(bookDao.getAuthorsForBook(book.getId())));
+        return toBookDtos(books);
+    }
+
+
+    private List<Long> getAuthorIds(Book book) {
+        return book.getAuthors().stream()
+                .map(Author::getId)
+                .toList();
+    }
+
+    private List<BookDto> toBookDtos(List<Book> books) {
+        if (books.isEmpty()) {
+            return List.of();
+        }
+        // Authors of the whole list are loaded with one query instead of one per book
+        Map<Long, List<Author>> authorsByBookId = bookDao.getAuthorsForBooks(books.stream().map(Book::getId).toList());
+        books.forEach(book -> book.setAuthors(authorsByBookId.getOrDefault(book.getId(), new ArrayList<>())));
         return books.stream()
                 .map(mapper::bookToBookDto)
                 .toList();
@@ -75,34 +195,105 @@ public class BookService {
 
 
     public BookDto save(BookDto bookDto) {
-        Book book = mapper.bookDtoToBook(bookDto);
-        book.getAuthors().forEach(author -> authorService.isContainById(author.getId()));
-        readerService.isContainById(book.getReader().getId());
-        Book savedBook = bookDao.save(book);
-        return mapper.bookToBookDto(savedBook);
+        return inTransaction(() -> {
+            Book book = mapper.bookDtoToBook(bookDto);
+            authorService.checkAllExist(getAuthorIds(book));
+            readerService.isContainById(book.getReader().getId());
+            Book savedBook = bookDao.save(book);
+            return mapper.bookToBookDto(savedBook);
+        });
+    }
+
+
+
+    /**
+     * Saves all books in one transaction. Authors of all the books are checked with one query
+     * and their readers with another, instead of two queries per book.
+     * Returns ids of the saved books in the order of the list.
+     */
+    public List<Long> saveAll(List<BookDto> bookDtos) {
+        return inTransaction(() -> {
+            List<Book> books = bookDtos.stream()
+                    .map(mapper::bookDtoToBook)
+                    .toList();
+            authorService.checkAllExist(books.stream()
+                    .flatMap(book -> getAuthorIds(book).stream())
+                    .collect(Collectors.toSet()));
+            readerService.checkAllExist(books.stream()
+                    .map(book -> book.getReader().getId())
+                    .collect(Collectors.toSet()));
+            return bookDao.saveAll(books).stream()
+                    .map(Book::getId)
+                    .toList();
+        });
     }
 
 
     public boolean update(BookDto bookDto, Long bookId) {
-        Book updating = getBookById(bookId);
-        Book requestBook = mapper.bookDtoToBook(bookDto);
-        Optional.ofNullable(requestBook.getTitle()).ifPresent(updating::setTitle);
-        Optional.ofNullable(requestBook.getInventoryNumber()).ifPresent(updating::setInventoryNumber);
-        if (!requestBook.getAuthors().isEmpty()) {
-            requestBook.getAuthors().forEach(author -> authorService.isContainById(author.getId()));
-            updating.setAuthors(requestBook.getAuthors());
+        return update(bookDto, bookId, null);
+    }
+
+    /**
+     * Applies the change only if the book is still in one of the expected versions, null expects any.
+     * Throws ConflictException if it is not, or if someone else changed the book while it was being updated.
+     */
+    public boolean update(BookDto bookDto, Long bookId, Set<String> expectedVersions) {
+        return inTransaction(() -> {
+            Book updating = getBookById(bookId);
+            if (expectedVersions != null && !expectedVersions.contains(String.valueOf(updating.getVersion()))) {
+                throw new ConflictException(String.format(CONFLICT, bookId));
+            }
+            Book requestBook = mapper.bookDtoToBook(bookDto);
+            Optional.ofNullable(requestBook.getTitle()).ifPresent(updating::setTitle);
+            Optional.ofNullable(requestBook.getInventoryNumber()).ifPresent(updating::setInventoryNumber);
+            if (!requestBook.getAuthors().isEmpty()) {
+                authorService.checkAllExist(getAuthorIds(requestBook));
+                updating.setAuthors(requestBook.getAuthors());
+            }
+            Optional.ofNullable(requestBook.getReader()).ifPresent(reader -> {
+                readerService.isContainById(reader.getId());
+                updating.setReader(reader);
+            });
+            if (!bookDao.update(updating)) {
+                throw new ConflictException(String.format(CONFLICT, bookId));
+            }
+            return true;
+        });
+    }
+
+
+    /**
+     * Sets only the non-null fields of the dto with one UPDATE, the book is not read before.
+     * Reader and authors are checked by the foreign keys instead of being loaded, authors are replaced only if given.
+     * Throws ConflictException if it is not in one of the expected versions, null expects any.
+     */
+    public boolean patch(BookDto bookDto, Long bookId, Set<String> expectedVersions) {
+        Map<String, Object> valuesByField = new HashMap<>();
+        Optional.ofNullable(bookDto.getTitle()).ifPresent(value -> valuesByField.put("title", value));
+        Optional.ofNullable(bookDto.getInventoryNumber()).ifPresent(value -> valuesByField.put("inventoryNumber", value));
+        Optional.ofNullable(bookDto.getReaderId()).ifPresent(value -> valuesByField.put("readerId", value));
+        if (bookDto.getAuthorIds() != null && !bookDto.getAuthorIds().isEmpty()) {
+            valuesByField.put("authorIds", bookDto.getAuthorIds());
         }
-        Optional.ofNullable(requestBook.getReader()).ifPresent(reader -> {
-            readerService.isContainById(reader.getId());
-            updating.setReader(reader);
+        if (valuesByField.isEmpty()) {
+            throw new IllegalArgumentException(NOTHING_TO_UPDATE);
+        }
+        return inTransaction(() -> {
+            if (!bookDao.patch(bookId, valuesByField, expectedVersions)) {
+                isContainById(bookId);
+                throw new ConflictException(String.format(CONFLICT, bookId));
+            }
+            return true;
         });
-        return bookDao.update(updating);
     }
 
 
+
     public boolean delete(Long readerId) {
-        isContainById(readerId);
-        return bookDao.delete(readerId);
+        return inTransaction(() -> {
+            isContainById(readerId);
+            return bookDao.delete(readerId);
+        });
     }
 
 
@@ -0,0 +1,24 @@
+package ru.aston.lepd.readingclub.service;
+
+import ru.aston.lepd.readingclub.dao.CopyFormat;
+import ru.aston.lepd.readingclub.dao.ExportDao;
+
+import java.io.OutputStream;
+
+public class ExportService {
+
+    private final ExportDao exportDao;
+
+    public ExportService(ExportDao exportDao) {
+        this.exportDao = exportDao;
+    }
+
+
+
+
+    public long exportTo(ExportDao.Target target, CopyFormat format, OutputStream output) {
+        return exportDao.copyOut(target, format, output);
+    }
+
+
+}
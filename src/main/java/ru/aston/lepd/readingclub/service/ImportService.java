@@ -0,0 +1,43 @@
+package ru.aston.lepd.readingclub.service;
+
+import ru.aston.lepd.readingclub.dao.CopyFormat;
+import ru.aston.lepd.readingclub.dao.ImportDao;
+import ru.aston.lepd.readingclub.dto.ImportResultDto;
+import ru.aston.lepd.readingclub.exception.NotFoundException;
+
+import java.io.InputStream;
+import java.util.List;
+
+import static ru.aston.lepd.readingclub.util.TransactionManager.inTransaction;
+
+public class ImportService {
+
+    private final ImportDao importDao;
+
+    private static final String UNRESOLVED = "ERROR: imported %s refer to missing rows: %s";
+
+    public ImportService(ImportDao importDao) {
+        this.importDao = importDao;
+    }
+
+
+
+
+    /**
+     * Imports all rows of the input in one transaction: nothing is changed if any row is invalid
+     * or refers to a row that doesn't exist.
+     */
+    public ImportResultDto importFrom(ImportDao.Target target, CopyFormat format, InputStream input) {
+        return inTransaction(() -> {
+            long rowsRead = importDao.copyToStaging(target, format, input);
+            List<String> unresolved = importDao.findUnresolved(target);
+            if (!unresolved.isEmpty()) {
+                throw new NotFoundException(String.format(UNRESOLVED, target.getTable(), String.join(", ", unresolved)));
+            }
+            long rowsChanged = importDao.merge(target);
+            return new ImportResultDto(rowsRead, rowsChanged);
+        });
+    }
+
+
+}
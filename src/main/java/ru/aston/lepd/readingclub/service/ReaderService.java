@@ -2,18 +2,32 @@ package ru.aston.lepd.readingclub.service;
 
 import ru.aston.lepd.readingclub.dao.ReaderDao;
 import ru.aston.lepd.readingclub.dto.ReaderDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
 import ru.aston.lepd.readingclub.entity.Reader;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
 import ru.aston.lepd.readingclub.util.CustomMapper;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static ru.aston.lepd.readingclub.util.TransactionManager.inTransaction;
 
 public class ReaderService {
 
     private final ReaderDao readerDao;
     private final CustomMapper mapper;
     private static final String NOT_FOUND = "There is no reader with id=%d in database";
+    private static final String CONFLICT = "Reader with id=%d was changed by someone else, read it again";
+    private static final String NOTHING_TO_UPDATE = "ERROR: nothing to update";
+    private static final String NOT_FOUND_ALL = "There are no readers with ids=%s in database";
 
     public ReaderService(ReaderDao readerDao, CustomMapper mapper) {
         this.readerDao = readerDao;
@@ -24,55 +38,184 @@ public class ReaderService {
 
 
     public ReaderDto getById(Long readerId) {
-        Optional<Reader> readerOptional = readerDao.findById(readerId);
-        // Lazy loading of books
-        readerOptional.ifPresent(reader -> reader.setBooks(readerDao.getBooksForReader(readerId)));
-        return readerOptional.map(mapper::readerToReaderDto)
+        // ReaderDto has no books, so they are not loaded
+        return readerDao.findById(readerId)
+                .map(mapper::readerToReaderDto)
+                .orElseThrow(() -> new NotFoundException(String.format(NOT_FOUND, readerId)));
+    }
+
+
+
+    /**
+     * The reader with the version of the very row it is built from, so its ETag never belongs to another body.
+     * With a projection only the columns of the fields are read, books are never loaded. Null fields mean all.
+     */
+    public VersionedDto<ReaderDto> getVersionedById(Long readerId, Set<String> fields) {
+        Reader reader = readerDao.findById(readerId, fields)
                 .orElseThrow(() -> new NotFoundException(String.format(NOT_FOUND, readerId)));
+        return new VersionedDto<>(mapper.readerToReaderDto(reader), String.valueOf(reader.getVersion()));
     }
 
 
 
     public Reader getReaderById(Long readerId) {
-        Optional<Reader> readerOptional = readerDao.findById(readerId);
-        readerOptional.ifPresent(reader -> reader.setBooks(readerDao.getBooksForReader(readerId)));
-        return readerOptional.orElseThrow(() -> new NotFoundException(String.format(NOT_FOUND, readerId)));
+        return readerDao.findById(readerId)
+                .orElseThrow(() -> new NotFoundException(String.format(NOT_FOUND, readerId)));
     }
 
 
 
     public List<ReaderDto> getAll() {
-        List<Reader> readers = readerDao.findAll();
-        readers.forEach(reader -> reader.setBooks(readerDao.getBooksForReader(reader.getId())));
-        return readers.stream()
+        return readerDao.findAll().stream()
                 .map(mapper::readerToReaderDto)
                 .toList();
     }
 
 
 
+    public PageDto<ReaderDto> getPage(Long after, Integer limit) {
+        int pageLimit = PageDto.normalizeLimit(limit);
+        // One extra row tells whether there is a next page
+        List<Reader> readers = readerDao.findPage(after, pageLimit + 1);
+        Long nextCursor = null;
+        if (readers.size() > pageLimit) {
+            readers = readers.subList(0, pageLimit);
+            nextCursor = readers.get(pageLimit - 1).getId();
+        }
+        // ReaderDto has no books, so they are not loaded for the page
+        List<ReaderDto> items = readers.stream()
+                .map(mapper::readerToReaderDto)
+                .toList();
+        return new PageDto<>(items, nextCursor);
+    }
+
+
+
+    /**
+     * Only the columns of the fields are read and no books are loaded. Null fields mean all.
+     */
+    public List<ReaderDto> getAll(Set<String> fields) {
+        if (fields == null) {
+            return getAll();
+        }
+        return readerDao.findAll(fields).stream()
+                .map(mapper::readerToReaderDto)
+                .toList();
+    }
+
+
+
+    public PageDto<ReaderDto> getPage(Long after, Integer limit, Set<String> fields) {
+        if (fields == null) {
+            return getPage(after, limit);
+        }
+        int pageLimit = PageDto.normalizeLimit(limit);
+        List<Reader> readers = readerDao.findPage(after, pageLimit + 1, fields);
+        Long nextCursor = null;
+        if (readers.size() > pageLimit) {
+            readers = readers.subList(0, pageLimit);
+            nextCursor = readers.get(pageLimit - 1).getId();
+        }
+        List<ReaderDto> items = readers.stream()
+                .map(mapper::readerToReaderDto)
+                .toList();
+        return new PageDto<>(items, nextCursor);
+    }
+
+
+
+    public void streamAll(Consumer<ReaderDto> action) {
+        readerDao.streamAll(reader -> action.accept(mapper.readerToReaderDto(reader)));
+    }
+
+
+
+
     public ReaderDto save(ReaderDto readerDto) {
-        Reader reader = mapper.readerDtoToReader(readerDto);
-        Reader savedReader = readerDao.save(reader);
-        return mapper.readerToReaderDto(savedReader);
+        return inTransaction(() -> {
+            Reader reader = mapper.readerDtoToReader(readerDto);
+            Reader savedReader = readerDao.save(reader);
+            return mapper.readerToReaderDto(savedReader);
+        });
+    }
+
+
+
+    /**
+     * Saves all readers in one transaction, returns their ids in the order of the list.
+     */
+    public List<Long> saveAll(List<ReaderDto> readerDtos) {
+        return inTransaction(() -> {
+            List<Reader> readers = readerDtos.stream()
+                    .map(mapper::readerDtoToReader)
+                    .toList();
+            return readerDao.saveAll(readers).stream()
+                    .map(Reader::getId)
+                    .toList();
+        });
     }
 
 
 
     public boolean update(ReaderDto readerDto, Long readerId) {
-        Reader updating = getReaderById(readerId);
-        Optional.ofNullable(readerDto.getName()).ifPresent(updating::setName);
-        Optional.ofNullable(readerDto.getSurname()).ifPresent(updating::setSurname);
-        Optional.ofNullable(readerDto.getPhone()).ifPresent(updating::setPhone);
-        Optional.ofNullable(readerDto.getAddress()).ifPresent(updating::setAddress);
-        return readerDao.update(updating);
+        return update(readerDto, readerId, null);
+    }
+
+    /**
+     * Applies the change only if the reader is still in one of the expected versions, null expects any.
+     * Throws ConflictException if it is not, or if someone else changed the reader while it was being updated.
+     */
+    public boolean update(ReaderDto readerDto, Long readerId, Set<String> expectedVersions) {
+        return inTransaction(() -> {
+            // Only the reader row, ReaderDao.update does not rewrite the books it already has
+            Reader updating = readerDao.findById(readerId)
+                    .orElseThrow(() -> new NotFoundException(String.format(NOT_FOUND, readerId)));
+            if (expectedVersions != null && !expectedVersions.contains(String.valueOf(updating.getVersion()))) {
+                throw new ConflictException(String.format(CONFLICT, readerId));
+            }
+            Optional.ofNullable(readerDto.getName()).ifPresent(updating::setName);
+            Optional.ofNullable(readerDto.getSurname()).ifPresent(updating::setSurname);
+            Optional.ofNullable(readerDto.getPhone()).ifPresent(updating::setPhone);
+            Optional.ofNullable(readerDto.getAddress()).ifPresent(updating::setAddress);
+            if (!readerDao.update(updating)) {
+                throw new ConflictException(String.format(CONFLICT, readerId));
+            }
+            return true;
+        });
+    }
+
+
+
+    /**
+     * Sets only the non-null fields of the dto with one UPDATE, the reader is not read before.
+     * The books of the reader are not loaded.
+     * Throws ConflictException if it is not in one of the expected versions, null expects any.
+     */
+    public boolean patch(ReaderDto readerDto, Long readerId, Set<String> expectedVersions) {
+        Map<String, Object> valuesByField = new HashMap<>();
+        Optional.ofNullable(readerDto.getName()).ifPresent(value -> valuesByField.put("name", value));
+        Optional.ofNullable(readerDto.getSurname()).ifPresent(value -> valuesByField.put("surname", value));
+        Optional.ofNullable(readerDto.getPhone()).ifPresent(value -> valuesByField.put("phone", value));
+        Optional.ofNullable(readerDto.getAddress()).ifPresent(value -> valuesByField.put("address", value));
+        if (valuesByField.isEmpty()) {
+            throw new IllegalArgumentException(NOTHING_TO_UPDATE);
+        }
+        return inTransaction(() -> {
+            if (!readerDao.patch(readerId, valuesByField, expectedVersions)) {
+                isContainById(readerId);
+                throw new ConflictException(String.format(CONFLICT, readerId));
+            }
+            return true;
+        });
     }
 
 
 
     public boolean delete(Long readerId) {
-        isContainById(readerId);
-        return readerDao.delete(readerId);
+        return inTransaction(() -> {
+            isContainById(readerId);
+            return readerDao.delete(readerId);
+        });
     }
 
 
@@ -84,6 +227,16 @@ public class ReaderService {
     }
 
 
+
+    public void checkAllExist(Collection<Long> readerIds) {
+        Set<Long> missingIds = readerDao.findMissingIds(readerIds);
+        if (!missingIds.isEmpty()) {
+            String ids = missingIds.stream().map(String::valueOf).collect(Collectors.joining(", "));
+            throw new NotFoundException(String.format(NOT_FOUND_ALL, ids));
+        }
+    }
+
+
 }
 
 
@@ -0,0 +1,77 @@
+package ru.aston.lepd.readingclub.servlet;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import ru.aston.lepd.readingclub.util.QueryStatistics;
+import ru.aston.lepd.readingclub.util.RequestExecutor;
+
+import java.io.IOException;
+
+/**
+ * Servlet which hands its doGet/doPost/... over to {@link RequestExecutor} when the request supports async mode.
+ * Without executor (or for not async requests) they are called on the container thread as usual.
+ */
+public abstract class AsyncServlet extends HttpServlet {
+
+    public static final String METHOD_PATCH = "PATCH";
+
+    private RequestExecutor requestExecutor;
+
+
+    public void setRequestExecutor(RequestExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (requestExecutor == null || !request.isAsyncSupported()) {
+            serviceCounted(request, response);
+            return;
+        }
+        requestExecutor.execute(request, response, this::serviceCounted);
+    }
+
+
+    /**
+     * Every request is a unit of work of {@link QueryStatistics}, so an N+1 in any handler gets reported.
+     */
+    private void serviceCounted(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        QueryStatistics statistics = QueryStatistics.start(request.getMethod() + " " + request.getRequestURI());
+        try {
+            if (METHOD_PATCH.equals(request.getMethod())) {
+                doPatch(request, response);
+            } else {
+                super.service(request, response);
+            }
+        } finally {
+            statistics.finish();
+        }
+    }
+
+
+    /**
+     * Discards the body written so far, so the caller can send error message instead.
+     * If part of the body is already sent the error can't be reported in the body any more,
+     * so the exception is rethrown to make the container break the response.
+     */
+    protected void resetForError(HttpServletResponse response, Exception cause) throws IOException {
+        if (response.isCommitted()) {
+            throw new IOException(cause);
+        }
+        response.reset();
+    }
+
+
+    /**
+     * HttpServlet has no PATCH, servlets that support it override this like the other doXxx methods.
+     */
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "PATCH is not supported by " + request.getRequestURI());
+    }
+
+
+}
@@ -2,65 +2,97 @@ package ru.aston.lepd.readingclub.servlet;
 
 
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.annotation.WebServlet;
-import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import ru.aston.lepd.readingclub.dto.AuthorDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
+import ru.aston.lepd.readingclub.exception.PayloadTooLargeException;
 import ru.aston.lepd.readingclub.service.AuthorService;
+import ru.aston.lepd.readingclub.util.ETags;
+import ru.aston.lepd.readingclub.util.Fields;
+import ru.aston.lepd.readingclub.util.JsonCodec;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Set;
 
 import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static jakarta.servlet.http.HttpServletResponse.SC_CONFLICT;
 import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static jakarta.servlet.http.HttpServletResponse.SC_PRECONDITION_FAILED;
+import static jakarta.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
 
 @WebServlet(name = "authorServlet")
-public class AuthorServlet extends HttpServlet {
+public class AuthorServlet extends AsyncServlet {
 
     private final AuthorService authorService;
-    private final ObjectMapper objectMapper;
+    private final JsonCodec jsonCodec;
 
-    public AuthorServlet(AuthorService authorService, ObjectMapper objectMapper) {
+    public AuthorServlet(AuthorService authorService, JsonCodec jsonCodec) {
         this.authorService = authorService;
-        this.objectMapper = objectMapper;
+        this.jsonCodec = jsonCodec;
     }
 
 
     private static final String TEXT_PLAIN = "text/plain";
-    private static final String APPLICATION_JSON = "application/json";
     private static final String ID_ERROR = "ERROR: author ID is required";
     private static final String URL_ERROR = "ERROR: wrong URL";
+    private static final String BATCH_PATH = "/batch";
     private static final String UPDATING_RESULT = "Result of updating author: ";
     private static final String DELETING_RESULT = "Result of deleting author: ";
 
 
+    /**
+     * To get the list of authors page by page pass "after" (id from "nextCursor" of previous page) and/or "limit".
+     * Example: localhost:8080/authors?limit=50 then localhost:8080/authors?after=50&limit=50
+     * Big lists can be streamed with constant memory by passing stream=true.
+     * Example: localhost:8080/authors?stream=true
+     * A single author has an ETag, it is answered with 304 Not Modified if "If-None-Match" has it.
+     * Only some fields are read and written if they are listed in "fields".
+     * Example: localhost:8080/authors?fields=fullName
+     */
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
         String result;
         String pathInfo = request.getPathInfo();
         try {
+            Set<String> fields = Fields.parse(request.getParameter(Fields.PARAMETER), AuthorDto.FIELDS);
             if (pathInfo == null || pathInfo.equals("/")) {
-                List<AuthorDto> allAuthors = authorService.getAll();
-                result = objectMapper.writeValueAsString(allAuthors);
+                String after = request.getParameter("after");
+                String limit = request.getParameter("limit");
+                if (Boolean.parseBoolean(request.getParameter("stream"))) {
+                    jsonCodec.writeStream(request, response, AuthorDto.class, authorService::streamAll);
+                } else if (after != null || limit != null) {
+                    PageDto<AuthorDto> page = authorService.getPage(after == null ? null : Long.valueOf(after),
+                            limit == null ? null : Integer.valueOf(limit), fields);
+                    jsonCodec.writePage(request, response, page, AuthorDto.class);
+                } else {
+                    List<AuthorDto> allAuthors = authorService.getAll(fields);
+                    jsonCodec.writeList(request, response, allAuthors, AuthorDto.class);
+                }
             } else {
                 Long authorId = Long.parseLong(pathInfo.substring(1));
-                AuthorDto authorDto = authorService.getById(authorId);
-                result = objectMapper.writeValueAsString(authorDto);
+                VersionedDto<AuthorDto> authorDto = authorService.getVersionedById(authorId, fields);
+                if (ETags.checkNotModified(request, response, authorDto.getVersion())) {
+                    return;
+                }
+                jsonCodec.write(request, response, authorDto.getValue());
             }
-            response.setContentType(APPLICATION_JSON);
+            return;
         }
-        catch (NotFoundException | DaoException e) {
+        catch (IllegalArgumentException | NotFoundException | DaoException e) {
+            resetForError(response, e);
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_BAD_REQUEST);
         } catch (Exception e) {
+            resetForError(response, e);
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_INTERNAL_SERVER_ERROR);
@@ -71,30 +103,40 @@ public class AuthorServlet extends HttpServlet {
     }
 
 
+    /**
+     * Creates one author from an object, or many authors at once from an array posted to /batch,
+     * in one transaction. The batch answers with ids of the created authors in the order of the array.
+     * Example: localhost:8080/authors/batch
+     */
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String result;
-        try (BufferedReader bufferedReader = request.getReader();
-             Stream<String> lines = bufferedReader.lines()) {
-
-            StringBuilder body = new StringBuilder();
-            lines.forEach(body::append);
-            AuthorDto authorDto = objectMapper.readValue(body.toString(), AuthorDto.class);
+        try {
             String pathInfo = request.getPathInfo();
             if (pathInfo == null || pathInfo.equals("/")) {
+                AuthorDto authorDto = jsonCodec.read(request, AuthorDto.class);
                 AuthorDto savedAuthor = authorService.save(authorDto);
-                result = objectMapper.writeValueAsString(savedAuthor);
-                response.setContentType(APPLICATION_JSON);
-            } else {
-                result = URL_ERROR;
-                response.setContentType(TEXT_PLAIN);
-                response.setStatus(SC_BAD_REQUEST);
+                jsonCodec.write(request, response, savedAuthor);
+                return;
+            }
+            if (pathInfo.equals(BATCH_PATH)) {
+                List<AuthorDto> authorDtos = jsonCodec.readList(request, AuthorDto.class);
+                List<Long> ids = authorService.saveAll(authorDtos);
+                jsonCodec.writeIds(request, response, ids);
+                return;
             }
+            result = URL_ERROR;
+            response.setContentType(TEXT_PLAIN);
+            response.setStatus(SC_BAD_REQUEST);
         } catch (JsonMappingException | DaoException e) {
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_BAD_REQUEST);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setContentType(TEXT_PLAIN);
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
@@ -106,16 +148,17 @@ public class AuthorServlet extends HttpServlet {
     }
 
 
+    /**
+     * Updates the author with the given fields. With "If-Match" holding the ETag of a previous GET the update
+     * is applied only if the author has not changed since, otherwise it is answered with 412 Precondition Failed.
+     * An update that meets a concurrent one is answered with 409 Conflict, nothing is overwritten.
+     */
     @Override
     protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String result;
-        try (BufferedReader bufferedReader = request.getReader();
-             Stream<String> lines = bufferedReader.lines()) {
-
-            StringBuilder body = new StringBuilder();
-            lines.forEach(body::append);
-            AuthorDto authorDto = objectMapper.readValue(body.toString(), AuthorDto.class);
+        try {
+            AuthorDto authorDto = jsonCodec.read(request, AuthorDto.class);
             String pathInfo = request.getPathInfo();
 
             if (pathInfo == null || pathInfo.equals("/")) {
@@ -123,13 +166,63 @@ public class AuthorServlet extends HttpServlet {
                 response.setStatus(SC_BAD_REQUEST);
             } else {
                 Long authorId = Long.parseLong(pathInfo.substring(1));
-                boolean updateResult = authorService.update(authorDto, authorId);
+                Set<String> expectedVersions = ETags.versionsOf(request.getHeader(ETags.IF_MATCH));
+                boolean updateResult = authorService.update(authorDto, authorId, expectedVersions);
                 result = UPDATING_RESULT + updateResult;
             }
         }
         catch (JsonMappingException | NotFoundException | DaoException e) {
             result = e.getMessage();
             response.setStatus(SC_BAD_REQUEST);
+        } catch (ConflictException e) {
+            result = e.getMessage();
+            response.setStatus(request.getHeader(ETags.IF_MATCH) == null ? SC_CONFLICT : SC_PRECONDITION_FAILED);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
+        } catch (Exception e) {
+            result = e.getMessage();
+            response.setStatus(SC_INTERNAL_SERVER_ERROR);
+        }
+        response.setContentType(TEXT_PLAIN);
+        try (PrintWriter writer = response.getWriter()) {
+            writer.write(result);
+        }
+    }
+
+
+    /**
+     * Partial update: only the fields present in the body are written, with one UPDATE and without
+     * reading the author first. Links to books are kept.
+     * If-Match, 409 and 412 are the same as for PUT.
+     */
+    @Override
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        String result;
+        try {
+            AuthorDto authorDto = jsonCodec.read(request, AuthorDto.class);
+            String pathInfo = request.getPathInfo();
+
+            if (pathInfo == null || pathInfo.equals("/")) {
+                result = ID_ERROR;
+                response.setStatus(SC_BAD_REQUEST);
+            } else {
+                Long authorId = Long.parseLong(pathInfo.substring(1));
+                Set<String> expectedVersions = ETags.versionsOf(request.getHeader(ETags.IF_MATCH));
+                boolean updateResult = authorService.patch(authorDto, authorId, expectedVersions);
+                result = UPDATING_RESULT + updateResult;
+            }
+        }
+        catch (JsonMappingException | IllegalArgumentException | NotFoundException | DaoException e) {
+            result = e.getMessage();
+            response.setStatus(SC_BAD_REQUEST);
+        } catch (ConflictException e) {
+            result = e.getMessage();
+            response.setStatus(request.getHeader(ETags.IF_MATCH) == null ? SC_CONFLICT : SC_PRECONDITION_FAILED);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             result = e.getMessage();
             response.setStatus(SC_INTERNAL_SERVER_ERROR);
@@ -1,43 +1,50 @@
 package ru.aston.lepd.readingclub.servlet;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.annotation.WebServlet;
-import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import ru.aston.lepd.readingclub.dto.BookDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
+import ru.aston.lepd.readingclub.exception.PayloadTooLargeException;
 import ru.aston.lepd.readingclub.service.BookService;
+import ru.aston.lepd.readingclub.util.ETags;
+import ru.aston.lepd.readingclub.util.Fields;
+import ru.aston.lepd.readingclub.util.JsonCodec;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Set;
 
 import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static jakarta.servlet.http.HttpServletResponse.SC_CONFLICT;
 import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static jakarta.servlet.http.HttpServletResponse.SC_PRECONDITION_FAILED;
+import static jakarta.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
 
 
 @WebServlet(name = "bookServlet")
-public class BookServlet extends HttpServlet {
+public class BookServlet extends AsyncServlet {
 
 
     private final BookService bookService;
-    private final ObjectMapper objectMapper;
+    private final JsonCodec jsonCodec;
 
-    public BookServlet(BookService bookService, ObjectMapper objectMapper) {
+    public BookServlet(BookService bookService, JsonCodec jsonCodec) {
         this.bookService = bookService;
-        this.objectMapper = objectMapper;
+        this.jsonCodec = jsonCodec;
     }
 
     private static final String TEXT_PLAIN = "text/plain";
-    private static final String APPLICATION_JSON = "application/json";
     private static final String ID_ERROR = "ERROR: book ID is required";
     private static final String URL_ERROR = "ERROR: wrong URL";
+    private static final String BATCH_PATH = "/batch";
+    private static final String RENDER_DB = "db";
     private static final String UPDATING_RESULT = "Result of updating book: ";
     private static final String DELETING_RESULT = "Result of deleting book: ";
 
@@ -45,39 +52,74 @@ public class BookServlet extends HttpServlet {
     /**
      * To get the list of books filtered by readerId or by authorId you need to pass the parameters in url.
      * Example: localhost:8080/books?reader-id=1 or localhost:8080/books?author-id=1
+     * To get the list of books page by page pass "after" (id from "nextCursor" of previous page) and/or "limit".
+     * Example: localhost:8080/books?limit=50 then localhost:8080/books?after=50&limit=50
+     * Big lists can be streamed with constant memory by passing stream=true.
+     * Example: localhost:8080/books?stream=true
+     * A single book has an ETag, it is answered with 304 Not Modified if "If-None-Match" has it.
+     * Only some fields are read and written if they are listed in "fields".
+     * Example: localhost:8080/books?fields=title,inventoryNumber
+     * With render=db the json of a list or a page is built by the database and passed through as it is,
+     * only for json responses without "fields", otherwise the parameter is ignored.
+     * Example: localhost:8080/books?render=db&limit=1000
      */
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String result;
         try {
+            Set<String> fields = Fields.parse(request.getParameter(Fields.PARAMETER), BookDto.FIELDS);
             String readerId = request.getParameter("reader-id");
             String authorId = request.getParameter("author-id");
             String pathInfo = request.getPathInfo();
             if (readerId != null) {
                 List<BookDto> allByReaderId = bookService.getAllByReaderId(Long.parseLong(readerId));
-                result = objectMapper.writeValueAsString(allByReaderId);
+                jsonCodec.writeList(request, response, allByReaderId, BookDto.class);
             }
             else if (authorId != null) {
                 List<BookDto> allByAuthorId = bookService.getAllByAuthorId(Long.parseLong(authorId));
-                result = objectMapper.writeValueAsString(allByAuthorId);
+                jsonCodec.writeList(request, response, allByAuthorId, BookDto.class);
             }
             else if (pathInfo == null || pathInfo.equals("/")) {
-                List<BookDto> allBooks = bookService.getAll();
-                result = objectMapper.writeValueAsString(allBooks);
+                String after = request.getParameter("after");
+                String limit = request.getParameter("limit");
+                boolean renderInDb = RENDER_DB.equals(request.getParameter("render"))
+                        && fields == null && jsonCodec.acceptsJson(request);
+                if (renderInDb && (after != null || limit != null)) {
+                    Long afterId = after == null ? null : Long.valueOf(after);
+                    Integer pageLimit = limit == null ? null : Integer.valueOf(limit);
+                    jsonCodec.writeRawPage(request, response,
+                            items -> bookService.streamPageJson(afterId, pageLimit, items));
+                } else if (renderInDb) {
+                    jsonCodec.writeRawList(request, response, bookService::streamAllJson);
+                } else if (Boolean.parseBoolean(request.getParameter("stream"))) {
+                    jsonCodec.writeStream(request, response, BookDto.class, bookService::streamAll);
+                } else if (after != null || limit != null) {
+                    PageDto<BookDto> page = bookService.getPage(after == null ? null : Long.valueOf(after),
+                            limit == null ? null : Integer.valueOf(limit), fields);
+                    jsonCodec.writePage(request, response, page, BookDto.class);
+                } else {
+                    List<BookDto> allBooks = bookService.getAll(fields);
+                    jsonCodec.writeList(request, response, allBooks, BookDto.class);
+                }
             }
             else {
                 Long bookId = Long.parseLong(pathInfo.substring(1));
-                BookDto bookDto = bookService.getById(bookId);
-                result = objectMapper.writeValueAsString(bookDto);
+                VersionedDto<BookDto> bookDto = bookService.getVersionedById(bookId, fields);
+                if (ETags.checkNotModified(request, response, bookDto.getVersion())) {
+                    return;
+                }
+                jsonCodec.write(request, response, bookDto.getValue());
             }
-            response.setContentType(APPLICATION_JSON);
+            return;
         }
-          catch (NotFoundException | DaoException e) {
+          catch (IllegalArgumentException | NotFoundException | DaoException e) {
+            resetForError(response, e);
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_BAD_REQUEST);
         } catch (Exception e) {
+            resetForError(response, e);
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_INTERNAL_SERVER_ERROR);
@@ -88,31 +130,41 @@ public class BookServlet extends HttpServlet {
     }
 
 
+    /**
+     * Creates one book from an object, or many books at once from an array posted to /batch,
+     * in one transaction. The batch answers with ids of the created books in the order of the array.
+     * Example: localhost:8080/books/batch
+     */
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String result ;
-        try (BufferedReader bufferedReader = request.getReader();
-             Stream<String> lines = bufferedReader.lines()) {
-
-            StringBuilder body = new StringBuilder();
-            lines.forEach(body::append);
-            BookDto bookDto = objectMapper.readValue(body.toString(), BookDto.class);
+        try {
             String pathInfo = request.getPathInfo();
             if (pathInfo == null || pathInfo.equals("/")) {
+                BookDto bookDto = jsonCodec.read(request, BookDto.class);
                 BookDto savedBook = bookService.save(bookDto);
-                result = objectMapper.writeValueAsString(savedBook);
-                response.setContentType(APPLICATION_JSON);
-            } else {
-                result = URL_ERROR;
-                response.setContentType(TEXT_PLAIN);
-                response.setStatus(SC_BAD_REQUEST);
+                jsonCodec.write(request, response, savedBook);
+                return;
             }
+            if (pathInfo.equals(BATCH_PATH)) {
+                List<BookDto> bookDtos = jsonCodec.readList(request, BookDto.class);
+                List<Long> ids = bookService.saveAll(bookDtos);
+                jsonCodec.writeIds(request, response, ids);
+                return;
+            }
+            result = URL_ERROR;
+            response.setContentType(TEXT_PLAIN);
+            response.setStatus(SC_BAD_REQUEST);
         }
           catch (JsonMappingException | DaoException e) {
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_BAD_REQUEST);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setContentType(TEXT_PLAIN);
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
@@ -124,16 +176,17 @@ public class BookServlet extends HttpServlet {
     }
 
 
+    /**
+     * Updates the book with the given fields. With "If-Match" holding the ETag of a previous GET the update
+     * is applied only if the book has not changed since, otherwise it is answered with 412 Precondition Failed.
+     * An update that meets a concurrent one is answered with 409 Conflict, nothing is overwritten.
+     */
     @Override
     protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String result;
-        try (BufferedReader bufferedReader = request.getReader();
-             Stream<String> lines = bufferedReader.lines()) {
-
-            StringBuilder body = new StringBuilder();
-            lines.forEach(body::append);
-            BookDto bookDto = objectMapper.readValue(body.toString(), BookDto.class);
+        try {
+            BookDto bookDto = jsonCodec.read(request, BookDto.class);
             String pathInfo = request.getPathInfo();
 
             if (pathInfo == null || pathInfo.equals("/")) {
@@ -141,13 +194,63 @@ public class BookServlet extends HttpServlet {
                 response.setStatus(SC_BAD_REQUEST);
             } else {
                 Long bookId = Long.parseLong(pathInfo.substring(1));
-                boolean updateResult = bookService.update(bookDto, bookId);
+                Set<String> expectedVersions = ETags.versionsOf(request.getHeader(ETags.IF_MATCH));
+                boolean updateResult = bookService.update(bookDto, bookId, expectedVersions);
                 result = UPDATING_RESULT + updateResult;
             }
         }
           catch (JsonMappingException | NotFoundException | DaoException e) {
             result = e.getMessage();
             response.setStatus(SC_BAD_REQUEST);
+        } catch (ConflictException e) {
+            result = e.getMessage();
+            response.setStatus(request.getHeader(ETags.IF_MATCH) == null ? SC_CONFLICT : SC_PRECONDITION_FAILED);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
+        } catch (Exception e) {
+            result = e.getMessage();
+            response.setStatus(SC_INTERNAL_SERVER_ERROR);
+        }
+        response.setContentType(TEXT_PLAIN);
+        try (PrintWriter writer = response.getWriter()) {
+            writer.write(result);
+        }
+    }
+
+
+    /**
+     * Partial update: only the fields present in the body are written, with one UPDATE and without
+     * reading the book first. Authors are replaced only if authorIds are given.
+     * If-Match, 409 and 412 are the same as for PUT.
+     */
+    @Override
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        String result;
+        try {
+            BookDto bookDto = jsonCodec.read(request, BookDto.class);
+            String pathInfo = request.getPathInfo();
+
+            if (pathInfo == null || pathInfo.equals("/")) {
+                result = ID_ERROR;
+                response.setStatus(SC_BAD_REQUEST);
+            } else {
+                Long bookId = Long.parseLong(pathInfo.substring(1));
+                Set<String> expectedVersions = ETags.versionsOf(request.getHeader(ETags.IF_MATCH));
+                boolean updateResult = bookService.patch(bookDto, bookId, expectedVersions);
+                result = UPDATING_RESULT + updateResult;
+            }
+        }
+          catch (JsonMappingException | IllegalArgumentException | NotFoundException | DaoException e) {
+            result = e.getMessage();
+            response.setStatus(SC_BAD_REQUEST);
+        } catch (ConflictException e) {
+            result = e.getMessage();
+            response.setStatus(request.getHeader(ETags.IF_MATCH) == null ? SC_CONFLICT : SC_PRECONDITION_FAILED);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             result = e.getMessage();
             response.setStatus(SC_INTERNAL_SERVER_ERROR);
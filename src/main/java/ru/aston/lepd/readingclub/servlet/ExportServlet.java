@@ -0,0 +1,77 @@
+package ru.aston.lepd.readingclub.servlet;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import ru.aston.lepd.readingclub.dao.CopyFormat;
+import ru.aston.lepd.readingclub.dao.ExportDao;
+import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.service.ExportService;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+
+@WebServlet(name = "exportServlet")
+public class ExportServlet extends AsyncServlet {
+
+
+    private final ExportService exportService;
+
+    public ExportServlet(ExportService exportService) {
+        this.exportService = exportService;
+    }
+
+
+    private static final String TEXT_PLAIN = "text/plain";
+    private static final String CONTENT_DISPOSITION = "Content-Disposition";
+    private static final String ATTACHMENT = "attachment; filename=\"%s.%s\"";
+    private static final String TARGET_ERROR = "ERROR: table to export is required";
+
+
+    /**
+     * Streams the whole table of readers, books or authors as it is copied out of the database,
+     * CSV by default or NDJSON with format=ndjson.
+     * Example: curl -o books.ndjson "localhost:8080/export/books?format=ndjson"
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        String result;
+        try {
+            String pathInfo = request.getPathInfo();
+            if (pathInfo == null || pathInfo.equals("/")) {
+                result = TARGET_ERROR;
+                response.setStatus(SC_BAD_REQUEST);
+            } else {
+                ExportDao.Target target = ExportDao.Target.forTable(pathInfo.substring(1));
+                String formatName = request.getParameter("format");
+                CopyFormat format = formatName == null ? CopyFormat.CSV : CopyFormat.forName(formatName);
+                response.setContentType(format.getMediaType());
+                response.setCharacterEncoding(UTF_8.name());
+                response.setHeader(CONTENT_DISPOSITION,
+                        String.format(ATTACHMENT, target.getTable(), format.name().toLowerCase()));
+                exportService.exportTo(target, format, response.getOutputStream());
+                return;
+            }
+        } catch (IllegalArgumentException | DaoException e) {
+            resetForError(response, e);
+            result = e.getMessage();
+            response.setStatus(SC_BAD_REQUEST);
+        } catch (Exception e) {
+            resetForError(response, e);
+            result = e.getMessage();
+            response.setStatus(SC_INTERNAL_SERVER_ERROR);
+        }
+        response.setContentType(TEXT_PLAIN);
+        try (PrintWriter writer = response.getWriter()) {
+            writer.write(result);
+        }
+    }
+
+
+}
@@ -0,0 +1,73 @@
+package ru.aston.lepd.readingclub.servlet;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import ru.aston.lepd.readingclub.dao.CopyFormat;
+import ru.aston.lepd.readingclub.dao.ImportDao;
+import ru.aston.lepd.readingclub.dto.ImportResultDto;
+import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.exception.NotFoundException;
+import ru.aston.lepd.readingclub.service.ImportService;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+
+
+@WebServlet(name = "importServlet")
+public class ImportServlet extends AsyncServlet {
+
+
+    private final ImportService importService;
+
+    public ImportServlet(ImportService importService) {
+        this.importService = importService;
+    }
+
+
+    private static final String TEXT_PLAIN = "text/plain";
+    private static final String TARGET_ERROR = "ERROR: table to import is required";
+    private static final String IMPORTING_RESULT = "Result of importing %s: %s";
+
+
+    /**
+     * Imports the body into readers, books, authors or author_book, the body is not limited in size.
+     * CSV by default, NDJSON if Content-Type is application/x-ndjson.
+     * Example: curl -H "Content-Type: text/csv" --data-binary @books.csv localhost:8080/admin/import/books
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        String result;
+        try {
+            String pathInfo = request.getPathInfo();
+            if (pathInfo == null || pathInfo.equals("/")) {
+                result = TARGET_ERROR;
+                response.setStatus(SC_BAD_REQUEST);
+            } else {
+                ImportDao.Target target = ImportDao.Target.forTable(pathInfo.substring(1));
+                String contentType = request.getContentType();
+                CopyFormat format = contentType != null && contentType.startsWith(CopyFormat.NDJSON.getMediaType())
+                        ? CopyFormat.NDJSON
+                        : CopyFormat.CSV;
+                ImportResultDto importResult = importService.importFrom(target, format, request.getInputStream());
+                result = String.format(IMPORTING_RESULT, target.getTable(), importResult);
+            }
+        } catch (IllegalArgumentException | NotFoundException | DaoException e) {
+            result = e.getMessage();
+            response.setStatus(SC_BAD_REQUEST);
+        } catch (Exception e) {
+            result = e.getMessage();
+            response.setStatus(SC_INTERNAL_SERVER_ERROR);
+        }
+        response.setContentType(TEXT_PLAIN);
+        try (PrintWriter writer = response.getWriter()) {
+            writer.write(result);
+        }
+    }
+
+
+}
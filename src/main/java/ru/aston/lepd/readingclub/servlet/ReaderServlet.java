@@ -1,68 +1,100 @@
 package ru.aston.lepd.readingclub.servlet;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.annotation.WebServlet;
-import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import ru.aston.lepd.readingclub.dto.ReaderDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
+import ru.aston.lepd.readingclub.exception.PayloadTooLargeException;
 import ru.aston.lepd.readingclub.service.ReaderService;
+import ru.aston.lepd.readingclub.util.ETags;
+import ru.aston.lepd.readingclub.util.Fields;
+import ru.aston.lepd.readingclub.util.JsonCodec;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Set;
 
 import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static jakarta.servlet.http.HttpServletResponse.SC_CONFLICT;
 import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static jakarta.servlet.http.HttpServletResponse.SC_PRECONDITION_FAILED;
+import static jakarta.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 
 @WebServlet(name = "readerServlet")
-public class ReaderServlet extends HttpServlet {
+public class ReaderServlet extends AsyncServlet {
 
 
     private final ReaderService readerService;
-    private final ObjectMapper objectMapper;
+    private final JsonCodec jsonCodec;
 
-    public ReaderServlet(ReaderService readerService, ObjectMapper objectMapper) {
+    public ReaderServlet(ReaderService readerService, JsonCodec jsonCodec) {
         this.readerService = readerService;
-        this.objectMapper = objectMapper;
+        this.jsonCodec = jsonCodec;
     }
 
 
     private static final String TEXT_PLAIN = "text/plain";
-    private static final String APPLICATION_JSON = "application/json";
     private static final String ID_ERROR = "ERROR: reader ID is required";
     private static final String URL_ERROR = "ERROR: wrong URL";
+    private static final String BATCH_PATH = "/batch";
     private static final String UPDATING_RESULT = "Result of updating reader: ";
     private static final String DELETING_RESULT = "Result of deleting reader: ";
 
 
+    /**
+     * To get the list of readers page by page pass "after" (id from "nextCursor" of previous page) and/or "limit".
+     * Example: localhost:8080/readers?limit=50 then localhost:8080/readers?after=50&limit=50
+     * Big lists can be streamed with constant memory by passing stream=true.
+     * Example: localhost:8080/readers?stream=true
+     * A single reader has an ETag, it is answered with 304 Not Modified if "If-None-Match" has it.
+     * Only some fields are read and written if they are listed in "fields".
+     * Example: localhost:8080/readers?fields=name,phone
+     */
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
         String result;
         try {
+            Set<String> fields = Fields.parse(request.getParameter(Fields.PARAMETER), ReaderDto.FIELDS);
             String pathInfo = request.getPathInfo();
             if (pathInfo == null || pathInfo.equals("/")) {
-                List<ReaderDto> allReaders = readerService.getAll();
-                result = objectMapper.writeValueAsString(allReaders);
+                String after = request.getParameter("after");
+                String limit = request.getParameter("limit");
+                if (Boolean.parseBoolean(request.getParameter("stream"))) {
+                    jsonCodec.writeStream(request, response, ReaderDto.class, readerService::streamAll);
+                } else if (after != null || limit != null) {
+                    PageDto<ReaderDto> page = readerService.getPage(after == null ? null : Long.valueOf(after),
+                            limit == null ? null : Integer.valueOf(limit), fields);
+                    jsonCodec.writePage(request, response, page, ReaderDto.class);
+                } else {
+                    List<ReaderDto> allReaders = readerService.getAll(fields);
+                    jsonCodec.writeList(request, response, allReaders, ReaderDto.class);
+                }
             } else {
                 Long readerId = Long.parseLong(pathInfo.substring(1));
-                ReaderDto readerDto = readerService.getById(readerId);
-                result = objectMapper.writeValueAsString(readerDto);
+                VersionedDto<ReaderDto> readerDto = readerService.getVersionedById(readerId, fields);
+                if (ETags.checkNotModified(request, response, readerDto.getVersion())) {
+                    return;
+                }
+                jsonCodec.write(request, response, readerDto.getValue());
             }
-            response.setContentType(APPLICATION_JSON);
+            return;
         }
-        catch (NotFoundException | DaoException e) {
+        catch (IllegalArgumentException | NotFoundException | DaoException e) {
+            resetForError(response, e);
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_BAD_REQUEST);
         } catch (Exception e) {
+            resetForError(response, e);
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_INTERNAL_SERVER_ERROR);
@@ -73,31 +105,41 @@ public class ReaderServlet extends HttpServlet {
     }
 
 
+    /**
+     * Creates one reader from an object, or many readers at once from an array posted to /batch,
+     * in one transaction. The batch answers with ids of the created readers in the order of the array.
+     * Example: localhost:8080/readers/batch
+     */
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String result;
-        try (BufferedReader bufferedReader = request.getReader();
-             Stream<String> lines = bufferedReader.lines()) {
-
-            StringBuilder body = new StringBuilder();
-            lines.forEach(body::append);
-            ReaderDto readerDto = objectMapper.readValue(body.toString(), ReaderDto.class);
+        try {
             String pathInfo = request.getPathInfo();
             if (pathInfo == null || pathInfo.equals("/")) {
+                ReaderDto readerDto = jsonCodec.read(request, ReaderDto.class);
                 ReaderDto savedReader = readerService.save(readerDto);
-                result = objectMapper.writeValueAsString(savedReader);
-                response.setContentType(APPLICATION_JSON);
-            } else {
-                result = URL_ERROR;
-                response.setContentType(TEXT_PLAIN);
-                response.setStatus(SC_BAD_REQUEST);
+                jsonCodec.write(request, response, savedReader);
+                return;
+            }
+            if (pathInfo.equals(BATCH_PATH)) {
+                List<ReaderDto> readerDtos = jsonCodec.readList(request, ReaderDto.class);
+                List<Long> ids = readerService.saveAll(readerDtos);
+                jsonCodec.writeIds(request, response, ids);
+                return;
             }
+            result = URL_ERROR;
+            response.setContentType(TEXT_PLAIN);
+            response.setStatus(SC_BAD_REQUEST);
         }
         catch (JsonMappingException | DaoException e) {
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
             response.setStatus(SC_BAD_REQUEST);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setContentType(TEXT_PLAIN);
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             result = e.getMessage();
             response.setContentType(TEXT_PLAIN);
@@ -109,16 +151,17 @@ public class ReaderServlet extends HttpServlet {
     }
 
 
+    /**
+     * Updates the reader with the given fields. With "If-Match" holding the ETag of a previous GET the update
+     * is applied only if the reader has not changed since, otherwise it is answered with 412 Precondition Failed.
+     * An update that meets a concurrent one is answered with 409 Conflict, nothing is overwritten.
+     */
     @Override
     protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String result;
-        try (BufferedReader bufferedReader = request.getReader();
-             Stream<String> lines = bufferedReader.lines()) {
-
-            StringBuilder body = new StringBuilder();
-            lines.forEach(body::append);
-            ReaderDto readerDto = objectMapper.readValue(body.toString(), ReaderDto.class);
+        try {
+            ReaderDto readerDto = jsonCodec.read(request, ReaderDto.class);
             String pathInfo = request.getPathInfo();
 
             if (pathInfo == null || pathInfo.equals("/")) {
@@ -126,13 +169,63 @@ public class ReaderServlet extends HttpServlet {
                 response.setStatus(SC_BAD_REQUEST);
             } else {
                 Long readerId = Long.parseLong(pathInfo.substring(1));
-                boolean updateResult = readerService.update(readerDto, readerId);
+                Set<String> expectedVersions = ETags.versionsOf(request.getHeader(ETags.IF_MATCH));
+                boolean updateResult = readerService.update(readerDto, readerId, expectedVersions);
                 result = UPDATING_RESULT + updateResult;
             }
         }
         catch (JsonMappingException | NotFoundException | DaoException e) {
             result = e.getMessage();
             response.setStatus(SC_BAD_REQUEST);
+        } catch (ConflictException e) {
+            result = e.getMessage();
+            response.setStatus(request.getHeader(ETags.IF_MATCH) == null ? SC_CONFLICT : SC_PRECONDITION_FAILED);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
+        } catch (Exception e) {
+            result = e.getMessage();
+            response.setStatus(SC_INTERNAL_SERVER_ERROR);
+        }
+        response.setContentType(TEXT_PLAIN);
+        try (PrintWriter writer = response.getWriter()) {
+            writer.write(result);
+        }
+    }
+
+
+    /**
+     * Partial update: only the fields present in the body are written, with one UPDATE and without
+     * reading the reader first. The books of the reader are not touched.
+     * If-Match, 409 and 412 are the same as for PUT.
+     */
+    @Override
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        String result;
+        try {
+            ReaderDto readerDto = jsonCodec.read(request, ReaderDto.class);
+            String pathInfo = request.getPathInfo();
+
+            if (pathInfo == null || pathInfo.equals("/")) {
+                result = ID_ERROR;
+                response.setStatus(SC_BAD_REQUEST);
+            } else {
+                Long readerId = Long.parseLong(pathInfo.substring(1));
+                Set<String> expectedVersions = ETags.versionsOf(request.getHeader(ETags.IF_MATCH));
+                boolean updateResult = readerService.patch(readerDto, readerId, expectedVersions);
+                result = UPDATING_RESULT + updateResult;
+            }
+        }
+        catch (JsonMappingException | IllegalArgumentException | NotFoundException | DaoException e) {
+            result = e.getMessage();
+            response.setStatus(SC_BAD_REQUEST);
+        } catch (ConflictException e) {
+            result = e.getMessage();
+            response.setStatus(request.getHeader(ETags.IF_MATCH) == null ? SC_CONFLICT : SC_PRECONDITION_FAILED);
+        } catch (PayloadTooLargeException e) {
+            result = e.getMessage();
+            response.setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             result = e.getMessage();
             response.setStatus(SC_INTERNAL_SERVER_ERROR);
@@ -0,0 +1,181 @@
+package ru.aston.lepd.readingclub.util;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Keeps caches of several application nodes coherent. Triggers of the tables send "{table}:{id}" to
+ * the {@link #CHANNEL} channel when a row is changed or deleted ("{table}:*" on truncate and bulk import),
+ * and every node listens to the channel on its own connection, out of the pools, evicting the entries
+ * of the changed rows.
+ * Triggers are created by the db/migration/V1__baseline.sql script
+ * that {@link ru.aston.lepd.readingclub.dao.SchemaMigrator} applies on startup.
+ */
+public class CacheInvalidationListener implements AutoCloseable {
+
+    public static final String CHANNEL = "reading_club_cache";
+
+    private static final System.Logger LOGGER = System.getLogger(CacheInvalidationListener.class.getName());
+
+    private static final String LISTEN_SQL = "LISTEN " + CHANNEL;
+    // A half-open connection gets no notifications and raises no error, a query now and then finds it
+    private static final String HEARTBEAT_SQL = "SELECT 1";
+    private static final String ALL_IDS = "*";
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 30_000;
+    // The heartbeat to a server that is gone fails after this instead of waiting forever
+    private static final int NETWORK_TIMEOUT_MILLIS = 10_000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    private final Runnable invalidateAll;
+    private final Map<String, LongConsumer> handlers = new HashMap<>();
+
+    private volatile boolean running;
+    private Thread thread;
+
+
+    /**
+     * @param invalidateAll clears every cache, used when notifications may have been lost (connection broke)
+     *                      or the whole table was truncated
+     */
+    public CacheInvalidationListener(Runnable invalidateAll) {
+        this.invalidateAll = invalidateAll;
+    }
+
+
+    /**
+     * Registers eviction of the entries by id of the changed row of the table. Must be called before start.
+     */
+    public void on(String table, LongConsumer invalidate) {
+        handlers.put(table, invalidate);
+    }
+
+    /**
+     * Subscribes to the channel and starts the thread handling notifications. The first connection is opened
+     * in the calling thread, so nothing changed after the start is missed. Later the thread reconnects itself.
+     */
+    public synchronized void start() {
+        Connection connection;
+        try {
+            connection = listen();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        running = true;
+        thread = Thread.ofPlatform()
+                .name("cache-invalidation-listener")
+                .daemon()
+                .start(() -> run(connection));
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join(POLL_TIMEOUT_MILLIS * 2L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+
+    private Connection listen() throws SQLException {
+        Connection connection = DataSource.openUnpooledConnection();
+        try (Statement statement = connection.createStatement()) {
+            connection.setNetworkTimeout(Runnable::run, NETWORK_TIMEOUT_MILLIS);
+            statement.execute(LISTEN_SQL);
+            return connection;
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private void run(Connection connection) {
+        while (running) {
+            try (Connection listening = connection) {
+                receive(listening);
+            } catch (SQLException e) {
+                // Connection is broken, notifications sent until reconnect will be lost
+            }
+            connection = reconnect();
+        }
+    }
+
+    private void receive(Connection connection) throws SQLException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        long nextHeartbeat = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL_MILLIS);
+        while (running) {
+            PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    try {
+                        handle(notification.getParameter());
+                    } catch (RuntimeException e) {
+                        // One failed eviction must not stop the ones after it
+                        LOGGER.log(System.Logger.Level.WARNING,
+                                "Cache invalidation failed for " + notification.getParameter(), e);
+                    }
+                }
+            }
+            if (System.nanoTime() - nextHeartbeat >= 0) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(HEARTBEAT_SQL);
+                }
+                nextHeartbeat = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL_MILLIS);
+            }
+        }
+    }
+
+    private Connection reconnect() {
+        while (running) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+                Connection connection = listen();
+                invalidateAll.run();
+                return connection;
+            } catch (SQLException e) {
+                // Database is still unavailable, try again later
+            } catch (InterruptedException e) {
+                running = false;
+            }
+        }
+        return null;
+    }
+
+    private void handle(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator < 0) {
+            return;
+        }
+        String id = payload.substring(separator + 1);
+        if (ALL_IDS.equals(id)) {
+            invalidateAll.run();
+            return;
+        }
+        LongConsumer handler = handlers.get(payload.substring(0, separator));
+        if (handler == null) {
+            return;
+        }
+        try {
+            handler.accept(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            // Not sent by our triggers, nothing to evict
+        }
+    }
+
+
+}
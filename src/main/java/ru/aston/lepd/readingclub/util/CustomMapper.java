@@ -38,7 +38,8 @@ public interface CustomMapper {
     }
 
     default Long mapReader(Reader reader) {
-        return reader.getId();
+        // Projected books have no reader unless readerId is asked for
+        return reader == null ? null : reader.getId();
     }
 
 
@@ -4,33 +4,134 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
 
+/**
+ * Holds connection pools of the application. Every pool size and timeout as well as pgjdbc settings
+ * are read from application.properties (see {@link Pool} for the keys), missing ones fall back to defaults.
+ */
 public class DataSource {
 
-    private static HikariDataSource dataSource;
+    private static final String PREPARE_THRESHOLD_KEY = "db.pgjdbc.prepare-threshold";
+    private static final String PREPARED_STATEMENT_CACHE_KEY = "db.pgjdbc.prepared-statement-cache-queries";
+    private static final String REWRITE_BATCHED_INSERTS_KEY = "db.pgjdbc.rewrite-batched-inserts";
+
+    private static final Map<Pool, HikariDataSource> pools = new EnumMap<>(Pool.class);
 
     private DataSource() {
     }
 
-    public static void initialize(String jdbcUrl, String username, String password, String driver) {
-        if (dataSource != null) {
-            dataSource.close();
+
+    /**
+     * Short queries of the requests go to OLTP pool, long-running reads and exports to BULK one,
+     * so a big export can't take all connections away from single-row lookups.
+     * Keys are db.pool.oltp.maximum-pool-size, db.pool.oltp.minimum-idle, db.pool.oltp.connection-timeout-ms
+     * and the same with "bulk".
+     */
+    public enum Pool {
+
+        OLTP("oltp", "10", "2", "5000"),
+        BULK("bulk", "2", "0", "30000");
+
+        private final String name;
+        private final String defaultMaximumPoolSize;
+        private final String defaultMinimumIdle;
+        private final String defaultConnectionTimeout;
+
+        Pool(String name, String defaultMaximumPoolSize, String defaultMinimumIdle, String defaultConnectionTimeout) {
+            this.name = name;
+            this.defaultMaximumPoolSize = defaultMaximumPoolSize;
+            this.defaultMinimumIdle = defaultMinimumIdle;
+            this.defaultConnectionTimeout = defaultConnectionTimeout;
+        }
+
+        private String getProperty(String key, String defaultValue) {
+            return PropertiesUtil.getProperty("db.pool." + name + "." + key, defaultValue);
         }
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(jdbcUrl);
-        config.setUsername(username);
-        config.setPassword(password);
-        config.setDriverClassName(driver);
-        config.setMaximumPoolSize(5);
-        dataSource = new HikariDataSource(config);
+    }
+
+
+    public static synchronized void initialize(String jdbcUrl, String username, String password, String driver) {
+        close();
+        for (Pool pool : Pool.values()) {
+            pools.put(pool, new HikariDataSource(createConfig(pool, jdbcUrl, username, password, driver)));
+        }
+    }
+
+    public static synchronized void close() {
+        pools.values().forEach(HikariDataSource::close);
+        pools.clear();
     }
 
     public static Connection getConnection() throws SQLException {
+        return getConnection(Pool.OLTP);
+    }
+
+    /**
+     * While {@link QueryStatistics} are collected the connection is instrumented to count its statements.
+     */
+    public static Connection getConnection(Pool pool) throws SQLException {
+        HikariDataSource dataSource = getPool(pool);
+        if (TransactionManager.isActive()) {
+            return QueryStatistics.instrument(TransactionManager.getBoundConnection(dataSource));
+        }
+        Connection connection = dataSource.getConnection();
+        QueryStatistics.recordCheckout();
+        return QueryStatistics.instrument(connection);
+    }
+
+    /**
+     * Opens connection out of the pools, for long-lived sessions like LISTEN, which would keep a pooled
+     * connection busy forever. TCP keepalive is on, so a peer that is gone is noticed by the system. Caller must close it.
+     */
+    public static Connection openUnpooledConnection() throws SQLException {
+        HikariDataSource dataSource = getPool(Pool.OLTP);
+        Properties properties = new Properties();
+        if (dataSource.getUsername() != null) {
+            properties.setProperty("user", dataSource.getUsername());
+        }
+        if (dataSource.getPassword() != null) {
+            properties.setProperty("password", dataSource.getPassword());
+        }
+        properties.setProperty("tcpKeepAlive", "true");
+        return DriverManager.getConnection(dataSource.getJdbcUrl(), properties);
+    }
+
+    public static int getMaximumPoolSize() {
+        return getPool(Pool.OLTP).getMaximumPoolSize();
+    }
+
+
+    private static HikariDataSource getPool(Pool pool) {
+        HikariDataSource dataSource = pools.get(pool);
         if (dataSource == null) {
             throw new IllegalStateException("DataSource not initialized");
         }
-        return dataSource.getConnection();
+        return dataSource;
+    }
+
+    private static HikariConfig createConfig(Pool pool, String jdbcUrl, String username, String password, String driver) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("reading-club-" + pool.name);
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setDriverClassName(driver);
+        config.setMaximumPoolSize(Integer.parseInt(pool.getProperty("maximum-pool-size", pool.defaultMaximumPoolSize)));
+        config.setMinimumIdle(Integer.parseInt(pool.getProperty("minimum-idle", pool.defaultMinimumIdle)));
+        config.setConnectionTimeout(Long.parseLong(pool.getProperty("connection-timeout-ms", pool.defaultConnectionTimeout)));
+
+        // pgjdbc settings, passed to the driver as connection properties
+        config.addDataSourceProperty("prepareThreshold", PropertiesUtil.getProperty(PREPARE_THRESHOLD_KEY, "5"));
+        config.addDataSourceProperty("preparedStatementCacheQueries",
+                PropertiesUtil.getProperty(PREPARED_STATEMENT_CACHE_KEY, "256"));
+        config.addDataSourceProperty("reWriteBatchedInserts",
+                PropertiesUtil.getProperty(REWRITE_BATCHED_INSERTS_KEY, "true"));
+        return config;
     }
 
 
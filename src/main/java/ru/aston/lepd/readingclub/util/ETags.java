@@ -0,0 +1,91 @@
+package ru.aston.lepd.readingclub.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+
+/**
+ * Strong entity tags of single-entity responses, made from the version of the rows the entity is read from.
+ */
+public final class ETags {
+
+    public static final String ETAG = "ETag";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_MATCH = "If-Match";
+
+    private ETags() {
+    }
+
+
+    public static String of(String version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Sets the ETag of the version in the negotiated format and answers 304 if the client already has it.
+     * Returns true if the response is complete and the entity need not be written.
+     */
+    public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String version) {
+        String eTag = of(WireFormat.forAccept(request.getHeader(JsonCodec.ACCEPT)).tagVersion(version));
+        response.setHeader(ETAG, eTag);
+        response.setHeader(JsonCodec.VARY, JsonCodec.ACCEPT);
+        if (matches(request.getHeader(IF_NONE_MATCH), eTag)) {
+            response.setStatus(SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Versions listed in If-Match, in whatever format they were tagged, or null if there is no header or it is "*".
+     * If-Match is compared strongly (RFC 9110, 13.1.1), so weak tags are left out and can never match.
+     */
+    public static Set<String> versionsOf(String ifMatch) {
+        if (ifMatch == null) {
+            return null;
+        }
+        Set<String> versions = new HashSet<>();
+        for (String candidate : ifMatch.split(",")) {
+            String tag = candidate.strip();
+            if (tag.equals("*")) {
+                return null;
+            }
+            if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+                continue;
+            }
+            String version = tag.substring(1, tag.length() - 1);
+            // Versions have no '-', the rest is the format mark of WireFormat.tagVersion
+            int formatMark = version.indexOf('-');
+            versions.add(formatMark < 0 ? version : version.substring(0, formatMark));
+        }
+        return versions;
+    }
+
+    /**
+     * If-None-Match is compared weakly (RFC 9110, 13.1.2): "W/" prefixes are ignored, "*" matches any entity.
+     */
+    public static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.strip();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+}
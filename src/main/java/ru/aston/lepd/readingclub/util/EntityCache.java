@@ -0,0 +1,222 @@
+package ru.aston.lepd.readingclub.util;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bounded in-process cache of entities by id, entries expire after the given time since they were loaded.
+ * When the cache is full it evicts, out of a few least recently used entries, the one used least often,
+ * so a burst of one-off lookups does not push hot entities out. Use counts are halved from time to time,
+ * so entities which were hot long ago can go away too.
+ * Cached values are shared, callers must not modify them.
+ */
+public class EntityCache<K, V> implements EntityCacheMXBean {
+
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+    private static final int AGING_PERIOD_PER_ENTRY = 10;
+
+    private final int maximumSize;
+    private final long expireAfterWriteNanos;
+
+    // Access order, so iteration starts from the least recently used entry
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long accessesSinceAging;
+    // Incremented by every invalidation, a value loaded while it changed may be stale and is not cached
+    private long generation;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    private ObjectName objectName;
+
+
+    public EntityCache(int maximumSize, long expireAfterWrite, TimeUnit unit) {
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+    }
+
+
+    /**
+     * Returns cached value or loads it by the loader and caches it, if it's present.
+     */
+    public Optional<V> get(K key, Function<K, Optional<V>> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            Optional<V> cached = lookup(key);
+            if (cached.isPresent()) {
+                hitCount.increment();
+                return cached;
+            }
+            missCount.increment();
+            loadGeneration = generation;
+        }
+        Optional<V> loaded = loader.apply(key);
+        loaded.ifPresent(value -> put(key, value, loadGeneration));
+        return loaded;
+    }
+
+    public synchronized boolean contains(K key) {
+        return lookup(key).isPresent();
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateIf(Predicate<V> predicate) {
+        generation++;
+        entries.values().removeIf(entry -> predicate.test(entry.value));
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+
+    /**
+     * Publishes statistics of the cache as ru.aston.lepd.readingclub:type=EntityCache,name={name}
+     */
+    public void registerMBean(String name) {
+        try {
+            objectName = new ObjectName("ru.aston.lepd.readingclub:type=EntityCache,name=" + name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+
+    @Override
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public long getExpirationCount() {
+        return expirationCount.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+
+    private Optional<V> lookup(K key) {
+        if (++accessesSinceAging > (long) maximumSize * AGING_PERIOD_PER_ENTRY) {
+            age();
+        }
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (System.nanoTime() - entry.writeTime > expireAfterWriteNanos) {
+            entries.remove(key);
+            expirationCount.increment();
+            return Optional.empty();
+        }
+        entry.frequency++;
+        return Optional.of(entry.value);
+    }
+
+    private synchronized void put(K key, V value, long loadGeneration) {
+        if (loadGeneration != generation) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+        if (entries.size() > maximumSize) {
+            evict(key);
+        }
+    }
+
+    private void evict(K justAdded) {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        K victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE && iterator.hasNext(); i++) {
+            Map.Entry<K, Entry<V>> candidate = iterator.next();
+            if (candidate.getKey().equals(justAdded)) {
+                continue;
+            }
+            if (candidate.getValue().frequency < victimFrequency) {
+                victim = candidate.getKey();
+                victimFrequency = candidate.getValue().frequency;
+            }
+        }
+        // With maximumSize 0 the just added entry is the only candidate, nothing is evicted then
+        if (victim != null && entries.remove(victim) != null) {
+            evictionCount.increment();
+        }
+    }
+
+    private void age() {
+        accessesSinceAging = 0;
+        for (Entry<V> entry : entries.values()) {
+            entry.frequency >>= 1;
+        }
+    }
+
+
+    private static class Entry<V> {
+
+        private final V value;
+        private final long writeTime;
+        private int frequency;
+
+        private Entry(V value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+
+}
@@ -0,0 +1,24 @@
+package ru.aston.lepd.readingclub.util;
+
+/**
+ * Statistics of {@link EntityCache} published through JMX, to see how well the cache is sized.
+ */
+public interface EntityCacheMXBean {
+
+    int getSize();
+
+    int getMaximumSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    long getExpirationCount();
+
+    double getHitRate();
+
+    void invalidateAll();
+
+}
@@ -0,0 +1,54 @@
+package ru.aston.lepd.readingclub.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Projection asked for with ?fields=title,inventoryNumber: only the listed dto fields are read and written.
+ * Null set stands for all fields.
+ */
+public final class Fields {
+
+    public static final String PARAMETER = "fields";
+    // Id of the Jackson filter the dtos are annotated with
+    public static final String FILTER = "fields";
+
+    private Fields() {
+    }
+
+
+    /**
+     * Returns the listed fields, or null if the parameter is absent or empty.
+     */
+    public static Set<String> parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return null;
+        }
+        return Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * Same as {@link #parse(String)}, throws IllegalArgumentException if a field is not one of the allowed.
+     */
+    public static Set<String> parse(String fields, Set<String> allowed) {
+        Set<String> parsed = parse(fields);
+        if (parsed != null && !allowed.containsAll(parsed)) {
+            Set<String> unknown = new TreeSet<>(parsed);
+            unknown.removeAll(allowed);
+            throw new IllegalArgumentException("ERROR: unknown fields " + unknown + ", allowed are " + new TreeSet<>(allowed));
+        }
+        return parsed;
+    }
+
+    public static boolean contains(Set<String> fields, String field) {
+        return fields == null || fields.contains(field);
+    }
+
+
+}
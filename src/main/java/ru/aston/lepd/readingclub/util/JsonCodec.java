@@ -0,0 +1,284 @@
+package ru.aston.lepd.readingclub.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import ru.aston.lepd.readingclub.dto.AuthorDto;
+import ru.aston.lepd.readingclub.dto.BookDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.ReaderDto;
+import ru.aston.lepd.readingclub.exception.PayloadTooLargeException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads request bodies and writes response bodies as json, Smile or CBOR straight from/to the servlet streams,
+ * without building intermediate Strings. Request body is read in the format of its Content-Type, response
+ * body is written in the format negotiated from Accept, json by default. Readers and writers for every
+ * format, dto and list of dtos are built once here, and Jackson buffers are taken from one pool shared
+ * by all threads.
+ */
+public class JsonCodec {
+
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+    public static final String ACCEPT = "Accept";
+    public static final String VARY = "Vary";
+
+    private static final byte[] RAW_PAGE_START = "{\"items\":[".getBytes(UTF_8);
+    private static final byte[] RAW_PAGE_CURSOR = "],\"nextCursor\":".getBytes(UTF_8);
+
+    private static final List<Class<?>> DTO_TYPES = List.of(BookDto.class, AuthorDto.class, ReaderDto.class);
+
+    private final Map<WireFormat, Codec> codecs = new EnumMap<>(WireFormat.class);
+    private final int maxBodySize;
+
+
+    public JsonCodec(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+        for (WireFormat format : WireFormat.values()) {
+            codecs.put(format, new Codec(new ObjectMapper(format.createFactory())));
+        }
+    }
+
+
+    public <T> T read(HttpServletRequest request, Class<T> type) throws IOException {
+        return getFor(readCodec(request).readers, type).readValue(openBody(request));
+    }
+
+    public <T> List<T> readList(HttpServletRequest request, Class<T> type) throws IOException {
+        return getFor(readCodec(request).listReaders, type).readValue(openBody(request));
+    }
+
+    public void write(HttpServletRequest request, HttpServletResponse response, Object value) throws IOException {
+        Codec codec = prepareWrite(request, response);
+        project(request, getFor(codec.writers, value.getClass())).writeValue(response.getOutputStream(), value);
+    }
+
+    public <T> void writeList(HttpServletRequest request, HttpServletResponse response,
+                              List<T> values, Class<T> type) throws IOException {
+        Codec codec = prepareWrite(request, response);
+        project(request, getFor(codec.listWriters, type)).writeValue(response.getOutputStream(), values);
+    }
+
+    /**
+     * Writes ids of created entities as an array of numbers.
+     */
+    public void writeIds(HttpServletRequest request, HttpServletResponse response, List<Long> ids) throws IOException {
+        Codec codec = prepareWrite(request, response);
+        codec.idsWriter.writeValue(response.getOutputStream(), ids);
+    }
+
+    public <T> void writePage(HttpServletRequest request, HttpServletResponse response,
+                              PageDto<T> page, Class<T> type) throws IOException {
+        Codec codec = prepareWrite(request, response);
+        project(request, getFor(codec.pageWriters, type)).writeValue(response.getOutputStream(), page);
+    }
+
+
+    /**
+     * Writes an array, adding elements one by one as the source passes them, so neither the list
+     * nor the whole body is built in memory. Example of source: bookService::streamAll
+     */
+    public <T> void writeStream(HttpServletRequest request, HttpServletResponse response, Class<T> type,
+                                Consumer<Consumer<T>> source) throws IOException {
+        Codec codec = prepareWrite(request, response);
+        ObjectWriter writer = project(request, getFor(codec.writers, type));
+        JsonGenerator generator = codec.objectMapper.createGenerator(response.getOutputStream());
+        generator.writeStartArray();
+        source.accept(value -> {
+            try {
+                writer.writeValue(generator, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        generator.writeEndArray();
+        // Closed only on success, closing on error would end the array and commit the broken response
+        generator.close();
+    }
+
+
+    /**
+     * Writes an array of json values rendered elsewhere (by the database) as they are, without parsing them.
+     * Only json can be written this way, see {@link #acceptsJson}.
+     */
+    public void writeRawList(HttpServletRequest request, HttpServletResponse response,
+                             Consumer<Consumer<byte[]>> source) throws IOException {
+        prepareWrite(request, response);
+        OutputStream output = response.getOutputStream();
+        output.write('[');
+        writeRawValues(output, items -> {
+            source.accept(items);
+            return null;
+        });
+        output.write(']');
+    }
+
+    /**
+     * Same as {@link #writeRawList} in the shape of {@link PageDto}, the source writes the items
+     * and returns the next cursor.
+     */
+    public void writeRawPage(HttpServletRequest request, HttpServletResponse response,
+                             Function<Consumer<byte[]>, Long> source) throws IOException {
+        prepareWrite(request, response);
+        OutputStream output = response.getOutputStream();
+        output.write(RAW_PAGE_START);
+        Long nextCursor = writeRawValues(output, source::apply);
+        output.write(RAW_PAGE_CURSOR);
+        output.write(String.valueOf(nextCursor).getBytes(UTF_8));
+        output.write('}');
+    }
+
+    public boolean acceptsJson(HttpServletRequest request) {
+        return WireFormat.forAccept(request.getHeader(ACCEPT)) == WireFormat.JSON;
+    }
+
+
+    private <R> R writeRawValues(OutputStream output, Function<Consumer<byte[]>, R> source) {
+        boolean[] first = {true};
+        return source.apply(json -> {
+            try {
+                if (!first[0]) {
+                    output.write(',');
+                }
+                first[0] = false;
+                output.write(json);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private Codec readCodec(HttpServletRequest request) {
+        return codecs.get(WireFormat.forContentType(request.getContentType()));
+    }
+
+    private Codec prepareWrite(HttpServletRequest request, HttpServletResponse response) {
+        WireFormat format = WireFormat.forAccept(request.getHeader(ACCEPT));
+        response.setContentType(format.getMediaType());
+        if (format == WireFormat.JSON) {
+            response.setCharacterEncoding(UTF_8.name());
+        }
+        response.setHeader(VARY, ACCEPT);
+        return codecs.get(format);
+    }
+
+    /**
+     * Leaves only the fields asked for with ?fields= in the written dtos, the writer as is if all are asked for.
+     */
+    private ObjectWriter project(HttpServletRequest request, ObjectWriter writer) {
+        Set<String> fields = Fields.parse(request.getParameter(Fields.PARAMETER));
+        if (fields == null) {
+            return writer;
+        }
+        return writer.with(new SimpleFilterProvider()
+                .addFilter(Fields.FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(fields)));
+    }
+
+    private InputStream openBody(HttpServletRequest request) throws IOException {
+        if (request.getContentLengthLong() > maxBodySize) {
+            throw tooLarge();
+        }
+        // Content-Length may be absent (chunked body), so the limit is also checked while reading
+        return new LimitedInputStream(request.getInputStream(), maxBodySize);
+    }
+
+    private PayloadTooLargeException tooLarge() {
+        return new PayloadTooLargeException("ERROR: request body is larger than " + maxBodySize + " bytes");
+    }
+
+    private <V> V getFor(Map<Class<?>, V> prebuilt, Class<?> type) {
+        V value = prebuilt.get(type);
+        if (value == null) {
+            throw new IllegalArgumentException("There is no reader/writer for " + type.getName());
+        }
+        return value;
+    }
+
+
+    private static class Codec {
+
+        private final ObjectMapper objectMapper;
+        private final Map<Class<?>, ObjectReader> readers = new HashMap<>();
+        private final Map<Class<?>, ObjectReader> listReaders = new HashMap<>();
+        private final Map<Class<?>, ObjectWriter> writers = new HashMap<>();
+        private final Map<Class<?>, ObjectWriter> listWriters = new HashMap<>();
+        private final Map<Class<?>, ObjectWriter> pageWriters = new HashMap<>();
+        private final ObjectWriter idsWriter;
+
+        private Codec(ObjectMapper objectMapper) {
+            this.objectMapper = objectMapper;
+            // Dtos are annotated with the fields filter, which passes everything unless a projection replaces it
+            objectMapper.setFilterProvider(new SimpleFilterProvider()
+                    .addFilter(Fields.FILTER, SimpleBeanPropertyFilter.serializeAll()));
+            TypeFactory typeFactory = objectMapper.getTypeFactory();
+            this.idsWriter = objectMapper.writerFor(typeFactory.constructCollectionType(List.class, Long.class));
+            for (Class<?> type : DTO_TYPES) {
+                readers.put(type, objectMapper.readerFor(type));
+                listReaders.put(type, objectMapper.readerFor(typeFactory.constructCollectionType(List.class, type)));
+                // Element writers are also used for streaming, where every value must not flush the response
+                writers.put(type, objectMapper.writerFor(type).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE));
+                listWriters.put(type, objectMapper.writerFor(typeFactory.constructCollectionType(List.class, type)));
+                pageWriters.put(type, objectMapper.writerFor(typeFactory.constructParametricType(PageDto.class, type)));
+            }
+        }
+    }
+
+
+    private class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int read) {
+            remaining -= read;
+            if (remaining < 0) {
+                throw tooLarge();
+            }
+        }
+    }
+
+
+}
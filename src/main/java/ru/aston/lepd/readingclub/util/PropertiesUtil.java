@@ -18,6 +18,10 @@ public final class PropertiesUtil {
         return PROPERTIES.getProperty(key);
     }
 
+    public static String getProperty(String key, String defaultValue) {
+        return PROPERTIES.getProperty(key, defaultValue);
+    }
+
     private static void loadProperties() {
         try(InputStream inputStream = PropertiesUtil.class.getClassLoader().getResourceAsStream("application.properties")) {
             PROPERTIES.load(inputStream);
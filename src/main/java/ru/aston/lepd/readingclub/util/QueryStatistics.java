@@ -0,0 +1,209 @@
+package ru.aston.lepd.readingclub.util;
+
+import ru.aston.lepd.readingclub.exception.QueryBudgetExceededException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Counts sql statements and pool checkouts of one unit of work (http request, test) on the current thread,
+ * timing every statement by the name of the DAO constant it came from, e.g. BookDao.FIND_BY_ID_SQL.
+ * A unit of work running more statements than the budget usually loads something row by row (N+1),
+ * it is logged with all its statements, or fails at once if so configured (tests).
+ * Connections are instrumented only while statistics are enabled and a unit of work is started.
+ */
+public final class QueryStatistics {
+
+    private static final System.Logger LOGGER = System.getLogger(QueryStatistics.class.getName());
+    private static final ThreadLocal<QueryStatistics> CURRENT = new ThreadLocal<>();
+    private static final Set<String> EXECUTE_METHODS = Set.of("execute", "executeQuery", "executeUpdate",
+            "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+    private static final int MAX_UNNAMED_SQL_LENGTH = 60;
+
+    private static final Map<String, String> sqlNames = new ConcurrentHashMap<>();
+    private static volatile boolean enabled;
+    private static volatile int budget = Integer.MAX_VALUE;
+    private static volatile boolean failOnExceeded;
+
+    private final String name;
+    private final QueryStatistics outer;
+    private final Map<String, Execution> executions = new LinkedHashMap<>();
+    private int statementCount;
+    private int checkoutCount;
+    private boolean exceeded;
+
+    private QueryStatistics(String name, QueryStatistics outer) {
+        this.name = name;
+        this.outer = outer;
+    }
+
+
+    public static void configure(boolean enabled, int budget, boolean failOnExceeded) {
+        QueryStatistics.enabled = enabled;
+        QueryStatistics.budget = budget;
+        QueryStatistics.failOnExceeded = failOnExceeded;
+    }
+
+    /**
+     * Makes the sql constants (public static final Strings) of the classes known by their names.
+     */
+    public static void registerSqlNames(Class<?>... owners) {
+        for (Class<?> owner : owners) {
+            for (Field field : owner.getFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers) && field.getType() == String.class) {
+                    try {
+                        sqlNames.put((String) field.get(null), owner.getSimpleName() + "." + field.getName());
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a unit of work on the current thread, it must be finished in finally block.
+     */
+    public static QueryStatistics start(String name) {
+        QueryStatistics statistics = new QueryStatistics(name, CURRENT.get());
+        CURRENT.set(statistics);
+        return statistics;
+    }
+
+    public void finish() {
+        if (outer == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(outer);
+        }
+        if (exceeded && !failOnExceeded) {
+            LOGGER.log(System.Logger.Level.WARNING, "Query budget exceeded: " + this);
+        } else {
+            LOGGER.log(System.Logger.Level.DEBUG, this::toString);
+        }
+    }
+
+
+    static Connection instrument(Connection connection) {
+        QueryStatistics statistics = CURRENT.get();
+        if (!enabled || statistics == null) {
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (method.getName().equals("prepareStatement")) {
+                        return statistics.instrument((PreparedStatement) result, (String) args[0]);
+                    }
+                    return result;
+                });
+    }
+
+    static void recordCheckout() {
+        QueryStatistics statistics = CURRENT.get();
+        if (enabled && statistics != null) {
+            statistics.checkoutCount++;
+        }
+    }
+
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    public int getCheckoutCount() {
+        return checkoutCount;
+    }
+
+    /**
+     * Number of executions by sql name, in order of the first execution.
+     */
+    public Map<String, Integer> getExecutionCounts() {
+        return executions.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().count,
+                        (first, second) -> first, LinkedHashMap::new));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name)
+                .append(": ").append(statementCount).append(" statements, ")
+                .append(checkoutCount).append(" checkouts, budget ").append(budget);
+        executions.forEach((sql, execution) -> builder.append(System.lineSeparator())
+                .append("    ").append(sql).append(" x").append(execution.count)
+                .append(String.format(" %.2f ms", execution.nanos / (double) TimeUnit.MILLISECONDS.toNanos(1))));
+        return builder.toString();
+    }
+
+
+    private PreparedStatement instrument(PreparedStatement statement, String sql) {
+        String sqlName = nameOf(sql);
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if (!EXECUTE_METHODS.contains(method.getName())) {
+                        return invoke(statement, method, args);
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        return invoke(statement, method, args);
+                    } finally {
+                        record(sqlName, System.nanoTime() - start);
+                    }
+                });
+    }
+
+    private void record(String sqlName, long nanos) {
+        Execution execution = executions.computeIfAbsent(sqlName, key -> new Execution());
+        execution.count++;
+        execution.nanos += nanos;
+        if (++statementCount > budget && !exceeded) {
+            exceeded = true;
+            if (failOnExceeded) {
+                throw new QueryBudgetExceededException("Query budget exceeded: " + this);
+            }
+        }
+    }
+
+    private static String nameOf(String sql) {
+        String name = sqlNames.get(sql);
+        if (name != null) {
+            return name;
+        }
+        // Sql built at runtime, its first line is usually enough to find it
+        String firstLine = sql.strip().lines().findFirst().orElse("");
+        return firstLine.length() > MAX_UNNAMED_SQL_LENGTH ? firstLine.substring(0, MAX_UNNAMED_SQL_LENGTH) : firstLine;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+
+    private static class Execution {
+
+        private int count;
+        private long nanos;
+    }
+
+
+}
@@ -0,0 +1,414 @@
+package ru.aston.lepd.readingclub.util;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static jakarta.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+
+/**
+ * Handles servlet requests asynchronously on virtual threads, so a container thread is released
+ * as soon as the request is accepted and slow jdbc calls block only cheap virtual threads.
+ * Number of requests handled at the same time is limited (by the connection pool size, there is
+ * no use to run more), the rest wait for a free slot until the request times out.
+ */
+public class RequestExecutor implements AutoCloseable {
+
+    private static final String TEXT_PLAIN = "text/plain";
+    private static final String BUSY_ERROR = "ERROR: server is busy, try again later";
+    private static final String TIMEOUT_ERROR = "ERROR: request timed out";
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+    private final long timeoutMillis;
+
+    public RequestExecutor(int maxConcurrency, long timeoutMillis) {
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+    }
+
+
+    public void execute(HttpServletRequest request, HttpServletResponse response, Handler handler) {
+        AsyncContext asyncContext = request.startAsync(new DispatchedRequest(request), response);
+        asyncContext.setTimeout(timeoutMillis);
+        GuardedResponse guardedResponse = new GuardedResponse(response);
+        // Listener must be added before the task is started, the task may complete the request at once
+        TimeoutListener timeoutListener = new TimeoutListener(guardedResponse);
+        asyncContext.addListener(timeoutListener);
+        timeoutListener.task = executor.submit(() -> handle(asyncContext, guardedResponse, handler));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+
+    private void handle(AsyncContext asyncContext, GuardedResponse guardedResponse, Handler handler) {
+        HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                if (guardedResponse.finish()) {
+                    writeError(response, SC_SERVICE_UNAVAILABLE, BUSY_ERROR);
+                    asyncContext.complete();
+                }
+                return;
+            }
+            try {
+                handler.handle(request, guardedResponse);
+            } finally {
+                permits.release();
+            }
+            if (guardedResponse.finish()) {
+                asyncContext.complete();
+            }
+        } catch (InterruptedException e) {
+            // Cancelled by timeout, which already completed the response
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (guardedResponse.finish()) {
+                if (!response.isCommitted()) {
+                    writeError(response, SC_INTERNAL_SERVER_ERROR, e.getMessage());
+                }
+                asyncContext.complete();
+            }
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message) {
+        response.reset();
+        response.setContentType(TEXT_PLAIN);
+        response.setStatus(status);
+        try (PrintWriter writer = response.getWriter()) {
+            writer.write(String.valueOf(message));
+        } catch (IOException ignored) {
+            // Client is gone, nothing to report
+        }
+    }
+
+
+    /**
+     * Keeps the paths the request had when it was dispatched to the servlet. Some containers (Jetty)
+     * restore the paths of the outer scope as soon as service() returns, while the handler reads them later.
+     */
+    private static class DispatchedRequest extends HttpServletRequestWrapper {
+
+        private final String servletPath;
+        private final String pathInfo;
+
+        private DispatchedRequest(HttpServletRequest request) {
+            super(request);
+            this.servletPath = request.getServletPath();
+            this.pathInfo = request.getPathInfo();
+        }
+
+        @Override
+        public String getServletPath() {
+            return servletPath;
+        }
+
+        @Override
+        public String getPathInfo() {
+            return pathInfo;
+        }
+    }
+
+
+    /**
+     * Response the handler writes to. Once the request is finished the container may recycle the response
+     * for another request, while a handler cancelled by the timeout can still be running (jdbc ignores
+     * interrupts), so from then on everything it does to the response is dropped. Every change of the response
+     * and {@link #finish()} take the same lock, so the timeout never completes the request in the middle of
+     * a write. ReentrantLock, as synchronized would pin the virtual thread while it writes.
+     */
+    private static class GuardedResponse extends HttpServletResponseWrapper {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean finished;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private GuardedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        /**
+         * Returns true for the first caller only, which then completes the request with the real response.
+         */
+        private boolean finish() {
+            lock.lock();
+            try {
+                if (finished) {
+                    return false;
+                }
+                finished = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void guarded(IoAction action) throws IOException {
+            lock.lock();
+            try {
+                if (!finished) {
+                    action.run();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void guardedUnchecked(Runnable action) {
+            lock.lock();
+            try {
+                if (!finished) {
+                    action.run();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                ServletOutputStream target = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        guarded(() -> target.write(b));
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        guarded(() -> target.write(b, off, len));
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        guarded(target::flush);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        guarded(target::close);
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return target.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        target.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                PrintWriter target = super.getWriter();
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(char[] cbuf, int off, int len) {
+                        guardedUnchecked(() -> target.write(cbuf, off, len));
+                    }
+
+                    @Override
+                    public void write(String str, int off, int len) {
+                        guardedUnchecked(() -> target.write(str, off, len));
+                    }
+
+                    @Override
+                    public void flush() {
+                        guardedUnchecked(target::flush);
+                    }
+
+                    @Override
+                    public void close() {
+                        guardedUnchecked(target::close);
+                    }
+                });
+            }
+            return writer;
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            guardedUnchecked(() -> super.setStatus(sc));
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            guardedUnchecked(() -> super.setHeader(name, value));
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            guardedUnchecked(() -> super.addHeader(name, value));
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            guardedUnchecked(() -> super.setIntHeader(name, value));
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            guardedUnchecked(() -> super.addIntHeader(name, value));
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            guardedUnchecked(() -> super.setDateHeader(name, date));
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            guardedUnchecked(() -> super.addDateHeader(name, date));
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            guardedUnchecked(() -> super.addCookie(cookie));
+        }
+
+        @Override
+        public void setContentType(String type) {
+            guardedUnchecked(() -> super.setContentType(type));
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+            guardedUnchecked(() -> super.setCharacterEncoding(charset));
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            guardedUnchecked(() -> super.setContentLength(len));
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            guardedUnchecked(() -> super.setContentLengthLong(len));
+        }
+
+        @Override
+        public void setLocale(Locale locale) {
+            guardedUnchecked(() -> super.setLocale(locale));
+        }
+
+        @Override
+        public void setBufferSize(int size) {
+            guardedUnchecked(() -> super.setBufferSize(size));
+        }
+
+        @Override
+        public void reset() {
+            guardedUnchecked(super::reset);
+        }
+
+        @Override
+        public void resetBuffer() {
+            guardedUnchecked(super::resetBuffer);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            guarded(super::flushBuffer);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            guarded(() -> super.sendError(sc, msg));
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            guarded(() -> super.sendError(sc));
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            guarded(() -> super.sendRedirect(location));
+        }
+    }
+
+
+    @FunctionalInterface
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+
+    private static class TimeoutListener implements AsyncListener {
+
+        private final GuardedResponse guardedResponse;
+        private volatile Future<?> task;
+
+        private TimeoutListener(GuardedResponse guardedResponse) {
+            this.guardedResponse = guardedResponse;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (!guardedResponse.finish()) {
+                return;
+            }
+            if (task != null) {
+                task.cancel(true);
+            }
+            HttpServletResponse response = (HttpServletResponse) event.getAsyncContext().getResponse();
+            if (!response.isCommitted()) {
+                writeError(response, SC_SERVICE_UNAVAILABLE, TIMEOUT_ERROR);
+            }
+            event.getAsyncContext().complete();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+
+}
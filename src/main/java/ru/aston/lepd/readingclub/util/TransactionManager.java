@@ -0,0 +1,146 @@
+package ru.aston.lepd.readingclub.util;
+
+import ru.aston.lepd.readingclub.exception.DaoException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Binds one connection to the current thread for the duration of a unit of work.
+ * Every DataSource.getConnection() call inside {@link #inTransaction(Supplier)} gets the same
+ * physical connection, which is committed once at the end or rolled back on exception.
+ * The connection is taken from the pool lazily, on the first DataSource.getConnection() call.
+ */
+public final class TransactionManager {
+
+    private static final ThreadLocal<Transaction> CURRENT = new ThreadLocal<>();
+
+    private TransactionManager() {
+    }
+
+
+    public static <T> T inTransaction(Supplier<T> action) {
+        if (CURRENT.get() != null) {
+            // Nested call joins the outer transaction
+            return action.get();
+        }
+        Transaction transaction = new Transaction();
+        CURRENT.set(transaction);
+        try {
+            T result = action.get();
+            transaction.commit();
+            return result;
+        } catch (RuntimeException e) {
+            transaction.rollback(e);
+            throw e;
+        } finally {
+            CURRENT.remove();
+            try {
+                transaction.close();
+            } finally {
+                transaction.afterCompletion.forEach(Runnable::run);
+            }
+        }
+    }
+
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Runs the action once the current transaction is over, committed or rolled back,
+     * or at once if there is no transaction.
+     */
+    public static void afterCompletion(Runnable action) {
+        Transaction transaction = CURRENT.get();
+        if (transaction == null) {
+            action.run();
+        } else {
+            transaction.afterCompletion.add(action);
+        }
+    }
+
+    static Connection getBoundConnection(javax.sql.DataSource dataSource) throws SQLException {
+        Transaction transaction = CURRENT.get();
+        if (transaction.connection == null) {
+            Connection connection = dataSource.getConnection();
+            QueryStatistics.recordCheckout();
+            connection.setAutoCommit(false);
+            transaction.connection = connection;
+        }
+        return nonClosing(transaction.connection);
+    }
+
+
+    /**
+     * DAOs close their connections in try-with-resources, so the bound one is handed out
+     * behind a proxy that ignores close() and is really closed by the transaction itself.
+     */
+    private static Connection nonClosing(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            return null;
+                        case "isClosed":
+                            return connection.isClosed();
+                        default:
+                            try {
+                                return method.invoke(connection, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                    }
+                });
+    }
+
+
+    private static class Transaction {
+
+        private Connection connection;
+        private final List<Runnable> afterCompletion = new ArrayList<>();
+
+        private void commit() {
+            if (connection == null) {
+                return;
+            }
+            try {
+                connection.commit();
+            } catch (SQLException e) {
+                throw new DaoException(e.getMessage());
+            }
+        }
+
+        private void rollback(RuntimeException cause) {
+            if (connection == null) {
+                return;
+            }
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                cause.addSuppressed(e);
+            }
+        }
+
+        private void close() {
+            if (connection == null) {
+                return;
+            }
+            try {
+                // Pool restores autocommit when the connection is returned
+                connection.close();
+            } catch (SQLException e) {
+                throw new DaoException(e.getMessage());
+            }
+        }
+    }
+
+
+}
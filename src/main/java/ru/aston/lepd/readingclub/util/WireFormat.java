@@ -0,0 +1,125 @@
+package ru.aston.lepd.readingclub.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.util.Locale;
+
+/**
+ * Encodings of the dtos on the wire. All of them carry the same data model, the binary ones are
+ * smaller and cheaper to parse, which pays off on big lists passed between services.
+ */
+public enum WireFormat {
+
+    JSON("application/json", ""),
+    SMILE("application/x-jackson-smile", "smile"),
+    CBOR("application/cbor", "cbor");
+
+    private final String mediaType;
+    private final String eTagSuffix;
+
+    WireFormat(String mediaType, String eTagSuffix) {
+        this.mediaType = mediaType;
+        this.eTagSuffix = eTagSuffix;
+    }
+
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Different bytes must have different strong ETags, so every format but json marks the version.
+     */
+    public String tagVersion(String version) {
+        return eTagSuffix.isEmpty() ? version : version + "-" + eTagSuffix;
+    }
+
+    /**
+     * Default pool is thread local, which gives nothing to short-lived (virtual) threads,
+     * so every format takes its buffers from one pool shared by all threads.
+     */
+    JsonFactory createFactory() {
+        return switch (this) {
+            case JSON -> JsonFactory.builder().recyclerPool(JsonRecyclerPools.sharedLockFreePool()).build();
+            case SMILE -> SmileFactory.builder().recyclerPool(JsonRecyclerPools.sharedLockFreePool()).build();
+            case CBOR -> CBORFactory.builder().recyclerPool(JsonRecyclerPools.sharedLockFreePool()).build();
+        };
+    }
+
+
+    /**
+     * Format of a request body. Missing or unknown Content-Type is read as json, as it always was.
+     */
+    public static WireFormat forContentType(String contentType) {
+        if (contentType != null) {
+            String mediaType = mediaTypeOf(contentType);
+            for (WireFormat format : values()) {
+                if (format.mediaType.equals(mediaType)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * Format of a response: the one with the highest quality in Accept, json on ties and
+     * when nothing supported is accepted (the header is advisory, errors stay text/plain anyway).
+     */
+    public static WireFormat forAccept(String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        WireFormat best = JSON;
+        double bestQuality = 0;
+        for (WireFormat format : values()) {
+            double quality = qualityOf(format, accept);
+            if (quality > bestQuality) {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+
+    private static double qualityOf(WireFormat format, String accept) {
+        double exact = -1;
+        double wildcard = -1;
+        for (String range : accept.split(",")) {
+            String mediaType = mediaTypeOf(range);
+            double quality = parseQuality(range);
+            if (mediaType.equals(format.mediaType)) {
+                exact = Math.max(exact, quality);
+            } else if (mediaType.equals("*/*") || mediaType.equals("application/*")) {
+                wildcard = Math.max(wildcard, quality);
+            }
+        }
+        // A wildcard stands for json only, binary formats are sent just to the clients asking for them
+        return exact >= 0 ? exact : format == JSON ? wildcard : 0;
+    }
+
+    private static String mediaTypeOf(String value) {
+        int parameters = value.indexOf(';');
+        return (parameters < 0 ? value : value.substring(0, parameters)).strip().toLowerCase(Locale.ROOT);
+    }
+
+    private static double parseQuality(String range) {
+        for (String parameter : range.split(";")) {
+            String[] pair = parameter.split("=", 2);
+            if (pair.length == 2 && pair[0].strip().equalsIgnoreCase("q")) {
+                try {
+                    return Double.parseDouble(pair[1].strip());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+
+}
@@ -0,0 +1,81 @@
+-- Schema as it was created by postgresqldocker/create-insert-data.sql, existing databases keep their tables.
+
+CREATE TABLE IF NOT EXISTS readers
+(
+    id      bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name    varchar(128) NOT NULL,
+    surname varchar(128) NOT NULL,
+    phone   varchar(12)  NOT NULL UNIQUE,
+    address varchar(256) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS books
+(
+    id               bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    title            varchar(128)                   NOT NULL,
+    inventory_number bigint                         NOT NULL UNIQUE,
+    reader_id        bigint REFERENCES readers (id) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS authors
+(
+    id            bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    full_name     varchar(128) NOT NULL,
+    personal_info varchar(256) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS author_book
+(
+    author_id bigint REFERENCES authors (id),
+    book_id   bigint REFERENCES books (id),
+    PRIMARY KEY (author_id, book_id)
+);
+
+-- Every node evicts cached rows by these notifications, payload is {table}:{id} ({table}:* on truncate).
+-- Bulk imports switch row notifications off for their transaction and send {table}:* once instead.
+-- author_book changes are sent by book_id, inserts into the other tables can't make any cache stale.
+CREATE OR REPLACE FUNCTION notify_cache_invalidation() RETURNS trigger AS
+$$
+BEGIN
+    IF current_setting('reading_club.bulk_import', true) = 'on' THEN
+        RETURN NULL;
+    END IF;
+    IF TG_OP = 'TRUNCATE' THEN
+        PERFORM pg_notify('reading_club_cache', TG_TABLE_NAME || ':*');
+        RETURN NULL;
+    END IF;
+    IF TG_OP <> 'INSERT' THEN
+        PERFORM pg_notify('reading_club_cache', TG_TABLE_NAME || ':' || (to_jsonb(OLD) ->> TG_ARGV[0]));
+    END IF;
+    IF TG_OP <> 'DELETE' THEN
+        PERFORM pg_notify('reading_club_cache', TG_TABLE_NAME || ':' || (to_jsonb(NEW) ->> TG_ARGV[0]));
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE TRIGGER readers_notify_cache
+    AFTER UPDATE OR DELETE ON readers
+    FOR EACH ROW EXECUTE FUNCTION notify_cache_invalidation('id');
+CREATE OR REPLACE TRIGGER books_notify_cache
+    AFTER UPDATE OR DELETE ON books
+    FOR EACH ROW EXECUTE FUNCTION notify_cache_invalidation('id');
+CREATE OR REPLACE TRIGGER authors_notify_cache
+    AFTER UPDATE OR DELETE ON authors
+    FOR EACH ROW EXECUTE FUNCTION notify_cache_invalidation('id');
+CREATE OR REPLACE TRIGGER author_book_notify_cache
+    AFTER INSERT OR UPDATE OR DELETE ON author_book
+    FOR EACH ROW EXECUTE FUNCTION notify_cache_invalidation('book_id');
+
+CREATE OR REPLACE TRIGGER readers_notify_cache_truncate
+    AFTER TRUNCATE ON readers
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_cache_invalidation();
+CREATE OR REPLACE TRIGGER books_notify_cache_truncate
+    AFTER TRUNCATE ON books
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_cache_invalidation();
+CREATE OR REPLACE TRIGGER authors_notify_cache_truncate
+    AFTER TRUNCATE ON authors
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_cache_invalidation();
+CREATE OR REPLACE TRIGGER author_book_notify_cache_truncate
+    AFTER TRUNCATE ON author_book
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_cache_invalidation();
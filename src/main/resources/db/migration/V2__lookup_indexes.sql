@@ -0,0 +1,18 @@
+-- no-transaction
+-- Built CONCURRENTLY, so writes to the tables go on while the indexes are built.
+-- A failed build leaves an invalid index behind that IF NOT EXISTS would take for a built one,
+-- so each index is dropped first. The script runs again only if it was not applied completely.
+
+-- Authors of a book: ARRAY subqueries of book pages and versions, authors of a page of books,
+-- deletes of links by book_id and the foreign key check on book delete.
+-- The primary key (author_id, book_id) only serves lookups by author, with author_id second these are index only.
+DROP INDEX CONCURRENTLY IF EXISTS author_book_book_id_author_id_idx;
+CREATE INDEX CONCURRENTLY author_book_book_id_author_id_idx ON author_book (book_id, author_id);
+
+-- Books of a reader and the foreign key check on reader delete, which needs nothing but the id.
+DROP INDEX CONCURRENTLY IF EXISTS books_reader_id_idx;
+CREATE INDEX CONCURRENTLY books_reader_id_idx ON books (reader_id) INCLUDE (id);
+
+-- Imports resolve authors of links by full name.
+DROP INDEX CONCURRENTLY IF EXISTS authors_full_name_idx;
+CREATE INDEX CONCURRENTLY authors_full_name_idx ON authors (full_name) INCLUDE (id);
@@ -0,0 +1,4 @@
+-- Optimistic concurrency: updates are conditional on the version they read and raise it by one.
+ALTER TABLE readers ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
+ALTER TABLE books ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
+ALTER TABLE authors ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
@@ -0,0 +1,19 @@
+-- Authors are part of a book as clients see it, so changing its links to authors raises the version of the book.
+-- Statement triggers raise every book once per statement, also for bulk imports of links.
+CREATE OR REPLACE FUNCTION raise_version_of_linked_books() RETURNS trigger AS
+$$
+BEGIN
+    UPDATE books SET version = version + 1
+    WHERE id IN (SELECT DISTINCT book_id FROM changed_links);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE TRIGGER author_book_insert_raise_book_version
+    AFTER INSERT ON author_book
+    REFERENCING NEW TABLE AS changed_links
+    FOR EACH STATEMENT EXECUTE FUNCTION raise_version_of_linked_books();
+CREATE OR REPLACE TRIGGER author_book_delete_raise_book_version
+    AFTER DELETE ON author_book
+    REFERENCING OLD TABLE AS changed_links
+    FOR EACH STATEMENT EXECUTE FUNCTION raise_version_of_linked_books();
@@ -93,6 +93,7 @@ public class Constants {
         READER_1.setSurname("Ivanov");
         READER_1.setPhone("71111111111");
         READER_1.setAddress("Lenina 11");
+        READER_1.setVersion(0L);
         READER_1.setBooks(List.of(SHORT_BOOK_1));
     }
     public static final Reader READER_2 = new Reader();
@@ -102,6 +103,7 @@ public class Constants {
         READER_2.setSurname("Petrov");
         READER_2.setPhone("72222222222");
         READER_2.setAddress("Lenina 22");
+        READER_2.setVersion(0L);
         READER_2.setBooks(List.of(SHORT_BOOK_2));
     }
     public static final Reader READER_3 = new Reader();
@@ -111,6 +113,7 @@ public class Constants {
         READER_3.setSurname("Svetikova");
         READER_3.setPhone("73333333333");
         READER_3.setAddress("Lenina 33");
+        READER_3.setVersion(0L);
         READER_3.setBooks(List.of(SHORT_BOOK_3));
     }
 
@@ -121,6 +124,7 @@ public class Constants {
         BOOK_1.setId(1L);
         BOOK_1.setTitle("Title1");
         BOOK_1.setInventoryNumber(11111L);
+        BOOK_1.setVersion(0L);
         BOOK_1.setAuthors(new ArrayList<>(List.of(SHORT_AUTHOR_1, SHORT_AUTHOR_3)));
         BOOK_1.setReader(SHORT_READER_1);
     }
@@ -129,6 +133,7 @@ public class Constants {
         BOOK_2.setId(2L);
         BOOK_2.setTitle("Title2");
         BOOK_2.setInventoryNumber(22222L);
+        BOOK_2.setVersion(0L);
         BOOK_2.setAuthors(new ArrayList<>(List.of(SHORT_AUTHOR_2)));
         BOOK_2.setReader(SHORT_READER_2);
     }
@@ -137,6 +142,7 @@ public class Constants {
         BOOK_3.setId(3L);
         BOOK_3.setTitle("Title3");
         BOOK_3.setInventoryNumber(33333L);
+        BOOK_3.setVersion(0L);
         BOOK_3.setAuthors(new ArrayList<>(List.of(SHORT_AUTHOR_2, SHORT_AUTHOR_3)));
         BOOK_3.setReader(SHORT_READER_3);
     }
@@ -148,6 +154,7 @@ public class Constants {
         AUTHOR_1.setId(1L);
         AUTHOR_1.setFullName("Author1");
         AUTHOR_1.setPersonalInfo("likes dogs");
+        AUTHOR_1.setVersion(0L);
         AUTHOR_1.setBooks(List.of(SHORT_BOOK_1));
     }
     public static final Author AUTHOR_2 = new Author();
@@ -155,6 +162,7 @@ public class Constants {
         AUTHOR_2.setId(2L);
         AUTHOR_2.setFullName("Author2");
         AUTHOR_2.setPersonalInfo("likes cats");
+        AUTHOR_2.setVersion(0L);
         AUTHOR_2.setBooks(List.of(SHORT_BOOK_2, SHORT_BOOK_3));
     }
     public static final Author AUTHOR_3 = new Author();
@@ -162,6 +170,7 @@ public class Constants {
         AUTHOR_3.setId(3L);
         AUTHOR_3.setFullName("Author3");
         AUTHOR_3.setPersonalInfo("likes wolfs");
+        AUTHOR_3.setVersion(0L);
         AUTHOR_3.setBooks(List.of(SHORT_BOOK_1, SHORT_BOOK_3));
     }
 
@@ -249,16 +258,6 @@ public class Constants {
     public static final String UPDATE_READERS_ID_SQL = "ALTER TABLE readers ALTER COLUMN id RESTART WITH 1";
 
 
-    public static final String CREATE_READERS_SQL = """
-            CREATE TABLE IF NOT EXISTS readers (
-                id      bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-                name    varchar(128) NOT NULL,
-                surname varchar(128) NOT NULL,
-                phone   varchar(12)  NOT NULL UNIQUE,
-                address varchar(256)  NOT NULL
-            );
-            """;
-
     public static final String INSERT_READERS_SQL = """
             INSERT INTO readers (name, surname, phone, address)
             VALUES ('Ivan', 'Ivanov', '71111111111', 'Lenina 11'),
@@ -266,15 +265,6 @@ public class Constants {
                    ('Sveta', 'Svetikova', '73333333333', 'Lenina 33');
             """;
 
-    public static final String CREATE_BOOKS_SQL = """
-            CREATE TABLE IF NOT EXISTS books (
-                id               bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-                title            varchar(128) NOT NULL,
-                inventory_number bigint NOT NULL UNIQUE,
-                reader_id        bigint REFERENCES readers(id) NOT NULL
-            );
-            """;
-
     public static final String INSERT_BOOKS_SQL = """
             INSERT INTO books (title, inventory_number, reader_id)
             VALUES ('Title1', 11111, 1),
@@ -282,14 +272,6 @@ public class Constants {
                    ('Title3', 33333, 3);
             """;
 
-    public static final String CREATE_AUTHORS_SQL = """
-            CREATE TABLE IF NOT EXISTS authors (
-                id        bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-                full_name varchar(128) NOT NULL,
-                personal_info varchar(256) NOT NULL
-            );
-            """;
-
     public static final String INSERT_AUTHORS_SQL = """
             INSERT INTO authors (full_name, personal_info)
             VALUES ('Author1', 'likes dogs'),
@@ -297,14 +279,6 @@ public class Constants {
                    ('Author3', 'likes wolfs');
             """;
 
-    public static final String CREATE_AUTHOR_BOOK_SQL = """
-            CREATE TABLE IF NOT EXISTS author_book (
-                author_id bigint REFERENCES authors(id),
-                book_id   bigint REFERENCES books(id),
-                PRIMARY KEY (author_id, book_id)
-            );
-            """;
-
     public static final String INSERT_AUTHOR_BOOK_SQL = """
             INSERT INTO author_book (author_id, book_id)
             VALUES (1, 1),
@@ -314,4 +288,28 @@ public class Constants {
                    (2, 2);
             """;
 
+    /**
+     * Generated data set for benchmarks and load tests, format arguments are numbers of readers, authors and books.
+     * Every book has 2 authors.
+     */
+    public static final String INSERT_GENERATED_DATA_SQL = """
+            INSERT INTO readers (name, surname, phone, address)
+            SELECT 'Name' || i, 'Surname' || i, (70000000000 + i)::text, 'Lenina ' || i
+            FROM generate_series(1, %1$d) AS i;
+
+            INSERT INTO authors (full_name, personal_info)
+            SELECT 'Author' || i, 'likes books'
+            FROM generate_series(1, %2$d) AS i;
+
+            INSERT INTO books (title, inventory_number, reader_id)
+            SELECT 'Title' || i, i, 1 + i %% %1$d
+            FROM generate_series(1, %3$d) AS i;
+
+            INSERT INTO author_book (author_id, book_id)
+            SELECT 1 + (i + k * 7) %% %2$d, i
+            FROM generate_series(1, %3$d) AS i, generate_series(1, 2) AS k;
+
+            ANALYZE;
+            """;
+
 }
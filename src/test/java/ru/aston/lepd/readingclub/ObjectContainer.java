@@ -1,6 +1,5 @@
 package ru.aston.lepd.readingclub;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import ru.aston.lepd.readingclub.dao.AuthorBookDao;
 import ru.aston.lepd.readingclub.dao.AuthorDao;
 import ru.aston.lepd.readingclub.dao.BookDao;
@@ -12,6 +11,8 @@ import ru.aston.lepd.readingclub.servlet.AuthorServlet;
 import ru.aston.lepd.readingclub.servlet.BookServlet;
 import ru.aston.lepd.readingclub.servlet.ReaderServlet;
 import ru.aston.lepd.readingclub.util.CustomMapper;
+import ru.aston.lepd.readingclub.util.JsonCodec;
+import ru.aston.lepd.readingclub.util.QueryStatistics;
 
 public class ObjectContainer {
 
@@ -25,6 +26,7 @@ public class ObjectContainer {
         bookDao.setAuthorDao(authorDao);
         bookDao.setReaderDao(readerDao);
         readerDao.setBookDao(bookDao);
+        QueryStatistics.registerSqlNames(AuthorBookDao.class, AuthorDao.class, BookDao.class, ReaderDao.class);
     }
 
     CustomMapper mapper = CustomMapper.INSTANCE;
@@ -37,10 +39,10 @@ public class ObjectContainer {
         bookService.setReaderService(readerService);
     }
 
-    ObjectMapper objectMapper = new ObjectMapper();
-    ReaderServlet readerServlet = new ReaderServlet(readerService, objectMapper);
-    BookServlet bookServlet = new BookServlet(bookService, objectMapper);
-    AuthorServlet authorServlet = new AuthorServlet(authorService, objectMapper);
+    JsonCodec jsonCodec = new JsonCodec(JsonCodec.DEFAULT_MAX_BODY_SIZE);
+    ReaderServlet readerServlet = new ReaderServlet(readerService, jsonCodec);
+    BookServlet bookServlet = new BookServlet(bookService, jsonCodec);
+    AuthorServlet authorServlet = new AuthorServlet(authorService, jsonCodec);
 
 
     public AuthorBookDao getAuthorBookDao() {
@@ -75,8 +77,8 @@ public class ObjectContainer {
         return authorService;
     }
 
-    public ObjectMapper getObjectMapper() {
-        return objectMapper;
+    public JsonCodec getJsonCodec() {
+        return jsonCodec;
     }
 
     public ReaderServlet getReaderServlet() {
@@ -11,9 +11,8 @@ import ru.aston.lepd.readingclub.Constants;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.util.DataSource;
 
-import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static ru.aston.lepd.readingclub.Constants.*;
@@ -37,13 +36,7 @@ class AuthorBookDaoTest {
                 postgreSQLContainer.getPassword(),
                 postgreSQLContainer.getDriverClassName());
 
-        try (Connection connection = DataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            statement.execute(CREATE_READERS_SQL);
-            statement.execute(CREATE_BOOKS_SQL);
-            statement.execute(CREATE_AUTHORS_SQL);
-            statement.execute(CREATE_AUTHOR_BOOK_SQL);
-        }
+        new SchemaMigrator().migrate();
     }
 
 
@@ -157,6 +150,66 @@ class AuthorBookDaoTest {
 
 
 
+    @Test
+    void saveAllForBook_whenValidData_thenReturnCount() {
+        final Long bookId = 2L;
+
+        int actualResult = authorBookDao.saveAllForBook(bookId, List.of(1L, 3L));
+
+        assertEquals(2, actualResult);
+    }
+
+    @Test
+    void saveAllForBook_whenEmpty_thenReturnZero() {
+        final Long bookId = 2L;
+
+        int actualResult = authorBookDao.saveAllForBook(bookId, List.of());
+
+        assertEquals(0, actualResult);
+    }
+
+    @Test
+    void saveAllForAuthor_whenColumnIsNotForeignKey_thenTrowException() {
+        final Long authorId = 1L;
+
+        assertThrows(DaoException.class, () -> authorBookDao.saveAllForAuthor(authorId, List.of(2L, 666L)));
+    }
+
+
+
+    @Test
+    void updateAuthorsOfBook_whenChanged_thenTrue() {
+        final Long bookId = 1L;
+
+        boolean actualResult = authorBookDao.updateAuthorsOfBook(bookId, List.of(3L, 2L));
+
+        assertTrue(actualResult);
+        assertFalse(authorBookDao.delete(1L, bookId));
+        assertTrue(authorBookDao.delete(2L, bookId));
+        assertTrue(authorBookDao.delete(3L, bookId));
+    }
+
+    @Test
+    void updateAuthorsOfBook_whenNotChanged_thenFalse() {
+        final Long bookId = 1L;
+
+        boolean actualResult = authorBookDao.updateAuthorsOfBook(bookId, List.of(1L, 3L));
+
+        assertFalse(actualResult);
+    }
+
+    @Test
+    void updateBooksOfAuthor_whenEmpty_thenDeleteAll() {
+        final Long authorId = 3L;
+
+        boolean actualResult = authorBookDao.updateBooksOfAuthor(authorId, List.of());
+
+        assertTrue(actualResult);
+        assertFalse(authorBookDao.deleteAllByAuthorId(authorId));
+    }
+
+
+
     @AfterAll
     static void afterAll() throws SQLException {
         postgreSQLContainer.stop();
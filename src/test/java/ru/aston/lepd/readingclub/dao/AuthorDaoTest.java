@@ -8,16 +8,20 @@ import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import ru.aston.lepd.readingclub.ObjectContainer;
+import ru.aston.lepd.readingclub.dto.AuthorDto;
 import ru.aston.lepd.readingclub.entity.Author;
 import ru.aston.lepd.readingclub.entity.Book;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.QueryStatistics;
+import ru.aston.lepd.readingclub.util.TransactionManager;
 
-import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static ru.aston.lepd.readingclub.Constants.*;
@@ -42,13 +46,7 @@ class AuthorDaoTest {
                 postgreSQLContainer.getPassword(),
                 postgreSQLContainer.getDriverClassName());
 
-        try (Connection connection = DataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            statement.execute(CREATE_READERS_SQL);
-            statement.execute(CREATE_BOOKS_SQL);
-            statement.execute(CREATE_AUTHORS_SQL);
-            statement.execute(CREATE_AUTHOR_BOOK_SQL);
-        }
+        new SchemaMigrator().migrate();
     }
 
 
@@ -136,6 +134,98 @@ class AuthorDaoTest {
         assertTrue(actualResult.isEmpty());
     }
 
+    @Test
+    public void getAll_whenReadThroughService_thenOneStatementForAllAuthors() {
+        // GET /authors must not go back to the database once per author
+        QueryStatistics.configure(true, 1, true);
+        QueryStatistics statistics = QueryStatistics.start("getAll");
+        try {
+            List<AuthorDto> actualResult = new ObjectContainer().getAuthorService().getAll();
+
+            assertEquals(3, actualResult.size());
+        } finally {
+            statistics.finish();
+            QueryStatistics.configure(false, Integer.MAX_VALUE, false);
+        }
+
+        assertEquals(1, statistics.getStatementCount());
+        assertEquals(Map.of("AuthorDao.FIND_ALL_SQL", 1), statistics.getExecutionCounts());
+    }
+
+
+
+    @Test
+    public void streamAll_whenExist_thenPassEveryEntity() {
+        final List<Author> streamed = new ArrayList<>();
+
+        authorDao.streamAll(streamed::add);
+
+        assertEquals(3, streamed.size());
+        assertEquals(1L, streamed.get(0).getId());
+    }
+
+    @Test
+    public void streamAll_whenInTransaction_thenTransactionStaysOpen() {
+        final List<Author> streamed = new ArrayList<>();
+
+        TransactionManager.inTransaction(() -> {
+            authorDao.streamAll(streamed::add);
+            authorDao.streamAll(streamed::add);
+            return null;
+        });
+
+        assertEquals(6, streamed.size());
+    }
+
+
+
+    @Test
+    public void findPage_whenAfterIsNull_thenReturnFirstPage() {
+        List<Author> actualResult = authorDao.findPage(null, 2);
+
+        assertEquals(2, actualResult.size());
+        assertEquals(1L, actualResult.get(0).getId());
+        assertEquals(2L, actualResult.get(1).getId());
+    }
+
+    @Test
+    public void findAll_whenFieldsGiven_thenOnlyTheirColumnsRead() {
+        List<Author> actualResult = authorDao.findAll(Set.of("fullName"));
+
+        assertEquals(3, actualResult.size());
+        Author author = actualResult.stream().filter(a -> a.getId() == 1L).findFirst().get();
+        assertEquals("Author1", author.getFullName());
+        assertNull(author.getPersonalInfo());
+    }
+
+    @Test
+    public void findById_whenFieldsGiven_thenOnlyTheirColumnsAndVersionRead() {
+        final Long authorId = 1L;
+
+        Author actualResult = authorDao.findById(authorId, Set.of("fullName")).get();
+
+        assertEquals(authorId, actualResult.getId());
+        assertEquals("Author1", actualResult.getFullName());
+        assertNull(actualResult.getPersonalInfo());
+        assertEquals(authorDao.findById(authorId).get().getVersion(), actualResult.getVersion());
+    }
+
+    @Test
+    public void findPage_whenAfterIsLast_thenReturnEmptyList() {
+        List<Author> actualResult = authorDao.findPage(3L, 2);
+
+        assertTrue(actualResult.isEmpty());
+    }
+
+    @Test
+    public void findPage_whenAfterIsGiven_thenReturnNextIds() {
+        List<Author> actualResult = authorDao.findPage(1L, 5);
+
+        assertEquals(2, actualResult.size());
+        assertEquals(2L, actualResult.get(0).getId());
+        assertEquals(3L, actualResult.get(1).getId());
+    }
+
 
 
     @Test
@@ -159,6 +249,29 @@ class AuthorDaoTest {
 
 
 
+    @Test
+    public void findAllByBookIds_whenExist_thenReturnGroupedMap() {
+        final List<Long> bookIds = List.of(1L, 2L, 3L);
+
+        Map<Long, List<Author>> actualResult = authorDao.findAllByBookIds(bookIds);
+
+        assertEquals(3, actualResult.size());
+        assertEquals(2, actualResult.get(1L).size());
+        assertEquals(1, actualResult.get(2L).size());
+        assertEquals(2, actualResult.get(3L).size());
+    }
+
+    @Test
+    public void findAllByBookIds_whenNotExist_thenReturnEmptyMap() {
+        final List<Long> bookIds = List.of(666L, 777L);
+
+        Map<Long, List<Author>> actualResult = authorDao.findAllByBookIds(bookIds);
+
+        assertTrue(actualResult.isEmpty());
+    }
+
+
+
     @Test
     void getBooksForAuthor_whenAuthorHaveBook_thenReturnList() {
         final Long authorId = 3L;
@@ -234,6 +347,27 @@ class AuthorDaoTest {
         assertTrue(actualResult);
     }
 
+    @Test
+    void patch_whenOnlyPersonalInfoGiven_thenFullNameKept() {
+        final Long authorId = 1L;
+        final Author before = authorDao.findById(authorId).get();
+
+        boolean actualResult = authorDao.patch(authorId, Map.of("personalInfo", "likes fish"), null);
+
+        Author updated = authorDao.findById(authorId).get();
+        assertTrue(actualResult);
+        assertEquals(before.getFullName(), updated.getFullName());
+        assertEquals("likes fish", updated.getPersonalInfo());
+        assertEquals(before.getVersion() + 1, updated.getVersion());
+    }
+
+    @Test
+    void patch_whenVersionIsNotExpected_thenFalse() {
+        boolean actualResult = authorDao.patch(1L, Map.of("personalInfo", "likes fish"), Set.of("1"));
+
+        assertFalse(actualResult);
+    }
+
     @Test
     void update_whenFullNameIsNull_thenThrowException() {
         final Long authorId = 1L;
@@ -290,6 +424,18 @@ class AuthorDaoTest {
         assertFalse(authorDao.isContainById(authorId));
     }
 
+    @Test
+    void findMissingIds_whenSomeAbsent_thenReturnOnlyAbsent() {
+        final List<Long> authorIds = List.of(1L, 666L, 2L, 665L);
+
+        assertEquals(Set.of(665L, 666L), authorDao.findMissingIds(authorIds));
+    }
+
+    @Test
+    void findMissingIds_whenAllExist_thenReturnEmpty() {
+        assertTrue(authorDao.findMissingIds(List.of(1L, 2L, 3L)).isEmpty());
+    }
+
 
 
     @AfterAll
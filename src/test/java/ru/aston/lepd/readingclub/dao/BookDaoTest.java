@@ -1,5 +1,7 @@
 package ru.aston.lepd.readingclub.dao;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,15 +12,24 @@ import org.testcontainers.junit.jupiter.Testcontainers;
 import ru.aston.lepd.readingclub.ObjectContainer;
 import ru.aston.lepd.readingclub.entity.Author;
 import ru.aston.lepd.readingclub.entity.Book;
+import ru.aston.lepd.readingclub.entity.Reader;
 import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.exception.QueryBudgetExceededException;
 import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.EntityCache;
+import ru.aston.lepd.readingclub.util.QueryStatistics;
+import ru.aston.lepd.readingclub.util.TransactionManager;
 
-import java.sql.Connection;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static ru.aston.lepd.readingclub.Constants.*;
@@ -41,13 +52,7 @@ class BookDaoTest {
                 postgreSQLContainer.getPassword(),
                 postgreSQLContainer.getDriverClassName());
 
-        try (Connection connection = DataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            statement.execute(CREATE_READERS_SQL);
-            statement.execute(CREATE_BOOKS_SQL);
-            statement.execute(CREATE_AUTHORS_SQL);
-            statement.execute(CREATE_AUTHOR_BOOK_SQL);
-        }
+        new SchemaMigrator().migrate();
     }
 
 
@@ -137,6 +142,32 @@ class BookDaoTest {
 
 
 
+    @Test
+    public void findById_whenValidId_thenReaderIsHydrated() {
+        final Long bookId = 1L;
+
+        Optional<Book> actualResult = bookDao.findById(bookId);
+
+        assertTrue(actualResult.isPresent());
+        assertEquals(SHORT_READER_1.getId(), actualResult.get().getReader().getId());
+        assertEquals(SHORT_READER_1.getName(), actualResult.get().getReader().getName());
+        assertEquals(SHORT_READER_1.getPhone(), actualResult.get().getReader().getPhone());
+    }
+
+    @Test
+    public void findById_whenReaderUpdatedAfterCaching_thenReturnNewReaderData() {
+        final Long bookId = 1L;
+        bookDao.setCache(new EntityCache<>(10, 1, TimeUnit.MINUTES));
+        final Reader reader = bookDao.findById(bookId).get().getReader();
+        reader.setName("Alex");
+
+        bookDao.getReaderDao().update(reader);
+
+        assertEquals("Alex", bookDao.findById(bookId).get().getReader().getName());
+    }
+
+
+
     @Test
     public void findAll_whenExist_thenReturnList() {
         List<Book> actualResult = bookDao.findAll();
@@ -156,6 +187,168 @@ class BookDaoTest {
         assertTrue(actualResult.isEmpty());
     }
 
+    @Test
+    public void findAll_whenQueriesCounted_thenReadersAreNotLoadedRowByRow() {
+        QueryStatistics.configure(true, 1, true);
+        QueryStatistics statistics = QueryStatistics.start("findAll");
+        try {
+            List<Book> actualResult = bookDao.findAll();
+
+            assertEquals(3, actualResult.size());
+        } finally {
+            statistics.finish();
+            QueryStatistics.configure(false, Integer.MAX_VALUE, false);
+        }
+
+        assertEquals(1, statistics.getStatementCount());
+        assertEquals(1, statistics.getCheckoutCount());
+        assertEquals(Map.of("BookDao.FIND_ALL_SQL", 1), statistics.getExecutionCounts());
+    }
+
+    @Test
+    public void findById_whenQueryBudgetExceededInTestMode_thenThrowException() {
+        QueryStatistics.configure(true, 1, true);
+        QueryStatistics statistics = QueryStatistics.start("findById");
+        try {
+            bookDao.findById(1L);
+
+            assertThrows(QueryBudgetExceededException.class, () -> bookDao.getAuthorsForBook(1L));
+        } finally {
+            statistics.finish();
+            QueryStatistics.configure(false, Integer.MAX_VALUE, false);
+        }
+    }
+
+
+    @Test
+    public void streamAll_whenExist_thenPassEveryEntity() {
+        final List<Book> streamed = new ArrayList<>();
+
+        bookDao.streamAll(streamed::add);
+
+        assertEquals(3, streamed.size());
+        assertEquals(1L, streamed.get(0).getId());
+        assertEquals(List.of(1L, 3L), streamed.get(0).getAuthors().stream().map(Author::getId).sorted().toList());
+        assertEquals(SHORT_READER_1.getName(), streamed.get(0).getReader().getName());
+    }
+
+    @Test
+    public void streamAll_whenInTransaction_thenTransactionStaysOpen() {
+        final List<Book> streamed = new ArrayList<>();
+
+        TransactionManager.inTransaction(() -> {
+            bookDao.streamAll(streamed::add);
+            bookDao.streamAll(streamed::add);
+            return null;
+        });
+
+        assertEquals(6, streamed.size());
+    }
+
+
+    @Test
+    public void streamJson_whenLimitIsNull_thenPassEveryBookAsDtoJson() throws Exception {
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final List<Long> ids = new ArrayList<>();
+        final List<JsonNode> streamed = new ArrayList<>();
+
+        bookDao.streamJson(null, null, (id, json) -> {
+            ids.add(id);
+            try {
+                streamed.add(objectMapper.readTree(json));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        assertEquals(List.of(1L, 2L, 3L), ids);
+        assertEquals(objectMapper.readTree("""
+                {"title": "Title1", "inventoryNumber": 11111, "authorIds": [1, 3], "readerId": 1}
+                """), streamed.get(0));
+    }
+
+    @Test
+    public void streamJson_whenAfterAndLimitGiven_thenPassPage() {
+        final List<Long> ids = new ArrayList<>();
+
+        bookDao.streamJson(1L, 1, (id, json) -> ids.add(id));
+
+        assertEquals(List.of(2L), ids);
+    }
+
+
+    @Test
+    public void findPage_whenAfterIsNull_thenReturnFirstPage() {
+        List<Book> actualResult = bookDao.findPage(null, 2);
+
+        assertEquals(2, actualResult.size());
+        assertEquals(1L, actualResult.get(0).getId());
+        assertEquals(2L, actualResult.get(1).getId());
+    }
+
+    @Test
+    public void findAll_whenFieldsGiven_thenOnlyTheirColumnsRead() {
+        List<Book> actualResult = bookDao.findAll(Set.of("title"));
+
+        assertEquals(3, actualResult.size());
+        Book book = actualResult.stream().filter(b -> b.getId() == 1L).findFirst().get();
+        assertEquals("Title1", book.getTitle());
+        assertNull(book.getInventoryNumber());
+        assertNull(book.getReader());
+        assertTrue(book.getAuthors().isEmpty());
+    }
+
+    @Test
+    public void findById_whenFieldsGiven_thenOnlyTheirColumnsAndVersionRead() {
+        final Long bookId = 1L;
+
+        Book actualResult = bookDao.findById(bookId, Set.of("title", "authorIds")).get();
+
+        assertEquals("Title1", actualResult.getTitle());
+        assertNull(actualResult.getInventoryNumber());
+        assertNull(actualResult.getReader());
+        assertEquals(bookDao.getAuthorsForBook(bookId).stream().map(Author::getId).toList(),
+                actualResult.getAuthors().stream().map(Author::getId).toList());
+        assertEquals(bookDao.findById(bookId).get().getVersion(), actualResult.getVersion());
+    }
+
+    @Test
+    public void findPage_whenAuthorIdsAndReaderIdGiven_thenReadInOneQuery() {
+        QueryStatistics.configure(true, 1, true);
+        QueryStatistics statistics = QueryStatistics.start("findPage");
+        try {
+            List<Book> actualResult = bookDao.findPage(null, 2, Set.of("authorIds", "readerId"));
+
+            assertEquals(2, actualResult.size());
+            assertEquals(List.of(1L, 3L), actualResult.get(0).getAuthors().stream().map(Author::getId).sorted().toList());
+            assertEquals(1L, actualResult.get(0).getReader().getId());
+            assertNull(actualResult.get(0).getReader().getPhone());
+            assertNull(actualResult.get(0).getTitle());
+        } finally {
+            statistics.finish();
+            QueryStatistics.configure(false, Integer.MAX_VALUE, false);
+        }
+
+        assertEquals(1, statistics.getStatementCount());
+    }
+
+    @Test
+    public void findPage_whenAfterIsLast_thenReturnEmptyList() {
+        List<Book> actualResult = bookDao.findPage(3L, 2);
+
+        assertTrue(actualResult.isEmpty());
+    }
+
+    @Test
+    public void findPage_whenAfterIsGiven_thenReturnNextIds() {
+        List<Book> actualResult = bookDao.findPage(1L, 5);
+
+        assertEquals(2, actualResult.size());
+        assertEquals(2L, actualResult.get(0).getId());
+        assertEquals(3L, actualResult.get(1).getId());
+    }
+
+
 
     @Test
     public void findAllByReaderId_whenExist_thenReturnList() {
@@ -242,6 +435,54 @@ class BookDaoTest {
         assertEquals(1L, saved.getReader().getId());
     }
 
+    @Test
+    void saveAll_whenValidData_thenIdsInOrderWithTwoStatements() {
+        final Book book1 = new Book();
+        book1.setTitle("first");
+        book1.setInventoryNumber(55555L);
+        book1.setAuthors(List.of(SHORT_AUTHOR_2, SHORT_AUTHOR_3));
+        book1.setReader(SHORT_READER_1);
+        final Book book2 = new Book();
+        book2.setTitle("second");
+        book2.setInventoryNumber(55556L);
+        book2.setAuthors(List.of(SHORT_AUTHOR_2));
+        book2.setReader(SHORT_READER_1);
+
+        QueryStatistics.configure(true, Integer.MAX_VALUE, false);
+        QueryStatistics statistics = QueryStatistics.start("saveAll");
+        try {
+            TransactionManager.inTransaction(() -> bookDao.saveAll(List.of(book1, book2)));
+        } finally {
+            statistics.finish();
+            QueryStatistics.configure(false, Integer.MAX_VALUE, false);
+        }
+
+        assertEquals(2, statistics.getStatementCount());
+        assertEquals(4L, book1.getId());
+        assertEquals(5L, book2.getId());
+        assertEquals("second", bookDao.findById(5L).get().getTitle());
+        assertEquals(2, bookDao.getAuthorsForBook(4L).size());
+        assertEquals(1, bookDao.getAuthorsForBook(5L).size());
+    }
+
+    @Test
+    void saveAll_whenOneBookIsInvalid_thenNothingSaved() {
+        final Book book1 = new Book();
+        book1.setTitle("first");
+        book1.setInventoryNumber(55555L);
+        book1.setAuthors(List.of(SHORT_AUTHOR_2));
+        book1.setReader(SHORT_READER_1);
+        final Book book2 = new Book();
+        book2.setInventoryNumber(55556L);
+        book2.setAuthors(List.of(SHORT_AUTHOR_2));
+        book2.setReader(SHORT_READER_1);
+
+        assertThrows(DaoException.class,
+                () -> TransactionManager.inTransaction(() -> bookDao.saveAll(List.of(book1, book2))));
+
+        assertEquals(3, bookDao.findAll().size());
+    }
+
     @Test
     void save_whenTitleIsNull_thenThrowException() {
         final Book book = new Book();
@@ -264,6 +505,23 @@ class BookDaoTest {
     }
 
 
+    @Test
+    void save_whenInTransactionAndLinkFails_thenRollback() {
+        final Author absentAuthor = new Author();
+        absentAuthor.setId(666L);
+        final Book book = new Book();
+        book.setTitle("new title");
+        book.setInventoryNumber(55555L);
+        book.setAuthors(List.of(SHORT_AUTHOR_2, absentAuthor));
+        book.setReader(SHORT_READER_1);
+
+        assertThrows(DaoException.class, () -> TransactionManager.inTransaction(() -> bookDao.save(book)));
+
+        assertEquals(3, bookDao.findAll().size());
+        assertEquals(2, bookDao.findAllByAuthorId(SHORT_AUTHOR_2.getId()).size());
+    }
+
+
     @Test
     void update_whenValidData_thenSuccess() {
         final Long bookId = 1L;
@@ -282,10 +540,91 @@ class BookDaoTest {
         assertTrue(actualResult);
     }
 
+    @Test
+    void update_whenUpdatedSinceRead_thenFalseAndNotOverwritten() {
+        final Long bookId = 1L;
+        Book first = bookDao.findById(bookId).get();
+        Book second = bookDao.findById(bookId).get();
+        // Same authors, so only the update itself raises the version
+        first.setAuthors(bookDao.getAuthorsForBook(bookId));
+        first.setTitle("first title");
+        second.setTitle("second title");
+
+        boolean firstResult = bookDao.update(first);
+        boolean secondResult = bookDao.update(second);
+
+        Book updated = bookDao.findById(bookId).get();
+        assertTrue(firstResult);
+        assertFalse(secondResult);
+        assertEquals("first title", updated.getTitle());
+        assertEquals(first.getVersion() + 1, updated.getVersion());
+    }
+
+    @Test
+    void findById_whenAuthorsOfBookChanged_thenNewVersion() {
+        final Long bookId = 1L;
+        Long before = bookDao.findById(bookId).get().getVersion();
+
+        new ObjectContainer().getAuthorBookDao().save(2L, bookId);
+
+        Long after = bookDao.findById(bookId).get().getVersion();
+        assertNotEquals(before, after);
+        assertEquals(after, bookDao.findById(bookId).get().getVersion());
+    }
+
+    @Test
+    void patch_whenOnlyTitleGiven_thenOtherColumnsAndAuthorsKept() {
+        final Long bookId = 1L;
+        Book before = bookDao.findById(bookId).get();
+        List<Author> authorsBefore = bookDao.getAuthorsForBook(bookId);
+        String version = String.valueOf(bookDao.findById(bookId).get().getVersion());
+
+        boolean actualResult = bookDao.patch(bookId, Map.of("title", "patched title"), Set.of(version));
+
+        Book updated = bookDao.findById(bookId).get();
+        assertTrue(actualResult);
+        assertEquals("patched title", updated.getTitle());
+        assertEquals(before.getInventoryNumber(), updated.getInventoryNumber());
+        assertEquals(before.getReader().getId(), updated.getReader().getId());
+        assertEquals(authorsBefore.stream().map(Author::getId).toList(),
+                bookDao.getAuthorsForBook(bookId).stream().map(Author::getId).toList());
+        assertEquals(before.getVersion() + 1, updated.getVersion());
+    }
+
+    @Test
+    void patch_whenAuthorIdsGiven_thenAuthorsReplaced() {
+        final Long bookId = 1L;
+
+        boolean actualResult = bookDao.patch(bookId, Map.of("readerId", 2L, "authorIds", List.of(2L)), null);
+
+        Book updated = bookDao.findById(bookId).get();
+        assertTrue(actualResult);
+        assertEquals(2L, updated.getReader().getId());
+        assertEquals(List.of(2L), bookDao.getAuthorsForBook(bookId).stream().map(Author::getId).toList());
+    }
+
+    @Test
+    void patch_whenVersionIsNotExpected_thenFalseAndNotChanged() {
+        final Long bookId = 1L;
+        String version = String.valueOf(bookDao.findById(bookId).get().getVersion());
+        new ObjectContainer().getAuthorBookDao().save(2L, bookId);
+
+        boolean actualResult = bookDao.patch(bookId, Map.of("title", "patched title"), Set.of(version));
+
+        assertFalse(actualResult);
+        assertNotEquals("patched title", bookDao.findById(bookId).get().getTitle());
+    }
+
+    @Test
+    void patch_whenReaderIsAbsent_thenThrowException() {
+        assertThrows(DaoException.class, () -> bookDao.patch(1L, Map.of("readerId", 666L), null));
+    }
+
     @Test
     void update_whenInvalidData_thenFalse() {
         Book book = new Book();
         book.setId(666L);
+        book.setVersion(0L);
         book.setTitle("new title");
         book.setInventoryNumber(55555L);
         book.setAuthors(List.of(AUTHOR_1));
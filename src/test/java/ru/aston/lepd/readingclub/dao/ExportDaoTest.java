@@ -0,0 +1,139 @@
+package ru.aston.lepd.readingclub.dao;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ru.aston.lepd.readingclub.util.DataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.aston.lepd.readingclub.Constants.*;
+
+@Testcontainers
+class ExportDaoTest {
+
+
+    @Container
+    static PostgreSQLContainer<?> postgreSQLContainer = new PostgreSQLContainer<>("postgres:latest");
+    private ExportDao exportDao;
+
+
+
+    @BeforeAll
+    static void prepareDatabase() throws SQLException {
+        postgreSQLContainer.start();
+        DataSource.initialize(postgreSQLContainer.getJdbcUrl(),
+                postgreSQLContainer.getUsername(),
+                postgreSQLContainer.getPassword(),
+                postgreSQLContainer.getDriverClassName());
+
+        new SchemaMigrator().migrate();
+    }
+
+
+    @BeforeEach
+    void cleanData() throws SQLException {
+        this.exportDao = new ExportDao();
+        try (var connection = DataSource.getConnection();
+             var statement = connection.createStatement()) {
+            statement.execute(CLEAN_AUTHOR_BOOK_SQL);
+            statement.execute(CLEAN_AUTHORS_SQL);
+            statement.execute(CLEAN_BOOKS_SQL);
+            statement.execute(CLEAN_READERS_SQL);
+
+            statement.execute(UPDATE_AUTHOR_ID_SQL);
+            statement.execute(UPDATE_BOOKS_ID_SQL);
+            statement.execute(UPDATE_READERS_ID_SQL);
+
+            statement.execute(INSERT_READERS_SQL);
+            statement.execute(INSERT_BOOKS_SQL);
+            statement.execute(INSERT_AUTHORS_SQL);
+            statement.execute(INSERT_AUTHOR_BOOK_SQL);
+        }
+    }
+
+
+
+
+    @Test
+    void copyOut_whenReadersCsv_thenHeaderAndRowsInIdOrder() {
+        final String expected = """
+                id,name,surname,phone,address
+                1,Ivan,Ivanov,71111111111,Lenina 11
+                2,Petr,Petrov,72222222222,Lenina 22
+                3,Sveta,Svetikova,73333333333,Lenina 33
+                """;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        long actualResult = exportDao.copyOut(ExportDao.Target.READERS, CopyFormat.CSV, output);
+
+        assertEquals(3, actualResult);
+        assertEquals(expected, output.toString(UTF_8));
+    }
+
+    @Test
+    void copyOut_whenBooksCsv_thenAuthorIdsInOneColumn() {
+        final String expected = """
+                id,title,inventory_number,reader_id,author_ids
+                1,Title1,11111,1,1 3
+                2,Title2,22222,2,2
+                3,Title3,33333,3,2 3
+                """;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        exportDao.copyOut(ExportDao.Target.BOOKS, CopyFormat.CSV, output);
+
+        assertEquals(expected, output.toString(UTF_8));
+    }
+
+    @Test
+    void copyOut_whenBooksNdjson_thenOneObjectPerLine() {
+        final String expected = """
+                {"id" : 1, "title" : "Title1", "inventoryNumber" : 11111, "authorIds" : [1,3], "readerId" : 1}
+                {"id" : 2, "title" : "Title2", "inventoryNumber" : 22222, "authorIds" : [2], "readerId" : 2}
+                {"id" : 3, "title" : "Title3", "inventoryNumber" : 33333, "authorIds" : [2,3], "readerId" : 3}
+                """;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        long actualResult = exportDao.copyOut(ExportDao.Target.BOOKS, CopyFormat.NDJSON, output);
+
+        assertEquals(3, actualResult);
+        assertEquals(expected, output.toString(UTF_8));
+    }
+
+    @Test
+    void copyOut_whenValuesHaveQuotesAndDelimiters_thenEscapedForFormat() throws SQLException {
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("UPDATE authors SET personal_info = 'likes \"dogs\", cats' || chr(10) || 'and \\ wolfs' WHERE id = 1");
+        }
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+
+        exportDao.copyOut(ExportDao.Target.AUTHORS, CopyFormat.CSV, csv);
+        exportDao.copyOut(ExportDao.Target.AUTHORS, CopyFormat.NDJSON, ndjson);
+
+        assertTrue(csv.toString(UTF_8).contains("1,Author1,\"likes \"\"dogs\"\", cats\nand \\ wolfs\"\n"));
+        assertTrue(ndjson.toString(UTF_8).startsWith(
+                "{\"id\" : 1, \"fullName\" : \"Author1\", \"personalInfo\" : \"likes \\\"dogs\\\", cats\\nand \\\\ wolfs\"}\n"));
+    }
+
+
+
+
+    @AfterAll
+    static void afterAll() throws SQLException {
+        postgreSQLContainer.stop();
+    }
+
+
+}
@@ -0,0 +1,264 @@
+package ru.aston.lepd.readingclub.dao;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ru.aston.lepd.readingclub.ObjectContainer;
+import ru.aston.lepd.readingclub.entity.Author;
+import ru.aston.lepd.readingclub.entity.Book;
+import ru.aston.lepd.readingclub.entity.Reader;
+import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.util.CacheInvalidationListener;
+import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.TransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.aston.lepd.readingclub.Constants.*;
+
+@Testcontainers
+class ImportDaoTest {
+
+
+    @Container
+    static PostgreSQLContainer<?> postgreSQLContainer = new PostgreSQLContainer<>("postgres:latest");
+    private ImportDao importDao;
+    private ObjectContainer objectContainer;
+
+
+
+    @BeforeAll
+    static void prepareDatabase() throws SQLException {
+        postgreSQLContainer.start();
+        DataSource.initialize(postgreSQLContainer.getJdbcUrl(),
+                postgreSQLContainer.getUsername(),
+                postgreSQLContainer.getPassword(),
+                postgreSQLContainer.getDriverClassName());
+
+        new SchemaMigrator().migrate();
+    }
+
+
+    @BeforeEach
+    void cleanData() throws SQLException {
+        this.importDao = new ImportDao();
+        this.objectContainer = new ObjectContainer();
+        try (var connection = DataSource.getConnection();
+             var statement = connection.createStatement()) {
+            statement.execute(CLEAN_AUTHOR_BOOK_SQL);
+            statement.execute(CLEAN_AUTHORS_SQL);
+            statement.execute(CLEAN_BOOKS_SQL);
+            statement.execute(CLEAN_READERS_SQL);
+
+            statement.execute(UPDATE_AUTHOR_ID_SQL);
+            statement.execute(UPDATE_BOOKS_ID_SQL);
+            statement.execute(UPDATE_READERS_ID_SQL);
+
+            statement.execute(INSERT_READERS_SQL);
+            statement.execute(INSERT_BOOKS_SQL);
+            statement.execute(INSERT_AUTHORS_SQL);
+            statement.execute(INSERT_AUTHOR_BOOK_SQL);
+        }
+    }
+
+
+
+
+    @Test
+    void merge_whenReadersCsvHasKnownAndNewPhones_thenUpdatedAndInserted() {
+        final String csv = """
+                name,surname,phone,address
+                Ivan,Ivanov,71111111111,Lenina 12
+                Petr,Petrov,72222222222,Lenina 22
+                Alex,Smith,74444444444,"Street 5, flat 1"
+                """;
+
+        long[] result = importText(ImportDao.Target.READERS, CopyFormat.CSV, csv);
+
+        assertEquals(3, result[0]);
+        assertEquals(2, result[1]);
+        ReaderDao readerDao = objectContainer.getReaderDao();
+        assertEquals("Lenina 12", readerDao.findById(1L).get().getAddress());
+        Reader inserted = readerDao.findAll().stream()
+                .filter(reader -> reader.getPhone().equals("74444444444"))
+                .findFirst().get();
+        assertEquals("Street 5, flat 1", inserted.getAddress());
+    }
+
+    @Test
+    void merge_whenPhoneRepeatedInInput_thenLastLineWins() {
+        final String csv = """
+                name,surname,phone,address
+                Alex,Smith,74444444444,Street 5
+                Alex,Smith,74444444444,Street 6
+                """;
+
+        long[] result = importText(ImportDao.Target.READERS, CopyFormat.CSV, csv);
+
+        assertEquals(1, result[1]);
+        assertEquals(4, objectContainer.getReaderDao().findAll().size());
+        assertEquals("Street 6", objectContainer.getReaderDao().findById(4L).get().getAddress());
+    }
+
+    @Test
+    void merge_whenBooksNdjson_thenReadersResolvedByPhone() {
+        final String ndjson = """
+                {"title": "New title", "inventoryNumber": 11111, "readerPhone": "71111111111"}
+
+                {"title": "Title4 \\"quoted\\"", "inventoryNumber": 44444, "readerPhone": "72222222222"}
+                """;
+
+        long[] result = importText(ImportDao.Target.BOOKS, CopyFormat.NDJSON, ndjson);
+
+        assertEquals(2, result[0]);
+        assertEquals(2, result[1]);
+        BookDao bookDao = objectContainer.getBookDao();
+        assertEquals("New title", bookDao.findById(1L).get().getTitle());
+        Book inserted = bookDao.findAll().stream()
+                .filter(book -> book.getInventoryNumber().equals(44444L))
+                .findFirst().get();
+        assertEquals("Title4 \"quoted\"", inserted.getTitle());
+        assertEquals(2L, inserted.getReader().getId());
+    }
+
+    @Test
+    void findUnresolved_whenReaderPhoneIsUnknown_thenReported() {
+        final String csv = """
+                title,inventory_number,reader_phone
+                Title4,44444,79999999999
+                Title5,55555,71111111111
+                """;
+
+        List<String> actualResult = TransactionManager.inTransaction(() -> {
+            importDao.copyToStaging(ImportDao.Target.BOOKS, CopyFormat.CSV, input(csv));
+            return importDao.findUnresolved(ImportDao.Target.BOOKS);
+        });
+
+        assertEquals(List.of("reader phone 79999999999"), actualResult);
+    }
+
+    @Test
+    void merge_whenAuthorsCsv_thenMatchedByFullName() {
+        final String csv = """
+                full_name,personal_info
+                Author1,likes birds
+                Author4,likes fish
+                """;
+
+        long[] result = importText(ImportDao.Target.AUTHORS, CopyFormat.CSV, csv);
+
+        assertEquals(2, result[1]);
+        AuthorDao authorDao = objectContainer.getAuthorDao();
+        assertEquals("likes birds", authorDao.findById(1L).get().getPersonalInfo());
+        Author inserted = authorDao.findById(4L).get();
+        assertEquals("Author4", inserted.getFullName());
+    }
+
+    @Test
+    void merge_whenAuthorBookCsv_thenOnlyNewLinksInserted() {
+        final String csv = """
+                author_full_name,inventory_number
+                Author1,11111
+                Author2,11111
+                """;
+
+        long[] result = importText(ImportDao.Target.AUTHOR_BOOK, CopyFormat.CSV, csv);
+
+        assertEquals(2, result[0]);
+        assertEquals(1, result[1]);
+        assertEquals(3, objectContainer.getBookDao().getAuthorsForBook(1L).size());
+    }
+
+    @Test
+    void findUnresolved_whenAuthorNameIsAmbiguousOrBookIsUnknown_thenReported() throws SQLException {
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO authors (full_name, personal_info) VALUES ('Author1', 'namesake')");
+        }
+        final String csv = """
+                author_full_name,inventory_number
+                Author1,11111
+                Author9,99999
+                """;
+
+        List<String> actualResult = TransactionManager.inTransaction(() -> {
+            importDao.copyToStaging(ImportDao.Target.AUTHOR_BOOK, CopyFormat.CSV, input(csv));
+            return importDao.findUnresolved(ImportDao.Target.AUTHOR_BOOK);
+        });
+
+        assertEquals(List.of("ambiguous author Author1", "author Author9", "inventory number 99999"), actualResult);
+    }
+
+    @Test
+    void copyToStaging_whenRowIsInvalid_thenThrowExceptionAndNothingSaved() {
+        final String csv = """
+                name,surname,phone,address
+                Alex,Smith,74444444444,Street 5
+                Alex,Smith
+                """;
+
+        assertThrows(DaoException.class,
+                () -> importText(ImportDao.Target.READERS, CopyFormat.CSV, csv));
+
+        assertEquals(3, objectContainer.getReaderDao().findAll().size());
+    }
+
+    @Test
+    void merge_whenReadersUpdated_thenOneNotificationForTable() throws SQLException {
+        final String csv = """
+                name,surname,phone,address
+                Ivan,Ivanov,71111111111,Lenina 12
+                Petr,Petrov,72222222222,Lenina 23
+                """;
+        try (Connection listener = DataSource.openUnpooledConnection();
+             Statement statement = listener.createStatement()) {
+            statement.execute("LISTEN " + CacheInvalidationListener.CHANNEL);
+
+            importText(ImportDao.Target.READERS, CopyFormat.CSV, csv);
+
+            List<String> payloads = new ArrayList<>();
+            PGNotification[] notifications;
+            while ((notifications = listener.unwrap(PGConnection.class).getNotifications(500)) != null
+                    && notifications.length > 0) {
+                Arrays.stream(notifications).map(PGNotification::getParameter).forEach(payloads::add);
+            }
+            assertEquals(List.of("readers:*"), payloads);
+        }
+    }
+
+
+
+
+    private long[] importText(ImportDao.Target target, CopyFormat format, String text) {
+        return TransactionManager.inTransaction(() -> {
+            long rowsRead = importDao.copyToStaging(target, format, input(text));
+            return new long[]{rowsRead, importDao.merge(target)};
+        });
+    }
+
+    private static ByteArrayInputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(UTF_8));
+    }
+
+
+    @AfterAll
+    static void afterAll() throws SQLException {
+        postgreSQLContainer.stop();
+    }
+
+
+}
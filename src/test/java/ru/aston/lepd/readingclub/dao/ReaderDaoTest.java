@@ -8,17 +8,26 @@ import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import ru.aston.lepd.readingclub.ObjectContainer;
+import ru.aston.lepd.readingclub.dto.ReaderDto;
 import ru.aston.lepd.readingclub.entity.Author;
 import ru.aston.lepd.readingclub.entity.Book;
 import ru.aston.lepd.readingclub.entity.Reader;
 import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.util.CacheInvalidationListener;
 import ru.aston.lepd.readingclub.util.DataSource;
+import ru.aston.lepd.readingclub.util.EntityCache;
+import ru.aston.lepd.readingclub.util.QueryStatistics;
+import ru.aston.lepd.readingclub.util.TransactionManager;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static ru.aston.lepd.readingclub.Constants.*;
@@ -43,13 +52,7 @@ class ReaderDaoTest {
                 postgreSQLContainer.getPassword(),
                 postgreSQLContainer.getDriverClassName());
 
-        try (Connection connection = DataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            statement.execute(CREATE_READERS_SQL);
-            statement.execute(CREATE_BOOKS_SQL);
-            statement.execute(CREATE_AUTHORS_SQL);
-            statement.execute(CREATE_AUTHOR_BOOK_SQL);
-        }
+        new SchemaMigrator().migrate();
     }
 
 
@@ -116,6 +119,86 @@ class ReaderDaoTest {
         assertTrue(actualResult.isEmpty());
     }
 
+    @Test
+    public void findById_whenCached_thenSecondCallIsHitAndReturnsCopy() {
+        final Long readerId = 1L;
+        final EntityCache<Long, Reader> cache = new EntityCache<>(10, 1, TimeUnit.MINUTES);
+        readerDao.setCache(cache);
+
+        Reader first = readerDao.findById(readerId).get();
+        first.setName("Changed by caller");
+        Reader second = readerDao.findById(readerId).get();
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(SHORT_READER_1.getName(), second.getName());
+    }
+
+    @Test
+    public void findById_whenUpdatedInTransactionAfterCaching_thenReturnNewData() {
+        final Long readerId = 1L;
+        readerDao.setCache(new EntityCache<>(10, 1, TimeUnit.MINUTES));
+        final Reader reader = readerDao.findById(readerId).get();
+        reader.setName("Alex");
+
+        TransactionManager.inTransaction(() -> readerDao.update(reader));
+
+        assertEquals("Alex", readerDao.findById(readerId).get().getName());
+    }
+
+    @Test
+    public void findById_whenUpdatedByOtherNode_thenCachedEntryEvictedByNotification() throws Exception {
+        final Long readerId = 1L;
+        final EntityCache<Long, Reader> cache = new EntityCache<>(10, 1, TimeUnit.MINUTES);
+        readerDao.setCache(cache);
+
+        try (CacheInvalidationListener listener = new CacheInvalidationListener(cache::invalidateAll)) {
+            listener.on("readers", cache::invalidate);
+            listener.start();
+            readerDao.findById(readerId);
+
+            try (Connection otherNode = DataSource.openUnpooledConnection();
+                 Statement statement = otherNode.createStatement()) {
+                statement.executeUpdate("UPDATE readers SET name = 'Alex' WHERE id = 1");
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.contains(readerId) && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+        }
+
+        assertFalse(cache.contains(readerId));
+        assertEquals("Alex", readerDao.findById(readerId).get().getName());
+    }
+
+    @Test
+    public void findById_whenEvictionOfOtherTableFailed_thenListenerStillEvicts() throws Exception {
+        final Long readerId = 1L;
+        final EntityCache<Long, Reader> cache = new EntityCache<>(10, 1, TimeUnit.MINUTES);
+        readerDao.setCache(cache);
+
+        try (CacheInvalidationListener listener = new CacheInvalidationListener(cache::invalidateAll)) {
+            listener.on("books", bookId -> {
+                throw new IllegalStateException("eviction failed");
+            });
+            listener.on("readers", cache::invalidate);
+            listener.start();
+            readerDao.findById(readerId);
+
+            try (Connection otherNode = DataSource.openUnpooledConnection();
+                 Statement statement = otherNode.createStatement()) {
+                statement.executeUpdate("UPDATE books SET title = 'Other' WHERE id = 1");
+                statement.executeUpdate("UPDATE readers SET name = 'Alex' WHERE id = 1");
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.contains(readerId) && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+        }
+
+        assertFalse(cache.contains(readerId));
+    }
+
 
     @Test
     public void findAll_whenExist_thenReturnList() {
@@ -136,6 +219,124 @@ class ReaderDaoTest {
         assertTrue(actualResult.isEmpty());
     }
 
+    @Test
+    public void getAll_whenReadThroughService_thenOneStatementForAllReaders() {
+        // GET /readers must not go back to the database once per reader
+        QueryStatistics.configure(true, 1, true);
+        QueryStatistics statistics = QueryStatistics.start("getAll");
+        try {
+            List<ReaderDto> actualResult = new ObjectContainer().getReaderService().getAll();
+
+            assertEquals(3, actualResult.size());
+        } finally {
+            statistics.finish();
+            QueryStatistics.configure(false, Integer.MAX_VALUE, false);
+        }
+
+        assertEquals(1, statistics.getStatementCount());
+        assertEquals(Map.of("ReaderDao.FIND_ALL_SQL", 1), statistics.getExecutionCounts());
+    }
+
+
+    @Test
+    public void streamAll_whenExist_thenPassEveryEntity() {
+        final List<Reader> streamed = new ArrayList<>();
+
+        readerDao.streamAll(streamed::add);
+
+        assertEquals(3, streamed.size());
+        assertEquals(1L, streamed.get(0).getId());
+    }
+
+    @Test
+    public void streamAll_whenInTransaction_thenTransactionStaysOpen() {
+        final List<Reader> streamed = new ArrayList<>();
+
+        TransactionManager.inTransaction(() -> {
+            readerDao.streamAll(streamed::add);
+            readerDao.streamAll(streamed::add);
+            return null;
+        });
+
+        assertEquals(6, streamed.size());
+    }
+
+    @Test
+    public void streamAll_whenOltpPoolIsExhausted_thenStillStream() throws SQLException {
+        final List<Reader> streamed = new ArrayList<>();
+        final List<Connection> taken = new ArrayList<>();
+        try {
+            for (int i = 0; i < DataSource.getMaximumPoolSize(); i++) {
+                taken.add(DataSource.getConnection());
+            }
+
+            readerDao.streamAll(streamed::add);
+        } finally {
+            for (Connection connection : taken) {
+                connection.close();
+            }
+        }
+
+        assertEquals(3, streamed.size());
+    }
+
+
+
+    @Test
+    public void findPage_whenAfterIsNull_thenReturnFirstPage() {
+        List<Reader> actualResult = readerDao.findPage(null, 2);
+
+        assertEquals(2, actualResult.size());
+        assertEquals(1L, actualResult.get(0).getId());
+        assertEquals(2L, actualResult.get(1).getId());
+    }
+
+    @Test
+    public void findAll_whenFieldsGiven_thenOnlyTheirColumnsRead() {
+        List<Reader> actualResult = readerDao.findAll(Set.of("phone"));
+
+        assertEquals(3, actualResult.size());
+        Reader reader = actualResult.stream().filter(r -> r.getId() == 1L).findFirst().get();
+        assertEquals("71111111111", reader.getPhone());
+        assertNull(reader.getName());
+    }
+
+    @Test
+    public void findById_whenFieldsGiven_thenOnlyTheirColumnsAndVersionRead() {
+        final Long readerId = 1L;
+
+        Reader actualResult = readerDao.findById(readerId, Set.of("phone")).get();
+
+        assertEquals(readerId, actualResult.getId());
+        assertEquals("71111111111", actualResult.getPhone());
+        assertNull(actualResult.getName());
+        assertEquals(readerDao.findById(readerId).get().getVersion(), actualResult.getVersion());
+    }
+
+    @Test
+    public void findById_whenFieldsGivenAndInvalidId_thenReturnEmptyOptional() {
+        Optional<Reader> actualResult = readerDao.findById(666L, Set.of("phone"));
+
+        assertTrue(actualResult.isEmpty());
+    }
+
+    @Test
+    public void findPage_whenAfterIsLast_thenReturnEmptyList() {
+        List<Reader> actualResult = readerDao.findPage(3L, 2);
+
+        assertTrue(actualResult.isEmpty());
+    }
+
+    @Test
+    public void findPage_whenAfterIsGiven_thenReturnNextIds() {
+        List<Reader> actualResult = readerDao.findPage(1L, 5);
+
+        assertEquals(2, actualResult.size());
+        assertEquals(2L, actualResult.get(0).getId());
+        assertEquals(3L, actualResult.get(1).getId());
+    }
+
+
 
     @Test
     void getBooksForReader_whenReaderHaveBook_thenReturnList() {
@@ -187,6 +388,26 @@ class ReaderDaoTest {
         assertEquals(reader.getAddress(), saved.getAddress());
     }
 
+    @Test
+    void saveAll_whenValidData_thenIdsInOrder() {
+        final Reader reader1 = new Reader();
+        reader1.setName("Alex");
+        reader1.setSurname("Smith");
+        reader1.setPhone("79999999999");
+        reader1.setAddress("Street 5");
+        final Reader reader2 = new Reader();
+        reader2.setName("John");
+        reader2.setSurname("Doe");
+        reader2.setPhone("79999999998");
+        reader2.setAddress("Street 6");
+
+        List<Reader> saved = readerDao.saveAll(List.of(reader1, reader2));
+
+        assertEquals(4L, saved.get(0).getId());
+        assertEquals(5L, saved.get(1).getId());
+        assertEquals("John", readerDao.findById(5L).get().getName());
+    }
+
     @Test
     void save_whenNameIsNull_thenThrowException() {
         final Reader reader = new Reader();
@@ -229,6 +450,59 @@ class ReaderDaoTest {
         assertTrue(actualResult);
     }
 
+    @Test
+    void patch_whenOnlyPhoneGiven_thenOtherColumnsKept() {
+        final Long readerId = 1L;
+        final Reader before = readerDao.findById(readerId).get();
+        String version = String.valueOf(readerDao.findById(readerId).get().getVersion());
+
+        boolean actualResult = readerDao.patch(readerId, Map.of("phone", "79999999999"), Set.of(version));
+
+        Reader updated = readerDao.findById(readerId).get();
+        assertTrue(actualResult);
+        assertEquals("79999999999", updated.getPhone());
+        assertEquals(before.getName(), updated.getName());
+        assertEquals(before.getAddress(), updated.getAddress());
+    }
+
+    @Test
+    void patch_whenInvalidId_thenFalse() {
+        boolean actualResult = readerDao.patch(666L, Map.of("phone", "79999999999"), null);
+
+        assertFalse(actualResult);
+    }
+
+    @Test
+    void findById_whenReaderUpdated_thenNewVersion() {
+        final Long readerId = 1L;
+        final Reader reader = readerDao.findById(readerId).get();
+        Long before = reader.getVersion();
+
+        reader.setPhone("79999999999");
+        readerDao.update(reader);
+
+        Long after = readerDao.findById(readerId).get().getVersion();
+        assertNotEquals(before, after);
+        assertEquals(after, readerDao.findById(readerId).get().getVersion());
+    }
+
+    @Test
+    void update_whenReaderHasBooks_thenBooksAreNotRewritten() {
+        final Long readerId = 1L;
+        final Reader reader = readerDao.findById(readerId).get();
+        reader.setBooks(readerDao.getBooksForReader(readerId));
+        final Book book = reader.getBooks().get(0);
+        reader.setName("Alex");
+
+        boolean actualResult = readerDao.update(reader);
+
+        Book notRewritten = readerDao.getBooksForReader(readerId).stream()
+                .filter(found -> found.getId().equals(book.getId()))
+                .findFirst().get();
+        assertTrue(actualResult);
+        assertEquals(book.getVersion(), notRewritten.getVersion());
+    }
+
     @Test
     void update_whenValidData2_thenSuccess() {
         final Author author = new Author();
@@ -316,6 +590,18 @@ class ReaderDaoTest {
         assertFalse(readerDao.isContainById(readerId));
     }
 
+    @Test
+    void findMissingIds_whenSomeAbsent_thenReturnOnlyAbsent() {
+        final List<Long> readerIds = List.of(1L, 666L, 2L, 665L);
+
+        assertEquals(Set.of(665L, 666L), readerDao.findMissingIds(readerIds));
+    }
+
+    @Test
+    void findMissingIds_whenAllExist_thenReturnEmpty() {
+        assertTrue(readerDao.findMissingIds(List.of(1L, 2L, 3L)).isEmpty());
+    }
+
 
 
 
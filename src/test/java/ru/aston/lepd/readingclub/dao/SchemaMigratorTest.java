@@ -0,0 +1,163 @@
+package ru.aston.lepd.readingclub.dao;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.util.DataSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+class SchemaMigratorTest {
+
+
+    @Container
+    static PostgreSQLContainer<?> postgreSQLContainer = new PostgreSQLContainer<>("postgres:latest");
+    private SchemaMigrator schemaMigrator;
+
+    private static final String DROP_SCHEMA_VERSION_SQL = "DROP TABLE IF EXISTS schema_version";
+    // Only valid indexes, a failed CREATE INDEX CONCURRENTLY leaves an invalid one
+    private static final String FIND_INDEXES_SQL = """
+            SELECT c.relname AS indexname
+            FROM pg_index i
+                     JOIN pg_class c ON c.oid = i.indexrelid
+            WHERE c.relname LIKE '%_idx' AND i.indisvalid
+            ORDER BY c.relname
+            """;
+
+
+
+    @BeforeAll
+    static void prepareDatabase() {
+        postgreSQLContainer.start();
+        DataSource.initialize(postgreSQLContainer.getJdbcUrl(),
+                postgreSQLContainer.getUsername(),
+                postgreSQLContainer.getPassword(),
+                postgreSQLContainer.getDriverClassName());
+    }
+
+
+    @BeforeEach
+    void cleanData() throws SQLException {
+        this.schemaMigrator = new SchemaMigrator();
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(DROP_SCHEMA_VERSION_SQL);
+        }
+    }
+
+
+
+
+    @Test
+    void migrate_whenNothingApplied_thenApplyAllAndCreateIndexes() throws SQLException {
+        List<Integer> actualResult = schemaMigrator.migrate();
+
+        assertEquals(List.of(1, 2, 3, 4), actualResult);
+        assertEquals(List.of("author_book_book_id_author_id_idx", "authors_full_name_idx", "books_reader_id_idx"),
+                findIndexes());
+    }
+
+    @Test
+    void migrate_whenAllApplied_thenNothingApplied() {
+        schemaMigrator.migrate();
+
+        List<Integer> actualResult = schemaMigrator.migrate();
+
+        assertTrue(actualResult.isEmpty());
+    }
+
+    @Test
+    void migrate_whenAppliedScriptChanged_thenThrowException() throws SQLException {
+        schemaMigrator.migrate();
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("UPDATE schema_version SET checksum = 'changed' WHERE version = 2");
+        }
+
+        DaoException exception = assertThrows(DaoException.class, () -> schemaMigrator.migrate());
+
+        assertEquals("ERROR: migration V2__lookup_indexes.sql was changed after it had been applied",
+                exception.getMessage());
+    }
+
+    @Test
+    void migrate_whenPartlyApplied_thenApplyOnlyNewVersions() throws SQLException {
+        schemaMigrator.migrate();
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM schema_version WHERE version = 2");
+        }
+
+        List<Integer> actualResult = schemaMigrator.migrate();
+
+        assertEquals(List.of(2), actualResult);
+    }
+
+    @Test
+    void migrate_whenScriptFails_thenEarlierScriptsStayApplied() throws SQLException {
+        schemaMigrator.migrate();
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM schema_version WHERE version IN (3, 4)");
+            // V4 puts triggers on author_book and fails without it
+            statement.execute("DROP TABLE author_book");
+        }
+        try {
+            assertThrows(DaoException.class, () -> schemaMigrator.migrate());
+
+            assertEquals(List.of(1, 2, 3), findAppliedVersions());
+        } finally {
+            try (Connection connection = DataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute(DROP_SCHEMA_VERSION_SQL);
+            }
+            schemaMigrator.migrate();
+        }
+    }
+
+
+    private List<Integer> findAppliedVersions() throws SQLException {
+        List<Integer> versions = new ArrayList<>();
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT version FROM schema_version ORDER BY version")) {
+            while (resultSet.next()) {
+                versions.add(resultSet.getInt("version"));
+            }
+        }
+        return versions;
+    }
+
+    private List<String> findIndexes() throws SQLException {
+        List<String> indexes = new ArrayList<>();
+        try (Connection connection = DataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(FIND_INDEXES_SQL)) {
+            while (resultSet.next()) {
+                indexes.add(resultSet.getString("indexname"));
+            }
+        }
+        return indexes;
+    }
+
+
+    @AfterAll
+    static void afterAll() throws SQLException {
+        postgreSQLContainer.stop();
+    }
+
+
+}
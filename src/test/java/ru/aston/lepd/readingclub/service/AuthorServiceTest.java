@@ -7,14 +7,22 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.aston.lepd.readingclub.dao.AuthorDao;
 import ru.aston.lepd.readingclub.dto.AuthorDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
 import ru.aston.lepd.readingclub.entity.Author;
 import ru.aston.lepd.readingclub.entity.Book;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
 import ru.aston.lepd.readingclub.util.CustomMapper;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -48,13 +56,12 @@ public class AuthorServiceTest {
         final Long authorId = 1L;
         final Author author = getAuthor();
         doReturn(Optional.of(author)).when(authorDao).findById(authorId);
-        doReturn(AUTHOR_1.getBooks()).when(authorDao).getBooksForAuthor(authorId);
         doReturn(AUTHOR_DTO_1).when(mapper).authorToAuthorDto(any(Author.class));
 
         AuthorDto actualResult = authorService.getById(authorId);
 
         verify(authorDao).findById(authorId);
-        verify(authorDao).getBooksForAuthor(authorId);
+        verify(authorDao, never()).getBooksForAuthor(authorId);
         verify(mapper).authorToAuthorDto(any(Author.class));
         assertEquals(AUTHOR_DTO_1, actualResult);
     }
@@ -72,6 +79,33 @@ public class AuthorServiceTest {
     }
 
 
+    @Test
+    public void getVersionedById_whenValidId_thenVersionOfTheReadRow() {
+        final Long authorId = 1L;
+        final Author author = getAuthor();
+        author.setVersion(740L);
+        doReturn(Optional.of(author)).when(authorDao).findById(authorId, null);
+        doReturn(AUTHOR_DTO_1).when(mapper).authorToAuthorDto(author);
+
+        VersionedDto<AuthorDto> actualResult = authorService.getVersionedById(authorId, null);
+
+        verify(authorDao).findById(authorId, null);
+        verify(authorDao, never()).getBooksForAuthor(authorId);
+        assertEquals(AUTHOR_DTO_1, actualResult.getValue());
+        assertEquals("740", actualResult.getVersion());
+    }
+
+    @Test
+    public void getVersionedById_whenInvalidId_thenThrowException() {
+        final Long authorId = 666L;
+        doReturn(Optional.empty()).when(authorDao).findById(authorId, null);
+
+        assertThrows(NotFoundException.class, () -> authorService.getVersionedById(authorId, null));
+
+        verify(mapper, never()).authorToAuthorDto(any(Author.class));
+    }
+
+
 
     @Test
     public void getAuthorById_whenValidId_thenReturnAuthor() {
@@ -103,18 +137,32 @@ public class AuthorServiceTest {
     @Test
     public void getAll_whenExist_thenReturnList() {
         doReturn(List.of(getAuthor(), getAuthor(), getAuthor())).when(authorDao).findAll();
-        doReturn(AUTHOR_1.getBooks()).when(authorDao).getBooksForAuthor(anyLong());
         doReturn(AUTHOR_DTO_1).when(mapper).authorToAuthorDto(any(Author.class));
 
         List<AuthorDto> actualResult = authorService.getAll();
 
         verify(authorDao).findAll();
-        verify(authorDao, times(3)).getBooksForAuthor(anyLong());
+        verify(authorDao, never()).getBooksForAuthor(anyLong());
         verify(mapper, times(3)).authorToAuthorDto(any(Author.class));
         assertFalse(actualResult.isEmpty());
         assertEquals(3, actualResult.size());
     }
 
+    @Test
+    public void getAll_whenFieldsGiven_thenBooksNotLoaded() {
+        final Set<String> fields = Set.of("fullName");
+        final Author author = new Author();
+        author.setId(1L);
+        author.setFullName("Author1");
+        doReturn(List.of(author)).when(authorDao).findAll(fields);
+        doReturn(AUTHOR_DTO_1).when(mapper).authorToAuthorDto(author);
+
+        List<AuthorDto> actualResult = authorService.getAll(fields);
+
+        verify(authorDao, never()).getBooksForAuthor(anyLong());
+        assertEquals(List.of(AUTHOR_DTO_1), actualResult);
+    }
+
     @Test
     public void getAll_whenNotExist_thenReturnEmptyList() {
         doReturn(Collections.emptyList()).when(authorDao).findAll();
@@ -129,6 +177,56 @@ public class AuthorServiceTest {
 
 
 
+    @Test
+    public void getPage_whenMoreThanLimit_thenReturnNextCursor() {
+        final int limit = 2;
+        doReturn(new ArrayList<>(List.of(SHORT_AUTHOR_1, SHORT_AUTHOR_2, SHORT_AUTHOR_3))).when(authorDao).findPage(null, limit + 1);
+        doReturn(AUTHOR_DTO_1).when(mapper).authorToAuthorDto(any(Author.class));
+
+        PageDto<AuthorDto> actualResult = authorService.getPage(null, limit);
+
+        verify(authorDao).findPage(null, limit + 1);
+        verify(authorDao, never()).getBooksForAuthor(anyLong());
+        verify(mapper, times(2)).authorToAuthorDto(any(Author.class));
+        assertEquals(2, actualResult.getItems().size());
+        assertEquals(2L, actualResult.getNextCursor());
+    }
+
+    @Test
+    public void getPage_whenLastPage_thenNextCursorIsNull() {
+        final Long after = 2L;
+        doReturn(List.of(SHORT_AUTHOR_3)).when(authorDao).findPage(after, PageDto.MAX_LIMIT + 1);
+        doReturn(AUTHOR_DTO_3).when(mapper).authorToAuthorDto(any(Author.class));
+
+        PageDto<AuthorDto> actualResult = authorService.getPage(after, 5000);
+
+        verify(authorDao).findPage(after, PageDto.MAX_LIMIT + 1);
+        assertEquals(1, actualResult.getItems().size());
+        assertNull(actualResult.getNextCursor());
+    }
+
+
+
+    @Test
+    void streamAll_whenExist_thenPassMappedDtos() {
+        final List<AuthorDto> streamed = new ArrayList<>();
+        doAnswer(invocation -> {
+            Consumer<Author> action = invocation.getArgument(0);
+            action.accept(SHORT_AUTHOR_1);
+            action.accept(SHORT_AUTHOR_2);
+            return null;
+        }).when(authorDao).streamAll(any());
+        doReturn(AUTHOR_DTO_1, AUTHOR_DTO_2).when(mapper).authorToAuthorDto(any(Author.class));
+
+        authorService.streamAll(streamed::add);
+
+        verify(authorDao).streamAll(any());
+        verify(mapper, times(2)).authorToAuthorDto(any(Author.class));
+        assertEquals(List.of(AUTHOR_DTO_1, AUTHOR_DTO_2), streamed);
+    }
+
+
+
     @Test
     public void save() {
         final Author author = new Author();
@@ -146,6 +244,24 @@ public class AuthorServiceTest {
         assertEquals(AUTHOR_DTO_1, actualResult);
     }
 
+    @Test
+    public void saveAll_whenValidAuthors_thenIdsInOrder() {
+        final Author author1 = new Author();
+        final Author author2 = new Author();
+        doReturn(author1).when(mapper).authorDtoToAuthor(AUTHOR_DTO_1);
+        doReturn(author2).when(mapper).authorDtoToAuthor(AUTHOR_DTO_2);
+        doAnswer(invocation -> {
+            author1.setId(5L);
+            author2.setId(6L);
+            return List.of(author1, author2);
+        }).when(authorDao).saveAll(List.of(author1, author2));
+
+        List<Long> actualResult = authorService.saveAll(List.of(AUTHOR_DTO_1, AUTHOR_DTO_2));
+
+        verify(authorDao, never()).save(any());
+        assertEquals(List.of(5L, 6L), actualResult);
+    }
+
 
 
     @Test
@@ -164,6 +280,31 @@ public class AuthorServiceTest {
         assertTrue(actualResult);
     }
 
+    @Test
+    public void update_whenExpectedVersionIsNotCurrent_thenThrowConflict() {
+        final Long authorId = 1L;
+        final Author author = getAuthor();
+        doReturn(Optional.of(author)).when(authorDao).findById(authorId);
+        author.setVersion(741L);
+
+        assertThrows(ConflictException.class, () -> authorService.update(AUTHOR_DTO_1, authorId, Set.of("740")));
+
+        verify(authorDao, never()).update(any());
+    }
+
+    @Test
+    public void update_whenExpectedVersionIsCurrentButRowChanged_thenThrowConflict() {
+        final Long authorId = 1L;
+        final Author author = getAuthor();
+        doReturn(Optional.of(author)).when(authorDao).findById(authorId);
+        author.setVersion(740L);
+        doReturn(false).when(authorDao).update(author);
+
+        assertThrows(ConflictException.class, () -> authorService.update(AUTHOR_DTO_1, authorId, Set.of("740")));
+
+        verify(authorDao).update(author);
+    }
+
     @Test
     public void update_whenInvalidId_thenTrowException() {
         final Long authorId = 666L;
@@ -178,6 +319,48 @@ public class AuthorServiceTest {
 
 
 
+    @Test
+    public void patch_whenOnlyFullNameGiven_thenOnlyItIsSetWithoutReading() {
+        final Long authorId = 1L;
+        final AuthorDto authorDto = new AuthorDto();
+        authorDto.setFullName("Author1");
+        doReturn(true).when(authorDao).patch(authorId, Map.of("fullName", "Author1"), null);
+
+        boolean actualResult = authorService.patch(authorDto, authorId, null);
+
+        verify(authorDao).patch(authorId, Map.of("fullName", "Author1"), null);
+        verify(authorDao, never()).findById(any());
+        verify(authorDao, never()).getBooksForAuthor(any());
+        assertTrue(actualResult);
+    }
+
+    @Test
+    public void patch_whenNothingGiven_thenThrowException() {
+        assertThrows(IllegalArgumentException.class, () -> authorService.patch(new AuthorDto(), 1L, null));
+
+        verify(authorDao, never()).patch(any(), any(), any());
+    }
+
+    @Test
+    public void patch_whenNotPatchedAndAuthorExists_thenThrowConflict() {
+        final Long authorId = 1L;
+        doReturn(false).when(authorDao).patch(authorId, Map.of("fullName", "Author1", "personalInfo", "likes dogs"), Set.of("740"));
+        doReturn(true).when(authorDao).isContainById(authorId);
+
+        assertThrows(ConflictException.class, () -> authorService.patch(AUTHOR_DTO_1, authorId, Set.of("740")));
+    }
+
+    @Test
+    public void patch_whenNotPatchedAndNoAuthor_thenThrowNotFound() {
+        final Long authorId = 666L;
+        doReturn(false).when(authorDao).patch(authorId, Map.of("fullName", "Author1", "personalInfo", "likes dogs"), null);
+        doReturn(false).when(authorDao).isContainById(authorId);
+
+        assertThrows(NotFoundException.class, () -> authorService.patch(AUTHOR_DTO_1, authorId, null));
+    }
+
+
+
     @Test
     public void delete_whenValidId_thenTrue() {
         final Long authorId = 1L;
@@ -222,6 +405,28 @@ public class AuthorServiceTest {
         assertThrows(NotFoundException.class, () -> authorService.isContainById(authorId));
     }
 
+    @Test
+    public void checkAllExist_whenAllExist_thenNoException() {
+        final List<Long> authorIds = List.of(1L, 2L);
+        doReturn(Set.of()).when(authorDao).findMissingIds(authorIds);
+
+        assertDoesNotThrow(() -> authorService.checkAllExist(authorIds));
+
+        verify(authorDao).findMissingIds(authorIds);
+        verify(authorDao, never()).isContainById(anyLong());
+    }
+
+    @Test
+    public void checkAllExist_whenSomeMissing_thenThrowExceptionWithAllMissingIds() {
+        final List<Long> authorIds = List.of(1L, 665L, 666L);
+        doReturn(new LinkedHashSet<>(List.of(665L, 666L))).when(authorDao).findMissingIds(authorIds);
+
+        NotFoundException exception = assertThrows(NotFoundException.class,
+                () -> authorService.checkAllExist(authorIds));
+
+        assertEquals("There are no authors with ids=665, 666 in database", exception.getMessage());
+    }
+
 
 
-}
\ No newline at end of file
+}
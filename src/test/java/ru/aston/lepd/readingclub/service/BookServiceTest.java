@@ -8,15 +8,23 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.aston.lepd.readingclub.dao.BookDao;
 import ru.aston.lepd.readingclub.dto.BookDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
 import ru.aston.lepd.readingclub.entity.Author;
 import ru.aston.lepd.readingclub.entity.Book;
 import ru.aston.lepd.readingclub.entity.Reader;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
 import ru.aston.lepd.readingclub.util.CustomMapper;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -76,6 +84,36 @@ class BookServiceTest {
     }
 
 
+    @Test
+    public void getVersionedById_whenValidId_thenVersionOfTheReadRow() {
+        final Long bookId = 1L;
+        final Book book = new Book();
+        book.setId(bookId);
+        book.setVersion(740L);
+        doReturn(Optional.of(book)).when(bookDao).findById(bookId, null);
+        doReturn(BOOK_1.getAuthors()).when(bookDao).getAuthorsForBook(bookId);
+        doReturn(BOOK_DTO_1).when(mapper).bookToBookDto(book);
+
+        VersionedDto<BookDto> actualResult = bookService.getVersionedById(bookId, null);
+
+        verify(bookDao).findById(bookId, null);
+        verify(bookDao).getAuthorsForBook(bookId);
+        assertEquals(BOOK_DTO_1, actualResult.getValue());
+        assertEquals("740", actualResult.getVersion());
+    }
+
+    @Test
+    public void getVersionedById_whenInvalidId_thenThrowException() {
+        final Long bookId = 666L;
+        doReturn(Optional.empty()).when(bookDao).findById(bookId, null);
+
+        assertThrows(NotFoundException.class, () -> bookService.getVersionedById(bookId, null));
+
+        verify(bookDao, never()).getAuthorsForBook(bookId);
+        verify(mapper, never()).bookToBookDto(any(Book.class));
+    }
+
+
 
     @Test
     public void getBookById_whenValidId_thenReturnBook() {
@@ -106,18 +144,45 @@ class BookServiceTest {
     @Test
     public void getAll_whenExist_thenReturnList() {
         doReturn(List.of(SHORT_BOOK_1, SHORT_BOOK_2, SHORT_BOOK_3)).when(bookDao).findAll();
-        doReturn(BOOK_1.getAuthors()).when(bookDao).getAuthorsForBook(anyLong());
+        doReturn(Map.of(1L, BOOK_1.getAuthors())).when(bookDao).getAuthorsForBooks(List.of(1L, 2L, 3L));
         doReturn(BOOK_DTO_1).when(mapper).bookToBookDto(any(Book.class));
 
         List<BookDto> actualResult = bookService.getAll();
 
         verify(bookDao).findAll();
-        verify(bookDao, times(3)).getAuthorsForBook(anyLong());
+        verify(bookDao).getAuthorsForBooks(List.of(1L, 2L, 3L));
+        verify(bookDao, never()).getAuthorsForBook(anyLong());
         verify(mapper, times(3)).bookToBookDto(any(Book.class));
         assertFalse(actualResult.isEmpty());
         assertEquals(3, actualResult.size());
     }
 
+    @Test
+    public void getAll_whenFieldsGiven_thenAuthorsNotLoadedSeparately() {
+        final Set<String> fields = Set.of("title", "authorIds");
+        doReturn(List.of(SHORT_BOOK_1, SHORT_BOOK_2)).when(bookDao).findAll(fields);
+        doReturn(BOOK_DTO_1).when(mapper).bookToBookDto(any(Book.class));
+
+        List<BookDto> actualResult = bookService.getAll(fields);
+
+        verify(bookDao, never()).findAll();
+        verify(bookDao, never()).getAuthorsForBooks(anyCollection());
+        assertEquals(2, actualResult.size());
+    }
+
+    @Test
+    public void getVersionedById_whenAuthorIdsNotInFields_thenAuthorsNotLoaded() {
+        final Long bookId = 1L;
+        doReturn(Optional.of(SHORT_BOOK_1)).when(bookDao).findById(bookId, Set.of("title"));
+        doReturn(BOOK_DTO_1).when(mapper).bookToBookDto(SHORT_BOOK_1);
+
+        VersionedDto<BookDto> actualResult = bookService.getVersionedById(bookId, Set.of("title"));
+
+        verify(bookDao, never()).findById(bookId);
+        verify(bookDao, never()).getAuthorsForBook(anyLong());
+        assertEquals(BOOK_DTO_1, actualResult.getValue());
+    }
+
     @Test
     public void getAll_whenNotExist_thenReturnEmptyList() {
         doReturn(Collections.emptyList()).when(bookDao).findAll();
@@ -125,24 +190,109 @@ class BookServiceTest {
         List<BookDto> actualResult = bookService.getAll();
 
         verify(bookDao).findAll();
-        verify(bookDao, never()).getAuthorsForBook(anyLong());
+        verify(bookDao, never()).getAuthorsForBooks(anyCollection());
         verify(mapper, never()).bookToBookDto(any(Book.class));
         assertTrue(actualResult.isEmpty());
     }
 
 
 
+    @Test
+    void getPage_whenMoreThanLimit_thenReturnNextCursor() {
+        final int limit = 2;
+        doReturn(new ArrayList<>(List.of(SHORT_BOOK_1, SHORT_BOOK_2, SHORT_BOOK_3))).when(bookDao).findPage(null, limit + 1);
+        doReturn(Map.of(1L, List.of(SHORT_AUTHOR_1))).when(bookDao).getAuthorsForBooks(List.of(1L, 2L));
+        doReturn(BOOK_DTO_1).when(mapper).bookToBookDto(any(Book.class));
+
+        PageDto<BookDto> actualResult = bookService.getPage(null, limit);
+
+        verify(bookDao).findPage(null, limit + 1);
+        verify(bookDao).getAuthorsForBooks(List.of(1L, 2L));
+        verify(mapper, times(2)).bookToBookDto(any(Book.class));
+        assertEquals(2, actualResult.getItems().size());
+        assertEquals(2L, actualResult.getNextCursor());
+    }
+
+    @Test
+    void getPage_whenLastPage_thenNextCursorIsNull() {
+        final Long after = 2L;
+        doReturn(List.of(SHORT_BOOK_3)).when(bookDao).findPage(after, PageDto.DEFAULT_LIMIT + 1);
+        doReturn(Map.of()).when(bookDao).getAuthorsForBooks(List.of(3L));
+        doReturn(BOOK_DTO_3).when(mapper).bookToBookDto(any(Book.class));
+
+        PageDto<BookDto> actualResult = bookService.getPage(after, null);
+
+        verify(bookDao).findPage(after, PageDto.DEFAULT_LIMIT + 1);
+        assertEquals(1, actualResult.getItems().size());
+        assertNull(actualResult.getNextCursor());
+    }
+
+
+
+    @Test
+    void streamPageJson_whenMoreThanLimit_thenExtraRowNotPassed() {
+        final int limit = 2;
+        final List<byte[]> streamed = new ArrayList<>();
+        doAnswer(invocation -> {
+            BiConsumer<Long, byte[]> action = invocation.getArgument(2);
+            action.accept(1L, new byte[]{1});
+            action.accept(2L, new byte[]{2});
+            action.accept(3L, new byte[]{3});
+            return null;
+        }).when(bookDao).streamJson(eq(null), eq(limit + 1), any());
+
+        Long actualResult = bookService.streamPageJson(null, limit, streamed::add);
+
+        assertEquals(2, streamed.size());
+        assertEquals(2L, actualResult);
+        verifyNoInteractions(mapper);
+    }
+
+    @Test
+    void streamPageJson_whenLastPage_thenNextCursorIsNull() {
+        final Long after = 2L;
+        doAnswer(invocation -> {
+            BiConsumer<Long, byte[]> action = invocation.getArgument(2);
+            action.accept(3L, new byte[]{3});
+            return null;
+        }).when(bookDao).streamJson(eq(after), eq(PageDto.DEFAULT_LIMIT + 1), any());
+
+        Long actualResult = bookService.streamPageJson(after, null, json -> { });
+
+        assertNull(actualResult);
+    }
+
+    @Test
+    void streamAll_whenExist_thenPassMappedDtos() {
+        final List<BookDto> streamed = new ArrayList<>();
+        doAnswer(invocation -> {
+            Consumer<Book> action = invocation.getArgument(0);
+            action.accept(SHORT_BOOK_1);
+            action.accept(SHORT_BOOK_2);
+            return null;
+        }).when(bookDao).streamAll(any());
+        doReturn(BOOK_DTO_1, BOOK_DTO_2).when(mapper).bookToBookDto(any(Book.class));
+
+        bookService.streamAll(streamed::add);
+
+        verify(bookDao).streamAll(any());
+        verify(mapper, times(2)).bookToBookDto(any(Book.class));
+        assertEquals(List.of(BOOK_DTO_1, BOOK_DTO_2), streamed);
+    }
+
+
+
     @Test
     void getAllByReaderId_whenExist_thenReturnList() {
         final Long readerId = 1L;
         doReturn(List.of(SHORT_BOOK_1)).when(bookDao).findAllByReaderId(readerId);
-        doReturn(List.of(SHORT_AUTHOR_1, SHORT_AUTHOR_3)).when(bookDao).getAuthorsForBook(anyLong());
+        doReturn(Map.of(1L, List.of(SHORT_AUTHOR_1, SHORT_AUTHOR_3))).when(bookDao).getAuthorsForBooks(List.of(1L));
         doReturn(BOOK_DTO_1).when(mapper).bookToBookDto(any(Book.class));
 
         List<BookDto> actualResult = bookService.getAllByReaderId(readerId);
 
         verify(bookDao).findAllByReaderId(readerId);
-        verify(bookDao).getAuthorsForBook(anyLong());
+        verify(bookDao).getAuthorsForBooks(List.of(1L));
         verify(mapper).bookToBookDto(any(Book.class));
         assertFalse(actualResult.isEmpty());
         assertEquals(1, actualResult.size());
@@ -156,7 +306,7 @@ class BookServiceTest {
         List<BookDto> actualResult = bookService.getAllByReaderId(readerId);
 
         verify(bookDao).findAllByReaderId(readerId);
-        verify(bookDao, never()).getAuthorsForBook(anyLong());
+        verify(bookDao, never()).getAuthorsForBooks(anyCollection());
         verify(mapper, never()).bookToBookDto(any(Book.class));
         assertTrue(actualResult.isEmpty());
     }
@@ -167,13 +317,14 @@ class BookServiceTest {
     void getAllByAuthorId_whenExist_thenReturnList() {
         final Long authorId = 3L;
         doReturn(List.of(SHORT_BOOK_1, SHORT_BOOK_3)).when(bookDao).findAllByAuthorId(authorId);
-        doReturn(List.of(SHORT_AUTHOR_1, SHORT_AUTHOR_3)).when(bookDao).getAuthorsForBook(anyLong());
+        doReturn(Map.of(1L, List.of(SHORT_AUTHOR_1, SHORT_AUTHOR_3), 3L, List.of(SHORT_AUTHOR_2, SHORT_AUTHOR_3)))
+                .when(bookDao).getAuthorsForBooks(List.of(1L, 3L));
         doReturn(BOOK_DTO_1).when(mapper).bookToBookDto(any(Book.class));
 
         List<BookDto> actualResult = bookService.getAllByAuthorId(authorId);
 
         verify(bookDao).findAllByAuthorId(authorId);
-        verify(bookDao, times(2)).getAuthorsForBook(anyLong());
+        verify(bookDao).getAuthorsForBooks(List.of(1L, 3L));
         verify(mapper, times(2)).bookToBookDto(any(Book.class));
         assertFalse(actualResult.isEmpty());
         assertEquals(2, actualResult.size());
@@ -187,7 +338,7 @@ class BookServiceTest {
         List<BookDto> actualResult = bookService.getAllByAuthorId(authorId);
 
         verify(bookDao).findAllByAuthorId(authorId);
-        verify(bookDao, never()).getAuthorsForBook(anyLong());
+        verify(bookDao, never()).getAuthorsForBooks(anyCollection());
         verify(mapper, never()).bookToBookDto(any(Book.class));
         assertTrue(actualResult.isEmpty());
     }
@@ -207,7 +358,6 @@ class BookServiceTest {
         book.setAuthors(List.of(author));
         book.setReader(reader);
         doReturn(book).when(mapper).bookDtoToBook(BOOK_DTO_2);
-        doReturn(true).when(authorService).isContainById(anyLong());
         doReturn(true).when(readerService).isContainById(anyLong());
         doReturn(BOOK_2).when(bookDao).save(book);
         doReturn(BOOK_DTO_2).when(mapper).bookToBookDto(BOOK_2);
@@ -215,7 +365,8 @@ class BookServiceTest {
         BookDto actualResult = bookService.save(BOOK_DTO_2);
 
         verify(mapper).bookDtoToBook(BOOK_DTO_2);
-        verify(authorService).isContainById(anyLong());
+        verify(authorService).checkAllExist(List.of(2L));
+        verify(authorService, never()).isContainById(anyLong());
         verify(readerService).isContainById(anyLong());
         verify(bookDao).save(book);
         verify(mapper).bookToBookDto(BOOK_2);
@@ -224,12 +375,72 @@ class BookServiceTest {
 
 
 
+    @Test
+    public void save_whenAuthorsAreMissing_thenThrowExceptionAndNotSave() {
+        final Author author = new Author();
+        author.setId(666L);
+        final Book book = new Book();
+        book.setAuthors(List.of(author));
+        doReturn(book).when(mapper).bookDtoToBook(BOOK_DTO_2);
+        doThrow(NotFoundException.class).when(authorService).checkAllExist(List.of(666L));
+
+        assertThrows(NotFoundException.class, () -> bookService.save(BOOK_DTO_2));
+
+        verify(bookDao, never()).save(any());
+    }
+
+    @Test
+    public void saveAll_whenValidBooks_thenIdsInOrderAndReferencesCheckedOnce() {
+        final Reader reader = new Reader();
+        reader.setId(2L);
+        final Author author1 = new Author();
+        author1.setId(1L);
+        final Author author2 = new Author();
+        author2.setId(2L);
+        final Book book1 = new Book();
+        book1.setAuthors(List.of(author1, author2));
+        book1.setReader(reader);
+        final Book book2 = new Book();
+        book2.setAuthors(List.of(author2));
+        book2.setReader(reader);
+        doReturn(book1).when(mapper).bookDtoToBook(BOOK_DTO_1);
+        doReturn(book2).when(mapper).bookDtoToBook(BOOK_DTO_2);
+        doAnswer(invocation -> {
+            book1.setId(7L);
+            book2.setId(8L);
+            return List.of(book1, book2);
+        }).when(bookDao).saveAll(List.of(book1, book2));
+
+        List<Long> actualResult = bookService.saveAll(List.of(BOOK_DTO_1, BOOK_DTO_2));
+
+        verify(authorService).checkAllExist(Set.of(1L, 2L));
+        verify(readerService).checkAllExist(Set.of(2L));
+        verify(readerService, never()).isContainById(anyLong());
+        verify(bookDao, never()).save(any());
+        assertEquals(List.of(7L, 8L), actualResult);
+    }
+
+    @Test
+    public void saveAll_whenReadersAreMissing_thenThrowExceptionAndNotSave() {
+        final Reader reader = new Reader();
+        reader.setId(666L);
+        final Book book = new Book();
+        book.setReader(reader);
+        doReturn(book).when(mapper).bookDtoToBook(BOOK_DTO_2);
+        doThrow(NotFoundException.class).when(readerService).checkAllExist(Set.of(666L));
+
+        assertThrows(NotFoundException.class, () -> bookService.saveAll(List.of(BOOK_DTO_2)));
+
+        verify(bookDao, never()).saveAll(any());
+    }
+
+
+
     @Test
     public void update_whenValidId_thenSuccess() {
         final Long bookId = 1L;
         doReturn(Optional.of(BOOK_1)).when(bookDao).findById(bookId);
         doReturn(BOOK_1).when(mapper).bookDtoToBook(BOOK_DTO_1);
-        doReturn(true).when(authorService).isContainById(anyLong());
         doReturn(true).when(readerService).isContainById(anyLong());
         doReturn(BOOK_1.getAuthors()).when(bookDao).getAuthorsForBook(bookId);
         doReturn(true).when(bookDao).update(BOOK_1);
@@ -238,7 +449,8 @@ class BookServiceTest {
 
         verify(bookDao).findById(bookId);
         verify(mapper).bookDtoToBook(BOOK_DTO_1);
-        verify(authorService, times(2)).isContainById(anyLong());
+        verify(authorService).checkAllExist(List.of(SHORT_AUTHOR_1.getId(), SHORT_AUTHOR_3.getId()));
+        verify(authorService, never()).isContainById(anyLong());
         verify(readerService).isContainById(anyLong());
         verify(bookDao).getAuthorsForBook(bookId);
         verify(bookDao).update(BOOK_1);
@@ -263,6 +475,18 @@ class BookServiceTest {
         assertTrue(actualResult);
     }
 
+    @Test
+    public void update_whenUpdatedConcurrently_thenThrowConflict() {
+        final Long bookId = 1L;
+        doReturn(Optional.of(BOOK_1)).when(bookDao).findById(bookId);
+        doReturn(new Book()).when(mapper).bookDtoToBook(BOOK_DTO_1);
+        doReturn(false).when(bookDao).update(BOOK_1);
+
+        assertThrows(ConflictException.class, () -> bookService.update(BOOK_DTO_1, bookId));
+
+        verify(bookDao).update(BOOK_1);
+    }
+
     @Test
     public void update_whenInvalidId_thenTrowException() {
         final Long bookId = 666L;
@@ -277,6 +501,45 @@ class BookServiceTest {
 
 
 
+    @Test
+    public void patch_whenAllGiven_thenSetWithoutCheckingReaderAndAuthors() {
+        final Long bookId = 1L;
+        final Map<String, Object> valuesByField = Map.of(
+                "title", "Title1", "inventoryNumber", 11111L, "readerId", 1L, "authorIds", List.of(1L, 3L));
+        doReturn(true).when(bookDao).patch(bookId, valuesByField, Set.of("740.abc"));
+
+        boolean actualResult = bookService.patch(BOOK_DTO_1, bookId, Set.of("740.abc"));
+
+        verify(bookDao).patch(bookId, valuesByField, Set.of("740.abc"));
+        verify(bookDao, never()).findById(any());
+        verifyNoInteractions(authorService, readerService, mapper);
+        assertTrue(actualResult);
+    }
+
+    @Test
+    public void patch_whenAuthorIdsEmpty_thenAuthorsAreNotReplaced() {
+        final Long bookId = 1L;
+        final BookDto bookDto = new BookDto();
+        bookDto.setTitle("Title2");
+        doReturn(true).when(bookDao).patch(bookId, Map.of("title", "Title2"), null);
+
+        boolean actualResult = bookService.patch(bookDto, bookId, null);
+
+        verify(bookDao).patch(bookId, Map.of("title", "Title2"), null);
+        assertTrue(actualResult);
+    }
+
+    @Test
+    public void patch_whenNotPatchedAndBookExists_thenThrowConflict() {
+        final Long bookId = 1L;
+        doReturn(false).when(bookDao).patch(eq(bookId), any(), eq(Set.of("740.abc")));
+        doReturn(true).when(bookDao).isContainById(bookId);
+
+        assertThrows(ConflictException.class, () -> bookService.patch(BOOK_DTO_1, bookId, Set.of("740.abc")));
+    }
+
+
+
     @Test
     public void delete_whenValidId_thenTrue() {
         final Long bookId = 1L;
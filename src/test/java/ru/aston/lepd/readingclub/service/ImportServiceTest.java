@@ -0,0 +1,66 @@
+package ru.aston.lepd.readingclub.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.lepd.readingclub.dao.CopyFormat;
+import ru.aston.lepd.readingclub.dao.ImportDao;
+import ru.aston.lepd.readingclub.dto.ImportResultDto;
+import ru.aston.lepd.readingclub.exception.NotFoundException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+
+@ExtendWith(MockitoExtension.class)
+class ImportServiceTest {
+
+
+    @Mock
+    private ImportDao importDao;
+    @InjectMocks
+    private ImportService importService;
+
+    private static final String UNRESOLVED_STRING =
+            "ERROR: imported books refer to missing rows: reader phone 79999999999, reader phone 78888888888";
+
+
+
+
+    @Test
+    public void importFrom_whenAllResolved_thenMergedAndReturnCounts() {
+        final InputStream input = new ByteArrayInputStream(new byte[0]);
+        doReturn(3L).when(importDao).copyToStaging(ImportDao.Target.BOOKS, CopyFormat.CSV, input);
+        doReturn(List.of()).when(importDao).findUnresolved(ImportDao.Target.BOOKS);
+        doReturn(2L).when(importDao).merge(ImportDao.Target.BOOKS);
+
+        ImportResultDto actualResult = importService.importFrom(ImportDao.Target.BOOKS, CopyFormat.CSV, input);
+
+        assertEquals(3L, actualResult.getRowsRead());
+        assertEquals(2L, actualResult.getRowsChanged());
+        verify(importDao).merge(ImportDao.Target.BOOKS);
+    }
+
+    @Test
+    public void importFrom_whenReferencesUnresolved_thenThrowExceptionAndNotMerge() {
+        final InputStream input = new ByteArrayInputStream(new byte[0]);
+        doReturn(2L).when(importDao).copyToStaging(ImportDao.Target.BOOKS, CopyFormat.NDJSON, input);
+        doReturn(List.of("reader phone 79999999999", "reader phone 78888888888"))
+                .when(importDao).findUnresolved(ImportDao.Target.BOOKS);
+
+        NotFoundException exception = assertThrows(NotFoundException.class,
+                () -> importService.importFrom(ImportDao.Target.BOOKS, CopyFormat.NDJSON, input));
+
+        assertEquals(UNRESOLVED_STRING, exception.getMessage());
+        verify(importDao, never()).merge(any());
+    }
+
+
+}
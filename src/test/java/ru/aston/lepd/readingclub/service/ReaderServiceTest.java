@@ -7,14 +7,20 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.aston.lepd.readingclub.dao.ReaderDao;
 import ru.aston.lepd.readingclub.dto.ReaderDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
 import ru.aston.lepd.readingclub.entity.Book;
 import ru.aston.lepd.readingclub.entity.Reader;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
 import ru.aston.lepd.readingclub.util.CustomMapper;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -54,13 +60,12 @@ class ReaderServiceTest {
         final Long readerId = 1L;
         final Reader reader = getReader();
         doReturn(Optional.of(reader)).when(readerDao).findById(readerId);
-        doReturn(READER_1.getBooks()).when(readerDao).getBooksForReader(readerId);
         doReturn(READER_DTO_1).when(mapper).readerToReaderDto(any(Reader.class));
 
         ReaderDto actualResult = readerService.getById(readerId);
 
         verify(readerDao).findById(readerId);
-        verify(readerDao).getBooksForReader(readerId);
+        verify(readerDao, never()).getBooksForReader(readerId);
         verify(mapper).readerToReaderDto(any(Reader.class));
         assertEquals(READER_DTO_1, actualResult);
     }
@@ -78,18 +83,55 @@ class ReaderServiceTest {
     }
 
 
+    @Test
+    public void getVersionedById_whenValidId_thenVersionOfTheReadRow() {
+        final Long readerId = 1L;
+        final Reader reader = getReader();
+        reader.setVersion(740L);
+        doReturn(Optional.of(reader)).when(readerDao).findById(readerId, null);
+        doReturn(READER_DTO_1).when(mapper).readerToReaderDto(reader);
+
+        VersionedDto<ReaderDto> actualResult = readerService.getVersionedById(readerId, null);
+
+        verify(readerDao).findById(readerId, null);
+        verify(readerDao, never()).getBooksForReader(readerId);
+        assertEquals(READER_DTO_1, actualResult.getValue());
+        assertEquals("740", actualResult.getVersion());
+    }
+
+    @Test
+    public void getVersionedById_whenInvalidId_thenThrowException() {
+        final Long readerId = 666L;
+        doReturn(Optional.empty()).when(readerDao).findById(readerId, null);
+
+        assertThrows(NotFoundException.class, () -> readerService.getVersionedById(readerId, null));
+
+        verify(mapper, never()).readerToReaderDto(any(Reader.class));
+    }
+
+    @Test
+    public void checkAllExist_whenSomeAreMissing_thenThrowExceptionWithTheirIds() {
+        final List<Long> readerIds = List.of(1L, 665L, 666L);
+        doReturn(new LinkedHashSet<>(List.of(665L, 666L))).when(readerDao).findMissingIds(readerIds);
+
+        NotFoundException exception = assertThrows(NotFoundException.class,
+                () -> readerService.checkAllExist(readerIds));
+
+        assertTrue(exception.getMessage().contains("665, 666"));
+    }
+
+
 
     @Test
     public void getReaderById_whenValidId_thenReturnReader() {
         final Long readerId = 1L;
         final Reader reader = getReader();
         doReturn(Optional.of(reader)).when(readerDao).findById(readerId);
-        doReturn(READER_1.getBooks()).when(readerDao).getBooksForReader(readerId);
 
         Reader actualResult = readerService.getReaderById(readerId);
 
         verify(readerDao).findById(readerId);
-        verify(readerDao).getBooksForReader(readerId);
+        verify(readerDao, never()).getBooksForReader(readerId);
         assertEquals(READER_1.getId(), actualResult.getId());
     }
 
@@ -109,13 +151,12 @@ class ReaderServiceTest {
     @Test
     public void getAll_whenExist_thenReturnList() {
         doReturn(List.of(getReader(), getReader(), getReader())).when(readerDao).findAll();
-        doReturn(READER_1.getBooks()).when(readerDao).getBooksForReader(anyLong());
         doReturn(READER_DTO_1).when(mapper).readerToReaderDto(any(Reader.class));
 
         List<ReaderDto> actualResult = readerService.getAll();
 
         verify(readerDao).findAll();
-        verify(readerDao, times(3)).getBooksForReader(anyLong());
+        verify(readerDao, never()).getBooksForReader(anyLong());
         verify(mapper, times(3)).readerToReaderDto(any(Reader.class));
         assertFalse(actualResult.isEmpty());
         assertEquals(3, actualResult.size());
@@ -135,6 +176,56 @@ class ReaderServiceTest {
 
 
 
+    @Test
+    public void getPage_whenMoreThanLimit_thenReturnNextCursor() {
+        final int limit = 2;
+        doReturn(new ArrayList<>(List.of(SHORT_READER_1, SHORT_READER_2, SHORT_READER_3))).when(readerDao).findPage(null, limit + 1);
+        doReturn(READER_DTO_1).when(mapper).readerToReaderDto(any(Reader.class));
+
+        PageDto<ReaderDto> actualResult = readerService.getPage(null, limit);
+
+        verify(readerDao).findPage(null, limit + 1);
+        verify(readerDao, never()).getBooksForReader(anyLong());
+        verify(mapper, times(2)).readerToReaderDto(any(Reader.class));
+        assertEquals(2, actualResult.getItems().size());
+        assertEquals(2L, actualResult.getNextCursor());
+    }
+
+    @Test
+    public void getPage_whenLastPage_thenNextCursorIsNull() {
+        final Long after = 2L;
+        doReturn(List.of(SHORT_READER_3)).when(readerDao).findPage(after, PageDto.MAX_LIMIT + 1);
+        doReturn(READER_DTO_3).when(mapper).readerToReaderDto(any(Reader.class));
+
+        PageDto<ReaderDto> actualResult = readerService.getPage(after, 5000);
+
+        verify(readerDao).findPage(after, PageDto.MAX_LIMIT + 1);
+        assertEquals(1, actualResult.getItems().size());
+        assertNull(actualResult.getNextCursor());
+    }
+
+
+
+    @Test
+    void streamAll_whenExist_thenPassMappedDtos() {
+        final List<ReaderDto> streamed = new ArrayList<>();
+        doAnswer(invocation -> {
+            Consumer<Reader> action = invocation.getArgument(0);
+            action.accept(SHORT_READER_1);
+            action.accept(SHORT_READER_2);
+            return null;
+        }).when(readerDao).streamAll(any());
+        doReturn(READER_DTO_1, READER_DTO_2).when(mapper).readerToReaderDto(any(Reader.class));
+
+        readerService.streamAll(streamed::add);
+
+        verify(readerDao).streamAll(any());
+        verify(mapper, times(2)).readerToReaderDto(any(Reader.class));
+        assertEquals(List.of(READER_DTO_1, READER_DTO_2), streamed);
+    }
+
+
+
     @Test
     public void save() {
         final Reader reader = new Reader();
@@ -154,6 +245,24 @@ class ReaderServiceTest {
         assertEquals(READER_DTO_1, actualResult);
     }
 
+    @Test
+    public void saveAll_whenValidReaders_thenIdsInOrder() {
+        final Reader reader1 = new Reader();
+        final Reader reader2 = new Reader();
+        doReturn(reader1).when(mapper).readerDtoToReader(READER_DTO_1);
+        doReturn(reader2).when(mapper).readerDtoToReader(READER_DTO_2);
+        doAnswer(invocation -> {
+            reader1.setId(3L);
+            reader2.setId(4L);
+            return List.of(reader1, reader2);
+        }).when(readerDao).saveAll(List.of(reader1, reader2));
+
+        List<Long> actualResult = readerService.saveAll(List.of(READER_DTO_1, READER_DTO_2));
+
+        verify(readerDao, never()).save(any());
+        assertEquals(List.of(3L, 4L), actualResult);
+    }
+
 
 
     @Test
@@ -161,13 +270,12 @@ class ReaderServiceTest {
         final Long readerId = 1L;
         final Reader author = getReader();
         doReturn(Optional.of(author)).when(readerDao).findById(readerId);
-        doReturn(READER_1.getBooks()).when(readerDao).getBooksForReader(readerId);
         doReturn(true).when(readerDao).update(author);
 
         boolean actualResult = readerService.update(READER_DTO_1, readerId);
 
         verify(readerDao).findById(readerId);
-        verify(readerDao).getBooksForReader(readerId);
+        verify(readerDao, never()).getBooksForReader(readerId);
         verify(readerDao).update(author);
         assertTrue(actualResult);
     }
@@ -186,6 +294,39 @@ class ReaderServiceTest {
 
 
 
+    @Test
+    public void patch_whenOnlyPhoneGiven_thenOnlyItIsSetWithoutReadingBooks() {
+        final Long readerId = 1L;
+        final ReaderDto readerDto = new ReaderDto();
+        readerDto.setPhone("71111111112");
+        doReturn(true).when(readerDao).patch(readerId, Map.of("phone", "71111111112"), null);
+
+        boolean actualResult = readerService.patch(readerDto, readerId, null);
+
+        verify(readerDao).patch(readerId, Map.of("phone", "71111111112"), null);
+        verify(readerDao, never()).findById(any());
+        verify(readerDao, never()).getBooksForReader(any());
+        assertTrue(actualResult);
+    }
+
+    @Test
+    public void patch_whenNothingGiven_thenThrowException() {
+        assertThrows(IllegalArgumentException.class, () -> readerService.patch(new ReaderDto(), 1L, null));
+
+        verify(readerDao, never()).patch(any(), any(), any());
+    }
+
+    @Test
+    public void patch_whenNotPatchedAndNoReader_thenThrowNotFound() {
+        final Long readerId = 666L;
+        doReturn(false).when(readerDao).patch(eq(readerId), any(), eq(null));
+        doReturn(false).when(readerDao).isContainById(readerId);
+
+        assertThrows(NotFoundException.class, () -> readerService.patch(READER_DTO_1, readerId, null));
+    }
+
+
+
     @Test
     public void delete_whenValidId_thenTrue() {
         final Long readerId = 1L;
@@ -1,7 +1,6 @@
 package ru.aston.lepd.readingclub.servlet;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.Test;
@@ -10,17 +9,24 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.aston.lepd.readingclub.dto.AuthorDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
+import ru.aston.lepd.readingclub.exception.PayloadTooLargeException;
 import ru.aston.lepd.readingclub.service.AuthorService;
+import ru.aston.lepd.readingclub.util.JsonCodec;
 
-import java.io.BufferedReader;
 import java.io.PrintWriter;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Set;
 
 import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
-import static org.mockito.ArgumentMatchers.anyString;
+import static jakarta.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static jakarta.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+import static jakarta.servlet.http.HttpServletResponse.SC_CONFLICT;
+import static jakarta.servlet.http.HttpServletResponse.SC_PRECONDITION_FAILED;
 import static org.mockito.Mockito.*;
 import static ru.aston.lepd.readingclub.Constants.*;
 
@@ -31,7 +37,7 @@ class AuthorServletTest {
     @Mock
     private AuthorService authorService;
     @Mock
-    private ObjectMapper objectMapper;
+    private JsonCodec jsonCodec;
     @Mock
     private HttpServletRequest request;
     @Mock
@@ -42,79 +48,138 @@ class AuthorServletTest {
     private AuthorServlet authorServlet;
 
     private static final String TEXT_PLAIN = "text/plain";
-    private static final String APPLICATION_JSON = "application/json";
     private static final String ID_ERROR = "ERROR: author ID is required";
     private static final String URL_ERROR = "ERROR: wrong URL";
     private static final String UPDATING_RESULT = "Result of updating author: ";
     private static final String DELETING_RESULT = "Result of deleting author: ";
     private static final String NOT_FOUNT_STRING = "There is no author with id=666 in database";
     private static final String EXCEPTION_STRING = "Exception occurred";
+    private static final String CONFLICT_STRING = "Author with id=1 was changed by someone else, read it again";
     private static final String JSON_EXCEPTION_STRING = "Wrong json";
+    private static final String TOO_LARGE_STRING = "ERROR: request body is larger than 1048576 bytes";
 
 
 
 
     @Test
     void doGet_whenExistAndPathInfoIsNull_thenReturnList() throws Exception {
-        final String result = "all authors";
         final List<AuthorDto> authors = List.of(AUTHOR_DTO_1, AUTHOR_DTO_2, AUTHOR_DTO_3);
         doReturn(null).when(request).getPathInfo();
-        doReturn(authors).when(authorService).getAll();
-        doReturn(result).when(objectMapper).writeValueAsString(authors);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(authors).when(authorService).getAll(null);
 
         authorServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(authorService).getAll();
-        verify(objectMapper).writeValueAsString(authors);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(authorService).getAll(null);
+        verify(jsonCodec).writeList(request, response, authors, AuthorDto.class);
     }
 
     @Test
     void doGet_whenExistAndPathInfoIsSlash_thenReturnList() throws Exception {
-        final String result = "all authors";
         final List<AuthorDto> authors = List.of(AUTHOR_DTO_1, AUTHOR_DTO_2, AUTHOR_DTO_3);
         doReturn("/").when(request).getPathInfo();
-        doReturn(authors).when(authorService).getAll();
-        doReturn(result).when(objectMapper).writeValueAsString(authors);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(authors).when(authorService).getAll(null);
 
         authorServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(authorService).getAll();
-        verify(objectMapper).writeValueAsString(authors);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(authorService).getAll(null);
+        verify(jsonCodec).writeList(request, response, authors, AuthorDto.class);
+    }
+
+    @Test
+    void doGet_whenPageParameters_thenReturnPage() throws Exception {
+        final PageDto<AuthorDto> page = new PageDto<>(List.of(AUTHOR_DTO_2, AUTHOR_DTO_3), 3L);
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("fields");
+        doReturn("1").when(request).getParameter("after");
+        doReturn("2").when(request).getParameter("limit");
+        doReturn(page).when(authorService).getPage(1L, 2, null);
+
+        authorServlet.doGet(request, response);
+
+        verify(request).getPathInfo();
+        verify(authorService).getPage(1L, 2, null);
+        verify(authorService, never()).getAll(any());
+        verify(jsonCodec).writePage(request, response, page, AuthorDto.class);
+    }
+
+    @Test
+    void doGet_whenStreamParameter_thenWriteToOutputStream() throws Exception {
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("after");
+        doReturn(null).when(request).getParameter("limit");
+        doReturn("true").when(request).getParameter("stream");
+
+        authorServlet.doGet(request, response);
+
+        verify(jsonCodec).writeStream(eq(request), eq(response), eq(AuthorDto.class), any());
+        verify(authorService, never()).getAll(any());
+        verify(response, never()).getWriter();
+    }
+
+    @Test
+    void doGet_whenStreamFailsBeforeCommit_thenReturnError() throws Exception {
+        final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("after");
+        doReturn(null).when(request).getParameter("limit");
+        doReturn("true").when(request).getParameter("stream");
+        doThrow(exception).when(jsonCodec).writeStream(eq(request), eq(response), eq(AuthorDto.class), any());
+        doReturn(printWriter).when(response).getWriter();
+
+        authorServlet.doGet(request, response);
+
+        verify(response).reset();
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
+        verify(printWriter).write(EXCEPTION_STRING);
     }
 
     @Test
     void doGet_whenValidId_thenAuthorDto() throws Exception {
         final Long authorId = 1L;
-        final String result = "authorDto 1";
         doReturn("/1").when(request).getPathInfo();
-        doReturn(AUTHOR_DTO_1).when(authorService).getById(authorId);
-        doReturn(result).when(objectMapper).writeValueAsString(AUTHOR_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(new VersionedDto<>(AUTHOR_DTO_1, "740")).when(authorService).getVersionedById(authorId, null);
 
         authorServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(authorService).getById(authorId);
-        verify(objectMapper).writeValueAsString(AUTHOR_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(response).setHeader("ETag", "\"740\"");
+        verify(authorService).getVersionedById(authorId, null);
+        verify(jsonCodec).write(request, response, AUTHOR_DTO_1);
+    }
+
+    @Test
+    void doGet_whenIfNoneMatchHasETag_thenNotModified() throws Exception {
+        final Long authorId = 1L;
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(new VersionedDto<>(AUTHOR_DTO_1, "740")).when(authorService).getVersionedById(authorId, null);
+        doReturn(null).when(request).getHeader("Accept");
+        doReturn("W/\"739\", \"740\"").when(request).getHeader("If-None-Match");
+
+        authorServlet.doGet(request, response);
+
+        verify(request).getPathInfo();
+        verify(response).setHeader("ETag", "\"740\"");
+        verify(response).setStatus(SC_NOT_MODIFIED);
+        verify(authorService).getVersionedById(authorId, null);
+        verifyNoInteractions(jsonCodec);
+    }
+
+    @Test
+    void doGet_whenFieldsParameter_thenProjectedAuthor() throws Exception {
+        final Long authorId = 1L;
+        doReturn("fullName").when(request).getParameter("fields");
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(new VersionedDto<>(AUTHOR_DTO_1, "7")).when(authorService).getVersionedById(authorId, Set.of("fullName"));
+
+        authorServlet.doGet(request, response);
+
+        verify(authorService).getVersionedById(authorId, Set.of("fullName"));
+        verify(jsonCodec).write(request, response, AUTHOR_DTO_1);
     }
 
     @Test
@@ -122,7 +187,7 @@ class AuthorServletTest {
         final Long authorId = 666L;
         final NotFoundException notFoundException = new NotFoundException(NOT_FOUNT_STRING);
         doReturn("/666").when(request).getPathInfo();
-        doThrow(notFoundException).when(authorService).getById(authorId);
+        doThrow(notFoundException).when(authorService).getVersionedById(authorId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doReturn(printWriter).when(response).getWriter();
@@ -131,7 +196,7 @@ class AuthorServletTest {
         authorServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(authorService).getById(authorId);
+        verify(authorService).getVersionedById(authorId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).getWriter();
@@ -143,7 +208,7 @@ class AuthorServletTest {
         final Long authorId = 2L;
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
         doReturn("/2").when(request).getPathInfo();
-        doThrow(exception).when(authorService).getById(authorId);
+        doThrow(exception).when(authorService).getVersionedById(authorId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         doReturn(printWriter).when(response).getWriter();
@@ -152,7 +217,7 @@ class AuthorServletTest {
         authorServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(authorService).getById(authorId);
+        verify(authorService).getVersionedById(authorId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         verify(response).getWriter();
@@ -163,63 +228,50 @@ class AuthorServletTest {
 
     @Test
     void doPost_whenValidJsonAndPathInfoIsNull_thenAuthorDto() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
-        final String result = "new authorDto";
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
         doReturn(null).when(request).getPathInfo();
         doReturn(AUTHOR_DTO_1).when(authorService).save(AUTHOR_DTO_1);
-        doReturn(result).when(objectMapper).writeValueAsString(AUTHOR_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
 
         authorServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(request).getPathInfo();
         verify(authorService).save(AUTHOR_DTO_1);
-        verify(objectMapper).writeValueAsString(AUTHOR_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(jsonCodec).write(request, response, AUTHOR_DTO_1);
     }
 
     @Test
     void doPost_whenValidJsonAndPathInfoIsSlash_thenAuthorDto() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
-        final String result = "new authorDto";
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
         doReturn("/").when(request).getPathInfo();
         doReturn(AUTHOR_DTO_1).when(authorService).save(AUTHOR_DTO_1);
-        doReturn(result).when(objectMapper).writeValueAsString(AUTHOR_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
 
         authorServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(request).getPathInfo();
         verify(authorService).save(AUTHOR_DTO_1);
-        verify(objectMapper).writeValueAsString(AUTHOR_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(jsonCodec).write(request, response, AUTHOR_DTO_1);
+    }
+
+    @Test
+    void doPost_whenBatch_thenIdsInOrder() throws Exception {
+        final List<AuthorDto> authorDtos = List.of(AUTHOR_DTO_1, AUTHOR_DTO_2);
+        final List<Long> ids = List.of(4L, 5L);
+        doReturn("/batch").when(request).getPathInfo();
+        doReturn(authorDtos).when(jsonCodec).readList(request, AuthorDto.class);
+        doReturn(ids).when(authorService).saveAll(authorDtos);
+
+        authorServlet.doPost(request, response);
+
+        verify(jsonCodec).readList(request, AuthorDto.class);
+        verify(authorService).saveAll(authorDtos);
+        verify(authorService, never()).save(any());
+        verify(jsonCodec).writeIds(request, response, ids);
     }
 
     @Test
     void doPost_whenWrongUrl_thenUrlErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
         doReturn("/wrong").when(request).getPathInfo();
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -227,7 +279,7 @@ class AuthorServletTest {
 
         authorServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verifyNoInteractions(jsonCodec);
         verify(request).getPathInfo();
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -236,12 +288,8 @@ class AuthorServletTest {
 
     @Test
     void doPost_whenInvalidJson_thenThrowJsonMappingException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final JsonMappingException jsonMappingException = new JsonMappingException(JSON_EXCEPTION_STRING);
-        final Stream<String> stream = Stream.of("{", "invalid", "json", "of", "authorDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doThrow(jsonMappingException).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doThrow(jsonMappingException).when(jsonCodec).read(request, AuthorDto.class);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doReturn(printWriter).when(response).getWriter();
@@ -249,9 +297,7 @@ class AuthorServletTest {
 
         authorServlet.doPost(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).getWriter();
@@ -259,14 +305,25 @@ class AuthorServletTest {
 
     }
 
+    @Test
+    void doPost_whenBodyTooLarge_thenPayloadTooLargeError() throws Exception {
+        final PayloadTooLargeException exception = new PayloadTooLargeException(TOO_LARGE_STRING);
+        doThrow(exception).when(jsonCodec).read(request, AuthorDto.class);
+        doReturn(printWriter).when(response).getWriter();
+
+        authorServlet.doPost(request, response);
+
+        verify(jsonCodec).read(request, AuthorDto.class);
+        verify(authorService, never()).save(any());
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(response).setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
+        verify(printWriter).write(TOO_LARGE_STRING);
+    }
+
     @Test
     void doPost_whenInternalError_thenThrowException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
         doReturn(null).when(request).getPathInfo();
         doThrow(exception).when(authorService).save(AUTHOR_DTO_1);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -276,7 +333,7 @@ class AuthorServletTest {
 
         authorServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(request).getPathInfo();
         verify(authorService).save(AUTHOR_DTO_1);
         verify(response).setContentType(TEXT_PLAIN);
@@ -289,25 +346,19 @@ class AuthorServletTest {
 
     @Test
     void doPut_whenValidJsonAndId_thenReturnTrue() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
         final Long authorId = 1L;
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
         doReturn("/1").when(request).getPathInfo();
-        doReturn(true).when(authorService).update(AUTHOR_DTO_1, authorId);
+        doReturn(true).when(authorService).update(AUTHOR_DTO_1, authorId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
         doNothing().when(printWriter).write(UPDATING_RESULT + true);
 
         authorServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(request).getPathInfo();
-        verify(authorService).update(AUTHOR_DTO_1, authorId);
+        verify(authorService).update(AUTHOR_DTO_1, authorId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
         verify(printWriter).write(UPDATING_RESULT + true);
@@ -315,11 +366,7 @@ class AuthorServletTest {
 
     @Test
     void doPut_whenValidJsonButPathInfoIsNull_thenIdErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
         doReturn(null).when(request).getPathInfo();
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -328,9 +375,7 @@ class AuthorServletTest {
 
         authorServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(request).getPathInfo();
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
@@ -340,11 +385,7 @@ class AuthorServletTest {
 
     @Test
     void doPut_whenValidJsonButPathInfoIsSlash_thenIdErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
         doReturn("/").when(request).getPathInfo();
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -353,9 +394,7 @@ class AuthorServletTest {
 
         authorServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(request).getPathInfo();
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
@@ -365,12 +404,8 @@ class AuthorServletTest {
 
     @Test
     void doPut_whenInvalidJson_thenThrowJsonMappingException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "invalid", "json", "of", "authorDto", "}");
         final JsonMappingException jsonMappingException = new JsonMappingException(JSON_EXCEPTION_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doThrow(jsonMappingException).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doThrow(jsonMappingException).when(jsonCodec).read(request, AuthorDto.class);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -378,9 +413,7 @@ class AuthorServletTest {
 
         authorServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -389,15 +422,11 @@ class AuthorServletTest {
 
     @Test
     void doPut_whenInvalidId_thenThrowNotFoundException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final Long authorId = 666L;
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
         final NotFoundException notFoundException = new NotFoundException(NOT_FOUNT_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
         doReturn("/666").when(request).getPathInfo();
-        doThrow(notFoundException).when(authorService).update(AUTHOR_DTO_1, authorId);
+        doThrow(notFoundException).when(authorService).update(AUTHOR_DTO_1, authorId, null);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -405,28 +434,39 @@ class AuthorServletTest {
 
         authorServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(request).getPathInfo();
-        verify(authorService).update(AUTHOR_DTO_1, authorId);
+        verify(authorService).update(AUTHOR_DTO_1, authorId, null);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
         verify(printWriter).write(NOT_FOUNT_STRING);
     }
 
+    @Test
+    void doPut_whenIfMatchIsNotCurrentVersion_thenPreconditionFailed() throws Exception {
+        final Long authorId = 1L;
+        final ConflictException conflictException = new ConflictException(CONFLICT_STRING);
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doReturn("\"740-cbor\", W/\"741\"").when(request).getHeader("If-Match");
+        doThrow(conflictException).when(authorService).update(AUTHOR_DTO_1, authorId, Set.of("740"));
+        doReturn(printWriter).when(response).getWriter();
+
+        authorServlet.doPut(request, response);
+
+        verify(authorService).update(AUTHOR_DTO_1, authorId, Set.of("740"));
+        verify(response).setStatus(SC_PRECONDITION_FAILED);
+        verify(printWriter).write(CONFLICT_STRING);
+    }
+
     @Test
     void doPut_whenInternalError_thenThrowException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final Long authorId = 2L;
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "authorDto", "}");
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(AUTHOR_DTO_1).when(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
         doReturn("/2").when(request).getPathInfo();
-        doThrow(exception).when(authorService).update(AUTHOR_DTO_1, authorId);
+        doThrow(exception).when(authorService).update(AUTHOR_DTO_1, authorId, null);
         doNothing().when(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -434,11 +474,9 @@ class AuthorServletTest {
 
         authorServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(AuthorDto.class));
+        verify(jsonCodec).read(request, AuthorDto.class);
         verify(request).getPathInfo();
-        verify(authorService).update(AUTHOR_DTO_1, authorId);
+        verify(authorService).update(AUTHOR_DTO_1, authorId, null);
         verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -447,6 +485,70 @@ class AuthorServletTest {
 
 
 
+    @Test
+    void doPatch_whenValidJsonAndId_thenReturnTrue() throws Exception {
+        final Long authorId = 1L;
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(true).when(authorService).patch(AUTHOR_DTO_1, authorId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        authorServlet.doPatch(request, response);
+
+        verify(authorService).patch(AUTHOR_DTO_1, authorId, null);
+        verify(authorService, never()).update(any(), any(), any());
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(printWriter).write(UPDATING_RESULT + true);
+    }
+
+    @Test
+    void doPatch_whenNothingToUpdate_thenBadRequest() throws Exception {
+        final Long authorId = 1L;
+        final AuthorDto authorDto = new AuthorDto();
+        doReturn(authorDto).when(jsonCodec).read(request, AuthorDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doThrow(new IllegalArgumentException("ERROR: nothing to update")).when(authorService).patch(authorDto, authorId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        authorServlet.doPatch(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write("ERROR: nothing to update");
+    }
+
+    @Test
+    void doPatch_whenChangedConcurrentlyWithoutIfMatch_thenConflict() throws Exception {
+        final Long authorId = 1L;
+        final ConflictException conflictException = new ConflictException(CONFLICT_STRING);
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doThrow(conflictException).when(authorService).patch(AUTHOR_DTO_1, authorId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        authorServlet.doPatch(request, response);
+
+        verify(response).setStatus(SC_CONFLICT);
+        verify(printWriter).write(CONFLICT_STRING);
+    }
+
+    @Test
+    void service_whenPatchMethod_thenDispatchToDoPatch() throws Exception {
+        final Long authorId = 1L;
+        doReturn("PATCH").when(request).getMethod();
+        doReturn("/authors/1").when(request).getRequestURI();
+        doReturn(AUTHOR_DTO_1).when(jsonCodec).read(request, AuthorDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(true).when(authorService).patch(AUTHOR_DTO_1, authorId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        authorServlet.service(request, response);
+
+        verify(authorService).patch(AUTHOR_DTO_1, authorId, null);
+        verify(printWriter).write(UPDATING_RESULT + true);
+    }
+
+
+
     @Test
     void doDelete_whenValidId_thenSuccessString() throws Exception {
         final Long authorId = 1L;
@@ -1,7 +1,6 @@
 package ru.aston.lepd.readingclub.servlet;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.Test;
@@ -10,16 +9,25 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.aston.lepd.readingclub.dto.BookDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
+import ru.aston.lepd.readingclub.exception.PayloadTooLargeException;
 import ru.aston.lepd.readingclub.service.BookService;
+import ru.aston.lepd.readingclub.util.JsonCodec;
+import ru.aston.lepd.readingclub.util.RequestExecutor;
 
-import java.io.BufferedReader;
 import java.io.PrintWriter;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Set;
 
 import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static jakarta.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static jakarta.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+import static jakarta.servlet.http.HttpServletResponse.SC_CONFLICT;
+import static jakarta.servlet.http.HttpServletResponse.SC_PRECONDITION_FAILED;
 import static org.mockito.Mockito.*;
 import static ru.aston.lepd.readingclub.Constants.*;
 
@@ -30,25 +38,30 @@ class BookServletTest {
     @Mock
     private BookService bookService;
     @Mock
-    private ObjectMapper objectMapper;
+    private JsonCodec jsonCodec;
     @Mock
     private HttpServletRequest request;
     @Mock
     private HttpServletResponse response;
     @Mock
     private PrintWriter printWriter;
+    @Mock
+    private RequestExecutor requestExecutor;
     @InjectMocks
     private BookServlet bookServlet;
 
     private static final String TEXT_PLAIN = "text/plain";
-    private static final String APPLICATION_JSON = "application/json";
+    private static final String UNKNOWN_FIELD_STRING =
+            "ERROR: unknown fields [isbn], allowed are [authorIds, inventoryNumber, readerId, title]";
     private static final String ID_ERROR = "ERROR: book ID is required";
     private static final String URL_ERROR = "ERROR: wrong URL";
     private static final String UPDATING_RESULT = "Result of updating book: ";
     private static final String DELETING_RESULT = "Result of deleting book: ";
     private static final String NOT_FOUNT_STRING = "There is no author with id=666 in database";
     private static final String EXCEPTION_STRING = "Exception occurred";
+    private static final String CONFLICT_STRING = "Book with id=1 was changed by someone else, read it again";
     private static final String JSON_EXCEPTION_STRING = "Wrong json";
+    private static final String TOO_LARGE_STRING = "ERROR: request body is larger than 1048576 bytes";
 
 
 
@@ -56,16 +69,12 @@ class BookServletTest {
     @Test
     void doGet_whenExistReaderIdParameter_thenReturnList() throws Exception {
         final Long readerId = 1L;
-        final String result = "books by readerId";
         final List<BookDto> books = List.of(BOOK_DTO_1, BOOK_DTO_2, BOOK_DTO_3);
+        doReturn(null).when(request).getParameter("fields");
         doReturn("1").when(request).getParameter("reader-id");
         doReturn(null).when(request).getParameter("author-id");
         doReturn(null).when(request).getPathInfo();
         doReturn(books).when(bookService).getAllByReaderId(readerId);
-        doReturn(result).when(objectMapper).writeValueAsString(books);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
 
         bookServlet.doGet(request, response);
 
@@ -73,25 +82,18 @@ class BookServletTest {
         verify(request).getParameter("author-id");
         verify(request).getPathInfo();
         verify(bookService).getAllByReaderId(readerId);
-        verify(objectMapper).writeValueAsString(books);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(jsonCodec).writeList(request, response, books, BookDto.class);
     }
 
     @Test
     void doGet_whenExistAuthorIdParameter_thenReturnList() throws Exception {
         final Long authorId = 1L;
-        final String result = "books by authorId";
         final List<BookDto> books = List.of(BOOK_DTO_1, BOOK_DTO_2, BOOK_DTO_3);
+        doReturn(null).when(request).getParameter("fields");
         doReturn(null).when(request).getParameter("reader-id");
         doReturn("1").when(request).getParameter("author-id");
         doReturn(null).when(request).getPathInfo();
         doReturn(books).when(bookService).getAllByAuthorId(authorId);
-        doReturn(result).when(objectMapper).writeValueAsString(books);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
 
         bookServlet.doGet(request, response);
 
@@ -99,95 +101,240 @@ class BookServletTest {
         verify(request).getParameter("author-id");
         verify(request).getPathInfo();
         verify(bookService).getAllByAuthorId(authorId);
-        verify(objectMapper).writeValueAsString(books);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(jsonCodec).writeList(request, response, books, BookDto.class);
     }
 
     @Test
     void doGet_whenExistAndPathInfoIsNull_thenReturnList() throws Exception {
-        final String result = "all books";
         final List<BookDto> books = List.of(BOOK_DTO_1, BOOK_DTO_2, BOOK_DTO_3);
+        doReturn(null).when(request).getParameter("fields");
         doReturn(null).when(request).getParameter("reader-id");
         doReturn(null).when(request).getParameter("author-id");
         doReturn(null).when(request).getPathInfo();
-        doReturn(books).when(bookService).getAll();
-        doReturn(result).when(objectMapper).writeValueAsString(books);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(books).when(bookService).getAll(null);
 
         bookServlet.doGet(request, response);
 
         verify(request).getParameter("reader-id");
         verify(request).getParameter("author-id");
         verify(request).getPathInfo();
-        verify(bookService).getAll();
-        verify(objectMapper).writeValueAsString(books);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(bookService).getAll(null);
+        verify(jsonCodec).writeList(request, response, books, BookDto.class);
+    }
+
+    @Test
+    void doGet_whenFieldsParameter_thenProjectedList() throws Exception {
+        final List<BookDto> books = List.of(BOOK_DTO_1);
+        final Set<String> fields = Set.of("title", "inventoryNumber");
+        doReturn("title, inventoryNumber").when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("reader-id");
+        doReturn(null).when(request).getParameter("author-id");
+        doReturn(null).when(request).getPathInfo();
+        doReturn(books).when(bookService).getAll(fields);
+
+        bookServlet.doGet(request, response);
+
+        verify(bookService).getAll(fields);
+        verify(jsonCodec).writeList(request, response, books, BookDto.class);
+    }
+
+    @Test
+    void doGet_whenUnknownField_thenBadRequest() throws Exception {
+        doReturn("title,isbn").when(request).getParameter("fields");
+        doReturn(printWriter).when(response).getWriter();
+
+        bookServlet.doGet(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write(UNKNOWN_FIELD_STRING);
+        verifyNoInteractions(bookService);
     }
 
     @Test
     void doGet_whenExistAndPathInfoIsSlash_thenReturnList() throws Exception {
-        final String result = "all books";
         final List<BookDto> books = List.of(BOOK_DTO_1, BOOK_DTO_2, BOOK_DTO_3);
+        doReturn(null).when(request).getParameter("fields");
         doReturn(null).when(request).getParameter("reader-id");
         doReturn(null).when(request).getParameter("author-id");
         doReturn("/").when(request).getPathInfo();
-        doReturn(books).when(bookService).getAll();
-        doReturn(result).when(objectMapper).writeValueAsString(books);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(books).when(bookService).getAll(null);
 
         bookServlet.doGet(request, response);
 
         verify(request).getParameter("reader-id");
         verify(request).getParameter("author-id");
         verify(request).getPathInfo();
-        verify(bookService).getAll();
-        verify(objectMapper).writeValueAsString(books);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(bookService).getAll(null);
+        verify(jsonCodec).writeList(request, response, books, BookDto.class);
+    }
+
+    @Test
+    void doGet_whenPageParameters_thenReturnPage() throws Exception {
+        final PageDto<BookDto> page = new PageDto<>(List.of(BOOK_DTO_2, BOOK_DTO_3), 3L);
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("reader-id");
+        doReturn(null).when(request).getParameter("author-id");
+        doReturn(null).when(request).getPathInfo();
+        doReturn("1").when(request).getParameter("after");
+        doReturn("2").when(request).getParameter("limit");
+        doReturn(page).when(bookService).getPage(1L, 2, null);
+
+        bookServlet.doGet(request, response);
+
+        verify(request).getParameter("reader-id");
+        verify(request).getParameter("author-id");
+        verify(request).getPathInfo();
+        verify(bookService).getPage(1L, 2, null);
+        verify(bookService, never()).getAll(any());
+        verify(jsonCodec).writePage(request, response, page, BookDto.class);
+    }
+
+    @Test
+    void doGet_whenStreamParameter_thenWriteToOutputStream() throws Exception {
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("reader-id");
+        doReturn(null).when(request).getParameter("author-id");
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("after");
+        doReturn(null).when(request).getParameter("limit");
+        doReturn(null).when(request).getParameter("render");
+        doReturn("true").when(request).getParameter("stream");
+
+        bookServlet.doGet(request, response);
+
+        verify(jsonCodec).writeStream(eq(request), eq(response), eq(BookDto.class), any());
+        verify(bookService, never()).getAll(any());
+        verify(response, never()).getWriter();
+    }
+
+    @Test
+    void doGet_whenRenderDbParameter_thenWriteRawList() throws Exception {
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("reader-id");
+        doReturn(null).when(request).getParameter("author-id");
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("after");
+        doReturn(null).when(request).getParameter("limit");
+        doReturn("db").when(request).getParameter("render");
+        doReturn(true).when(jsonCodec).acceptsJson(request);
+
+        bookServlet.doGet(request, response);
+
+        verify(jsonCodec).writeRawList(eq(request), eq(response), any());
+        verify(jsonCodec, never()).writeList(any(), any(), any(), any());
+        verify(bookService, never()).getAll(any());
+    }
+
+    @Test
+    void doGet_whenRenderDbAndNotJson_thenWriteList() throws Exception {
+        final List<BookDto> books = List.of(BOOK_DTO_1);
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("reader-id");
+        doReturn(null).when(request).getParameter("author-id");
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("after");
+        doReturn(null).when(request).getParameter("limit");
+        doReturn("db").when(request).getParameter("render");
+        doReturn(false).when(jsonCodec).acceptsJson(request);
+        doReturn(null).when(request).getParameter("stream");
+        doReturn(books).when(bookService).getAll(null);
+
+        bookServlet.doGet(request, response);
+
+        verify(jsonCodec).writeList(request, response, books, BookDto.class);
+        verify(jsonCodec, never()).writeRawList(any(), any(), any());
+    }
+
+    @Test
+    void doGet_whenStreamFailsBeforeCommit_thenReturnError() throws Exception {
+        final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("reader-id");
+        doReturn(null).when(request).getParameter("author-id");
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("after");
+        doReturn(null).when(request).getParameter("limit");
+        doReturn(null).when(request).getParameter("render");
+        doReturn("true").when(request).getParameter("stream");
+        doThrow(exception).when(jsonCodec).writeStream(eq(request), eq(response), eq(BookDto.class), any());
+        doReturn(printWriter).when(response).getWriter();
+
+        bookServlet.doGet(request, response);
+
+        verify(response).reset();
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
+        verify(printWriter).write(EXCEPTION_STRING);
     }
 
     @Test
     void doGet_whenValidId_thenBookDto() throws Exception {
         final Long bookId = 1L;
-        final String result = "bookDto 1";
+        doReturn(null).when(request).getParameter("fields");
         doReturn(null).when(request).getParameter("reader-id");
         doReturn(null).when(request).getParameter("author-id");
         doReturn("/1").when(request).getPathInfo();
-        doReturn(BOOK_DTO_1).when(bookService).getById(bookId);
-        doReturn(result).when(objectMapper).writeValueAsString(BOOK_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(new VersionedDto<>(BOOK_DTO_1, "740")).when(bookService).getVersionedById(bookId, null);
 
         bookServlet.doGet(request, response);
 
         verify(request).getParameter("reader-id");
         verify(request).getParameter("author-id");
         verify(request).getPathInfo();
-        verify(bookService).getById(bookId);
-        verify(objectMapper).writeValueAsString(BOOK_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(response).setHeader("ETag", "\"740\"");
+        verify(bookService).getVersionedById(bookId, null);
+        verify(jsonCodec).write(request, response, BOOK_DTO_1);
+    }
+
+    @Test
+    void doGet_whenIfNoneMatchHasETag_thenNotModified() throws Exception {
+        final Long bookId = 1L;
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("reader-id");
+        doReturn(null).when(request).getParameter("author-id");
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(new VersionedDto<>(BOOK_DTO_1, "740")).when(bookService).getVersionedById(bookId, null);
+        doReturn(null).when(request).getHeader("Accept");
+        doReturn("W/\"739\", \"740\"").when(request).getHeader("If-None-Match");
+
+        bookServlet.doGet(request, response);
+
+        verify(request).getParameter("reader-id");
+        verify(request).getParameter("author-id");
+        verify(request).getPathInfo();
+        verify(response).setHeader("ETag", "\"740\"");
+        verify(response).setStatus(SC_NOT_MODIFIED);
+        verify(bookService).getVersionedById(bookId, null);
+        verifyNoInteractions(jsonCodec);
+    }
+
+    @Test
+    void doGet_whenSmileAccepted_thenETagOfSmileRepresentation() throws Exception {
+        final Long bookId = 1L;
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("reader-id");
+        doReturn(null).when(request).getParameter("author-id");
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(new VersionedDto<>(BOOK_DTO_1, "740")).when(bookService).getVersionedById(bookId, null);
+        doReturn("application/x-jackson-smile").when(request).getHeader("Accept");
+        doReturn("\"740\"").when(request).getHeader("If-None-Match");
+
+        bookServlet.doGet(request, response);
+
+        verify(response).setHeader("ETag", "\"740-smile\"");
+        verify(response, never()).setStatus(SC_NOT_MODIFIED);
+        verify(jsonCodec).write(request, response, BOOK_DTO_1);
     }
 
     @Test
     void doGet_whenInvalidId_thenThrowNotFoundException() throws Exception {
         final Long bookId = 666L;
         final NotFoundException notFoundException = new NotFoundException(NOT_FOUNT_STRING);
+        doReturn(null).when(request).getParameter("fields");
         doReturn(null).when(request).getParameter("reader-id");
         doReturn(null).when(request).getParameter("author-id");
         doReturn("/666").when(request).getPathInfo();
-        doThrow(notFoundException).when(bookService).getById(bookId);
+        doThrow(notFoundException).when(bookService).getVersionedById(bookId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doReturn(printWriter).when(response).getWriter();
@@ -198,7 +345,7 @@ class BookServletTest {
         verify(request).getParameter("reader-id");
         verify(request).getParameter("author-id");
         verify(request).getPathInfo();
-        verify(bookService).getById(bookId);
+        verify(bookService).getVersionedById(bookId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).getWriter();
@@ -209,10 +356,11 @@ class BookServletTest {
     void doGet_whenInternalError_thenThrowException() throws Exception {
         final Long bookId = 2L;
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
+        doReturn(null).when(request).getParameter("fields");
         doReturn(null).when(request).getParameter("reader-id");
         doReturn(null).when(request).getParameter("author-id");
         doReturn("/2").when(request).getPathInfo();
-        doThrow(exception).when(bookService).getById(bookId);
+        doThrow(exception).when(bookService).getVersionedById(bookId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         doReturn(printWriter).when(response).getWriter();
@@ -223,7 +371,7 @@ class BookServletTest {
         verify(request).getParameter("reader-id");
         verify(request).getParameter("author-id");
         verify(request).getPathInfo();
-        verify(bookService).getById(bookId);
+        verify(bookService).getVersionedById(bookId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         verify(response).getWriter();
@@ -234,63 +382,50 @@ class BookServletTest {
 
     @Test
     void doPost_whenValidJsonAndPathInfoIsNull_thenBookDto() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
-        final String result = "new bookDto";
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
         doReturn(null).when(request).getPathInfo();
         doReturn(BOOK_DTO_1).when(bookService).save(BOOK_DTO_1);
-        doReturn(result).when(objectMapper).writeValueAsString(BOOK_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
 
         bookServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(request).getPathInfo();
         verify(bookService).save(BOOK_DTO_1);
-        verify(objectMapper).writeValueAsString(BOOK_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(jsonCodec).write(request, response, BOOK_DTO_1);
     }
 
     @Test
     void doPost_whenValidJsonAndPathInfoIsSlash_thenBookDto() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
-        final String result = "new bookDto";
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
         doReturn("/").when(request).getPathInfo();
         doReturn(BOOK_DTO_1).when(bookService).save(BOOK_DTO_1);
-        doReturn(result).when(objectMapper).writeValueAsString(BOOK_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
 
         bookServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(request).getPathInfo();
         verify(bookService).save(BOOK_DTO_1);
-        verify(objectMapper).writeValueAsString(BOOK_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(jsonCodec).write(request, response, BOOK_DTO_1);
+    }
+
+    @Test
+    void doPost_whenBatch_thenIdsInOrder() throws Exception {
+        final List<BookDto> bookDtos = List.of(BOOK_DTO_1, BOOK_DTO_2);
+        final List<Long> ids = List.of(4L, 5L);
+        doReturn("/batch").when(request).getPathInfo();
+        doReturn(bookDtos).when(jsonCodec).readList(request, BookDto.class);
+        doReturn(ids).when(bookService).saveAll(bookDtos);
+
+        bookServlet.doPost(request, response);
+
+        verify(jsonCodec).readList(request, BookDto.class);
+        verify(bookService).saveAll(bookDtos);
+        verify(bookService, never()).save(any());
+        verify(jsonCodec).writeIds(request, response, ids);
     }
 
     @Test
     void doPost_whenWrongUrl_thenUrlErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
         doReturn("/wrong").when(request).getPathInfo();
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -298,7 +433,7 @@ class BookServletTest {
 
         bookServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verifyNoInteractions(jsonCodec);
         verify(request).getPathInfo();
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -307,12 +442,8 @@ class BookServletTest {
 
     @Test
     void doPost_whenInvalidJson_thenThrowJsonMappingException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final JsonMappingException jsonMappingException = new JsonMappingException(JSON_EXCEPTION_STRING);
-        final Stream<String> stream = Stream.of("{", "invalid", "json", "of", "bookDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doThrow(jsonMappingException).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doThrow(jsonMappingException).when(jsonCodec).read(request, BookDto.class);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doReturn(printWriter).when(response).getWriter();
@@ -320,9 +451,7 @@ class BookServletTest {
 
         bookServlet.doPost(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).getWriter();
@@ -330,14 +459,25 @@ class BookServletTest {
 
     }
 
+    @Test
+    void doPost_whenBodyTooLarge_thenPayloadTooLargeError() throws Exception {
+        final PayloadTooLargeException exception = new PayloadTooLargeException(TOO_LARGE_STRING);
+        doThrow(exception).when(jsonCodec).read(request, BookDto.class);
+        doReturn(printWriter).when(response).getWriter();
+
+        bookServlet.doPost(request, response);
+
+        verify(jsonCodec).read(request, BookDto.class);
+        verify(bookService, never()).save(any());
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(response).setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
+        verify(printWriter).write(TOO_LARGE_STRING);
+    }
+
     @Test
     void doPost_whenInternalError_thenThrowException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
         doReturn(null).when(request).getPathInfo();
         doThrow(exception).when(bookService).save(BOOK_DTO_1);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -347,7 +487,7 @@ class BookServletTest {
 
         bookServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(request).getPathInfo();
         verify(bookService).save(BOOK_DTO_1);
         verify(response).setContentType(TEXT_PLAIN);
@@ -360,25 +500,19 @@ class BookServletTest {
 
     @Test
     void doPut_whenValidJsonAndId_thenReturnTrue() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
         final Long bookId = 1L;
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
         doReturn("/1").when(request).getPathInfo();
-        doReturn(true).when(bookService).update(BOOK_DTO_1, bookId);
+        doReturn(true).when(bookService).update(BOOK_DTO_1, bookId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
         doNothing().when(printWriter).write(UPDATING_RESULT + true);
 
         bookServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(request).getPathInfo();
-        verify(bookService).update(BOOK_DTO_1, bookId);
+        verify(bookService).update(BOOK_DTO_1, bookId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
         verify(printWriter).write(UPDATING_RESULT + true);
@@ -386,11 +520,7 @@ class BookServletTest {
 
     @Test
     void doPut_whenValidJsonButPathInfoIsNull_thenIdErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
         doReturn(null).when(request).getPathInfo();
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -399,9 +529,7 @@ class BookServletTest {
 
         bookServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(request).getPathInfo();
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
@@ -411,11 +539,7 @@ class BookServletTest {
 
     @Test
     void doPut_whenValidJsonButPathInfoIsSlash_thenIdErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
         doReturn("/").when(request).getPathInfo();
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -424,9 +548,7 @@ class BookServletTest {
 
         bookServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(request).getPathInfo();
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
@@ -436,12 +558,8 @@ class BookServletTest {
 
     @Test
     void doPut_whenInvalidJson_thenThrowJsonMappingException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "invalid", "json", "of", "bookDto", "}");
         final JsonMappingException jsonMappingException = new JsonMappingException(JSON_EXCEPTION_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doThrow(jsonMappingException).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doThrow(jsonMappingException).when(jsonCodec).read(request, BookDto.class);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -449,9 +567,7 @@ class BookServletTest {
 
         bookServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -460,15 +576,11 @@ class BookServletTest {
 
     @Test
     void doPut_whenInvalidId_thenThrowNotFoundException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final Long bookId = 666L;
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
         final NotFoundException notFoundException = new NotFoundException(NOT_FOUNT_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
         doReturn("/666").when(request).getPathInfo();
-        doThrow(notFoundException).when(bookService).update(BOOK_DTO_1, bookId);
+        doThrow(notFoundException).when(bookService).update(BOOK_DTO_1, bookId, null);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -476,28 +588,55 @@ class BookServletTest {
 
         bookServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(request).getPathInfo();
-        verify(bookService).update(BOOK_DTO_1, bookId);
+        verify(bookService).update(BOOK_DTO_1, bookId, null);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
         verify(printWriter).write(NOT_FOUNT_STRING);
     }
 
+    @Test
+    void doPut_whenIfMatchIsNotCurrentVersion_thenPreconditionFailed() throws Exception {
+        final Long bookId = 1L;
+        final ConflictException conflictException = new ConflictException(CONFLICT_STRING);
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doReturn("\"740.1f0e\"").when(request).getHeader("If-Match");
+        doThrow(conflictException).when(bookService).update(BOOK_DTO_1, bookId, Set.of("740.1f0e"));
+        doReturn(printWriter).when(response).getWriter();
+
+        bookServlet.doPut(request, response);
+
+        verify(bookService).update(BOOK_DTO_1, bookId, Set.of("740.1f0e"));
+        verify(response).setStatus(SC_PRECONDITION_FAILED);
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(printWriter).write(CONFLICT_STRING);
+    }
+
+    @Test
+    void doPut_whenUpdatedConcurrently_thenConflict() throws Exception {
+        final Long bookId = 1L;
+        final ConflictException conflictException = new ConflictException(CONFLICT_STRING);
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doThrow(conflictException).when(bookService).update(BOOK_DTO_1, bookId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        bookServlet.doPut(request, response);
+
+        verify(response).setStatus(SC_CONFLICT);
+        verify(printWriter).write(CONFLICT_STRING);
+    }
+
     @Test
     void doPut_whenInternalError_thenThrowException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final Long bookId = 2L;
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "bookDto", "}");
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(BOOK_DTO_1).when(objectMapper).readValue(anyString(), eq(BookDto.class));
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
         doReturn("/2").when(request).getPathInfo();
-        doThrow(exception).when(bookService).update(BOOK_DTO_1, bookId);
+        doThrow(exception).when(bookService).update(BOOK_DTO_1, bookId, null);
         doNothing().when(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -505,11 +644,9 @@ class BookServletTest {
 
         bookServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(BookDto.class));
+        verify(jsonCodec).read(request, BookDto.class);
         verify(request).getPathInfo();
-        verify(bookService).update(BOOK_DTO_1, bookId);
+        verify(bookService).update(BOOK_DTO_1, bookId, null);
         verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -518,6 +655,54 @@ class BookServletTest {
 
 
 
+    @Test
+    void doPatch_whenValidJsonAndId_thenReturnTrue() throws Exception {
+        final Long bookId = 1L;
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(true).when(bookService).patch(BOOK_DTO_1, bookId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        bookServlet.doPatch(request, response);
+
+        verify(bookService).patch(BOOK_DTO_1, bookId, null);
+        verify(bookService, never()).update(any(), any(), any());
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(printWriter).write(UPDATING_RESULT + true);
+    }
+
+    @Test
+    void doPatch_whenNothingToUpdate_thenBadRequest() throws Exception {
+        final Long bookId = 1L;
+        final BookDto bookDto = new BookDto();
+        doReturn(bookDto).when(jsonCodec).read(request, BookDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doThrow(new IllegalArgumentException("ERROR: nothing to update")).when(bookService).patch(bookDto, bookId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        bookServlet.doPatch(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write("ERROR: nothing to update");
+    }
+
+    @Test
+    void doPatch_whenChangedConcurrentlyWithoutIfMatch_thenConflict() throws Exception {
+        final Long bookId = 1L;
+        final ConflictException conflictException = new ConflictException(CONFLICT_STRING);
+        doReturn(BOOK_DTO_1).when(jsonCodec).read(request, BookDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doThrow(conflictException).when(bookService).patch(BOOK_DTO_1, bookId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        bookServlet.doPatch(request, response);
+
+        verify(response).setStatus(SC_CONFLICT);
+        verify(printWriter).write(CONFLICT_STRING);
+    }
+
+
+
     @Test
     void doDelete_whenValidId_thenSuccessString() throws Exception {
         final Long bookId = 1L;
@@ -612,7 +797,33 @@ class BookServletTest {
         verify(printWriter).write(EXCEPTION_STRING);
     }
 
+    @Test
+    void service_whenAsyncSupported_thenHandOverToExecutor() throws Exception {
+        bookServlet.setRequestExecutor(requestExecutor);
+        doReturn(true).when(request).isAsyncSupported();
+
+        bookServlet.service(request, response);
+
+        verify(requestExecutor).execute(eq(request), eq(response), any());
+        verifyNoInteractions(bookService);
+    }
+
+    @Test
+    void service_whenAsyncNotSupported_thenHandleOnCallingThread() throws Exception {
+        final List<BookDto> books = List.of(BOOK_DTO_1, BOOK_DTO_2, BOOK_DTO_3);
+        bookServlet.setRequestExecutor(requestExecutor);
+        doReturn(false).when(request).isAsyncSupported();
+        doReturn("GET").when(request).getMethod();
+        doReturn(books).when(bookService).getAll(null);
+
+        bookServlet.service(request, response);
+
+        verify(bookService).getAll(null);
+        verify(jsonCodec).writeList(request, response, books, BookDto.class);
+        verifyNoInteractions(requestExecutor);
+    }
+
 
 
 
-}
\ No newline at end of file
+}
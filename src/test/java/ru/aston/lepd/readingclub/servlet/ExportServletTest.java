@@ -0,0 +1,149 @@
+package ru.aston.lepd.readingclub.servlet;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.lepd.readingclub.dao.CopyFormat;
+import ru.aston.lepd.readingclub.dao.ExportDao;
+import ru.aston.lepd.readingclub.exception.DaoException;
+import ru.aston.lepd.readingclub.service.ExportService;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+
+@ExtendWith(MockitoExtension.class)
+class ExportServletTest {
+
+    @Mock
+    private ExportService exportService;
+    @Mock
+    private HttpServletRequest request;
+    @Mock
+    private HttpServletResponse response;
+    @Mock
+    private ServletOutputStream outputStream;
+    @Mock
+    private PrintWriter printWriter;
+    @InjectMocks
+    private ExportServlet exportServlet;
+
+    private static final String TEXT_PLAIN = "text/plain";
+    private static final String CONTENT_DISPOSITION = "Content-Disposition";
+    private static final String TARGET_ERROR = "ERROR: table to export is required";
+    private static final String UNKNOWN_TARGET_ERROR = "ERROR: unknown export target author_book";
+    private static final String UNKNOWN_FORMAT_ERROR = "ERROR: unknown format xml";
+    private static final String EXCEPTION_STRING = "Exception occurred";
+
+
+
+
+    @Test
+    void doGet_whenFormatIsNull_thenStreamCsv() throws Exception {
+        doReturn("/books").when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("format");
+        doReturn(outputStream).when(response).getOutputStream();
+
+        exportServlet.doGet(request, response);
+
+        verify(response).setContentType("text/csv");
+        verify(response).setHeader(CONTENT_DISPOSITION, "attachment; filename=\"books.csv\"");
+        verify(exportService).exportTo(ExportDao.Target.BOOKS, CopyFormat.CSV, outputStream);
+        verify(response, never()).getWriter();
+    }
+
+    @Test
+    void doGet_whenFormatIsNdjson_thenStreamNdjson() throws Exception {
+        doReturn("/readers").when(request).getPathInfo();
+        doReturn("ndjson").when(request).getParameter("format");
+        doReturn(outputStream).when(response).getOutputStream();
+
+        exportServlet.doGet(request, response);
+
+        verify(response).setContentType("application/x-ndjson");
+        verify(response).setHeader(CONTENT_DISPOSITION, "attachment; filename=\"readers.ndjson\"");
+        verify(exportService).exportTo(ExportDao.Target.READERS, CopyFormat.NDJSON, outputStream);
+    }
+
+    @Test
+    void doGet_whenPathInfoIsNull_thenBadRequest() throws Exception {
+        doReturn(null).when(request).getPathInfo();
+        doReturn(printWriter).when(response).getWriter();
+
+        exportServlet.doGet(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(printWriter).write(TARGET_ERROR);
+        verifyNoInteractions(exportService);
+    }
+
+    @Test
+    void doGet_whenUnknownTable_thenBadRequest() throws Exception {
+        doReturn("/author_book").when(request).getPathInfo();
+        doReturn(printWriter).when(response).getWriter();
+
+        exportServlet.doGet(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write(UNKNOWN_TARGET_ERROR);
+        verifyNoInteractions(exportService);
+    }
+
+    @Test
+    void doGet_whenUnknownFormat_thenBadRequest() throws Exception {
+        doReturn("/authors").when(request).getPathInfo();
+        doReturn("xml").when(request).getParameter("format");
+        doReturn(printWriter).when(response).getWriter();
+
+        exportServlet.doGet(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write(UNKNOWN_FORMAT_ERROR);
+        verifyNoInteractions(exportService);
+    }
+
+    @Test
+    void doGet_whenFailedBeforeFirstChunk_thenResetAndBadRequest() throws Exception {
+        doReturn("/authors").when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("format");
+        doReturn(outputStream).when(response).getOutputStream();
+        doThrow(new DaoException(EXCEPTION_STRING))
+                .when(exportService).exportTo(ExportDao.Target.AUTHORS, CopyFormat.CSV, outputStream);
+        doReturn(false).when(response).isCommitted();
+        doReturn(printWriter).when(response).getWriter();
+
+        exportServlet.doGet(request, response);
+
+        verify(response).reset();
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(printWriter).write(EXCEPTION_STRING);
+    }
+
+    @Test
+    void doGet_whenFailedAfterFirstChunk_thenThrowException() throws Exception {
+        doReturn("/authors").when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("format");
+        doReturn(outputStream).when(response).getOutputStream();
+        doThrow(new DaoException(EXCEPTION_STRING))
+                .when(exportService).exportTo(ExportDao.Target.AUTHORS, CopyFormat.CSV, outputStream);
+        doReturn(true).when(response).isCommitted();
+
+        assertThrows(IOException.class, () -> exportServlet.doGet(request, response));
+
+        verify(response, never()).reset();
+        verify(response, never()).getWriter();
+    }
+
+
+}
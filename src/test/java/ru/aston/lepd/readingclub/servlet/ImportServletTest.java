@@ -0,0 +1,136 @@
+package ru.aston.lepd.readingclub.servlet;
+
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.aston.lepd.readingclub.dao.CopyFormat;
+import ru.aston.lepd.readingclub.dao.ImportDao;
+import ru.aston.lepd.readingclub.dto.ImportResultDto;
+import ru.aston.lepd.readingclub.exception.NotFoundException;
+import ru.aston.lepd.readingclub.service.ImportService;
+
+import java.io.PrintWriter;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static org.mockito.Mockito.*;
+
+
+@ExtendWith(MockitoExtension.class)
+class ImportServletTest {
+
+    @Mock
+    private ImportService importService;
+    @Mock
+    private HttpServletRequest request;
+    @Mock
+    private HttpServletResponse response;
+    @Mock
+    private ServletInputStream inputStream;
+    @Mock
+    private PrintWriter printWriter;
+    @InjectMocks
+    private ImportServlet importServlet;
+
+    private static final String TEXT_PLAIN = "text/plain";
+    private static final String TARGET_ERROR = "ERROR: table to import is required";
+    private static final String UNKNOWN_TARGET_ERROR = "ERROR: unknown import target shelves";
+    private static final String IMPORTING_RESULT = "Result of importing readers: 3 rows read, 2 rows inserted or changed";
+    private static final String UNRESOLVED_STRING = "ERROR: imported books refer to missing rows: reader phone 79999999999";
+    private static final String EXCEPTION_STRING = "Exception occurred";
+
+
+
+
+    @Test
+    void doPost_whenCsv_thenImportAndReturnResult() throws Exception {
+        doReturn("/readers").when(request).getPathInfo();
+        doReturn("text/csv").when(request).getContentType();
+        doReturn(inputStream).when(request).getInputStream();
+        doReturn(new ImportResultDto(3L, 2L))
+                .when(importService).importFrom(ImportDao.Target.READERS, CopyFormat.CSV, inputStream);
+        doReturn(printWriter).when(response).getWriter();
+
+        importServlet.doPost(request, response);
+
+        verify(importService).importFrom(ImportDao.Target.READERS, CopyFormat.CSV, inputStream);
+        verify(response, never()).setStatus(anyInt());
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(printWriter).write(IMPORTING_RESULT);
+    }
+
+    @Test
+    void doPost_whenNdjson_thenImportAsNdjson() throws Exception {
+        doReturn("/author_book").when(request).getPathInfo();
+        doReturn("application/x-ndjson; charset=utf-8").when(request).getContentType();
+        doReturn(inputStream).when(request).getInputStream();
+        doReturn(new ImportResultDto(1L, 1L))
+                .when(importService).importFrom(ImportDao.Target.AUTHOR_BOOK, CopyFormat.NDJSON, inputStream);
+        doReturn(printWriter).when(response).getWriter();
+
+        importServlet.doPost(request, response);
+
+        verify(importService).importFrom(ImportDao.Target.AUTHOR_BOOK, CopyFormat.NDJSON, inputStream);
+    }
+
+    @Test
+    void doPost_whenPathInfoIsNull_thenBadRequest() throws Exception {
+        doReturn(null).when(request).getPathInfo();
+        doReturn(printWriter).when(response).getWriter();
+
+        importServlet.doPost(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write(TARGET_ERROR);
+        verifyNoInteractions(importService);
+    }
+
+    @Test
+    void doPost_whenUnknownTable_thenBadRequest() throws Exception {
+        doReturn("/shelves").when(request).getPathInfo();
+        doReturn(printWriter).when(response).getWriter();
+
+        importServlet.doPost(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write(UNKNOWN_TARGET_ERROR);
+        verifyNoInteractions(importService);
+    }
+
+    @Test
+    void doPost_whenReferencesUnresolved_thenBadRequest() throws Exception {
+        doReturn("/books").when(request).getPathInfo();
+        doReturn(null).when(request).getContentType();
+        doReturn(inputStream).when(request).getInputStream();
+        doThrow(new NotFoundException(UNRESOLVED_STRING))
+                .when(importService).importFrom(ImportDao.Target.BOOKS, CopyFormat.CSV, inputStream);
+        doReturn(printWriter).when(response).getWriter();
+
+        importServlet.doPost(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write(UNRESOLVED_STRING);
+    }
+
+    @Test
+    void doPost_whenInternalError_thenThrowException() throws Exception {
+        doReturn("/authors").when(request).getPathInfo();
+        doReturn("text/csv").when(request).getContentType();
+        doReturn(inputStream).when(request).getInputStream();
+        doThrow(new RuntimeException(EXCEPTION_STRING))
+                .when(importService).importFrom(ImportDao.Target.AUTHORS, CopyFormat.CSV, inputStream);
+        doReturn(printWriter).when(response).getWriter();
+
+        importServlet.doPost(request, response);
+
+        verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
+        verify(printWriter).write(EXCEPTION_STRING);
+    }
+
+
+}
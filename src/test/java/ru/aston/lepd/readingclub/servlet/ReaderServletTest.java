@@ -1,7 +1,6 @@
 package ru.aston.lepd.readingclub.servlet;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.Test;
@@ -10,16 +9,24 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.aston.lepd.readingclub.dto.ReaderDto;
+import ru.aston.lepd.readingclub.dto.PageDto;
+import ru.aston.lepd.readingclub.dto.VersionedDto;
+import ru.aston.lepd.readingclub.exception.ConflictException;
 import ru.aston.lepd.readingclub.exception.NotFoundException;
+import ru.aston.lepd.readingclub.exception.PayloadTooLargeException;
 import ru.aston.lepd.readingclub.service.ReaderService;
+import ru.aston.lepd.readingclub.util.JsonCodec;
 
-import java.io.BufferedReader;
 import java.io.PrintWriter;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Set;
 
 import static jakarta.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static jakarta.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static jakarta.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static jakarta.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+import static jakarta.servlet.http.HttpServletResponse.SC_CONFLICT;
+import static jakarta.servlet.http.HttpServletResponse.SC_PRECONDITION_FAILED;
 import static org.mockito.Mockito.*;
 import static ru.aston.lepd.readingclub.Constants.*;
 
@@ -30,7 +37,7 @@ class ReaderServletTest {
     @Mock
     private ReaderService readerService;
     @Mock
-    private ObjectMapper objectMapper;
+    private JsonCodec jsonCodec;
     @Mock
     private HttpServletRequest request;
     @Mock
@@ -41,14 +48,15 @@ class ReaderServletTest {
     private ReaderServlet readerServlet;
 
     private static final String TEXT_PLAIN = "text/plain";
-    private static final String APPLICATION_JSON = "application/json";
     private static final String ID_ERROR = "ERROR: reader ID is required";
     private static final String URL_ERROR = "ERROR: wrong URL";
     private static final String UPDATING_RESULT = "Result of updating reader: ";
     private static final String DELETING_RESULT = "Result of deleting reader: ";
     private static final String NOT_FOUNT_STRING = "There is no author with id=666 in database";
     private static final String EXCEPTION_STRING = "Exception occurred";
+    private static final String CONFLICT_STRING = "Reader with id=1 was changed by someone else, read it again";
     private static final String JSON_EXCEPTION_STRING = "Wrong json";
+    private static final String TOO_LARGE_STRING = "ERROR: request body is larger than 1048576 bytes";
 
 
 
@@ -56,65 +64,110 @@ class ReaderServletTest {
 
     @Test
     void doGet_whenExistAndPathInfoIsNull_thenReturnList() throws Exception {
-        final String result = "all readers";
         final List<ReaderDto> readers = List.of(READER_DTO_1, READER_DTO_2, READER_DTO_3);
         doReturn(null).when(request).getPathInfo();
-        doReturn(readers).when(readerService).getAll();
-        doReturn(result).when(objectMapper).writeValueAsString(readers);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(readers).when(readerService).getAll(null);
 
         readerServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(readerService).getAll();
-        verify(objectMapper).writeValueAsString(readers);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(readerService).getAll(null);
+        verify(jsonCodec).writeList(request, response, readers, ReaderDto.class);
     }
 
     @Test
     void doGet_whenExistAndPathInfoIsSlash_thenReturnList() throws Exception {
-        final String result = "all readers";
         final List<ReaderDto> readers = List.of(READER_DTO_1, READER_DTO_2, READER_DTO_3);
         doReturn("/").when(request).getPathInfo();
-        doReturn(readers).when(readerService).getAll();
-        doReturn(result).when(objectMapper).writeValueAsString(readers);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(readers).when(readerService).getAll(null);
 
         readerServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(readerService).getAll();
-        verify(objectMapper).writeValueAsString(readers);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(readerService).getAll(null);
+        verify(jsonCodec).writeList(request, response, readers, ReaderDto.class);
+    }
+
+    @Test
+    void doGet_whenPageParameters_thenReturnPage() throws Exception {
+        final PageDto<ReaderDto> page = new PageDto<>(List.of(READER_DTO_2, READER_DTO_3), 3L);
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("fields");
+        doReturn("1").when(request).getParameter("after");
+        doReturn("2").when(request).getParameter("limit");
+        doReturn(page).when(readerService).getPage(1L, 2, null);
+
+        readerServlet.doGet(request, response);
+
+        verify(request).getPathInfo();
+        verify(readerService).getPage(1L, 2, null);
+        verify(readerService, never()).getAll(any());
+        verify(jsonCodec).writePage(request, response, page, ReaderDto.class);
+    }
+
+    @Test
+    void doGet_whenStreamParameter_thenWriteToOutputStream() throws Exception {
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("after");
+        doReturn(null).when(request).getParameter("limit");
+        doReturn("true").when(request).getParameter("stream");
+
+        readerServlet.doGet(request, response);
+
+        verify(jsonCodec).writeStream(eq(request), eq(response), eq(ReaderDto.class), any());
+        verify(readerService, never()).getAll(any());
+        verify(response, never()).getWriter();
+    }
+
+    @Test
+    void doGet_whenStreamFailsBeforeCommit_thenReturnError() throws Exception {
+        final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
+        doReturn(null).when(request).getPathInfo();
+        doReturn(null).when(request).getParameter("fields");
+        doReturn(null).when(request).getParameter("after");
+        doReturn(null).when(request).getParameter("limit");
+        doReturn("true").when(request).getParameter("stream");
+        doThrow(exception).when(jsonCodec).writeStream(eq(request), eq(response), eq(ReaderDto.class), any());
+        doReturn(printWriter).when(response).getWriter();
+
+        readerServlet.doGet(request, response);
+
+        verify(response).reset();
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
+        verify(printWriter).write(EXCEPTION_STRING);
     }
 
     @Test
     void doGet_whenValidId_thenReaderDto() throws Exception {
         final Long readerId = 1L;
-        final String result = "readerDto 1";
         doReturn("/1").when(request).getPathInfo();
-        doReturn(READER_DTO_1).when(readerService).getById(readerId);
-        doReturn(result).when(objectMapper).writeValueAsString(READER_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
+        doReturn(new VersionedDto<>(READER_DTO_1, "740")).when(readerService).getVersionedById(readerId, null);
 
         readerServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(readerService).getById(readerId);
-        verify(objectMapper).writeValueAsString(READER_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(response).setHeader("ETag", "\"740\"");
+        verify(readerService).getVersionedById(readerId, null);
+        verify(jsonCodec).write(request, response, READER_DTO_1);
+    }
+
+    @Test
+    void doGet_whenIfNoneMatchHasETag_thenNotModified() throws Exception {
+        final Long readerId = 1L;
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(new VersionedDto<>(READER_DTO_1, "740")).when(readerService).getVersionedById(readerId, null);
+        doReturn(null).when(request).getHeader("Accept");
+        doReturn("W/\"739\", \"740\"").when(request).getHeader("If-None-Match");
+
+        readerServlet.doGet(request, response);
+
+        verify(request).getPathInfo();
+        verify(response).setHeader("ETag", "\"740\"");
+        verify(response).setStatus(SC_NOT_MODIFIED);
+        verify(readerService).getVersionedById(readerId, null);
+        verifyNoInteractions(jsonCodec);
     }
 
     @Test
@@ -122,7 +175,7 @@ class ReaderServletTest {
         final Long readerId = 666L;
         final NotFoundException notFoundException = new NotFoundException(NOT_FOUNT_STRING);
         doReturn("/666").when(request).getPathInfo();
-        doThrow(notFoundException).when(readerService).getById(readerId);
+        doThrow(notFoundException).when(readerService).getVersionedById(readerId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doReturn(printWriter).when(response).getWriter();
@@ -131,7 +184,7 @@ class ReaderServletTest {
         readerServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(readerService).getById(readerId);
+        verify(readerService).getVersionedById(readerId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).getWriter();
@@ -143,7 +196,7 @@ class ReaderServletTest {
         final Long readerId = 2L;
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
         doReturn("/2").when(request).getPathInfo();
-        doThrow(exception).when(readerService).getById(readerId);
+        doThrow(exception).when(readerService).getVersionedById(readerId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         doReturn(printWriter).when(response).getWriter();
@@ -152,7 +205,7 @@ class ReaderServletTest {
         readerServlet.doGet(request, response);
 
         verify(request).getPathInfo();
-        verify(readerService).getById(readerId);
+        verify(readerService).getVersionedById(readerId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         verify(response).getWriter();
@@ -163,63 +216,50 @@ class ReaderServletTest {
 
     @Test
     void doPost_whenValidJsonAndPathInfoIsNull_thenReaderDto() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
-        final String result = "new readerDto";
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
         doReturn(null).when(request).getPathInfo();
         doReturn(READER_DTO_1).when(readerService).save(READER_DTO_1);
-        doReturn(result).when(objectMapper).writeValueAsString(READER_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
 
         readerServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(request).getPathInfo();
         verify(readerService).save(READER_DTO_1);
-        verify(objectMapper).writeValueAsString(READER_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(jsonCodec).write(request, response, READER_DTO_1);
     }
 
     @Test
     void doPost_whenValidJsonAndPathInfoIsSlash_thenReaderDto() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
-        final String result = "new readerDto";
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
         doReturn("/").when(request).getPathInfo();
         doReturn(READER_DTO_1).when(readerService).save(READER_DTO_1);
-        doReturn(result).when(objectMapper).writeValueAsString(READER_DTO_1);
-        doNothing().when(response).setContentType(APPLICATION_JSON);
-        doReturn(printWriter).when(response).getWriter();
-        doNothing().when(printWriter).write(result);
 
         readerServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(request).getPathInfo();
         verify(readerService).save(READER_DTO_1);
-        verify(objectMapper).writeValueAsString(READER_DTO_1);
-        verify(response).setContentType(APPLICATION_JSON);
-        verify(response).getWriter();
-        verify(printWriter).write(result);
+        verify(jsonCodec).write(request, response, READER_DTO_1);
+    }
+
+    @Test
+    void doPost_whenBatch_thenIdsInOrder() throws Exception {
+        final List<ReaderDto> readerDtos = List.of(READER_DTO_1, READER_DTO_2);
+        final List<Long> ids = List.of(4L, 5L);
+        doReturn("/batch").when(request).getPathInfo();
+        doReturn(readerDtos).when(jsonCodec).readList(request, ReaderDto.class);
+        doReturn(ids).when(readerService).saveAll(readerDtos);
+
+        readerServlet.doPost(request, response);
+
+        verify(jsonCodec).readList(request, ReaderDto.class);
+        verify(readerService).saveAll(readerDtos);
+        verify(readerService, never()).save(any());
+        verify(jsonCodec).writeIds(request, response, ids);
     }
 
     @Test
     void doPost_whenWrongUrl_thenUrlErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
         doReturn("/wrong").when(request).getPathInfo();
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -227,7 +267,7 @@ class ReaderServletTest {
 
         readerServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verifyNoInteractions(jsonCodec);
         verify(request).getPathInfo();
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -236,12 +276,8 @@ class ReaderServletTest {
 
     @Test
     void doPost_whenInvalidJson_thenThrowJsonMappingException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final JsonMappingException jsonMappingException = new JsonMappingException(JSON_EXCEPTION_STRING);
-        final Stream<String> stream = Stream.of("{", "invalid", "json", "of", "readerDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doThrow(jsonMappingException).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doThrow(jsonMappingException).when(jsonCodec).read(request, ReaderDto.class);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doReturn(printWriter).when(response).getWriter();
@@ -249,9 +285,7 @@ class ReaderServletTest {
 
         readerServlet.doPost(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).getWriter();
@@ -259,14 +293,25 @@ class ReaderServletTest {
 
     }
 
+    @Test
+    void doPost_whenBodyTooLarge_thenPayloadTooLargeError() throws Exception {
+        final PayloadTooLargeException exception = new PayloadTooLargeException(TOO_LARGE_STRING);
+        doThrow(exception).when(jsonCodec).read(request, ReaderDto.class);
+        doReturn(printWriter).when(response).getWriter();
+
+        readerServlet.doPost(request, response);
+
+        verify(jsonCodec).read(request, ReaderDto.class);
+        verify(readerService, never()).save(any());
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(response).setStatus(SC_REQUEST_ENTITY_TOO_LARGE);
+        verify(printWriter).write(TOO_LARGE_STRING);
+    }
+
     @Test
     void doPost_whenInternalError_thenThrowException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
         doReturn(null).when(request).getPathInfo();
         doThrow(exception).when(readerService).save(READER_DTO_1);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -276,7 +321,7 @@ class ReaderServletTest {
 
         readerServlet.doPost(request, response);
 
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(request).getPathInfo();
         verify(readerService).save(READER_DTO_1);
         verify(response).setContentType(TEXT_PLAIN);
@@ -289,25 +334,19 @@ class ReaderServletTest {
 
     @Test
     void doPut_whenValidJsonAndId_thenReturnTrue() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
         final Long readerId = 1L;
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
         doReturn("/1").when(request).getPathInfo();
-        doReturn(true).when(readerService).update(READER_DTO_1, readerId);
+        doReturn(true).when(readerService).update(READER_DTO_1, readerId, null);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
         doNothing().when(printWriter).write(UPDATING_RESULT + true);
 
         readerServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(request).getPathInfo();
-        verify(readerService).update(READER_DTO_1, readerId);
+        verify(readerService).update(READER_DTO_1, readerId, null);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
         verify(printWriter).write(UPDATING_RESULT + true);
@@ -315,11 +354,7 @@ class ReaderServletTest {
 
     @Test
     void doPut_whenValidJsonButPathInfoIsNull_thenIdErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
         doReturn(null).when(request).getPathInfo();
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -328,9 +363,7 @@ class ReaderServletTest {
 
         readerServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(request).getPathInfo();
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
@@ -340,11 +373,7 @@ class ReaderServletTest {
 
     @Test
     void doPut_whenValidJsonButPathInfoIsSlash_thenIdErrorString() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
         doReturn("/").when(request).getPathInfo();
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
@@ -353,9 +382,7 @@ class ReaderServletTest {
 
         readerServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(request).getPathInfo();
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
@@ -365,12 +392,8 @@ class ReaderServletTest {
 
     @Test
     void doPut_whenInvalidJson_thenThrowJsonMappingException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
-        final Stream<String> stream = Stream.of("{", "invalid", "json", "of", "readerDto", "}");
         final JsonMappingException jsonMappingException = new JsonMappingException(JSON_EXCEPTION_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doThrow(jsonMappingException).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doThrow(jsonMappingException).when(jsonCodec).read(request, ReaderDto.class);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -378,9 +401,7 @@ class ReaderServletTest {
 
         readerServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -389,15 +410,11 @@ class ReaderServletTest {
 
     @Test
     void doPut_whenInvalidId_thenThrowNotFoundException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final Long readerId = 666L;
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
         final NotFoundException notFoundException = new NotFoundException(NOT_FOUNT_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
         doReturn("/666").when(request).getPathInfo();
-        doThrow(notFoundException).when(readerService).update(READER_DTO_1, readerId);
+        doThrow(notFoundException).when(readerService).update(READER_DTO_1, readerId, null);
         doNothing().when(response).setStatus(SC_BAD_REQUEST);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -405,28 +422,37 @@ class ReaderServletTest {
 
         readerServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(request).getPathInfo();
-        verify(readerService).update(READER_DTO_1, readerId);
+        verify(readerService).update(READER_DTO_1, readerId, null);
         verify(response).setStatus(SC_BAD_REQUEST);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
         verify(printWriter).write(NOT_FOUNT_STRING);
     }
 
+    @Test
+    void doPut_whenUpdatedConcurrently_thenConflict() throws Exception {
+        final Long readerId = 1L;
+        final ConflictException conflictException = new ConflictException(CONFLICT_STRING);
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doThrow(conflictException).when(readerService).update(READER_DTO_1, readerId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        readerServlet.doPut(request, response);
+
+        verify(response).setStatus(SC_CONFLICT);
+        verify(printWriter).write(CONFLICT_STRING);
+    }
+
     @Test
     void doPut_whenInternalError_thenThrowException() throws Exception {
-        BufferedReader bufferedReader = mock(BufferedReader.class);
         final Long readerId = 2L;
-        final Stream<String> stream = Stream.of("{", "valid", "json", "of", "readerDto", "}");
         final RuntimeException exception = new RuntimeException(EXCEPTION_STRING);
-        doReturn(bufferedReader).when(request).getReader();
-        doReturn(stream).when(bufferedReader).lines();
-        doReturn(READER_DTO_1).when(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
         doReturn("/2").when(request).getPathInfo();
-        doThrow(exception).when(readerService).update(READER_DTO_1, readerId);
+        doThrow(exception).when(readerService).update(READER_DTO_1, readerId, null);
         doNothing().when(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         doNothing().when(response).setContentType(TEXT_PLAIN);
         doReturn(printWriter).when(response).getWriter();
@@ -434,11 +460,9 @@ class ReaderServletTest {
 
         readerServlet.doPut(request, response);
 
-        verify(request).getReader();
-        verify(bufferedReader).lines();
-        verify(objectMapper).readValue(anyString(), eq(ReaderDto.class));
+        verify(jsonCodec).read(request, ReaderDto.class);
         verify(request).getPathInfo();
-        verify(readerService).update(READER_DTO_1, readerId);
+        verify(readerService).update(READER_DTO_1, readerId, null);
         verify(response).setStatus(SC_INTERNAL_SERVER_ERROR);
         verify(response).setContentType(TEXT_PLAIN);
         verify(response).getWriter();
@@ -447,6 +471,54 @@ class ReaderServletTest {
 
 
 
+    @Test
+    void doPatch_whenValidJsonAndId_thenReturnTrue() throws Exception {
+        final Long readerId = 1L;
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doReturn(true).when(readerService).patch(READER_DTO_1, readerId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        readerServlet.doPatch(request, response);
+
+        verify(readerService).patch(READER_DTO_1, readerId, null);
+        verify(readerService, never()).update(any(), any(), any());
+        verify(response).setContentType(TEXT_PLAIN);
+        verify(printWriter).write(UPDATING_RESULT + true);
+    }
+
+    @Test
+    void doPatch_whenNothingToUpdate_thenBadRequest() throws Exception {
+        final Long readerId = 1L;
+        final ReaderDto readerDto = new ReaderDto();
+        doReturn(readerDto).when(jsonCodec).read(request, ReaderDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doThrow(new IllegalArgumentException("ERROR: nothing to update")).when(readerService).patch(readerDto, readerId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        readerServlet.doPatch(request, response);
+
+        verify(response).setStatus(SC_BAD_REQUEST);
+        verify(printWriter).write("ERROR: nothing to update");
+    }
+
+    @Test
+    void doPatch_whenChangedConcurrentlyWithoutIfMatch_thenConflict() throws Exception {
+        final Long readerId = 1L;
+        final ConflictException conflictException = new ConflictException(CONFLICT_STRING);
+        doReturn(READER_DTO_1).when(jsonCodec).read(request, ReaderDto.class);
+        doReturn("/1").when(request).getPathInfo();
+        doThrow(conflictException).when(readerService).patch(READER_DTO_1, readerId, null);
+        doReturn(printWriter).when(response).getWriter();
+
+        readerServlet.doPatch(request, response);
+
+        verify(response).setStatus(SC_CONFLICT);
+        verify(printWriter).write(CONFLICT_STRING);
+    }
+
+
+
     @Test
     void doDelete_whenValidId_thenSuccessString() throws Exception {
         final Long readerId = 1L;
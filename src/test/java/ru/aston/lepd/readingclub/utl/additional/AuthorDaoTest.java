@@ -12,6 +12,7 @@ import ru.aston.lepd.readingclub.dao.BookDao;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.util.DataSource;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -35,6 +36,8 @@ class AuthorDaoTest {
     @Mock
     private PreparedStatement preparedStatement;
     @Mock
+    private Array idArray;
+    @Mock
     private AuthorBookDao authorBookDao;
     @Mock
     private BookDao bookDao;
@@ -130,6 +133,7 @@ class AuthorDaoTest {
         doNothing().when(preparedStatement).setString(1, AUTHOR_1.getFullName());
         doNothing().when(preparedStatement).setString(2, AUTHOR_1.getPersonalInfo());
         doNothing().when(preparedStatement).setLong(3, AUTHOR_1.getId());
+        doNothing().when(preparedStatement).setLong(4, AUTHOR_1.getVersion());
         doReturn(0).when(preparedStatement).executeUpdate();
 
         boolean actualResult = authorDao.update(AUTHOR_1);
@@ -138,6 +142,7 @@ class AuthorDaoTest {
         verify(preparedStatement).setString(1, AUTHOR_1.getFullName());
         verify(preparedStatement).setString(2, AUTHOR_1.getPersonalInfo());
         verify(preparedStatement).setLong(3, AUTHOR_1.getId());
+        verify(preparedStatement).setLong(4, AUTHOR_1.getVersion());
         verify(preparedStatement).executeUpdate();
         assertFalse(actualResult);
     }
@@ -166,13 +171,14 @@ class AuthorDaoTest {
     void isContainById_whenError_thenThrowException() throws SQLException {
         final Long authorId = 3L;
         doReturn(preparedStatement).when(connection).prepareStatement(anyString());
-        doNothing().when(preparedStatement).setLong(1, authorId);
+        doReturn(idArray).when(connection).createArrayOf("bigint", new Object[]{authorId});
+        doNothing().when(preparedStatement).setArray(1, idArray);
         doThrow(SQLException.class).when(preparedStatement).executeQuery();
 
         assertThrows(DaoException.class, () -> authorDao.isContainById(authorId));
 
         verify(connection).prepareStatement(anyString());
-        verify(preparedStatement).setLong(1, authorId);
+        verify(preparedStatement).setArray(1, idArray);
         verify(preparedStatement).executeQuery();
     }
 
@@ -93,6 +93,22 @@ class BookDaoTest {
 
 
 
+    @Test
+    void findAll_whenExist_thenReaderIsNotQueriedSeparately() throws SQLException {
+        doReturn(preparedStatement).when(connection).prepareStatement(anyString());
+        doReturn(resultSet).when(preparedStatement).executeQuery();
+        doReturn(true, true, false).when(resultSet).next();
+
+        bookDao.findAll();
+
+        verify(connection).prepareStatement(anyString());
+        verify(preparedStatement).executeQuery();
+        verify(resultSet, times(3)).next();
+        verifyNoInteractions(readerDao);
+    }
+
+
+
     @Test
     void findAllByReaderId_whenError_ThrowException() throws SQLException {
         final Long readerId = 3L;
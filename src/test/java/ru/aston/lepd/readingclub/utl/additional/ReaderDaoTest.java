@@ -11,6 +11,7 @@ import ru.aston.lepd.readingclub.dao.ReaderDao;
 import ru.aston.lepd.readingclub.exception.DaoException;
 import ru.aston.lepd.readingclub.util.DataSource;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -34,6 +35,8 @@ class ReaderDaoTest {
     @Mock
     private PreparedStatement preparedStatement;
     @Mock
+    private Array idArray;
+    @Mock
     private BookDao bookDao;
     @InjectMocks
     private ReaderDao readerDao;
@@ -152,13 +155,14 @@ class ReaderDaoTest {
     void isContainById_whenError_ThrowException() throws SQLException {
         final Long readerId = 3L;
         doReturn(preparedStatement).when(connection).prepareStatement(anyString());
-        doNothing().when(preparedStatement).setLong(1, readerId);
+        doReturn(idArray).when(connection).createArrayOf("bigint", new Object[]{readerId});
+        doNothing().when(preparedStatement).setArray(1, idArray);
         doThrow(SQLException.class).when(preparedStatement).executeQuery();
 
         assertThrows(DaoException.class, () -> readerDao.isContainById(readerId));
 
         verify(connection).prepareStatement(anyString());
-        verify(preparedStatement).setLong(1, readerId);
+        verify(preparedStatement).setArray(1, idArray);
         verify(preparedStatement).executeQuery();
     }
 